@@ -53,6 +53,7 @@ import it.eng.idra.management.FederationCore;
 import it.eng.idra.management.ODMSManager;
 import it.eng.idra.management.RdfPrefixManager;
 import it.eng.idra.management.StatisticsManager;
+import it.eng.idra.search.FederatedSearch;
 import it.eng.idra.utils.GsonUtil;
 import it.eng.idra.utils.GsonUtilException;
 import it.eng.idra.utils.PropertyManager;
@@ -63,6 +64,7 @@ import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -81,9 +83,12 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -99,6 +104,9 @@ public class AdministrationAPI {
 
 	private static Logger logger = LogManager.getLogger(AdministrationAPI.class);
 
+	// Seconds after which a client should ask again for a dump being generated
+	private static final int DUMP_RETRY_AFTER = 60;
+
 	@GET
 	@Path("/version")
 	@Produces("application/json")
@@ -293,16 +301,6 @@ public class AdministrationAPI {
 				throw new ODMSCatalogueChangeActiveStateException("Node " + node.getHost() + " already active");
 			}
 
-			if (node.getNodeType().equals(ODMSCatalogueType.DCATDUMP)) {
-				if (StringUtils.isBlank(node.getDumpURL()) && StringUtils.isBlank(node.getDumpString())
-						&& StringUtils.isNotBlank(node.getDumpFilePath())) {
-
-					// Read the content of the file from the file system
-					String dumpString = new String(Files.readAllBytes(Paths.get(node.getDumpFilePath())));
-					node.setDumpString(dumpString);
-				}
-			}
-
 			if (node.getNodeType().equals(ODMSCatalogueType.ORION)) {
 				OrionCatalogueConfiguration conf = (OrionCatalogueConfiguration) node.getAdditionalConfig();
 				if (StringUtils.isBlank(conf.getOrionDatasetDumpString())
@@ -939,6 +937,36 @@ public class AdministrationAPI {
 
 	}
 
+	@GET
+	@Secured
+	@Path("/cache/indexing")
+	@Produces("application/json")
+	public Response getCacheIndexingStatistics() {
+
+		try {
+			JSONObject j = new JSONObject(MetadataCacheManager.getIndexingStatistics());
+			return Response.status(Response.Status.OK).entity(j.toString()).build();
+		} catch (Exception e) {
+			return handleErrorResponse500(e);
+		}
+
+	}
+
+	@GET
+	@Secured
+	@Path("/cache/search")
+	@Produces("application/json")
+	public Response getSearchCacheStatistics() {
+
+		try {
+			JSONObject j = new JSONObject(FederatedSearch.getSearchCacheStatistics());
+			return Response.status(Response.Status.OK).entity(j.toString()).build();
+		} catch (Exception e) {
+			return handleErrorResponse500(e);
+		}
+
+	}
+
 	@GET
 	@Secured
 	@Path("/cataloguesStatMinDate")
@@ -1182,19 +1210,20 @@ public class AdministrationAPI {
 	@Secured
 	@Path("/dcat-ap/dump/download")
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
-	public Response downloadGlobalDCATAPDump(@Context HttpServletRequest httpRequest,
-			@DefaultValue("false") @QueryParam("forceDump") Boolean forceDump,
+	public Response downloadGlobalDCATAPDump(@Context HttpServletRequest httpRequest, @Context Request request,
+			@Context HttpHeaders headers, @DefaultValue("false") @QueryParam("forceDump") Boolean forceDump,
 			@DefaultValue("false") @QueryParam("zip") Boolean returnZip) {
 
 		try {
 
-			return Response
-					.ok(DCATAPDumpManager.getDatasetDumpFromFile(null, forceDump, returnZip),
-							MediaType.APPLICATION_OCTET_STREAM)
+			return dumpFileResponse(request, headers, null, forceDump, returnZip)
+					.type(MediaType.APPLICATION_OCTET_STREAM)
 					.header("content-disposition", "attachment; filename = " + DCATAPDumpManager.globalDumpFileName
 							+ (returnZip ? ".zip" : ""))
 					.build();
 
+		} catch (NoSuchFileException e) {
+			return handleDumpNotReadyResponse(e, null);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -1205,13 +1234,15 @@ public class AdministrationAPI {
 	@Secured
 	@Path("/dcat-ap/dump")
 	@Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-	public Response getGlobalDCATAPDump(@Context HttpServletRequest httpRequest,
-			@DefaultValue("false") @QueryParam("forceDump") Boolean forceDump) {
+	public Response getGlobalDCATAPDump(@Context HttpServletRequest httpRequest, @Context Request request,
+			@Context HttpHeaders headers, @DefaultValue("false") @QueryParam("forceDump") Boolean forceDump) {
 
 		try {
 
-			return Response.ok(DCATAPDumpManager.getDatasetDumpFromFile(null, forceDump, false)).build();
+			return dumpFileResponse(request, headers, null, forceDump, false).build();
 
+		} catch (NoSuchFileException e) {
+			return handleDumpNotReadyResponse(e, null);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -1222,21 +1253,27 @@ public class AdministrationAPI {
 	@Secured
 	@Path("/dcat-ap/dump/download/{nodeID}")
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
-	public Response downloadCatalogueDCATAPDump(@Context HttpServletRequest httpRequest,
-			@PathParam("nodeID") String nodeID, @DefaultValue("false") @QueryParam("forceDump") Boolean forceDump,
+	public Response downloadCatalogueDCATAPDump(@Context HttpServletRequest httpRequest, @Context Request request,
+			@Context HttpHeaders headers, @PathParam("nodeID") String nodeID,
+			@DefaultValue("false") @QueryParam("forceDump") Boolean forceDump,
 			@DefaultValue("false") @QueryParam("zip") Boolean returnZip) {
 
 		try {
 
-			return Response
-					.ok(DCATAPDumpManager.getDatasetDumpFromFile(nodeID, forceDump, returnZip),
-							MediaType.APPLICATION_OCTET_STREAM)
+			return dumpFileResponse(request, headers, nodeID, forceDump, returnZip)
+					.type(MediaType.APPLICATION_OCTET_STREAM)
 					.header("content-disposition",
 							"attachment; filename = " + DCATAPDumpManager.globalDumpFileName
 									+ (StringUtils.isBlank(nodeID) ? "" : new String("_node_" + nodeID))
 									+ (returnZip ? ".zip" : ""))
 					.build();
 
+		} catch (NumberFormatException e) {
+			return handleBadRequestErrorResponse(e);
+		} catch (ODMSCatalogueNotFoundException e) {
+			return handleNodeNotFoundErrorResponse(e, nodeID);
+		} catch (NoSuchFileException e) {
+			return handleDumpNotReadyResponse(e, nodeID);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -1247,19 +1284,50 @@ public class AdministrationAPI {
 	@Secured
 	@Path("/dcat-ap/dump/{nodeID}")
 	@Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
-	public Response getCatalogueDCATAPDump(@Context HttpServletRequest httpRequest,
-			@DefaultValue("false") @QueryParam("forceDump") Boolean forceDump, @PathParam("nodeID") String nodeID) {
+	public Response getCatalogueDCATAPDump(@Context HttpServletRequest httpRequest, @Context Request request,
+			@Context HttpHeaders headers, @DefaultValue("false") @QueryParam("forceDump") Boolean forceDump,
+			@PathParam("nodeID") String nodeID) {
 
 		try {
 
-			return Response.ok(DCATAPDumpManager.getDatasetDumpFromFile(nodeID, forceDump, false)).build();
+			return dumpFileResponse(request, headers, nodeID, forceDump, false).build();
 
+		} catch (NumberFormatException e) {
+			return handleBadRequestErrorResponse(e);
+		} catch (ODMSCatalogueNotFoundException e) {
+			return handleNodeNotFoundErrorResponse(e, nodeID);
+		} catch (NoSuchFileException e) {
+			return handleDumpNotReadyResponse(e, nodeID);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
 
 	}
 
+	/**
+	 * Serves the dump file of the passed node or, if the node ID is blank, of the
+	 * whole federation. Dumps are only written by the dump job: forceDump asks the
+	 * job for a new dump while the current one is served, and a missing dump is
+	 * requested to the job and reported as not ready
+	 */
+	private static ResponseBuilder dumpFileResponse(Request request, HttpHeaders headers, String nodeID,
+			boolean forceDump, boolean zip) throws Exception {
+
+		if (StringUtils.isNotBlank(nodeID))
+			ODMSManager.getODMSCatalogue(Integer.parseInt(nodeID));
+
+		if (forceDump)
+			DCATAPDumpManager.requestDump(nodeID);
+
+		try {
+			return FileResponseBuilder.build(request, headers, DCATAPDumpManager.getDumpFile(nodeID, zip),
+					zip ? null : DCATAPDumpManager.getGzipDumpFile(nodeID));
+		} catch (NoSuchFileException e) {
+			DCATAPDumpManager.requestDump(nodeID);
+			throw e;
+		}
+	}
+
 	@DELETE
 	@Path("/catalogues/{nodeID}/dataset/{datasetID}/distribution/{distributionID}/deleteDatalet/{dataletID}")
 	@Secured
@@ -1359,6 +1427,17 @@ public class AdministrationAPI {
 				.build();
 	}
 
+	private static Response handleDumpNotReadyResponse(Exception e, String nodeId) {
+
+		logger.info("Dump" + (StringUtils.isNotBlank(nodeId) ? (" of node " + nodeId) : "") + " not ready: "
+				+ e.getLocalizedMessage());
+		ErrorResponse error = new ErrorResponse(String.valueOf(Response.Status.SERVICE_UNAVAILABLE.getStatusCode()),
+				e.getMessage(), e.getClass().getSimpleName(),
+				"The dump is being generated, please retry later");
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.APPLICATION_JSON)
+				.header(HttpHeaders.RETRY_AFTER, DUMP_RETRY_AFTER).entity(error.toJson()).build();
+	}
+
 	private static Response handleNodeHostNotFoundErrorResponse(Exception e, String nodeHost) {
 
 		e.printStackTrace();
@@ -17,6 +17,9 @@
  ******************************************************************************/
 package it.eng.idra.api;
 
+import it.eng.idra.authentication.AuthenticationManager;
+import it.eng.idra.authentication.FiwareIDMAuthenticationManager;
+import it.eng.idra.authentication.fiware.model.Token;
 import it.eng.idra.beans.Datalet;
 import it.eng.idra.beans.ErrorResponse;
 import it.eng.idra.beans.EuroVocLanguage;
@@ -40,6 +43,7 @@ import it.eng.idra.beans.orion.OrionDistributionConfig;
 import it.eng.idra.beans.search.SearchDateFilter;
 import it.eng.idra.beans.search.SearchEuroVocFilter;
 import it.eng.idra.beans.search.SearchFilter;
+import it.eng.idra.beans.search.SearchParameters;
 import it.eng.idra.beans.search.SearchRequest;
 import it.eng.idra.beans.search.SearchResult;
 import it.eng.idra.beans.search.SparqlSearchRequest;
@@ -54,7 +58,7 @@ import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.GsonUtil;
 import it.eng.idra.utils.GsonUtilException;
 import it.eng.idra.utils.PropertyManager;
-import it.eng.idra.utils.RedirectFilter;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
@@ -84,12 +88,10 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -98,6 +100,11 @@ import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.jena.query.QueryParseException;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -105,13 +112,11 @@ import org.json.JSONObject;
 import org.apache.logging.log4j.*;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.tika.parser.txt.CharsetDetector;
-import org.glassfish.jersey.client.ClientProperties;
 
 @Path("/client")
 public class ClientAPI {
 
 	private static Logger logger = LogManager.getLogger(ClientAPI.class);
-	private static Client client;
 
 	@POST
 	@Path("/search")
@@ -227,7 +232,9 @@ public class ClientAPI {
 
 				// Call FederatedSearch method in order to perform the actual
 				// search
-				SearchResult result = FederatedSearch.search(searchParameters);
+				SearchParameters parameters = SearchParameters.fromMap(searchParameters);
+				parameters.setSpatialFilter(request.getSpatialFilter());
+				SearchResult result = FederatedSearch.search(parameters, !isAdministrator(httpRequest));
 
 				// Adds search statistics
 				StatisticsManager.searchStatistics(ipAddress, liveSearch ? "live" : "cache");
@@ -249,6 +256,8 @@ public class ClientAPI {
 
 		} catch (EuroVocTranslationNotFoundException e) {
 			return handleEuroVocTranslationNotFoundErrorResponse(e);
+		} catch (IllegalArgumentException e) {
+			return handleBadRequestErrorResponse(e);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -355,7 +364,9 @@ public class ClientAPI {
 
 				// Call FederatedSearch method in order to perform the actual
 				// search
-				SearchResult result = FederatedSearch.search(searchParameters);
+				SearchParameters parameters = SearchParameters.fromMap(searchParameters);
+				parameters.setSpatialFilter(request.getSpatialFilter());
+				SearchResult result = FederatedSearch.search(parameters, !isAdministrator(httpRequest));
 				String dcatResult = DCATAPSerializer.searchResultToDCATAP(result, format,
 						profile != null ? profile : DCATAPProfile.DCATAP, DCATAPWriteType.STRING);
 				// Adds search statistics
@@ -377,6 +388,8 @@ public class ClientAPI {
 
 		} catch (EuroVocTranslationNotFoundException e) {
 			return handleEuroVocTranslationNotFoundErrorResponse(e);
+		} catch (IllegalArgumentException e) {
+			return handleBadRequestErrorResponse(e);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -493,7 +506,9 @@ public class ClientAPI {
 				logger.info("Rows :" + request.getRows());
 				logger.info("Start :" + request.getStart());
 
-				int result = FederatedSearch.countDataset(searchParameters);
+				SearchParameters parameters = SearchParameters.fromMap(searchParameters);
+				parameters.setSpatialFilter(request.getSpatialFilter());
+				int result = FederatedSearch.countDataset(parameters, !isAdministrator(httpRequest));
 
 				JSONObject res = new JSONObject();
 				res.put("count", result);
@@ -507,6 +522,8 @@ public class ClientAPI {
 		} catch (GsonUtilException e) {
 			return handleBadRequestErrorResponse(e);
 
+		} catch (IllegalArgumentException e) {
+			return handleBadRequestErrorResponse(e);
 		} catch (Exception e) {
 			return handleErrorResponse500(e);
 		}
@@ -561,41 +578,47 @@ public class ClientAPI {
 		
 		logger.info("Download file API: "+downloadFile);
 		String compiledUri = url;
-		//client = ClientBuilder.newBuilder().readTimeout(10, TimeUnit.SECONDS).build();
 		int timeout = Integer.parseInt(PropertyManager.getProperty(IdraProperty.PREVIEW_TIMEOUT))*1000;
-		client = ClientBuilder.newClient().register(RedirectFilter.class);
-		client.property(ClientProperties.CONNECT_TIMEOUT, timeout);
-	    client.property(ClientProperties.READ_TIMEOUT,    timeout);
+		// The file is relayed as sent by the server, the pooled client follows the redirects
+		HttpGet fileRequest = new HttpGet(compiledUri);
+		fileRequest.setConfig(HttpClientManager.customRequestConfig().setConnectTimeout(timeout)
+				.setSocketTimeout(timeout).setContentCompressionEnabled(false).build());
+		CloseableHttpResponse request = null;
+		boolean streamed = false;
 	    
 		try {
-			WebTarget webTarget = client.target(compiledUri);
-			Response request = webTarget.request().get();
+			request = HttpClientManager.execute(fileRequest);
+			final HttpEntity entity = request.getEntity();
 			logger.info("File uri: " + compiledUri);
 			logger.info("File format: " + format);
-			ResponseBuilder responseBuilder = Response.status(request.getStatus());
-			if(downloadFile) {
+			ResponseBuilder responseBuilder = Response.status(request.getStatusLine().getStatusCode());
+			if(downloadFile && entity != null) {
 				
 				if(StringUtils.isNotBlank(format) && format.toLowerCase().contains("csv")) {
-					InputStream stream = new BufferedInputStream((InputStream) request.getEntity());
+					InputStream stream = new BufferedInputStream(entity.getContent());
 					CharsetDetector charDetector = new CharsetDetector();
 					charDetector.setText(stream);
 					responseBuilder.entity(new InputStreamReader(stream,charDetector.detect().getName()));
 				}else {
+					final CloseableHttpResponse fileResponse = request;
 					responseBuilder.entity(new StreamingOutput() {
 						@Override
 						public void write(OutputStream output) throws IOException, WebApplicationException {
-							// TODO Auto-generated method stub
-							IOUtils.copy((InputStream) request.getEntity(), output);
-//							output.flush();
+							try {
+								IOUtils.copy(entity.getContent(), output);
+							} finally {
+								fileResponse.close();
+							}
 							output.close();
 						}
 					});
 				}
+				streamed = true;
 			}
 			
-			MultivaluedMap<String, Object> headers = request.getHeaders();
+			MultivaluedMap<String, Object> headers = getHeaders(request);
 			Set<String> keys = headers.keySet();
-			logger.info("Status: " + request.getStatus());
+			logger.info("Status: " + request.getStatusLine().getStatusCode());
 			
 			logger.debug(compiledUri);
 			
@@ -626,6 +649,7 @@ public class ClientAPI {
 					
 					if(dimension>previewLimit) {
 						responseBuilder = Response.status(Status.REQUEST_ENTITY_TOO_LARGE);
+						streamed = false;
 					}
 					
 //					if(dimension==0L || dimension>previewLimit) {
@@ -636,6 +660,7 @@ public class ClientAPI {
 //					System.out.println("Unable to retrieve the dimension of the element");
 					logger.error("Unable to retrieve the dimension of the element");
 					responseBuilder = Response.status(Status.REQUEST_ENTITY_TOO_LARGE);
+					streamed = false;
 				}
 				
 				
@@ -652,8 +677,9 @@ public class ClientAPI {
 			return handleErrorResponse500(e);
 
 		}finally {
-//			request.close();
-			client.close();
+			// The connection goes back to the pool once the relayed file is read
+			if (request != null && !streamed)
+				IOUtils.closeQuietly(request);
 		}
 
 	}
@@ -1090,40 +1116,42 @@ public class ClientAPI {
 								
 				String compiledUri=(!catalogue.getHost().endsWith("/")?catalogue.getHost():catalogue.getHost().substring(0, catalogue.getHost().length()-1))+(!catalogueConfig.isNgsild()?"/v2/entities":"/ngsi-ld/v1/entities")+"?"+distributionConfig.getQuery();
 				
-				client = ClientBuilder.newClient();
-
-				WebTarget webTarget = client.target(compiledUri);
-				Invocation.Builder builder = webTarget.request();
+				HttpGet builder = new HttpGet(compiledUri);
 				if(StringUtils.isNotBlank(distributionConfig.getFiwareService())) {
-					builder = builder.header("Fiware-Service",distributionConfig.getFiwareService());
+					builder.addHeader("Fiware-Service",distributionConfig.getFiwareService());
 				}
 				
 				if(StringUtils.isNotBlank(distributionConfig.getFiwareServicePath())) {
-					builder = builder.header("Fiware-ServicePath",distributionConfig.getFiwareServicePath());
+					builder.addHeader("Fiware-ServicePath",distributionConfig.getFiwareServicePath());
 				}
 				
 				if(catalogueConfig.isAuthenticated())
-					builder = builder.header("X-Auth-Token",catalogueConfig.getAuthToken());
+					builder.addHeader("X-Auth-Token",catalogueConfig.getAuthToken());
 				
-				Response request = builder.get();
-				ResponseBuilder responseBuilder = Response.status(request.getStatus());
-				final InputStream responseStream = (InputStream) request.getEntity();
+				final CloseableHttpResponse request = HttpClientManager.execute(builder);
+				ResponseBuilder responseBuilder = Response.status(request.getStatusLine().getStatusCode());
 				StreamingOutput output = new StreamingOutput() {
 					@Override
 					public void write(OutputStream out) throws IOException, WebApplicationException {
-						int length;
-						byte[] buffer = new byte[1024];
-						while ((length = responseStream.read(buffer)) != -1) {
-							out.write(buffer, 0, length);
+						try {
+							if (request.getEntity() == null)
+								return;
+							InputStream responseStream = request.getEntity().getContent();
+							int length;
+							byte[] buffer = new byte[1024];
+							while ((length = responseStream.read(buffer)) != -1) {
+								out.write(buffer, 0, length);
+							}
+							out.flush();
+						} finally {
+							request.close();
 						}
-						out.flush();
-						responseStream.close();
 					}
 				};
 
 				responseBuilder.entity(output);
 				
-				MultivaluedMap<String, Object> headers = request.getHeaders();
+				MultivaluedMap<String, Object> headers = getHeaders(request);
 				Set<String> keys = headers.keySet();
 				//logger.info("Status: " + request.getStatus());
 				
@@ -1141,7 +1169,7 @@ public class ClientAPI {
 		} catch(ODMSCatalogueNotFoundException e) {
 			err = new ErrorResponse(String.valueOf(Response.Status.NOT_FOUND.getStatusCode()), "Catalogues with id: "+nodeID+" not found", String.valueOf(Response.Status.NOT_FOUND.getStatusCode()), "Catalogues with id: "+nodeID+" not found");
 			return Response.status(Response.Status.NOT_FOUND).build();	
-		} catch (NumberFormatException | ODMSManagerException e) {
+		} catch (NumberFormatException | ODMSManagerException | IOException e) {
 			// TODO Auto-generated catch block
 			//e.printStackTrace();
 			return handleErrorResponse500(e);
@@ -1151,6 +1179,36 @@ public class ClientAPI {
 	}
 	
 	
+	/**
+	 * Returns the headers of a proxied response, keyed by their name
+	 */
+	private static MultivaluedMap<String, Object> getHeaders(HttpResponse response) {
+		MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
+		for (Header header : response.getAllHeaders())
+			headers.add(header.getName(), header.getValue());
+		return headers;
+	}
+
+	/**
+	 * Checks whether the request carries a valid administrator token, in which
+	 * case searches bypass the search result cache
+	 */
+	private static boolean isAdministrator(HttpServletRequest httpRequest) {
+		String authorizationHeader = httpRequest.getHeader(HttpHeaders.AUTHORIZATION);
+		if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer "))
+			return false;
+
+		String token = authorizationHeader.substring("Bearer".length()).trim();
+		try {
+			AuthenticationManager manager = AuthenticationManager.getActiveAuthenticationManager();
+			return manager.validateToken(
+					manager instanceof FiwareIDMAuthenticationManager ? new Token(token) : token);
+		} catch (Exception e) {
+			logger.debug("Search token not valid: " + e.getMessage());
+			return false;
+		}
+	}
+
 	private static Response handleErrorResponse500(Exception e) {
 
 		e.printStackTrace();
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.api;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Builds the responses that serve a file from disk without loading it in
+ * memory.
+ * 
+ * The file is copied to the response with FileChannel transfers and is
+ * described by its Content-Length, Last-Modified and a strong ETag derived from
+ * its size and modification time, which change whenever the file is rewritten.
+ * Conditional requests (If-None-Match, If-Modified-Since, If-Match) and single
+ * byte ranges (Range, If-Range) are supported. If a pre-compressed gzip variant
+ * of the file exists, it is served to the clients that accept the gzip
+ * encoding.
+ */
+final class FileResponseBuilder {
+
+	private static final long TRANSFER_CHUNK = 1024 * 1024;
+	private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+	private FileResponseBuilder() {
+	}
+
+	/**
+	 * @param request
+	 *            the request, to evaluate its preconditions
+	 * @param headers
+	 *            the request headers
+	 * @param file
+	 *            the file to serve
+	 * @param gzipFile
+	 *            the pre-compressed gzip variant of the file, or null
+	 * @return the response builder, to which the caller can add its own headers
+	 * @throws NoSuchFileException
+	 *             if the file does not exist
+	 * @throws IOException
+	 */
+	static ResponseBuilder build(Request request, HttpHeaders headers, Path file, Path gzipFile)
+			throws IOException {
+
+		boolean gzip = gzipFile != null && acceptsGzip(headers) && Files.isRegularFile(gzipFile);
+		Path served = gzip ? gzipFile : file;
+
+		BasicFileAttributes attributes = Files.readAttributes(served, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		EntityTag eTag = new EntityTag(
+				Long.toHexString(lastModified) + "-" + Long.toHexString(size) + (gzip ? "-gzip" : ""));
+
+		ResponseBuilder builder = request.evaluatePreconditions(new Date(lastModified), eTag);
+		if (builder != null)
+			return withValidators(builder, eTag, lastModified, gzipFile);
+
+		long start = 0, end = size - 1;
+		boolean partial = false;
+
+		String range = headers.getHeaderString("Range");
+		if (range != null && isIfRangeSatisfied(headers.getHeaderString("If-Range"), eTag, lastModified)) {
+			Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+			// Multiple ranges are not supported, the whole file is returned
+			if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+				try {
+					if (matcher.group(1).isEmpty()) {
+						// Suffix range, the last N bytes
+						long suffix = Long.parseLong(matcher.group(2));
+						start = suffix == 0 ? size : Math.max(0, size - suffix);
+					} else {
+						start = Long.parseLong(matcher.group(1));
+						if (!matcher.group(2).isEmpty())
+							end = Math.min(end, Long.parseLong(matcher.group(2)));
+					}
+					partial = true;
+				} catch (NumberFormatException e) {
+					// Values out of range, the Range header is ignored
+					start = 0;
+					end = size - 1;
+				}
+
+				if (partial && (start >= size || start > end))
+					return withValidators(Response.status(416), eTag, lastModified, gzipFile)
+							.header("Content-Range", "bytes */" + size);
+			}
+		}
+
+		long length = end - start + 1;
+		builder = partial ? Response.status(206).header("Content-Range", "bytes " + start + "-" + end + "/" + size)
+				: Response.ok();
+		if (gzip)
+			builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+		return withValidators(builder, eTag, lastModified, gzipFile).entity(transfer(served, start, length))
+				.header(HttpHeaders.CONTENT_LENGTH, length).header("Accept-Ranges", "bytes");
+	}
+
+	private static ResponseBuilder withValidators(ResponseBuilder builder, EntityTag eTag, long lastModified,
+			Path gzipFile) {
+		builder.tag(eTag).lastModified(new Date(lastModified));
+		if (gzipFile != null)
+			builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		return builder;
+	}
+
+	/*
+	 * The file is opened only when the response is written, so that no channel is
+	 * left open if the entity is never sent
+	 */
+	private static StreamingOutput transfer(Path file, long start, long length) {
+		return output -> {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				WritableByteChannel target = Channels.newChannel(output);
+				long position = start, remaining = length;
+				while (remaining > 0) {
+					long sent = channel.transferTo(position, Math.min(remaining, TRANSFER_CHUNK), target);
+					// The file was truncated while being sent
+					if (sent <= 0)
+						throw new IOException("Unexpected end of file " + file);
+					position += sent;
+					remaining -= sent;
+				}
+			}
+		};
+	}
+
+	private static boolean acceptsGzip(HttpHeaders headers) {
+		String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+		if (StringUtils.isBlank(acceptEncoding))
+			return false;
+
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if (!"gzip".equalsIgnoreCase(parts[0].trim()))
+				continue;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=") && param.substring(2).trim().matches("0(\\.0*)?"))
+					return false;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A Range is only honoured if the If-Range header, when present, matches the
+	 * current ETag or modification date of the file
+	 */
+	private static boolean isIfRangeSatisfied(String ifRange, EntityTag eTag, long lastModified) {
+		if (StringUtils.isBlank(ifRange))
+			return true;
+
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+			return ifRange.equals("\"" + eTag.getValue() + "\"");
+
+		try {
+			long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+					.toEpochMilli();
+			return date / 1000 == lastModified / 1000;
+		} catch (DateTimeParseException e) {
+			return false;
+		}
+	}
+
+}
@@ -1,6 +1,11 @@
 package it.eng.idra.api.ckan;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -12,8 +17,10 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -21,6 +28,8 @@ import org.apache.logging.log4j.Logger;
 import org.ckan.Dataset;
 import org.json.JSONObject;
 
+import com.google.gson.stream.JsonWriter;
+
 import it.eng.idra.beans.ckan.CKANErrorResponse;
 import it.eng.idra.beans.ckan.CKANSuccessResponse;
 import it.eng.idra.beans.dcat.DCATDataset;
@@ -29,6 +38,7 @@ import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSCatalogueNotFoundException;
 import it.eng.idra.beans.search.SearchResult;
 import it.eng.idra.cache.MetadataCacheManager;
+import it.eng.idra.cache.SolrCursor;
 import it.eng.idra.management.FederationCore;
 import it.eng.idra.search.FederatedSearch;
 import it.eng.idra.utils.GsonUtil;
@@ -98,11 +108,20 @@ public class CKANApi {
 			try {
 				ODMSCatalogue cat = FederationCore.getODMSCatalogue(Integer.parseInt(catalogueID));
 				if(cat.isActive()) {
-					CKANSuccessResponse<List<String>> res = new CKANSuccessResponse<>();
-					res.setHelp("Return a list of the names of the site's datasets (packages). "
+					String help = "Return a list of the names of the site's datasets (packages). "
 							+ ":param limit: if given, the list of datasets will be broken into pages of at most ``limit`` datasets per page and only one page will be returned at a time "
 							+ "(optional) :type limit: int :param offset: when ``limit`` is given, "
-							+ "the offset to start returning packages from :type offset: int :rtype: list of strings ");
+							+ "the offset to start returning packages from :type offset: int :rtype: list of strings ";
+
+					// Without a limit the names are streamed from the cache instead of being collected
+					if(limit<0) {
+						SolrCursor<String> names = MetadataCacheManager.getDatasetFieldsCursor(cat.getId(),
+								doc -> (String) doc.getFieldValue("id"), "id");
+						return Response.status(Response.Status.OK).entity(streamSuccessList(help, names)).build();
+					}
+
+					CKANSuccessResponse<List<String>> res = new CKANSuccessResponse<>();
+					res.setHelp(help);
 					res.setSuccess(true);
 					res.setResult(MetadataCacheManager.getAllDatasetsIDByCatalogue(catalogueID,limit,offset));
 
@@ -385,4 +404,31 @@ public class CKANApi {
 
 	}
 	
+	/*
+	 * Writes a CKAN success response whose result is the list of the passed
+	 * values, consuming them while the response is being sent
+	 */
+	private static StreamingOutput streamSuccessList(String help, Iterator<String> values) {
+		return new StreamingOutput() {
+			@Override
+			public void write(OutputStream out) throws IOException, WebApplicationException {
+				JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+				writer.beginObject();
+				writer.name("help").value(help);
+				writer.name("success").value(true);
+				writer.name("result").beginArray();
+				try {
+					while (values.hasNext())
+						writer.value(values.next());
+				} catch (SolrCursor.SolrCursorException e) {
+					logger.error("Error while streaming the package list: " + e.getMessage());
+					throw new IOException(e.getMessage(), e);
+				}
+				writer.endArray();
+				writer.endObject();
+				writer.flush();
+			}
+		};
+	}
+
 }
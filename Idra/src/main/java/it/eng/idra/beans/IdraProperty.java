@@ -36,8 +36,31 @@ public enum IdraProperty {
 	HTTPS_PROXY_PORT("https.proxyPort"),
 	HTTPS_PROXY_PASSWORD("https.proxyPassword"),
 	HTTPS_PROXY_NONPROXYHOSTS("https.nonProxyHosts"),
+	HTTP_MAX_CONNECTIONS("idra.http.maxConnections"),
+	HTTP_MAX_CONNECTIONS_PER_HOST("idra.http.maxConnectionsPerHost"),
+	HTTP_CONNECT_TIMEOUT("idra.http.connectTimeout"),
+	HTTP_READ_TIMEOUT("idra.http.readTimeout"),
+	HTTP_KEEP_ALIVE("idra.http.keepAlive"),
 	LOAD_CACHE_FROM_DB("idra.cache.loadfromdb"),
+	CACHE_INDEX_BATCH_SIZE("idra.cache.index.batchSize"),
+	CACHE_INDEX_COMMIT_WITHIN("idra.cache.index.commitWithin"),
+	CACHE_INDEX_COMMIT_MAX_DOCS("idra.cache.index.commitMaxDocs"),
+	CACHE_INDEX_COMMIT_MAX_TIME("idra.cache.index.commitMaxTime"),
+	CACHE_REBUILD_PAGE_SIZE("idra.cache.rebuild.pageSize"),
+	CACHE_REBUILD_THREADS("idra.cache.rebuild.threads"),
+	CACHE_SHADOW_MIN_COUNT_PERCENT("idra.cache.shadow.minCountPercent"),
+	CACHE_SHADOW_MAX_ERROR_PERCENT("idra.cache.shadow.maxErrorPercent"),
 	SYNCH_ON_START("idra.synch.onstart"),
+	SYNCH_PAGE_SIZE("idra.synch.pageSize"),
+	SYNCH_MAX_CONCURRENT("idra.synch.maxConcurrent"),
+	SYNCH_MAX_PER_HOST("idra.synch.maxPerHost"),
+	SYNCH_BACKOFF_INITIAL("idra.synch.backoff.initial"),
+	SYNCH_BACKOFF_MAX("idra.synch.backoff.max"),
+	LIVE_SEARCH_THREADS("idra.search.live.threads"),
+	LIVE_SEARCH_TIMEOUT("idra.search.live.timeout"),
+	LIVE_SEARCH_MAX_DEPTH("idra.search.live.maxDepth"),
+	SEARCH_CACHE_MAX_ENTRIES("idra.search.cache.maxEntries"),
+	SEARCH_CACHE_MAX_ROWS("idra.search.cache.maxRows"),
 	ODMS_DUMP_FILE_PATH("idra.odms.dump.file.path"),
 	ODMS_DUMP_FILE_PREFIX("idra.odms.dump.file.prefix"),
 	DUMP_FILE_PATH("idra.dump.file.path"),
@@ -51,8 +74,14 @@ public enum IdraProperty {
 	SESAME_REPO_NAME("idra.lod.repo.name"),
 	SESAME_SERVER_URI("idra.lod.server.uri"),
 	SESAME_ENDPOINT("idra.lod.server.uri.query"),
+	LOD_LOAD_THREADS("idra.lod.load.threads"),
+	LOD_LOAD_THREADS_PER_HOST("idra.lod.load.threadsPerHost"),
+	LOD_LOAD_BATCH_SIZE("idra.lod.load.batchSize"),
 	WEB_CONNECTOR_DEFAULT_STOP_VALUES("idra.scraper.defaultStopValues"),
 	ENABLE_STATISTICS("idra.statistics.enable"),
+	STATISTICS_FLUSH_INTERVAL("idra.statistics.flushInterval"),
+	STATISTICS_GEOIP_FILE("idra.statistics.geoip.file"),
+	STATISTICS_GEOIP_RELOAD_INTERVAL("idra.statistics.geoip.reloadInterval"),
 	AUTHENTICATION_METHOD("idra.authentication.method"),
 	ORION_FILE_DUMP_PATH("idra.orion.orionDumpFilePath"),
 	ORION_INTERNAL_API("idra.orion.orionInternalAPI"),
@@ -66,6 +95,7 @@ public enum IdraProperty {
 	WEB_SCRAPER_DATASET_TIMEOUT("idra.scraper.dataset.timeout"),
 	WEB_SCRAPER_GLOBAL_TIMEOUT("idra.scraper.global.timeout"),
 	WEB_SCRAPER_GLOBAL_THROTTILING("idra.scraper.throttling"),
+	WEB_SCRAPER_THREADS("idra.scraper.threads"),
 	PREVIEW_TIMEOUT("idra.preview.timeout"),
 	PREVIEW_MAX_SIZE("idra.preview.fileSize");
 	
@@ -21,6 +21,7 @@ import it.eng.idra.beans.odms.ODMSCatalogueNotFoundException;
 import it.eng.idra.cache.CacheContentType;
 import it.eng.idra.management.FederationCore;
 import it.eng.idra.utils.CommonUtil;
+import it.eng.idra.utils.SpatialUtil;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
@@ -58,10 +59,16 @@ import org.apache.jena.vocabulary.RDFS;
 import org.apache.jena.vocabulary.SKOS;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
+import org.locationtech.spatial4j.shape.Shape;
 import org.hibernate.annotations.LazyCollection;
 import org.hibernate.annotations.LazyCollectionOption;
 import org.hibernate.annotations.Where;
 
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 /**
  * Represents a DCAT Dataset
  *
@@ -82,8 +89,32 @@ public class DCATDataset implements Serializable {
 	private String nodeID;
 	private String nodeName;
 	private boolean hasStoredRDF = false;
+	private String contentHash;
+	private Long generation;
 	private transient static final Resource RDFClass = DCAT.Dataset;
 
+	/*
+	 * Fields that are generated locally or describe the cache entry, rather than
+	 * the source metadata, are left out of the content fingerprint
+	 */
+	private transient static final List<String> localFields = Arrays.asList("id", "nodeID", "nodeName",
+			"contentHash", "generation", "hasStoredRDF", "storedRDF", "hasDatalets", "distributionAdditionalConfig");
+	// Fields read by docToDatasetSummary
+	public transient static final String[] SUMMARY_FIELDS = { "id", "nodeID", "identifier", "updateDate",
+			"contentHash", "generation" };
+	private transient static final Gson contentGson = new GsonBuilder()
+			.setExclusionStrategies(new ExclusionStrategy() {
+				@Override
+				public boolean shouldSkipField(FieldAttributes f) {
+					return localFields.contains(f.getName());
+				}
+
+				@Override
+				public boolean shouldSkipClass(Class<?> clazz) {
+					return false;
+				}
+			}).create();
+
 	// DCAT fields
 
 	// Mandatory
@@ -399,6 +430,39 @@ public class DCATDataset implements Serializable {
 		this.hasStoredRDF = hasStoredRDF;
 	}
 
+	/**
+	 * Fingerprint of the dataset content as returned by the source catalogue, used
+	 * by the connectors to skip datasets that were touched but not changed
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * Generation of the cached datasets of the node the dataset belongs to, set
+	 * by the shadow reloads, null if the node was never reloaded
+	 */
+	public Long getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(Long generation) {
+		this.generation = generation;
+	}
+
+	/**
+	 * Computes the fingerprint of the DCAT content of the dataset, leaving out the
+	 * locally generated identifiers, so that the same source metadata always gives
+	 * the same fingerprint
+	 */
+	public String computeContentHash() {
+		return CommonUtil.computeContentHash(contentGson.toJson(this));
+	}
+
 	@Embedded
 	@AttributeOverrides({
 			@AttributeOverride(name = "value", column = @Column(name = "title", columnDefinition = "LONGTEXT")) })
@@ -875,6 +939,8 @@ public class DCATDataset implements Serializable {
 		doc.addField("content_type", CacheContentType.dataset.toString());
 		doc.addField("nodeID", nodeID);
 		doc.addField("hasStoredRDF", hasStoredRDF);
+		if (contentHash != null)
+			doc.addField("contentHash", contentHash);
 
 		String desc_tmp = description.getValue();
 		try {
@@ -956,9 +1022,22 @@ public class DCATDataset implements Serializable {
 			doc.addField("source", source.stream().filter(item -> item != null).map(item -> item.getValue())
 					.collect(Collectors.toList()));
 
-		if (spatialCoverage != null)
+		if (spatialCoverage != null) {
 			doc.addChildDocument(spatialCoverage.toDoc(CacheContentType.spatialCoverage));
 
+			// The geometry is also indexed on the dataset, to be searched without a join
+			if (spatialCoverage.getGeometry() != null
+					&& StringUtils.isNotBlank(spatialCoverage.getGeometry().getValue())) {
+				try {
+					Shape shape = SpatialUtil.parseShape(spatialCoverage.getGeometry().getValue());
+					doc.addField("spatialGeometry", SpatialUtil.toWKT(shape));
+					doc.addField("spatialBBox", SpatialUtil.toEnvelope(shape));
+				} catch (IllegalArgumentException e) {
+					// Geometries that cannot be parsed are only kept as text
+				}
+			}
+		}
+
 		if (temporalCoverage != null)
 			doc.addChildDocument(temporalCoverage.toDoc(CacheContentType.temporalCoverage));
 
@@ -1022,9 +1101,44 @@ public class DCATDataset implements Serializable {
 //			e.printStackTrace();
 //		}
 
+		if (generation != null)
+			setGeneration(doc, generation);
+
 		return doc;
 	}
 
+	/*
+	 * The generation is set on the children too, so that they are hidden along
+	 * with their dataset
+	 */
+	private static void setGeneration(SolrInputDocument doc, long generation) {
+		doc.setField("generation", generation);
+		if (doc.hasChildDocuments())
+			for (SolrInputDocument child : doc.getChildDocuments())
+				setGeneration(child, generation);
+	}
+
+	/**
+	 * Builds a partial dataset out of a document fetched with the
+	 * {@link #SUMMARY_FIELDS} only, enough for a connector to tell the added,
+	 * changed and deleted datasets of its catalogue
+	 */
+	public static DCATDataset docToDatasetSummary(SolrDocument doc) {
+		String dataset_modified = doc.getOrDefault("updateDate", "").toString();
+		if (StringUtils.isNotBlank(dataset_modified))
+			dataset_modified = CommonUtil.toUtcDate(dataset_modified);
+
+		DCATDataset d = new DCATDataset();
+		d.setId(doc.getFieldValue("id").toString());
+		d.setNodeID(doc.getFieldValue("nodeID").toString());
+		d.setIdentifier(new DCATProperty(DCTerms.identifier, RDFS.Literal, doc.getFieldValue("identifier").toString()));
+		d.setUpdateDate(new DCATProperty(DCTerms.modified, RDFS.Literal,
+				StringUtils.isNotBlank(dataset_modified) ? dataset_modified : "1970-01-01T00:00:00Z"));
+		d.setContentHash((String) doc.getFieldValue("contentHash"));
+		d.setGeneration((Long) doc.getFieldValue("generation"));
+		return d;
+	}
+
 	public static DCATDataset docToDataset(SolrDocument doc) {
 
 		String nodeID = doc.getFieldValue("nodeID").toString();
@@ -1118,6 +1232,8 @@ public class DCATDataset implements Serializable {
 				doc.getFieldValue("version").toString(), (ArrayList<String>) doc.getFieldValue("versionNotes"),
 				rightsHolder, creator, subjectList, (ArrayList<String>) doc.getFieldValue("relatedResource"),
 				(Boolean) doc.getFieldValue("hasStoredRDF"));
+		d.setContentHash((String) doc.getFieldValue("contentHash"));
+		d.setGeneration((Long) doc.getFieldValue("generation"));
 
 		return d;
 
@@ -147,6 +147,10 @@ public class ODMSCatalogue {
 	@Column(name = "datasetStart")
 	private int datasetStart;
 
+	// Visible generation of the cached datasets, set by the shadow reloads
+	@Column(name = "generation", nullable = true)
+	private Long generation;
+
 	@Column(name = "location", columnDefinition = "LONGTEXT")
 	@Expose
 	private String location;
@@ -292,6 +296,14 @@ public class ODMSCatalogue {
 		this.datasetStart = i;
 	}
 
+	public Long getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(Long generation) {
+		this.generation = generation;
+	}
+
 	public String getName() {
 		return name;
 	}
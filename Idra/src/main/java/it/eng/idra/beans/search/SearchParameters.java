@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.beans.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Typed parameters of a federated search, built from the search request and
+ * compiled by the cache into SOLR query and filter clauses.
+ * 
+ * The free text terms (the "ALL" filter) and the values of the field filters
+ * are comma separated lists of terms, as they come from the search request.
+ * 
+ * @author ENG
+ *
+ */
+public class SearchParameters {
+
+	public static final String TEXT_FIELD = "ALL";
+	public static final String TAGS_FIELD = "tags";
+	// Sorts by the overlap between the dataset and the searched bounding boxes,
+	// only valid together with a spatial filter
+	public static final String OVERLAP_SORT = "overlap";
+
+	private boolean live;
+	private boolean euroVoc;
+	private String sourceLanguage;
+	private String targetLanguages;
+
+	private String text;
+	private LinkedHashMap<String, String> filters = new LinkedHashMap<String, String>();
+	private List<Integer> nodes;
+
+	private String[] releaseDate;
+	private String[] updateDate;
+
+	private SearchSpatialFilter spatialFilter;
+
+	// Regular expression matched against title and description
+	private String regex;
+	// Substrings that title or description must contain
+	private LinkedHashMap<String, String> substringFilters = new LinkedHashMap<String, String>();
+
+	private String rows;
+	private String start;
+	private SortOption sort;
+
+	public SearchParameters() {
+	}
+
+	/**
+	 * Builds the parameters from the key-value pairs used by the connectors and
+	 * by the EuroVoc translator. The "nodeID" key, holding a single ID or a list
+	 * of IDs in the form "(1 OR 2)", takes precedence over the "nodes" list.
+	 */
+	@SuppressWarnings("unchecked")
+	public static SearchParameters fromMap(HashMap<String, Object> searchParameters) {
+		SearchParameters parameters = new SearchParameters();
+
+		for (Entry<String, Object> e : searchParameters.entrySet()) {
+			String key = e.getKey();
+			Object value = e.getValue();
+			if (value == null)
+				continue;
+
+			switch (key) {
+			case "live":
+				parameters.setLive((boolean) value);
+				break;
+			case "euroVoc":
+				parameters.setEuroVoc((boolean) value);
+				break;
+			case "sourceLanguage":
+				parameters.setSourceLanguage((String) value);
+				break;
+			case "targetLanguages":
+				parameters.setTargetLanguages((String) value);
+				break;
+			case "rows":
+				parameters.setRows(value.toString());
+				break;
+			case "start":
+				parameters.setStart(value.toString());
+				break;
+			case "sort":
+				parameters.setSort(parseSort((String) value));
+				break;
+			case "releaseDate":
+				parameters.setReleaseDate((String[]) value);
+				break;
+			case "updateDate":
+				parameters.setUpdateDate((String[]) value);
+				break;
+			case "nodes":
+				if (!searchParameters.containsKey("nodeID"))
+					parameters.setNodes(new ArrayList<Integer>((Collection<Integer>) value));
+				break;
+			case "nodeID":
+				parameters.setNodes(Arrays.asList(value.toString().replaceAll("[()]", "").split(" OR ")).stream()
+						.map(String::trim).filter(StringUtils::isNotBlank).map(Integer::valueOf)
+						.collect(Collectors.toList()));
+				break;
+			case TEXT_FIELD:
+				parameters.setText((String) value);
+				break;
+			default:
+				if (value instanceof Collection)
+					parameters.addFilter(key, ((Collection<?>) value).stream().map(Object::toString)
+							.collect(Collectors.joining(",")));
+				else
+					parameters.addFilter(key, value.toString());
+				break;
+			}
+		}
+
+		return parameters;
+	}
+
+	/**
+	 * Parses a sort in the form "field,mode", where mode is one of
+	 * {@link SortMode}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the sort is malformed, so that it is answered as a bad request
+	 */
+	private static SortOption parseSort(String value) {
+		String[] sort = value.split(",");
+		if (sort.length != 2 || StringUtils.isBlank(sort[0]))
+			throw new IllegalArgumentException(
+					"Invalid sort \"" + value + "\": expected \"field,mode\" with mode one of "
+							+ Arrays.toString(SortMode.values()));
+		try {
+			return new SortOption(sort[0].trim(), SortMode.valueOf(sort[1].trim()));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid sort mode \"" + sort[1].trim() + "\": expected one of "
+					+ Arrays.toString(SortMode.values()));
+		}
+	}
+
+	/**
+	 * Returns the parameters as the key-value pairs expected by the connectors
+	 * and by the EuroVoc translator. The spatial, regular expression and
+	 * substring filters, which only the cache supports, are not included.
+	 */
+	public HashMap<String, Object> toMap() {
+		HashMap<String, Object> searchParameters = new HashMap<String, Object>();
+
+		searchParameters.put("live", live);
+		searchParameters.put("euroVoc", euroVoc);
+		if (sourceLanguage != null)
+			searchParameters.put("sourceLanguage", sourceLanguage);
+		if (targetLanguages != null)
+			searchParameters.put("targetLanguages", targetLanguages);
+		if (text != null)
+			searchParameters.put(TEXT_FIELD, text);
+		searchParameters.putAll(filters);
+		if (nodes != null)
+			searchParameters.put("nodes", new ArrayList<Integer>(nodes));
+		if (releaseDate != null)
+			searchParameters.put("releaseDate", releaseDate);
+		if (updateDate != null)
+			searchParameters.put("updateDate", updateDate);
+		if (rows != null)
+			searchParameters.put("rows", rows);
+		if (start != null)
+			searchParameters.put("start", start);
+		if (sort != null)
+			searchParameters.put("sort", sort.getField() + "," + sort.getMode());
+
+		return searchParameters;
+	}
+
+	public boolean isLive() {
+		return live;
+	}
+
+	public void setLive(boolean live) {
+		this.live = live;
+	}
+
+	public boolean isEuroVoc() {
+		return euroVoc;
+	}
+
+	public void setEuroVoc(boolean euroVoc) {
+		this.euroVoc = euroVoc;
+	}
+
+	public String getSourceLanguage() {
+		return sourceLanguage;
+	}
+
+	public void setSourceLanguage(String sourceLanguage) {
+		this.sourceLanguage = sourceLanguage;
+	}
+
+	public String getTargetLanguages() {
+		return targetLanguages;
+	}
+
+	public void setTargetLanguages(String targetLanguages) {
+		this.targetLanguages = targetLanguages;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	public LinkedHashMap<String, String> getFilters() {
+		return filters;
+	}
+
+	public void addFilter(String field, String value) {
+		this.filters.put(field, value);
+	}
+
+	public List<Integer> getNodes() {
+		return nodes;
+	}
+
+	public void setNodes(List<Integer> nodes) {
+		this.nodes = nodes;
+	}
+
+	public String[] getReleaseDate() {
+		return releaseDate;
+	}
+
+	public void setReleaseDate(String[] releaseDate) {
+		this.releaseDate = releaseDate;
+	}
+
+	public String[] getUpdateDate() {
+		return updateDate;
+	}
+
+	public void setUpdateDate(String[] updateDate) {
+		this.updateDate = updateDate;
+	}
+
+	public SearchSpatialFilter getSpatialFilter() {
+		return spatialFilter;
+	}
+
+	public void setSpatialFilter(SearchSpatialFilter spatialFilter) {
+		this.spatialFilter = spatialFilter;
+	}
+
+	public String getRegex() {
+		return regex;
+	}
+
+	public void setRegex(String regex) {
+		this.regex = regex;
+	}
+
+	public LinkedHashMap<String, String> getSubstringFilters() {
+		return substringFilters;
+	}
+
+	public void addSubstringFilter(String field, String value) {
+		this.substringFilters.put(field, value);
+	}
+
+	public String getRows() {
+		return rows;
+	}
+
+	public void setRows(String rows) {
+		this.rows = rows;
+	}
+
+	public String getStart() {
+		return start;
+	}
+
+	public void setStart(String start) {
+		this.start = start;
+	}
+
+	public SortOption getSort() {
+		return sort;
+	}
+
+	public void setSort(SortOption sort) {
+		this.sort = sort;
+	}
+
+	/**
+	 * Returns a normalized form of the search, equal for searches that only
+	 * differ in the order of filters and catalogues, quoting or whitespace
+	 */
+	public String getCacheKey() {
+		StringBuilder key = new StringBuilder();
+		key.append(euroVoc).append('|').append(sourceLanguage).append('|').append(targetLanguages);
+		key.append("|text=").append(StringUtils.isBlank(text) ? "" : normalizeValue(text));
+		new TreeMap<String, String>(filters.entrySet().stream()
+				.collect(Collectors.toMap(e -> e.getKey().trim(), e -> normalizeValue(e.getValue()), (a, b) -> b)))
+						.forEach((field, value) -> key.append('|').append(field).append('=').append(value));
+		key.append("|nodes=").append(nodes == null ? "" : new TreeSet<Integer>(nodes));
+		key.append("|releaseDate=").append(Arrays.toString(releaseDate));
+		key.append("|updateDate=").append(Arrays.toString(updateDate));
+		key.append("|spatial=").append(spatialFilter);
+		key.append("|regex=").append(regex);
+		key.append("|substrings=").append(new TreeMap<String, String>(substringFilters));
+		key.append("|rows=").append(rows).append("|start=").append(start).append("|sort=").append(sort);
+		return key.toString();
+	}
+
+	private static String normalizeValue(String value) {
+		return value.replaceAll("\"", "").trim();
+	}
+
+	@Override
+	public String toString() {
+		return "SearchParameters [live=" + live + ", euroVoc=" + euroVoc + ", text=" + text + ", filters=" + filters
+				+ ", nodes=" + nodes + ", releaseDate=" + Arrays.toString(releaseDate) + ", updateDate="
+				+ Arrays.toString(updateDate) + ", spatialFilter=" + spatialFilter + ", regex=" + regex
+				+ ", substringFilters=" + substringFilters + ", rows=" + rows + ", start=" + start + ", sort=" + sort + "]";
+	}
+
+}
@@ -34,6 +34,8 @@ public class SearchRequest {
 
 	private SearchEuroVocFilter euroVocFilter;
 
+	private SearchSpatialFilter spatialFilter;
+
 	@JsonRequired
 	private SortOption sort;
 	@JsonRequired
@@ -97,6 +99,14 @@ public class SearchRequest {
 		this.euroVocFilter = eurovocFilter;
 	}
 
+	public SearchSpatialFilter getSpatialFilter() {
+		return spatialFilter;
+	}
+
+	public void setSpatialFilter(SearchSpatialFilter spatialFilter) {
+		this.spatialFilter = spatialFilter;
+	}
+
 	public SortOption getSort() {
 		return sort;
 	}
@@ -132,7 +142,7 @@ public class SearchRequest {
 	@Override
 	public String toString() {
 		return "SearchRequest [filters=" + filters + ", releaseDate=" + releaseDate + ", updateDate=" + updateDate
-				+ ", live=" + live + ", euroVoc=" + euroVocFilter + ", sort=" + sort + ", rows=" + rows + ", start="
+				+ ", live=" + live + ", euroVoc=" + euroVocFilter + ", spatial=" + spatialFilter + ", sort=" + sort + ", rows=" + rows + ", start="
 				+ start + ", nodes=" + nodes + "]";
 	}
 
@@ -26,6 +26,9 @@ public class SearchResult {
 	private Long count;
 	private List<DCATDataset> results;
 	private List<SearchFacetsList> facets;
+	// Catalogues not included in a live search result, null for cache searches
+	private List<Integer> timedOutCatalogues;
+	private List<Integer> failedCatalogues;
 
 	public SearchResult(Long count, List<DCATDataset> result) {
 		super();
@@ -64,6 +67,30 @@ public class SearchResult {
 		this.facets = facets;
 	}
 
+	public List<Integer> getTimedOutCatalogues() {
+		return timedOutCatalogues;
+	}
+
+	public void setTimedOutCatalogues(List<Integer> timedOutCatalogues) {
+		this.timedOutCatalogues = timedOutCatalogues;
+	}
+
+	public List<Integer> getFailedCatalogues() {
+		return failedCatalogues;
+	}
+
+	public void setFailedCatalogues(List<Integer> failedCatalogues) {
+		this.failedCatalogues = failedCatalogues;
+	}
+
+	/**
+	 * @return true if some catalogue could not contribute to the result
+	 */
+	public boolean isPartial() {
+		return (timedOutCatalogues != null && !timedOutCatalogues.isEmpty())
+				|| (failedCatalogues != null && !failedCatalogues.isEmpty());
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.beans.search;
+
+import it.eng.idra.utils.JsonRequired;
+
+public class SearchSpatialFilter {
+
+	/*
+	 * GeoJSON or WKT geometry
+	 */
+	@JsonRequired
+	private String geometry;
+
+	private SpatialRelation relation = SpatialRelation.intersects;
+
+	public SearchSpatialFilter(String geometry, SpatialRelation relation) {
+		super();
+		this.geometry = geometry;
+		this.relation = relation;
+	}
+
+	public String getGeometry() {
+		return geometry;
+	}
+
+	public void setGeometry(String geometry) {
+		this.geometry = geometry;
+	}
+
+	public SpatialRelation getRelation() {
+		return relation != null ? relation : SpatialRelation.intersects;
+	}
+
+	public void setRelation(SpatialRelation relation) {
+		this.relation = relation;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchSpatialFilter [geometry=" + geometry + ", relation=" + relation + "]";
+	}
+
+}
@@ -15,32 +15,15 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
-package it.eng.idra.connectors.webscraper;
+package it.eng.idra.beans.search;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+/**
+ * Spatial predicates of a search: the dataset geometry intersects or lies
+ * within the searched geometry, or the dataset bounding box intersects the
+ * bounding box of the searched geometry
+ */
+public enum SpatialRelation {
 
-public class getDatasetPage implements Runnable {
+	intersects, within, bbox;
 
-	public getDatasetPage() {
-		
-	}
-
-	@Override
-	public void run() {
-		
-
-	}
-
-	
-//	public static void main (String[] a){
-//		ExecutorService executor = Executors.newSingleThreadExecutor();
-//		executor.submit(() -> {
-//		    String threadName = Thread.currentThread().getName();
-//		    System.out.println("Hello " + threadName);
-//		});
-//		executor.shutdown();
-//	
-//	}
-	
 }
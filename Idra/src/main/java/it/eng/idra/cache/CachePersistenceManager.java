@@ -17,8 +17,7 @@
  ******************************************************************************/
 package it.eng.idra.cache;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -207,173 +206,34 @@ public class CachePersistenceManager {
 		return q.getResultList();
 	}
 
-	public List<DCATDataset> jpaGetDatasetsByRegex(HashMap<String, Object> searchParameters) {
-		ArrayList<String> nodes = new ArrayList<String>();
-
-		HashMap<String, HashMap<String, String>> filterMap = (HashMap<String, HashMap<String, String>>) searchParameters
-				.get("filters");
-
-		nodes.addAll(filterMap.keySet());
-		HashMap<String, String> filters = filterMap.get(nodes.get(0));
-
-		String query = "SELECT d FROM DCATDataset d where d.nodeID in (:nodes) and  ( regexp(d.title,'"
-				+ filters.get("regex") + "') = true or regexp(d.description,'" + filters.get("regex") + "') = true ) ";
-
-		// query += "and
-
-		String[] sort = ((String) searchParameters.getOrDefault("sort", "id,asc")).split(",");
-		if (!sort[0].equals("id") || !sort[0].equals("title")) {
-			sort[0] = "id";
-		}
-
-		if (!sort[1].equals("asc") || !sort[1].equals("desc")) {
-			sort[1] = "asc";
-		}
-
-		query += " ORDER BY " + sort[0] + " " + sort[1];
-		// System.out.println(query);
-		TypedQuery<DCATDataset> q = em.createQuery(query, DCATDataset.class);
-		q.setParameter("nodes", nodes);
-		// q.setFirstResult(Integer.parseInt((String)
-		// searchParameters.get("start")));
-		// q.setMaxResults( Integer.parseInt((String)
-		// searchParameters.get("rows"))==0 ? 1 : Integer.parseInt((String)
-		// searchParameters.get("rows")));
-
-		return q.getResultList();
-	}
-
-	public List<DCATDataset> jpaGetDatasetsByLocation(HashMap<String, Object> searchParameters) {
-		ArrayList<String> nodes = new ArrayList<String>();
-
-		HashMap<String, HashMap<String, String>> filterMap = (HashMap<String, HashMap<String, String>>) searchParameters
-				.get("filters");
-
-		nodes.addAll(filterMap.keySet());
-		HashMap<String, String> filters = filterMap.get(nodes.get(0));
-
-		String query = "SELECT d FROM DCATDataset d join DCTLocation l on d.spatialCoverage=l.id where d.nodeID in (:nodes) and l.geometry is not '' and ST_Intersects(ST_GeomFromGeoJSON('"
-				+ filters.get("geographic_area") + "'),ST_GeomFromGeoJSON(l.geometry))=true ";
-
-		if (filters.containsKey("regex")) {
-			query += "and ( regexp(d.title,'" + filters.get("regex") + "') = true or regexp(d.description,'"
-					+ filters.get("regex") + "') = true ) ";
+	/**
+	 * Returns a page of datasets ordered by their key, starting after the passed
+	 * key, so that a full scan costs the same for every page
+	 * 
+	 * @param afterId
+	 *            id of the last dataset of the previous page, null for the first
+	 *            page
+	 * @param afterNodeID
+	 *            nodeID of the last dataset of the previous page
+	 * @param pageSize
+	 *            maximum number of datasets to return
+	 */
+	public List<DCATDataset> jpaGetDatasetsPage(String afterId, String afterNodeID, int pageSize) {
+		TypedQuery<DCATDataset> q;
+		if (afterId == null) {
+			q = em.createQuery("SELECT d FROM DCATDataset d ORDER BY d.id, d.nodeID", DCATDataset.class);
 		} else {
-			if (filters.containsKey("title")) {
-				query += " and d.title like '%" + filters.get("title") + "%' ";
-			}
-
-			if (filters.containsKey("description")) {
-				query += " and d.description like '%" + filters.get("description") + "%' ";
-			}
-		}
-
-		String[] sort = ((String) searchParameters.getOrDefault("sort", "id,asc")).split(",");
-		if (!sort[0].equals("id") || !sort[0].equals("title")) {
-			sort[0] = "d.id";
-		}
-
-		if (!sort[1].equals("asc") || !sort[1].equals("desc")) {
-			sort[1] = "asc";
+			q = em.createQuery("SELECT d FROM DCATDataset d WHERE d.id > :id OR (d.id = :id AND d.nodeID > :nodeID) "
+					+ "ORDER BY d.id, d.nodeID", DCATDataset.class);
+			q.setParameter("id", afterId);
+			q.setParameter("nodeID", afterNodeID);
 		}
-
-		query += " ORDER BY " + sort[0] + " " + sort[1];
-		// System.out.println(query);
-		TypedQuery<DCATDataset> q = em.createQuery(query, DCATDataset.class);
-		q.setParameter("nodes", nodes);
-		// q.setFirstResult(Integer.parseInt((String)
-		// searchParameters.get("start")));
-		// q.setMaxResults( Integer.parseInt((String)
-		// searchParameters.get("rows"))==0 ? 1 : Integer.parseInt((String)
-		// searchParameters.get("rows")));
-
+		q.setMaxResults(pageSize);
 		return q.getResultList();
 	}
 
-	public int jpaGetCountDatasetsByRegex(HashMap<String, Object> searchParameters) {
-		ArrayList<String> nodes = new ArrayList<String>();
-
-		HashMap<String, HashMap<String, String>> filterMap = (HashMap<String, HashMap<String, String>>) searchParameters
-				.get("filters");
-
-		nodes.addAll(filterMap.keySet());
-		HashMap<String, String> filters = filterMap.get(nodes.get(0));
-
-		String query = "SELECT d FROM DCATDataset d where d.nodeID in (:nodes) and  ( regexp(d.title,'"
-				+ filters.get("regex") + "') = true or regexp(d.description,'" + filters.get("regex") + "') = true ) ";
-
-		String[] sort = ((String) searchParameters.getOrDefault("sort", "id,asc")).split(",");
-		if (!sort[0].equals("id") || !sort[0].equals("title")) {
-			sort[0] = "d.id";
-		}
-
-		if (!sort[1].equals("asc") || !sort[1].equals("desc")) {
-			sort[1] = "asc";
-		}
-
-		query += " ORDER BY " + sort[0] + " " + sort[1];
-
-		TypedQuery<DCATDataset> q = em.createQuery(query, DCATDataset.class);
-		q.setParameter("nodes", nodes);
-		// q.setFirstResult(Integer.parseInt((String)
-		// searchParameters.get("start")));
-		// q.setMaxResults( Integer.parseInt((String)
-		// searchParameters.get("rows"))==0 ? 1 : Integer.parseInt((String)
-		// searchParameters.get("rows")));
-
-		return q.getResultList().size();
-	}
-
-	public int jpaGetCountDatasetsByLocation(HashMap<String, Object> searchParameters) {
-		ArrayList<String> nodes = new ArrayList<String>();
-
-		HashMap<String, HashMap<String, String>> filterMap = (HashMap<String, HashMap<String, String>>) searchParameters
-				.get("filters");
-
-		nodes.addAll(filterMap.keySet());
-		HashMap<String, String> filters = filterMap.get(nodes.get(0));
-
-		// String query = "SELECT d FROM DCATDataset d where d.nodeID in (:nodes) and
-		// d.spatialCoverage is not '' and ST_Intersects(ST_GeomFromGeoJSON('"
-		// + filters.get("geographic_area") +
-		// "'),ST_GeomFromGeoJSON(d.spatialCoverage))=true ";
-
-		String query = "SELECT d FROM DCATDataset d join DCTLocation l on d.spatialCoverage=l.id where d.nodeID in (:nodes) and l.geometry is not '' and ST_Intersects(ST_GeomFromGeoJSON('"
-				+ filters.get("geographic_area") + "'),ST_GeomFromGeoJSON(l.geometry))=true ";
-
-		if (filters.containsKey("regex")) {
-			query += "and ( regexp(d.title,'" + filters.get("regex") + "') = true or regexp(d.description,'"
-					+ filters.get("regex") + "') = true ) ";
-		} else {
-			if (filters.containsKey("title")) {
-				query += " and d.title like '%" + filters.get("title") + "%' ";
-			}
-
-			if (filters.containsKey("description")) {
-				query += " and d.description like '%" + filters.get("description") + "%' ";
-			}
-		}
-
-		String[] sort = ((String) searchParameters.getOrDefault("sort", "id,asc")).split(",");
-		if (!sort[0].equals("id") || !sort[0].equals("title")) {
-			sort[0] = "d.id";
-		}
-
-		if (!sort[1].equals("asc") || !sort[1].equals("desc")) {
-			sort[1] = "asc";
-		}
-
-		query += " ORDER BY " + sort[0] + " " + sort[1];
-
-		TypedQuery<DCATDataset> q = em.createQuery(query, DCATDataset.class);
-		q.setParameter("nodes", nodes);
-		// q.setFirstResult(Integer.parseInt((String)
-		// searchParameters.get("start")));
-		// q.setMaxResults( Integer.parseInt((String)
-		// searchParameters.get("rows"))==0 ? 1 : Integer.parseInt((String)
-		// searchParameters.get("rows")));
-
-		return q.getResultList().size();
+	public long jpaCountDatasets() {
+		return em.createQuery("SELECT count(d) FROM DCATDataset d", Long.class).getSingleResult();
 	}
 
 	public List<DCATDataset> jpaGetDatasetsByODMSNode(int nodeID) {
@@ -443,6 +303,40 @@ public class CachePersistenceManager {
 	//
 	// }
 
+	/**
+	 * Returns the id and generation of the datasets of the node that do not
+	 * belong to the passed generation, a null generation meaning the datasets
+	 * never reloaded in shadow mode
+	 */
+	public List<Object[]> jpaGetDatasetsOutsideGeneration(String nodeID, Long generation) {
+		TypedQuery<Object[]> q;
+		if (generation == null) {
+			q = em.createQuery("SELECT d.id, d.generation FROM DCATDataset d WHERE d.nodeID = :nodeID "
+					+ "AND d.generation IS NOT NULL", Object[].class);
+		} else {
+			q = em.createQuery("SELECT d.id, d.generation FROM DCATDataset d WHERE d.nodeID = :nodeID "
+					+ "AND (d.generation IS NULL OR d.generation <> :generation)", Object[].class);
+			q.setParameter("generation", generation);
+		}
+		q.setParameter("nodeID", nodeID);
+		return q.getResultList();
+	}
+
+	/**
+	 * Deletes in a single transaction the datasets of the node with the passed
+	 * ids, ignoring the ones that do not exist
+	 */
+	public void jpaDeleteDatasetsByIds(String nodeID, Collection<String> ids) {
+		em.getTransaction().begin();
+		for (String id : ids) {
+			DCATDataset dataset = em.find(DCATDataset.class, new DCATDatasetId(id, nodeID));
+			if (dataset != null)
+				em.remove(dataset);
+		}
+		em.getTransaction().commit();
+		em.clear();
+	}
+
 	public void jpaDeleteDatasets(List<DCATDataset> objList) {
 		em.getTransaction().begin();
 		logger.info("HIBERNATE: Delete Transaction BEGIN");
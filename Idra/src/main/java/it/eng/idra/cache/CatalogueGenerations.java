@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-catalogue generation counters of the SOLR metadata cache.
+ * 
+ * Every add, update or delete of a catalogue's datasets bumps its generation
+ * and marks the catalogue as dirty until the next SOLR commit, since in between
+ * searches may or may not see the change. A result computed on a catalogue is
+ * reusable as long as the generations it was computed with are unchanged and
+ * the catalogue was clean at the time, so that the {@link #getSnapshot(Collection)}
+ * of a search identifies exactly which version of the index it ran against.
+ */
+public class CatalogueGenerations {
+
+	/** Dirty marker for deletions whose catalogue is not known */
+	private static final Integer ALL_CATALOGUES = -1;
+
+	private final ConcurrentHashMap<Integer, Long> generations = new ConcurrentHashMap<Integer, Long>();
+	private final ConcurrentHashMap<Integer, Long> dirty = new ConcurrentHashMap<Integer, Long>();
+	private final AtomicLong globalGeneration = new AtomicLong();
+	private final AtomicLong updateSequence = new AtomicLong();
+
+	/**
+	 * Records a change of the datasets of the catalogue, null meaning that the
+	 * change may involve any catalogue
+	 */
+	public void changed(Integer nodeId) {
+		Integer key = nodeId == null ? ALL_CATALOGUES : nodeId;
+		dirty.put(key, updateSequence.incrementAndGet());
+		if (key.equals(ALL_CATALOGUES))
+			globalGeneration.incrementAndGet();
+		else
+			generations.merge(key, 1L, Long::sum);
+	}
+
+	/**
+	 * Records that the visible datasets of the catalogue were replaced at once,
+	 * by a switch to a new generation that needs no further commit
+	 */
+	public void switched(int nodeId) {
+		generations.merge(nodeId, 1L, Long::sum);
+	}
+
+	/**
+	 * Returns the sequence number of the last recorded change, to be passed to
+	 * {@link #committed(long)} once the changes recorded so far are visible
+	 */
+	public long lastUpdate() {
+		return updateSequence.get();
+	}
+
+	/**
+	 * Marks as clean the catalogues whose changes, up to the passed sequence
+	 * number, have been committed. Their generation is bumped once more, since
+	 * results computed while dirty may not reflect the commit
+	 */
+	public void committed(long sequence) {
+		for (Entry<Integer, Long> e : dirty.entrySet()) {
+			if (e.getValue() <= sequence && dirty.remove(e.getKey(), e.getValue())) {
+				if (e.getKey().equals(ALL_CATALOGUES))
+					globalGeneration.incrementAndGet();
+				else
+					generations.merge(e.getKey(), 1L, Long::sum);
+			}
+		}
+	}
+
+	/**
+	 * Returns a key identifying the current version of the passed catalogues, an
+	 * empty collection meaning all of them, or null if any of them has uncommitted
+	 * changes and results on it must not be reused
+	 */
+	public String getSnapshot(Collection<Integer> nodeIds) {
+		if (dirty.containsKey(ALL_CATALOGUES))
+			return null;
+
+		StringBuilder snapshot = new StringBuilder().append(globalGeneration.get());
+		if (nodeIds == null || nodeIds.isEmpty()) {
+			if (!dirty.isEmpty())
+				return null;
+			// Any change of any catalogue bumps the sum of the generations
+			long total = 0;
+			for (Long generation : generations.values())
+				total += generation;
+			return snapshot.append("|*:").append(total).toString();
+		}
+
+		for (Integer nodeId : nodeIds) {
+			if (dirty.containsKey(nodeId))
+				return null;
+			snapshot.append('|').append(nodeId).append(':').append(generations.getOrDefault(nodeId, 0L));
+		}
+		return snapshot.toString();
+	}
+
+}
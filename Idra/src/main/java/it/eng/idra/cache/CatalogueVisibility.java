@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrQuery;
+
+/**
+ * Tells which generations of the catalogues' datasets are visible to the
+ * queries of the SOLR metadata cache.
+ * 
+ * A catalogue reloaded in shadow mode indexes its new datasets tagged with a
+ * staging generation, hidden until {@link #switchTo(int, long)} makes it the
+ * visible one and hides, at the same time, every other dataset of the
+ * catalogue until they are purged. The whole state is a single immutable
+ * filter query, replaced at each change, so that a query sees either the old
+ * or the new generation of a catalogue and never both.
+ */
+public class CatalogueVisibility {
+
+	private final AtomicLong lastGeneration = new AtomicLong();
+
+	// Guarded by this
+	private final Set<Long> staging = new HashSet<Long>();
+	private final Map<Integer, Long> retiring = new HashMap<Integer, Long>();
+
+	private volatile String filter = null;
+
+	/**
+	 * Returns a new generation id, greater than any one returned before
+	 */
+	public long newGeneration() {
+		return lastGeneration.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Hides the datasets of the passed staging generation
+	 */
+	public synchronized void hide(long generation) {
+		staging.add(generation);
+		updateFilter();
+	}
+
+	/**
+	 * Removes the passed staging generation, once its datasets were purged
+	 */
+	public synchronized void discarded(long generation) {
+		if (staging.remove(generation))
+			updateFilter();
+	}
+
+	/**
+	 * Makes the passed generation the only visible one of the catalogue, every
+	 * other dataset of the catalogue being hidden until
+	 * {@link #purged(int, long)}
+	 */
+	public synchronized void switchTo(int nodeId, long generation) {
+		staging.remove(generation);
+		retiring.put(nodeId, generation);
+		updateFilter();
+	}
+
+	/**
+	 * Shows again every dataset of the catalogue, once the ones preceding the
+	 * passed generation were purged. Nothing changes if a newer generation was
+	 * switched to in the meantime
+	 */
+	public synchronized void purged(int nodeId, long generation) {
+		if (retiring.remove(nodeId, generation))
+			updateFilter();
+	}
+
+	/**
+	 * Adds to the query the filter that hides the staging and retired
+	 * generations, if any
+	 */
+	public void apply(SolrQuery query) {
+		String current = filter;
+		if (current != null)
+			query.addFilterQuery(current);
+	}
+
+	private void updateFilter() {
+		List<String> clauses = new ArrayList<String>();
+		for (Long generation : staging)
+			clauses.add("generation:" + generation);
+		for (Entry<Integer, Long> e : retiring.entrySet())
+			clauses.add("(nodeID:" + e.getKey() + " AND -generation:" + e.getValue() + ")");
+		filter = clauses.isEmpty() ? null : "*:* -(" + String.join(" OR ", clauses) + ")";
+	}
+
+}
@@ -24,6 +24,7 @@ import it.eng.idra.beans.search.SparqlResultFormat;
 import it.eng.idra.management.FederationCore;
 import it.eng.idra.management.RdfPrefixManager;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -33,20 +34,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Authenticator;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.PasswordAuthentication;
 import java.net.URL;
-import java.net.URLConnection;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.URI;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.URIImpl;
@@ -55,19 +71,25 @@ import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
 import org.eclipse.rdf4j.repository.http.HTTPRepository;
 import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
 import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 
 import com.google.common.io.Files;
 
-import org.apache.jena.atlas.web.HttpException;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.conn.UnsupportedSchemeException;
 import org.apache.jena.query.*;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.shared.JenaException;
 
 import org.apache.logging.log4j.*;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -85,7 +107,19 @@ public class LODCacheManager {
 	private static Logger logger = LogManager.getLogger(LODCacheManager.class);
 
 	public static Repository repo;
-	static int test = 0;
+
+	private static final int rdfBatchSize = PropertyManager.getIntProperty(IdraProperty.LOD_LOAD_BATCH_SIZE, 5000);
+	private static final int rdfThreadsPerHost = PropertyManager.getIntProperty(IdraProperty.LOD_LOAD_THREADS_PER_HOST,
+			2);
+	private static final ExecutorService rdfLoaders = new ThreadPoolExecutor(
+			PropertyManager.getIntProperty(IdraProperty.LOD_LOAD_THREADS, 8),
+			PropertyManager.getIntProperty(IdraProperty.LOD_LOAD_THREADS, 8), 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread t = new Thread(r, "idra-lod-loader");
+				t.setDaemon(true);
+				return t;
+			});
+	private static final ConcurrentHashMap<String, HostQueue> hostQueues = new ConcurrentHashMap<String, HostQueue>();
 
 	private LODCacheManager() {
 	}
@@ -110,7 +144,7 @@ public class LODCacheManager {
 	 * @return repo
 	 * @throws RepositoryException
 	 */
-	private static Repository getRepository(String repoURL) throws RepositoryException {
+	private static synchronized Repository getRepository(String repoURL) throws RepositoryException {
 		if (repo == null) {
 			repo = new HTTPRepository(repoURL);
 
@@ -130,60 +164,7 @@ public class LODCacheManager {
 	 */
 	public static int addRDF(String link) throws RepositoryException, IOException {
 
-		int rdfAdded = 0;
-		Resource resource = null;
-		RepositoryConnection repoConnection = null;
-
-		if (checkContentLength(link) && test < 2) {
-
-			try {
-				URL url = new URL(link);
-
-				URLConnection conn = url.openConnection();
-				conn.setConnectTimeout(60000);
-				conn.setReadTimeout(60000);
-
-				InputStream original = conn.getInputStream();
-				byte[] byteArray = IOUtils.toByteArray(original);
-				InputStream rdfStream = new ByteArrayInputStream(byteArray);
-				InputStream rdfStream1 = new ByteArrayInputStream(byteArray);
-
-				// resource = new URIImpl(link);
-				repoConnection = getRepository().getConnection();
-
-				try {
-					// repoConnection.add(rdfStream, link, RDFFormat.RDFXML,
-					// resource);
-					ValueFactory f = repoConnection.getValueFactory();
-					IRI context = f.createIRI(link);
-					repoConnection.add(rdfStream, link, RDFFormat.RDFXML, context);
-
-					getPrefixes(rdfStream1);
-					rdfAdded++;
-					logger.info("RDF file: " + link + " loading completed successfully!");
-
-//					test++;
-					// original.close();
-					// rdfStream.close();
-					// rdfStream1.close();
-
-				} catch (RDFParseException | RepositoryException | JenaException | HttpException e) {
-					e.printStackTrace();
-					logger.error("Exception while adding RDF: " + link + " " + e.getMessage());
-
-				} finally {
-					original.close();
-					rdfStream.close();
-					rdfStream1.close();
-				}
-
-			} catch (IOException x) {
-				logger.error(link + " " + x.getMessage());
-			} finally {
-				repoConnection.close();
-			}
-		}
-		return rdfAdded;
+		return addRDFs(Collections.singletonList(link)).size();
 	}
 
 	/**
@@ -193,22 +174,20 @@ public class LODCacheManager {
 	 * @param file the byte representation of its dump
 	 */
 	public static void addCatalogueDump(ODMSCatalogue node,byte[] file) {
-		RepositoryConnection repoConnection = getRepository().getConnection();
-		try {
-			InputStream rdfStream = new ByteArrayInputStream(file);
-			InputStream rdfStream1 = new ByteArrayInputStream(file);
-			
-			ValueFactory f = repoConnection.getValueFactory();
-			IRI context = f.createIRI(node.getHost());
-			repoConnection.add(rdfStream, node.getHost(), RDFFormat.RDFXML, context);
+		addCatalogueDump(node, new ByteArrayInputStream(file));
+	}
 
-			getPrefixes(rdfStream1);
-			logger.info("RDF file: " + node.getHost() + " loading completed successfully!");
-			
+	/**
+	 * Adds a Catalogue's dump into RDF4J repository, parsing it while it is read
+	 * 
+	 * @param node the Catalogue
+	 * @param dump the stream of its dump, left open
+	 */
+	public static void addCatalogueDump(ODMSCatalogue node, InputStream dump) {
+		try {
+			loadRDF(dump, node.getHost(), node.getHost());
 		}catch(Exception e) {
 			e.printStackTrace();
-		}finally {
-			repoConnection.close();
 		}
 	}
 	
@@ -224,100 +203,208 @@ public class LODCacheManager {
 	 */
 	public static int addRDFList(List<String> links) throws RepositoryException, IOException {
 
-		int rdfAdded = 0;
-		Resource resource = null;
-		RepositoryConnection repoConnection = null;
-
-		for (String link : links) {
-			if (checkContentLength(link) && test < 2) {
+		return addRDFs(links).size();
+	}
 
-				try {
+	/**
+	 * Adds the RDF datasets at the passed urls into RDF4J repository. The datasets
+	 * are downloaded in parallel by the RDF loaders pool, with at most
+	 * idra.lod.load.threadsPerHost concurrent downloads from the same host, and each
+	 * one is parsed while it is downloaded. The links of a busy host wait in its
+	 * {@link HostQueue}, so that the loaders keep serving the other hosts.
+	 * 
+	 * @param links
+	 *            urls of the datasets
+	 * @return the urls of the datasets that were successfully added
+	 */
+	public static Set<String> addRDFs(Collection<String> links) {
 
-					URL url = new URL(link);
+		Set<String> added = ConcurrentHashMap.newKeySet();
+		List<Future<?>> loads = new ArrayList<Future<?>>();
 
-					URLConnection conn = url.openConnection();
-					conn.setConnectTimeout(60000);
-					conn.setReadTimeout(60000);
+		for (String link : new LinkedHashSet<String>(links)) {
+			HostQueue hostQueue;
+			try {
+				hostQueue = hostQueues.computeIfAbsent(new URL(link).getHost().toLowerCase(),
+						host -> new HostQueue());
+			} catch (MalformedURLException e) {
+				logger.error(link + " " + e.getMessage());
+				continue;
+			}
 
-					InputStream original = conn.getInputStream();
-					byte[] byteArray = IOUtils.toByteArray(original);
-					InputStream rdfStream = new ByteArrayInputStream(byteArray);
-					InputStream rdfStream1 = new ByteArrayInputStream(byteArray);
+			FutureTask<Void> load = new FutureTask<Void>(() -> {
+				if (checkContentLength(link) && downloadRDF(link))
+					added.add(link);
+				return null;
+			});
+			loads.add(load);
+			hostQueue.add(load);
+		}
 
-					// resource = new URIImpl(link);
-					repoConnection = getRepository().getConnection();
+		for (Future<?> load : loads) {
+			try {
+				load.get();
+			} catch (ExecutionException e) {
+				logger.error("Exception while adding RDF: " + e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				loads.forEach(l -> l.cancel(true));
+				break;
+			}
+		}
 
-					try {
-						// repoConnection.add(rdfStream, link, RDFFormat.RDFXML,
-						// resource);
-						ValueFactory f = repoConnection.getValueFactory();
-						IRI context = f.createIRI(link);
-						repoConnection.add(rdfStream, link, RDFFormat.RDFXML, context);
+		return added;
+	}
 
-						getPrefixes(rdfStream1);
-						rdfAdded++;
-						logger.info("RDF file: " + link + " loading completed successfully!");
+	/*
+	 * Downloads the RDF at the passed url
+	 */
+	private static boolean downloadRDF(String link) throws RepositoryException {
 
-						test++;
-						// original.close();
-						// rdfStream.close();
-						// rdfStream1.close();
+		try (CloseableHttpResponse response = HttpClientManager.execute(new HttpGet(link))) {
+			int status = response.getStatusLine().getStatusCode();
+			if (status < 200 || status >= 300 || response.getEntity() == null)
+				throw new IOException("Unexpected response status: " + status);
 
-					} catch (RDFParseException | RepositoryException | JenaException | HttpException e) {
-						e.printStackTrace();
-						logger.error("Exception while adding RDF: " + link + " " + e.getMessage());
+			try (InputStream rdfStream = new BufferedInputStream(response.getEntity().getContent())) {
+				return loadRDF(rdfStream, link, link);
+			}
+		} catch (IOException | IllegalArgumentException x) {
+			logger.error(link + " " + x.getMessage());
+			return false;
+		}
+	}
 
-					} finally {
-						original.close();
-						rdfStream.close();
-						rdfStream1.close();
-					}
+	/*
+	 * Loads of a host waiting for a loader: at most rdfThreadsPerHost loaders at a
+	 * time drain the queue, each one running its loads one after the other, so
+	 * that no loader is ever blocked waiting for the host to be free
+	 */
+	private static class HostQueue {
 
-				} catch (IOException e) {
-					logger.error("Exception while adding RDF: " + link + " " + e.getMessage());
+		// Guarded by this
+		private final Queue<Runnable> pending = new ArrayDeque<Runnable>();
+		private int draining = 0;
 
-				} finally {
-					repoConnection.close();
-				}
+		synchronized void add(Runnable load) {
+			pending.add(load);
+			if (draining < rdfThreadsPerHost) {
+				draining++;
+				rdfLoaders.execute(this::drain);
 			}
+		}
 
+		private void drain() {
+			Runnable load;
+			while ((load = next()) != null)
+				load.run();
 		}
 
-		return rdfAdded;
+		private synchronized Runnable next() {
+			Runnable load = pending.poll();
+			if (load == null)
+				draining--;
+			return load;
+		}
+	}
+
+	/*
+	 * Parses the RDF/XML stream into the passed context in a single pass: the
+	 * statements are added in batches inside one transaction, while the declared
+	 * namespaces are collected and stored as prefixes once the load is committed
+	 */
+	private static boolean loadRDF(InputStream rdfStream, String baseURI, String context)
+			throws RepositoryException {
+
+		RepositoryConnection repoConnection = getRepository().getConnection();
+		try {
+			ValueFactory f = repoConnection.getValueFactory();
+			BatchedRDFInserter inserter = new BatchedRDFInserter(repoConnection, f.createIRI(context),
+					rdfBatchSize);
+			RDFParser parser = Rio.createParser(RDFFormat.RDFXML, f);
+			parser.setRDFHandler(inserter);
+
+			repoConnection.begin();
+			parser.parse(rdfStream, baseURI);
+			repoConnection.commit();
+
+			storePrefixes(inserter.getNamespaces());
+			logger.info("RDF file: " + context + " loading completed successfully!");
+			return true;
+
+		} catch (IOException | RDFParseException | RDFHandlerException | RepositoryException e) {
+			logger.error("Exception while adding RDF: " + context + " " + e.getMessage());
+			if (repoConnection.isActive())
+				repoConnection.rollback();
+			return false;
+		} finally {
+			repoConnection.close();
+		}
 	}
 
 	/**
-	 * Method private to get RDF prefixes dinamically. This method calls
-	 * getNSPrefixMap() of Model class, that returns a list of namespaces. These
-	 * namespaces are then converted in RDF prefixes format. Prefixes are stored
-	 * into properties file.
+	 * Method private to store the RDF prefixes declared by a loaded dataset. The
+	 * namespaces are converted in RDF prefixes format and stored into DB, already
+	 * known prefixes are skipped.
 	 * 
-	 * @param link
-	 *            String url of RDF dataset.
+	 * @param prefixes
+	 *            prefix - namespace pairs declared by the dataset
 	 */
+	private static void storePrefixes(Map<String, String> prefixes) {
+		for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+			try {
+				RdfPrefixManager.addPrefix(new RdfPrefix(prefix.getKey(), "<" + prefix.getValue() + ">"));
+			} catch (SQLException e) {
+				// logger.info(key +" here");
+			}
+		}
+	}
 
-	private static void getPrefixes(InputStream rdfStream) throws JenaException, HttpException {
-		try {
+	/*
+	 * RDF handler that adds the parsed statements to a connection in batches and
+	 * collects the declared namespaces
+	 */
+	private static class BatchedRDFInserter extends AbstractRDFHandler {
+
+		private final RepositoryConnection repoConnection;
+		private final Resource context;
+		private final int batchSize;
+		private final List<Statement> batch;
+		private final Map<String, String> namespaces = new HashMap<String, String>();
+
+		BatchedRDFInserter(RepositoryConnection repoConnection, Resource context, int batchSize) {
+			this.repoConnection = repoConnection;
+			this.context = context;
+			this.batchSize = Math.max(1, batchSize);
+			this.batch = new ArrayList<Statement>(this.batchSize);
+		}
 
-			Model model = ModelFactory.createDefaultModel();
-			model.read(rdfStream, "");
-			Map<String, String> prefixes = model.getNsPrefixMap();
-
-			Set<String> set = prefixes.keySet();
-			Iterator<String> it = set.iterator();
-			String key = new String();
-			// ArrayList<String> prefixList= new ArrayList();
-			while (it.hasNext()) {
-				key = (String) it.next();
-				try {
-					// if(!key.equals(""))
-					RdfPrefixManager.addPrefix(new RdfPrefix(key, "<" + prefixes.get(key) + ">"));
-				} catch (SQLException e) {
-					// logger.info(key +" here");
-				}
+		@Override
+		public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+			namespaces.putIfAbsent(prefix, uri);
+		}
+
+		@Override
+		public void handleStatement(Statement st) throws RDFHandlerException {
+			batch.add(st);
+			if (batch.size() >= batchSize)
+				flush();
+		}
+
+		@Override
+		public void endRDF() throws RDFHandlerException {
+			flush();
+		}
+
+		private void flush() {
+			if (!batch.isEmpty()) {
+				repoConnection.add(batch, context);
+				batch.clear();
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		}
+
+		Map<String, String> getNamespaces() {
+			return namespaces;
 		}
 	}
 
@@ -448,19 +535,25 @@ public class LODCacheManager {
 
 				url = new URL(link);
 
-				HttpURLConnection httpcon = (HttpURLConnection) url.openConnection();
-				httpcon.setRequestMethod("HEAD");
+				// The length of the uncompressed content is needed
+				HttpHead head = new HttpHead(url.toString());
+				head.setConfig(HttpClientManager.customRequestConfig().setContentCompressionEnabled(false).build());
+				long contentLength;
+				try (CloseableHttpResponse response = HttpClientManager.execute(head)) {
+					Header lengthHeader = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+					contentLength = lengthHeader != null ? Long.parseLong(lengthHeader.getValue().trim()) : -1;
+				} catch (NumberFormatException e) {
+					contentLength = -1;
+				}
 
-				if (httpcon
-						.getContentLength() >= Integer.parseInt(FederationCore.getSettings().get("rdf_max_dimension"))
+				if (contentLength >= Integer.parseInt(FederationCore.getSettings().get("rdf_max_dimension"))
 								* 1000000
 						&& Boolean.parseBoolean(FederationCore.getSettings().get("rdf_undefined_dimension"))) {
 					// logger.info("RDF " + link + " dimension exceeds the
 					// limit");
 					logger.error("RDF " + link + " dimension exceeds the limit");
-					httpcon.disconnect();
 					return false;
-				} else if (httpcon.getContentLength() <= 0) {
+				} else if (contentLength <= 0) {
 					// logger.info("RDF " + link + " content length
 					// unspecified");
 					logger.error("RDF " + link + " content length unspecified");
@@ -471,10 +564,9 @@ public class LODCacheManager {
 					return false;
 				}
 
-				httpcon.disconnect();
 				return true;
 
-			} catch (ClassCastException e) {
+			} catch (ClientProtocolException | UnsupportedSchemeException | IllegalArgumentException e) {
 				logger.error(link + " " + e.getMessage());
 				return false;
 			}
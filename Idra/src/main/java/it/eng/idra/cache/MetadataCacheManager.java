@@ -24,11 +24,17 @@ import java.time.Duration;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 import java.util.stream.Collectors;
 import javax.persistence.EntityExistsException;
@@ -41,16 +47,18 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.CoreContainer;
+import org.locationtech.spatial4j.shape.Shape;
 import org.eclipse.rdf4j.repository.RepositoryException;
 import org.eclipse.rdf4j.rio.RDFParseException;
 
 import org.apache.logging.log4j.*;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
 
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATDataset;
@@ -63,11 +71,18 @@ import it.eng.idra.beans.odms.ODMSCatalogueType;
 import it.eng.idra.beans.orion.OrionCatalogueConfiguration;
 import it.eng.idra.beans.orion.OrionDistributionConfig;
 import it.eng.idra.beans.search.SearchFacetsList;
+import it.eng.idra.beans.search.SearchParameters;
 import it.eng.idra.beans.search.SearchResult;
+import it.eng.idra.beans.search.SearchSpatialFilter;
+import it.eng.idra.beans.search.SortOption;
+import it.eng.idra.connectors.IDatasetPageHandler;
+import it.eng.idra.connectors.IODMSConnector;
 import it.eng.idra.management.ODMSManager;
 import it.eng.idra.management.StatisticsManager;
 import it.eng.idra.search.EuroVocTranslator;
+import it.eng.idra.statistics.StatisticsAggregations;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.SpatialUtil;
 
 public class MetadataCacheManager {
 
@@ -75,6 +90,28 @@ public class MetadataCacheManager {
 
 	private static Boolean enableRdf = Boolean.parseBoolean(PropertyManager.getProperty(IdraProperty.ENABLE_RDF));
 	private static SolrClient server;
+	private static SolrIndexingQueue indexer;
+	private static final CatalogueGenerations generations = new CatalogueGenerations();
+	private static final CatalogueVisibility visibility = new CatalogueVisibility();
+	private static final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "idra-cache-purge");
+		t.setDaemon(true);
+		return t;
+	});
+	// Fields returned as facets, whose selections are sent as filter queries
+	private static final List<String> SEARCH_FACETS = Arrays.asList("keywords", "distributionFormats",
+			"distributionLicenses", "nodeID", "datasetThemes");
+	// Milliseconds after which pattern searches return the results found so far
+	private static final int PATTERN_SEARCH_TIMEOUT = 10000;
+	private static final int CURSOR_PAGE_SIZE = 1000;
+	// Values returned for each statistics facet, as the search facets do
+	private static final int STATISTICS_FACET_LIMIT = 100;
+	// Datasets deleted with each request while purging a generation
+	private static final int PURGE_BATCH_SIZE = 500;
+	private static final int shadowMinCountPercent = PropertyManager
+			.getIntProperty(IdraProperty.CACHE_SHADOW_MIN_COUNT_PERCENT, 50);
+	private static final int shadowMaxErrorPercent = PropertyManager
+			.getIntProperty(IdraProperty.CACHE_SHADOW_MAX_ERROR_PERCENT, 10);
 
 	private MetadataCacheManager() {
 
@@ -108,7 +145,7 @@ public class MetadataCacheManager {
 		query.addFilterQuery("{!parent which=$parent_filter}");
 		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
 
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 		SolrDocumentList docs = rsp.getResults();
 
 		DCATDataset tmp = null;
@@ -138,7 +175,7 @@ public class MetadataCacheManager {
 		query.addFilterQuery("{!parent which=$parent_filter}");
 		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
 
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 		SolrDocumentList docs = rsp.getResults();
 
 		DCATDataset tmp = null;
@@ -161,33 +198,49 @@ public class MetadataCacheManager {
 	 * @throws SolrServerException
 	 * @throws DatasetNotFoundException
 	 * @returns List<DCATDataset> the list of the DCAT Datasets of the node
+	 * @deprecated holds every dataset of the node in memory, use
+	 *             {@link #forEachDatasetsPage(Integer, int, IDatasetPageHandler)}
+	 *             or {@link #getDatasetSummariesByODMSCatalogue(int)}
 	 */
+	@Deprecated
 	public static List<DCATDataset> getAllDatasetsByODMSCatalogue(int nodeId)
 			throws DatasetNotFoundException, IOException, SolrServerException {
-		HashMap<String, Object> idParam = new HashMap<String, Object>();
-		idParam.put("nodeID", new Integer(nodeId).toString());
-		idParam.put("rows", "10000000");
+		return collect(getDatasetsCursor(nodeId));
+	}
 
-		return searchDatasets(idParam).getResults();
+	/**
+	 * Gets the datasets of a node holding only the fields compared by the
+	 * connectors to synchronize it, see {@link DCATDataset#SUMMARY_FIELDS}.
+	 * Distributions and the other metadata are not read
+	 * 
+	 * @param nodeId
+	 *            ID of the node which datasets belong to
+	 * @throws IOException
+	 * @throws SolrServerException
+	 */
+	public static List<DCATDataset> getDatasetSummariesByODMSCatalogue(int nodeId)
+			throws IOException, SolrServerException {
+		return collect(getDatasetFieldsCursor(nodeId, DCATDataset::docToDatasetSummary, DCATDataset.SUMMARY_FIELDS));
 	}
 	
 	public static SearchResult getAllDatasetsByODMSCatalogue(int nodeId,int rows, int start)
 			throws DatasetNotFoundException, IOException, SolrServerException {
-		HashMap<String, Object> idParam = new HashMap<String, Object>();
-		idParam.put("nodeID", new Integer(nodeId).toString());
-		idParam.put("rows", Integer.toString(rows));
-		idParam.put("start", Integer.toString(start));
+		SearchParameters parameters = new SearchParameters();
+		parameters.setNodes(Arrays.asList(nodeId));
+		parameters.setRows(Integer.toString(rows));
+		parameters.setStart(Integer.toString(start));
 
-		return searchDatasets(idParam);
+		return searchDatasets(parameters);
 	}
 
+	/**
+	 * @deprecated holds every dataset of the node in memory, use
+	 *             {@link #forEachDatasetsPage(Integer, int, IDatasetPageHandler)}
+	 */
+	@Deprecated
 	public static SearchResult getAllDatasetsByODMSCatalogueID(int nodeId)
 			throws DatasetNotFoundException, IOException, SolrServerException {
-		HashMap<String, Object> idParam = new HashMap<String, Object>();
-		idParam.put("nodeID", new Integer(nodeId).toString());
-		idParam.put("rows", "10000000");
-
-		return searchDatasets(idParam);
+		return searchAllDatasetsByODMSNode(nodeId);
 	}
 
 	/**
@@ -204,18 +257,18 @@ public class MetadataCacheManager {
 		SolrQuery query = new SolrQuery();
 		QueryResponse rsp;
 		List<String> idList = new ArrayList<String>();
+		if (limit < 0)
+			return collect(getDatasetFieldsCursor(null, doc -> (String) doc.getFieldValue("id"), "id"));
+
 		// Set the filters in order to match parent and childs
 		query.set("parent_filter", "content_type:" + CacheContentType.dataset);
 		query.set("defType", "edismax");
 		query.addFilterQuery("{!parent which=$parent_filter}");
 		query.setParam("fl", "id");
-		if(limit<0) {
-			query.setRows(1000000);
-		}else {
-			query.setRows(limit);
-			query.setStart(offset);
-		}
-		rsp = server.query(query);
+		query.setRows(limit);
+		query.setStart(offset);
+		query.setSort(SortClause.asc("id"));
+		rsp = visibleQuery(query);
 
 		for (SolrDocument doc : rsp.getResults()) {
 			idList.add((String) doc.getFieldValue("id"));
@@ -237,19 +290,20 @@ public class MetadataCacheManager {
 		SolrQuery query = new SolrQuery();
 		QueryResponse rsp;
 		List<String> idList = new ArrayList<String>();
+		if (limit < 0)
+			return collect(getDatasetFieldsCursor(Integer.parseInt(catalogueID),
+					doc -> (String) doc.getFieldValue("id"), "id"));
+
 		// Set the filters in order to match parent and childs
 		query.setQuery("nodeID:"+catalogueID);
 		query.set("parent_filter", "content_type:" + CacheContentType.dataset);
 		query.set("defType", "edismax");
 		query.addFilterQuery("{!parent which=$parent_filter}");
 		query.setParam("fl", "id");
-		if(limit<0) {
-			query.setRows(1000000);
-		}else {
-			query.setRows(limit);
-			query.setStart(offset);
-		}
-		rsp = server.query(query);
+		query.setRows(limit);
+		query.setStart(offset);
+		query.setSort(SortClause.asc("id"));
+		rsp = visibleQuery(query);
 
 		for (SolrDocument doc : rsp.getResults()) {
 			idList.add((String) doc.getFieldValue("id"));
@@ -272,28 +326,46 @@ public class MetadataCacheManager {
 	 * @throws DatasetNotFoundException
 	 * @returns List<String> the list of the Datasets ID of the node
 	 */
+	@SuppressWarnings("unchecked")
 	public static HashMap<String,ArrayList<String>> getCKANDatasetNamesIdentifiers(int nodeId)
 			throws DatasetNotFoundException, IOException, SolrServerException {
-		SolrQuery query = new SolrQuery();
-		QueryResponse rsp;
 		HashMap<String,ArrayList<String>> idMap = new HashMap<String,ArrayList<String>>();
 
-		query.setQuery("nodeID:" + nodeId);
-
-		query.set("parent_filter", "content_type:" + "dataset");
-		query.set("defType", "edismax");
-		query.addFilterQuery("{!parent which=$parent_filter}");
-		//query.setParam("fl", (nativeID ? "identifier" : "id") + ",[child parentFilter=$parent_filter limit=1000]");
-		query.setParam("fl", "otherIdentifier,identifier"+ ",[child parentFilter=$parent_filter limit=1000]");
-		query.set("rows", "1000000");
-		// query.set("fl", nativeID ? "otherIdentifier" : "id");
+		SolrCursor<SolrDocument> cursor = getDatasetFieldsCursor(nodeId, doc -> doc, "identifier", "otherIdentifier");
+		try {
+			while (cursor.hasNext()) {
+				SolrDocument doc = cursor.next();
+				idMap.put((String) doc.getFieldValue("identifier"), (ArrayList<String>) doc.getFieldValue("otherIdentifier"));
+			}
+		} catch (SolrCursor.SolrCursorException e) {
+			throw unwrap(e);
+		}
+		return idMap;
+	}
 
-		rsp = server.query(query);
+	/**
+	 * Returns the content fingerprints of the cached datasets of a node, indexed
+	 * by dataset identifier. Datasets cached without a fingerprint are mapped to
+	 * null.
+	 * 
+	 * @param nodeId
+	 *            the id of the node
+	 * @throws IOException
+	 * @throws SolrServerException
+	 */
+	public static HashMap<String, String> getDatasetContentHashes(int nodeId) throws IOException, SolrServerException {
+		HashMap<String, String> hashMap = new HashMap<String, String>();
 
-		for (SolrDocument doc : rsp.getResults()) {
-				idMap.put((String) doc.getFieldValue("identifier"),(ArrayList<String>) doc.getFieldValue("otherIdentifier"));
+		SolrCursor<SolrDocument> cursor = getDatasetFieldsCursor(nodeId, doc -> doc, "identifier", "contentHash");
+		try {
+			while (cursor.hasNext()) {
+				SolrDocument doc = cursor.next();
+				hashMap.put((String) doc.getFieldValue("identifier"), (String) doc.getFieldValue("contentHash"));
+			}
+		} catch (SolrCursor.SolrCursorException e) {
+			throw unwrap(e);
 		}
-		return idMap;
+		return hashMap;
 	}
 
 	/**
@@ -323,9 +395,9 @@ public class MetadataCacheManager {
 
 		// Deletes dataset from SOLR server
 		// System.out.println(dataset.getId()+" "+dataset.getNodeID());
-		server.deleteByQuery(
-				"_root_:" + "\"" + matchingDataset.getId() + "\"" + " AND nodeID:" + matchingDataset.getNodeID());
-		server.commit();
+		indexer.deleteByQuery(
+				"_root_:" + "\"" + matchingDataset.getId() + "\"" + " AND nodeID:" + matchingDataset.getNodeID(),
+				nodeID);
 
 		jpaInstance.jpaClose();
 		jpaInstance = null;
@@ -365,7 +437,7 @@ public class MetadataCacheManager {
 		logger.info("Datasets delete from HIBERNATE complete - Start deleting from SOLR Cache");
 		// UpdateResponse resp = server.deleteByQuery("nodeID:" + node.getId() +
 		// " AND content_type:" + "dataset");
-		UpdateResponse resp = server.deleteByQuery("nodeID:" + node.getId());
+		indexer.deleteByQuery("nodeID:" + node.getId(), node.getId());
 
 		// Deletes distributions related to dataset by their OwnerID
 
@@ -397,7 +469,7 @@ public class MetadataCacheManager {
 		// matchingDistr = null;
 		// }
 
-		server.commit();
+		indexer.commit();
 		jpaInstance.jpaClose();
 		jpaInstance = null;
 		// matchingDatasets = null;
@@ -428,8 +500,7 @@ public class MetadataCacheManager {
 		 * 
 		 */
 
-		server.add(dataset.toDoc());
-		server.commit();
+		indexer.add(dataset.toDoc());
 		jpaInstance.jpaClose();
 		jpaInstance = null;
 
@@ -460,6 +531,7 @@ public class MetadataCacheManager {
 
 		//Settiamo i vecchi id e seoid
 		dataset.setId(matchingDataset.getId());
+		dataset.setGeneration(matchingDataset.getGeneration());
 		//dataset.setSeoIdentifier(matchingDataset.getSeoIdentifier());
 		
 		//TODO: gestire anche le datalets
@@ -472,11 +544,10 @@ public class MetadataCacheManager {
 		// Delete and add updated dataset into SOLR cache
 		// server.deleteByQuery("_root_:" + "\"" + dataset.getId() + "\"" + "
 		// AND nodeID:" + dataset.getNodeID());
-		server.deleteByQuery("_root_:" + "\"" + matchingDataset.getId() + "\"");// + " AND nodeID:" +
-																				// matchingDataset.getNodeID());
+		indexer.deleteByQuery("_root_:" + "\"" + matchingDataset.getId() + "\"", nodeID);// + " AND nodeID:" +
+																						// matchingDataset.getNodeID());
 		// server.commit();
-		server.add(dataset.toDoc());
-		server.commit();
+		indexer.add(dataset.toDoc());
 
 		jpaInstance.jpaClose();
 		jpaInstance = null;
@@ -491,45 +562,25 @@ public class MetadataCacheManager {
 		// Delete and add updated dataset into SOLR cache
 		// server.deleteByQuery("_root_:" + "\"" + dataset.getId() + "\"" + "
 		// AND nodeID:" + dataset.getNodeID());
-		server.deleteByQuery("_root_:" + "\"" + dataset.getId() + "\"");// + " AND nodeID:" + dataset.getNodeID());
-		server.add(dataset.toDoc());
-		server.commit();
+		indexer.deleteByQuery("_root_:" + "\"" + dataset.getId() + "\"", nodeID);// + " AND nodeID:" + dataset.getNodeID());
+		indexer.add(dataset.toDoc());
+		// Datalets are added interactively, then make the change visible at once
+		indexer.commit();
 
 		jpaInstance.jpaClose();
 		jpaInstance = null;
 	}
 
-	public static int getDatasetNumber(HashMap<String, Object> searchParameters)
-			throws SolrServerException, IOException {
-		SolrQuery query = new SolrQuery();
+	public static int getDatasetNumber(SearchParameters searchParameters) throws SolrServerException, IOException {
 
-		/*
-		 * There will be a query to retrieve documents representing Datasets and one to
-		 * retrieve documents representing Distributions. Then every resulting
-		 * DCATDistribution bean will be added to associated DCATDataset, getting its ID
-		 * (ownerId).
-		 */
+		storeKeywordsStatistics(searchParameters);
 
 		// DATASETS QUERY
-		// Risparmiamo cicli inutili nella buildGenericQuery
-		if (searchParameters.containsKey("sort")) {
-			String[] sort = ((String) searchParameters.remove("sort")).split(",");
-			query.set("sort", sort[0] + " " + sort[1]);
-		}
-
-		// System.out.println(buildGenericQuery(searchParameters).toString());
-
-		query.setQuery(buildGenericQuery(searchParameters));
-
-		// Set the filters in order to match parent and childs
-		query.set("parent_filter", "content_type:" + "dataset");
-		query.set("defType", "edismax");
-		query.addFilterQuery("{!parent which=$parent_filter}");
-		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
+		SolrQuery query = buildSearchQuery(searchParameters);
 		query.set("rows", "0");
 		query.set("facet", "true");
 
-		QueryResponse rsp = server.query(query);
+		QueryResponse rsp = visibleQuery(query);
 		long num = rsp.getResults().getNumFound();
 		logger.info("-- Search-- Matched Datasets in cache: " + num);
 		rsp = null;
@@ -546,56 +597,32 @@ public class MetadataCacheManager {
 	 * metadata cache
 	 *
 	 * @param searchParameters
-	 *            list of key,value pairs relative to keywords and fields to search
-	 *            in
+	 *            keywords, fields, catalogues and dates to search in
 	 * @throws IOException
 	 * @throws SolrServerException
 	 * @returns SearchResult
-	 *
-	 *          TODO: Sostituire l'hashmap in input con l'oggetto di tipo
-	 *          SearchRequest
 	 */
-	public static SearchResult searchDatasets(HashMap<String, Object> searchParameters)
+	public static SearchResult searchDatasets(SearchParameters searchParameters)
 			throws IOException, SolrServerException {
-		SolrQuery query = new SolrQuery();
 
 		QueryResponse rsp;
 		List<DCATDataset> resultDatasets = new ArrayList<DCATDataset>();
 		List<SearchFacetsList> facets = new ArrayList<SearchFacetsList>();
 
-		// Risparmiamo cicli inutili nella buildGenericQuery
-		if (searchParameters.containsKey("rows"))
-			query.set("rows", (String) searchParameters.remove("rows"));
-		if (searchParameters.containsKey("start"))
-			query.set("start", (String) searchParameters.remove("start"));
-		if (searchParameters.containsKey("sort")) {
-			String[] sort = ((String) searchParameters.remove("sort")).split(",");
-			query.set("sort", sort[0] + " " + sort[1]);
-		}
+		storeKeywordsStatistics(searchParameters);
 
 		// DATASETS QUERY
-		query.setQuery(buildGenericQuery(searchParameters));
+		SolrQuery query = buildSearchQuery(searchParameters);
 
-		// Facets
-		query.addFacetField("keywords");
-		query.addFacetField("distributionFormats");
-		query.addFacetField("distributionLicenses");
-		query.addFacetField("nodeID");
-//		query.addFacetField("theme");
-		query.addFacetField("datasetThemes");
+		// Facets, each excluding its own selection so that its other values
+		// remain selectable
+		for (String field : SEARCH_FACETS)
+			query.addFacetField("{!ex=" + field + "}" + field);
 
 		// query.setFacetLimit(40);
 		query.setFacetMinCount(1);
 
-		// Set the filters in order to match parent and childs
-		query.set("parent_filter", "content_type:" + CacheContentType.dataset);
-
-		query.set("defType", "edismax");
-		query.addFilterQuery("{!parent which=$parent_filter}");
-
-		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
-
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 
 		SolrDocumentList docs = rsp.getResults();
 		Long count = docs.getNumFound();
@@ -652,7 +679,7 @@ public class MetadataCacheManager {
 			query.setRows(rows);
 			query.setStart(offset);
 		}
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 
 		SolrDocumentList docs = rsp.getResults();
 		Long count = docs.getNumFound();
@@ -673,21 +700,16 @@ public class MetadataCacheManager {
 	}
 
 	
-	public static SearchResult searchForDistributionStatistics(HashMap<String, Object> searchParameters)
+	public static SearchResult searchForDistributionStatistics(SearchParameters searchParameters)
 			throws IOException, SolrServerException {
 		SolrQuery query = new SolrQuery();
 
 		QueryResponse rsp;
 		List<SearchFacetsList> facets = new ArrayList<SearchFacetsList>();
 
-		if (searchParameters.containsKey("nodes") && !searchParameters.containsKey("nodeID")) {
-			ArrayList<Integer> nodes = (ArrayList<Integer>) searchParameters.remove("nodes");
-			String nodeIDString = nodes.stream().map(i -> i.toString()).collect(Collectors.joining(" OR ", "(", ")"));
-			if (!"()".equals(nodeIDString))
-				query.setQuery("nodeID:"+searchParameters.get("nodeID").toString());
-		}else if(searchParameters.containsKey("nodeID")) {
-			query.setQuery("nodeID:"+searchParameters.get("nodeID").toString());
-		}
+		List<Integer> nodes = searchParameters.getNodes();
+		if (nodes != null && !nodes.isEmpty())
+			query.setQuery("nodeID:" + nodes.stream().map(i -> i.toString()).collect(Collectors.joining(" OR ", "(", ")")));
 		
 		// Risparmiamo cicli inutili nella buildGenericQuery
 		query.set("rows", "0");
@@ -706,7 +728,7 @@ public class MetadataCacheManager {
 
 		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
 
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 
 		SolrDocumentList docs = rsp.getResults();
 		Long count = docs.getNumFound();
@@ -724,22 +746,18 @@ public class MetadataCacheManager {
 
 	}
 	
-	public static HashMap<String,String> getAllLicensesInfo(HashMap<String, Object> searchParameters)
+	public static HashMap<String,String> getAllLicensesInfo(SearchParameters searchParameters)
 			throws IOException, SolrServerException {
 		SolrQuery query = new SolrQuery();
 
 		QueryResponse rsp;
 		HashMap<String,String> map = new HashMap<String,String>();
 
-		if (searchParameters.containsKey("nodes") && !searchParameters.containsKey("nodeID")) {
-			ArrayList<Integer> nodes = (ArrayList<Integer>) searchParameters.remove("nodes");
-			String nodeIDString = nodes.stream().map(i -> i.toString()).collect(Collectors.joining(" OR ", "(", ")"));
-			if (!"()".equals(nodeIDString))
-				query.setQuery("nodeID:"+searchParameters.get("nodeID").toString());
-		}else if(searchParameters.containsKey("nodeID")) {
-			query.setQuery("nodeID:"+searchParameters.get("nodeID").toString());
-		}
-		query.setRows(Integer.parseInt(searchParameters.get("rows").toString()));
+		List<Integer> nodes = searchParameters.getNodes();
+		if (nodes != null && !nodes.isEmpty())
+			query.setQuery("nodeID:" + nodes.stream().map(i -> i.toString()).collect(Collectors.joining(" OR ", "(", ")")));
+		if (searchParameters.getRows() != null)
+			query.setRows(Integer.parseInt(searchParameters.getRows()));
 
 		// Set the filters in order to match parent and childs
 		query.set("parent_filter", "content_type:" + CacheContentType.distribution);
@@ -748,7 +766,7 @@ public class MetadataCacheManager {
 
 		query.setParam("fl", "license");
 
-		rsp = server.query(query);
+		rsp = visibleQuery(query);
 
 		SolrDocumentList docs = rsp.getResults();
 		Long count = docs.getNumFound();
@@ -769,35 +787,209 @@ public class MetadataCacheManager {
 		return map;
 
 	}
+
+	/**
+	 * Computes the platform statistics of the passed catalogues, all of them if
+	 * empty, with a single JSON Facet request that reads no document: the
+	 * formats of the distributions, the licenses and themes of the datasets, and
+	 * for each catalogue the datasets released in the period and the ones updated
+	 * in the period but released before it
+	 *
+	 * @param nodes
+	 *            catalogues to include
+	 * @param startDate
+	 *            start of the period, as an ISO instant
+	 * @param endDate
+	 *            end of the period, as an ISO instant
+	 * @throws IOException
+	 * @throws SolrServerException
+	 */
+	public static StatisticsAggregations getStatisticsAggregations(List<Integer> nodes, String startDate,
+			String endDate) throws SolrServerException, IOException {
+
+		SolrQuery query = new SolrQuery("content_type:" + CacheContentType.dataset);
+		if (nodes != null && !nodes.isEmpty())
+			query.addFilterQuery("{!terms f=nodeID}"
+					+ nodes.stream().map(i -> i.toString()).collect(Collectors.joining(",")));
+		query.setRows(0);
+
+		JSONObject byCatalogue = new JSONObject().put("catalogues",
+				new JSONObject().put("type", "terms").put("field", "nodeID").put("limit", -1));
+
+		JSONObject facets = new JSONObject();
+		facets.put("formats", termsFacet("format").put("domain",
+				new JSONObject().put("blockChildren", "content_type:" + CacheContentType.dataset)));
+		facets.put("licenses", termsFacet("distributionLicenses"));
+		facets.put("themes", termsFacet("datasetThemes"));
+		facets.put("added", new JSONObject().put("type", "query")
+				.put("q", "releaseDate:[" + startDate + " TO " + endDate + "]").put("facet", byCatalogue));
+		facets.put("updated", new JSONObject().put("type", "query")
+				.put("q", "updateDate:[" + startDate + " TO " + endDate + "] AND releaseDate:[* TO " + startDate + "}")
+				.put("facet", byCatalogue));
+		query.set("json.facet", facets.toString());
+
+		NamedList<?> result = (NamedList<?>) visibleQuery(query).getResponse().get("facets");
+
+		StatisticsAggregations aggregations = new StatisticsAggregations();
+		aggregations.setFormats(getBucketCounts(result.get("formats")));
+		aggregations.setLicenses(getBucketCounts(result.get("licenses")));
+		aggregations.setThemes(getBucketCounts(result.get("themes")));
+		aggregations.setAdded(getCatalogueCounts(result.get("added")));
+		aggregations.setUpdated(getCatalogueCounts(result.get("updated")));
+		return aggregations;
+	}
+
+	private static JSONObject termsFacet(String field) {
+		return new JSONObject().put("type", "terms").put("field", field).put("limit", STATISTICS_FACET_LIMIT)
+				.put("mincount", 1);
+	}
+
+	/**
+	 * Reads the buckets of a terms facet, in count order
+	 */
+	private static LinkedHashMap<String, Integer> getBucketCounts(Object facet) {
+		LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		if (facet == null || ((NamedList<?>) facet).get("buckets") == null)
+			return counts;
+
+		for (Object bucket : (List<?>) ((NamedList<?>) facet).get("buckets")) {
+			NamedList<?> b = (NamedList<?>) bucket;
+			counts.put(b.get("val").toString(), ((Number) b.get("count")).intValue());
+		}
+		return counts;
+	}
+
+	private static HashMap<Integer, Integer> getCatalogueCounts(Object facet) {
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		if (facet == null)
+			return counts;
+
+		getBucketCounts(((NamedList<?>) facet).get("catalogues"))
+				.forEach((nodeId, count) -> counts.put(Integer.valueOf(nodeId), count));
+		return counts;
+	}
 	
 	
-	public static SearchResult searchAllDatasets() throws IOException, SolrServerException {
+	/**
+	 * Reads the cached datasets, all of them or only the ones of a node, with a
+	 * SOLR cursor sorted by id and hands them to the handler one page at a time.
+	 * Unlike start/rows paging, the cost of a page does not grow with its offset
+	 * and only one page is held in memory.
+	 * 
+	 * @param nodeId
+	 *            ID of the node which datasets belong to, null to read every
+	 *            dataset
+	 * @param pageSize
+	 *            number of datasets of each page
+	 * @param handler
+	 *            the handler that receives each page
+	 */
+	public static void forEachDatasetsPage(Integer nodeId, int pageSize, IDatasetPageHandler handler)
+			throws Exception {
+		SolrCursor<DCATDataset> cursor = new SolrCursor<DCATDataset>(server,
+				buildDatasetsQuery(nodeId, "*,[child parentFilter=$parent_filter limit=1000]"), pageSize,
+				DCATDataset::docToDataset);
 
-		List<DCATDataset> totalDatasets = new ArrayList<DCATDataset>();
-		int start = 0;
-		HashMap<String, Object> searchParameters = new HashMap<String, Object>();
-		searchParameters.put("ALL", "");
-		searchParameters.put("rows", "1000");
-		searchParameters.put("start", "0");
-		searchParameters.put("sort", "title,asc");
-		// searchParameters.put("nodes", new ArrayList<Integer>());
-
-		// Initial search to get total count and first 1000 datasets
-		SearchResult currentResult = searchDatasets(searchParameters);
-		Long totalCount = currentResult.getCount();
-		
-		if (totalCount > 0)
-			do {
+		List<DCATDataset> page = new ArrayList<DCATDataset>(pageSize);
+		try {
+			while (cursor.hasNext()) {
+				page.add(cursor.next());
+				if (page.size() >= pageSize) {
+					handler.handlePage(page);
+					page = new ArrayList<DCATDataset>(pageSize);
+				}
+			}
+		} catch (SolrCursor.SolrCursorException e) {
+			throw unwrap(e);
+		}
+		if (!page.isEmpty())
+			handler.handlePage(page);
+	}
 
-				totalDatasets.addAll(currentResult.getResults());
-				searchParameters.put("start", String.valueOf(start));
-				searchParameters.put("rows", "1000");
-				currentResult = searchDatasets(searchParameters);
-				start += currentResult.getResults().size();
+	/**
+	 * Returns a lazy cursor over the cached datasets, all of them or only the ones
+	 * of a node, sorted by id. Datasets are read from SOLR one page at a time, see
+	 * {@link SolrCursor}.
+	 * 
+	 * @param nodeId
+	 *            ID of the node which datasets belong to, null to read every
+	 *            dataset
+	 */
+	public static SolrCursor<DCATDataset> getDatasetsCursor(Integer nodeId) {
+		return new SolrCursor<DCATDataset>(server,
+				buildDatasetsQuery(nodeId, "*,[child parentFilter=$parent_filter limit=1000]"), CURSOR_PAGE_SIZE,
+				DCATDataset::docToDataset);
+	}
+
+	/**
+	 * Returns a lazy cursor over a projection of the cached datasets, all of them
+	 * or only the ones of a node. Only the requested fields of the dataset
+	 * documents are fetched, without their children.
+	 * 
+	 * @param nodeId
+	 *            ID of the node which datasets belong to, null to read every
+	 *            dataset
+	 * @param mapper
+	 *            converts each projected document into the returned element
+	 * @param fields
+	 *            the dataset fields to fetch
+	 */
+	public static <T> SolrCursor<T> getDatasetFieldsCursor(Integer nodeId, Function<SolrDocument, T> mapper,
+			String... fields) {
+		return new SolrCursor<T>(server, buildDatasetsQuery(nodeId, String.join(",", fields)), CURSOR_PAGE_SIZE,
+				mapper);
+	}
 
-			} while (start < totalCount && currentResult.getResults().size()!=0);
+	private static SolrQuery buildDatasetsQuery(Integer nodeId, String fl) {
+		SolrQuery query = new SolrQuery();
+		query.setQuery("content_type:" + CacheContentType.dataset);
+		if (nodeId != null)
+			query.addFilterQuery("nodeID:" + nodeId);
+		visibility.apply(query);
+		query.set("parent_filter", "content_type:" + CacheContentType.dataset);
+		query.setParam("fl", fl);
+		return query;
+	}
 
-		return new SearchResult(totalCount, totalDatasets);
+	/*
+	 * Runs the query on the visible generations of the catalogues' datasets
+	 */
+	private static QueryResponse visibleQuery(SolrQuery query) throws SolrServerException, IOException {
+		visibility.apply(query);
+		return server.query(query);
+	}
+
+	private static <T> List<T> collect(SolrCursor<T> cursor) throws IOException, SolrServerException {
+		List<T> result = new ArrayList<T>();
+		try {
+			while (cursor.hasNext())
+				result.add(cursor.next());
+		} catch (SolrCursor.SolrCursorException e) {
+			throw unwrap(e);
+		}
+		return result;
+	}
+
+	/*
+	 * Rethrows the checked SOLR exception wrapped by a cursor
+	 */
+	private static IOException unwrap(SolrCursor.SolrCursorException e) throws SolrServerException {
+		if (e.getCause() instanceof SolrServerException)
+			throw (SolrServerException) e.getCause();
+		if (e.getCause() instanceof IOException)
+			return (IOException) e.getCause();
+		return new IOException(e.getMessage(), e);
+	}
+
+	/**
+	 * @deprecated holds every cached dataset in memory, use
+	 *             {@link #forEachDatasetsPage(Integer, int, IDatasetPageHandler)}
+	 */
+	@Deprecated
+	public static SearchResult searchAllDatasets() throws IOException, SolrServerException {
+
+		List<DCATDataset> totalDatasets = collect(getDatasetsCursor(null));
+		return new SearchResult((long) totalDatasets.size(), totalDatasets);
 
 	}
 
@@ -810,14 +1002,14 @@ public class MetadataCacheManager {
 	 * @throws SolrServerException
 	 * @throws DatasetNotFoundException
 	 * @returns SearchResult containing the list of DCAT Datasets of the node
+	 * @deprecated holds every dataset of the node in memory, use
+	 *             {@link #forEachDatasetsPage(Integer, int, IDatasetPageHandler)}
 	 */
+	@Deprecated
 	public static SearchResult searchAllDatasetsByODMSNode(int nodeId)
 			throws DatasetNotFoundException, IOException, SolrServerException {
-		HashMap<String, Object> idParam = new HashMap<String, Object>();
-		idParam.put("nodeID", new Integer(nodeId).toString());
-		idParam.put("rows", "10000000");
-
-		return searchDatasets(idParam);
+		List<DCATDataset> datasets = collect(getDatasetsCursor(nodeId));
+		return new SearchResult((long) datasets.size(), datasets);
 	}
 
 	// public static List<SearchFacet> getSearchFacets(HashMap<String, Object>
@@ -852,7 +1044,7 @@ public class MetadataCacheManager {
 	// query.addFilterQuery("{!parent which=$parent_filter}");
 	// query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
 	//
-	// rsp = server.query(query);
+	// rsp = visibleQuery(query);
 	//
 	// List<Count> response = rsp.getFacetFields().get(0).getValues();
 	//
@@ -870,108 +1062,143 @@ public class MetadataCacheManager {
 	// }
 
 	/**
-	 * Builds the SOLR query string starting from passed Key-value pairs
-	 **/
-	private static String buildGenericQuery(HashMap<String, Object> searchParameters) {
-
-		String key, value, queryString = "";
-		boolean isFirst = true;
-
-		if (searchParameters.containsKey("nodes") && !searchParameters.containsKey("nodeID")) {
-			ArrayList<Integer> nodes = (ArrayList<Integer>) searchParameters.remove("nodes");
-			String nodeIDString = nodes.stream().map(i -> i.toString()).collect(Collectors.joining(" OR ", "(", ")"));
-			if (!"()".equals(nodeIDString))
-				searchParameters.put("nodeID", nodeIDString);
-		}
-
-		String defaultOperator = "AND";
-		boolean isEurovoc = false;
-		logger.info(searchParameters.toString());
-		if (searchParameters.containsKey("euroVoc")) {
-			isEurovoc = (boolean) searchParameters.remove("euroVoc");
-			logger.info("IS EUROVOC: " + isEurovoc);
-			if (isEurovoc) {
-				defaultOperator = "OR";
-			}
+	 * Adds the free text terms and the searched field values, except tags, to
+	 * the keywords statistics. Called for every search, including the ones
+	 * answered from the search result cache
+	 */
+	public static void storeKeywordsStatistics(SearchParameters searchParameters) {
+		String text = searchParameters.getText();
+		if (StringUtils.isNotBlank(text))
+			StatisticsManager.storeKeywordsStatistic(text.replaceAll("\"", "").trim());
+
+		for (Entry<String, String> e : searchParameters.getFilters().entrySet()) {
+			if (!e.getKey().trim().equals(SearchParameters.TAGS_FIELD))
+				StatisticsManager.storeKeywordsStatistic(e.getValue().replaceAll("\"", "").trim());
 		}
+	}
 
-		for (Entry<String, Object> e : searchParameters.entrySet()) {
-			key = e.getKey();
-			if (key.equals("releaseDate") || key.equals("updateDate"))
-				continue;
-			value = ((String) e.getValue()).replaceAll("\"", "").trim();
-
-			if (key.equals("ALL")) {
-
-				if (StringUtils.isNotBlank((String) value)) {
-
-					// Add passed keywords to statistics DB
-					StatisticsManager.storeKeywordsStatistic((String) value);
-
-					// Build the SOLR query String
-					// queryString += "(" + (isFirst ? "" : " OR ") + "*" +
-					// ((String) value).replaceAll("\\s", "*") + "*" + ")";
-
-					queryString += (isFirst ? "" : " AND ");
-
-					// queryString += Arrays.asList(((String)
-					// value).split(",")).stream()
-					// .map(x -> x.replaceAll("\\s",
-					// "*")).collect(Collectors.joining("* OR *", "(*", "*)"));
-
-					queryString += "*:" + Arrays.asList(((String) value).split(",")).stream()
-							.collect(Collectors.joining("\" " + defaultOperator + " \"", "(\"", "\")"));
-
-				} else if (isFirst && queryString.trim().equals(""))
-					queryString += "*:*";
-
-				isFirst = false;
-
-			} else if (key.equals("nodeID")) {
-
-				if (StringUtils.isNotBlank((String) value))
-					queryString += (isFirst ? "" : " AND ") + "nodeID:" + ((String) value);
-
-				isFirst = false;
+	/**
+	 * Compiles the search parameters into a SOLR query on the datasets.
+	 * 
+	 * Only the free text terms and the fields that are not facets are scored in
+	 * the main query, while catalogues, facet selections and date ranges become
+	 * separate filter queries. Filters are cached by SOLR on their own, so the
+	 * queries of a portal that only change page, sort or one of the selections
+	 * reuse the cached filters instead of scoring the whole block join again.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the overlap sort is requested without a spatial filter
+	 **/
+	private static SolrQuery buildSearchQuery(SearchParameters searchParameters) {
 
-			} else if (key.equals("tags")) {
+		SolrQuery query = new SolrQuery();
+		logger.info(searchParameters.toString());
 
-				queryString += (isFirst ? "" : " AND ") + "keywords" + ":" + "(\"" + value.replace(",", "\" AND \"")
-						+ "\")";
-				isFirst = false;
+		String defaultOperator = searchParameters.isEuroVoc() ? "OR" : "AND";
+		List<String> clauses = new ArrayList<String>();
 
-			} else if (!key.equals("sort") && !key.equals("rows") && !key.equals("start") && !key.equals("releaseDate")
-					&& !key.equals("updateDate")) {
+		String text = searchParameters.getText();
+		if (StringUtils.isNotBlank(text)) {
+			text = text.replaceAll("\"", "").trim();
+			clauses.add("*:" + joinTerms(text, defaultOperator));
+		}
 
-				// Add passed keywords to statistics DB
-				StatisticsManager.storeKeywordsStatistic((String) value);
+		for (Entry<String, String> e : searchParameters.getFilters().entrySet()) {
+			String field = e.getKey().trim();
+			String value = e.getValue().replaceAll("\"", "").trim();
 
-				// Build the SOLR query String
-				// queryString += (isFirst ? "" : " AND ") + key.trim() + ":(*"
-				// + ((String) value).replaceAll("\\s", "*").replaceAll(",", "*
-				// OR *") + "*)";
-				queryString += (isFirst ? "" : " AND ") + key.trim() + ":(\""
-						+ ((String) value).replaceAll(",", "\" " + defaultOperator + " \"") + "\")";
-				isFirst = false;
+			if (field.equals(SearchParameters.TAGS_FIELD)) {
+				query.addFilterQuery(facetFilter("keywords", joinTerms(value, "AND")));
+				continue;
 			}
 
-			key = null;
-			value = null;
+			if (SEARCH_FACETS.contains(field))
+				query.addFilterQuery(facetFilter(field, joinTerms(value, defaultOperator)));
+			else
+				clauses.add(field + ":" + joinTerms(value, defaultOperator));
 		}
 
-		if (searchParameters.containsKey("releaseDate")) {
-			String[] startEnd = (String[]) searchParameters.remove("releaseDate");
-			queryString += (isFirst ? "" : " AND ") + "releaseDate:[" + startEnd[0] + " TO " + startEnd[1] + "]";
-			isFirst = false;
+		query.setQuery(clauses.isEmpty() ? "*:*" : String.join(" AND ", clauses));
+
+		List<Integer> nodes = searchParameters.getNodes();
+		if (nodes != null && !nodes.isEmpty())
+			query.addFilterQuery("{!terms f=nodeID}"
+					+ nodes.stream().map(i -> i.toString()).distinct().collect(Collectors.joining(",")));
+
+		String[] startEnd;
+		if ((startEnd = searchParameters.getReleaseDate()) != null)
+			query.addFilterQuery("releaseDate:[" + startEnd[0] + " TO " + startEnd[1] + "]");
+		if ((startEnd = searchParameters.getUpdateDate()) != null)
+			query.addFilterQuery("updateDate:[" + startEnd[0] + " TO " + startEnd[1] + "]");
+
+		SearchSpatialFilter spatialFilter = searchParameters.getSpatialFilter();
+		Shape shape = null;
+		if (spatialFilter != null) {
+			shape = SpatialUtil.parseShape(spatialFilter.getGeometry());
+			switch (spatialFilter.getRelation()) {
+			case within:
+				query.addFilterQuery("{!field f=spatialGeometry}IsWithin(" + SpatialUtil.toWKT(shape) + ")");
+				break;
+			case bbox:
+				query.addFilterQuery("{!field f=spatialBBox}Intersects(" + SpatialUtil.toEnvelope(shape) + ")");
+				break;
+			default:
+				query.addFilterQuery("{!field f=spatialGeometry}Intersects(" + SpatialUtil.toWKT(shape) + ")");
+				break;
+			}
 		}
 
-		if (searchParameters.containsKey("updateDate")) {
-			String[] startEnd = (String[]) searchParameters.remove("updateDate");
-			queryString += ((isFirst ? "" : " AND ") + "updateDate:[" + startEnd[0] + " TO " + startEnd[1] + "]");
-			isFirst = false;
+		if (searchParameters.getRegex() != null) {
+			String regexFilter = PatternQueryBuilder.regexFilter(searchParameters.getRegex(), "title", "description");
+			if (regexFilter != null)
+				query.addFilterQuery(regexFilter);
 		}
-		logger.info(queryString);
-		return queryString;
+		for (Entry<String, String> e : searchParameters.getSubstringFilters().entrySet())
+			query.addFilterQuery(PatternQueryBuilder.substringFilter(e.getKey(), e.getValue()));
+		if (searchParameters.getRegex() != null || !searchParameters.getSubstringFilters().isEmpty())
+			query.setTimeAllowed(PATTERN_SEARCH_TIMEOUT);
+
+		if (searchParameters.getRows() != null)
+			query.set("rows", searchParameters.getRows());
+		if (searchParameters.getStart() != null)
+			query.set("start", searchParameters.getStart());
+
+		SortOption sort = searchParameters.getSort();
+		if (sort != null && sort.getField().equals(SearchParameters.OVERLAP_SORT)) {
+			// Datasets whose bounding box best overlaps the searched one come first
+			if (shape == null)
+				throw new IllegalArgumentException(
+						"The " + SearchParameters.OVERLAP_SORT + " sort requires a spatial filter");
+			query.set("spatialOverlap",
+					"{!field f=spatialBBox score=overlapRatio}Intersects(" + SpatialUtil.toEnvelope(shape) + ")");
+			query.set("sort", "query($spatialOverlap,0) " + sort.getMode());
+		} else if (sort != null)
+			query.set("sort", sort.getField() + " " + sort.getMode());
+
+		// Set the filters in order to match parent and childs
+		query.set("parent_filter", "content_type:" + CacheContentType.dataset);
+		query.set("defType", "edismax");
+		query.addFilterQuery("{!parent which=$parent_filter}");
+		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
+
+		logger.info(query.getQuery() + " " + Arrays.toString(query.getFilterQueries()));
+		return query;
+	}
+
+	/**
+	 * Joins the comma separated terms into a SOLR clause, as ("a" AND "b")
+	 */
+	private static String joinTerms(String value, String operator) {
+		return Arrays.asList(value.split(",")).stream()
+				.collect(Collectors.joining("\" " + operator + " \"", "(\"", "\")"));
+	}
+
+	/**
+	 * Facet selections are tagged with their field name, so that a facet can be
+	 * computed excluding its own selection
+	 */
+	private static String facetFilter(String field, String clause) {
+		return "{!tag=" + field + "}" + field + ":" + clause;
 	}
 
 	/*
@@ -1045,7 +1272,7 @@ public class MetadataCacheManager {
 		query.addFilterQuery("{!parent which=$parent_filter}");
 		query.setParam("fl", "*,[child parentFilter=$parent_filter limit=1000]");
 
-		QueryResponse rsp = server.query(query);
+		QueryResponse rsp = visibleQuery(query);
 
 		SolrDocumentList docs = rsp.getResults();
 
@@ -1083,7 +1310,7 @@ public class MetadataCacheManager {
 		query.set("rows", "0");
 		query.set("facet", "true");
 
-		QueryResponse rsp = server.query(query);
+		QueryResponse rsp = visibleQuery(query);
 		long num = rsp.getResults().getNumFound();
 		logger.info("-- Search-- Matched Datasets in cache: " + num);
 		rsp = null;
@@ -1230,7 +1457,6 @@ public class MetadataCacheManager {
 	public static void init(boolean createCache, String configPath) {
 
 		logger.info("LOAD CACHE init");
-		List<DCATDataset> toLoad;
 
 		// *************** Initializes SOLR Embedded Server
 		// ***********************/
@@ -1238,6 +1464,11 @@ public class MetadataCacheManager {
 		CoreContainer container = new CoreContainer(configPath);
 		container.load();
 		server = new EmbeddedSolrServer(container, "core");
+		indexer = new SolrIndexingQueue(server,
+				PropertyManager.getIntProperty(IdraProperty.CACHE_INDEX_BATCH_SIZE, 500),
+				PropertyManager.getIntProperty(IdraProperty.CACHE_INDEX_COMMIT_WITHIN, 10000),
+				PropertyManager.getIntProperty(IdraProperty.CACHE_INDEX_COMMIT_MAX_DOCS, 5000),
+				PropertyManager.getIntProperty(IdraProperty.CACHE_INDEX_COMMIT_MAX_TIME, 30000), generations);
 //		String urlString = "http://localhost:8983/solr/opendatafederation";
 //		server = new HttpSolrClient.Builder(urlString).build();
 		logger.info("SOLR SERVER - init - end");
@@ -1246,44 +1477,18 @@ public class MetadataCacheManager {
 
 		// Loads datasets from DB to Metadata SOLR Cache
 		if (createCache) {
-			logger.info("LOAD CACHE from DB - init - start");
-			CachePersistenceManager jpaInstance = new CachePersistenceManager();
-
-			LocalTime time1 = LocalTime.now();
-			toLoad = jpaInstance.jpaGetDatasets();
-			LocalTime time2 = LocalTime.now();
-			logger.info("Dataset Loaded "+toLoad.size());
-			logger.info("LOAD CACHE from DB - init - end in " + Duration.between(time1, time2) + " milliseconds");
 			logger.info("LOAD DB CACHE to SOLR - start");
 
 			try {
-				// Clean previous index data
-				server.deleteByQuery("*:*");
-				server.commit();
-
-				/*
-				 *
-				 */
-				double rounds = Math.ceil(toLoad.size() / 10000.00);
-				logger.debug("Loading Datasets to SOLR with Rounds: " + rounds);
-				for (int i = 0; i < rounds; i++) {
-
-					int beg = i * 10000;
-					int end = (((i + 1) * 10000 - 1) > toLoad.size()) ? toLoad.size() : ((i + 1) * 10000 - 1);
-
-					logger.debug("TOTAL: " + toLoad.size() + " FROM: " + beg + " TO: " + end);
-
-					List<DCATDataset> datasetsToAdd = toLoad.subList(beg, end);
-					if (!datasetsToAdd.isEmpty()) {
-						for (DCATDataset d : datasetsToAdd)
-							server.add(d.toDoc());
-						server.commit();
-					}
-				}
+				Map<String, Long> visibleGenerations = new HashMap<String, Long>();
+				for (ODMSCatalogue node : ODMSManager.getODMSCatalogues())
+					visibleGenerations.put(Integer.toString(node.getId()), node.getGeneration());
 
-				jpaInstance.jpaClose();
-				jpaInstance = null;
-				toLoad = null;
+				new SolrCacheRebuilder(server, indexer,
+						PropertyManager.getIntProperty(IdraProperty.CACHE_REBUILD_PAGE_SIZE, 500),
+						PropertyManager.getIntProperty(IdraProperty.CACHE_REBUILD_THREADS,
+								Runtime.getRuntime().availableProcessors()),
+						visibleGenerations).rebuild();
 
 				logger.info("LOAD DB CACHE to SOLR - end");
 			} catch (Exception e) {
@@ -1329,38 +1534,19 @@ public class MetadataCacheManager {
 
 		// Total (node) variables
 		CachePersistenceManager cachePersistence = new CachePersistenceManager();
-		int rdfCount = 0, skipped = 0;
-		boolean stop = false;
 
 		/*
-		 * datasetCount is total node datasets count, calculated by this method
-		 * 
-		 * IMPORTANT datasetCount is different from the value node.getDatasetCount(),
-		 * which is the one retrieved from "count" fields, returned directly by node API
-		 *
-		 * 
-		 */
-		int datasetCount = 0,initialDatasetsCount=0;
-
-		// Iteration variables
-		List<DCATDataset> currentDatasets = null;
-		int currentDatasetCount = 0, currentSkipped = 0;
-
-		/*
-		 * Retrieve all datasets from the ODMS node, in a paginated way (1000 per page)
+		 * Retrieve all datasets from the ODMS node, in a paginated way
 		 * 
 		 */
 		logger.info("Loading all datasets of the new ODMS Node " + node.getName());
 		try {
 
-			/*
-			 * Retrieve all node datasets, page by page, until all the datasets pages has
-			 * been retrieved
-			 * 
-			 */
+			IODMSConnector connector = ODMSManager.getODMSCatalogueConnector(node);
+
 			if (!node.getNodeType().equals(ODMSCatalogueType.SOCRATA)
 					&& !node.getNodeType().equals(ODMSCatalogueType.DKAN)) {
-				initialDatasetsCount = ODMSManager.getODMSCatalogueConnector(node).countDatasets();
+				int initialDatasetsCount = connector.countDatasets();
 				if (!(initialDatasetsCount > 0)) {
 					node.setNodeState(ODMSCatalogueState.OFFLINE);
 				}
@@ -1369,173 +1555,28 @@ public class MetadataCacheManager {
 				ODMSManager.updateODMSCatalogue(node, true);
 			}
 
-			while (!stop) {
-
-				// Get current datasets page from ODMS Node
-				currentDatasets = ODMSManager.getODMSCatalogueConnector(node).getAllDatasets();
-				currentDatasetCount = currentDatasets.size();
-				currentSkipped = 0;
-
-				if (!node.getNodeType().equals(ODMSCatalogueType.CKAN) && currentDatasets.size() != 0) {
-
-					node.setDatasetCount(currentDatasetCount);
-					node.setNodeState(ODMSCatalogueState.ONLINE);
-					ODMSManager.updateODMSCatalogue(node, true);
-				}
-
-				int i = 0;
-
-				logger.info("Starting to persist current datasets (ALL in one transaction");
-				cachePersistence.jpaBeginTransaction();
-
-				for (DCATDataset dataset : currentDatasets) {
-
-					try {
-
-						i++;
-						logger.debug("Persisting " + i);
-
-						/*
-						 * Add distribution RDFs (if any) to the LODCache
-						 */
-						if (enableRdf)
-							dataset=handleRDFDistributions(dataset);
-
-						cachePersistence.jpaPersistDataset(dataset);
-						
-						//Se è orion setting sulle downloadURL e accessURL delle distribution
-						if(node.getNodeType().equals(ODMSCatalogueType.ORION)) {
-							handleORIONDistribution(cachePersistence,node,dataset);
-						}
-						
-						server.add(dataset.toDoc());
-						
-					} catch (EntityExistsException e) {
-						logger.info("Dataset with Id: " + dataset.getId() + " is already present, then skipped");
-						currentSkipped++;
-
-					} catch (SolrServerException | IOException | SolrException e) {
-						logger.info("Problem during SOLR adding of dataset with Id: " + dataset.getId()
-								+ " , then skipped:" + e.getClass() + " - " + e.getMessage());
-						currentSkipped++;
-						cachePersistence.jpaRemoveDataset(dataset);
-
-					}
-
-				}
-
-				/*
-				 * Commit the current datasets page to Hibernate and then to SOLR Cache
-				 * 
-				 */
-				try {
-
-					logger.info("Starting to commit the current datasets page");
-					logger.info("Hibernate Commit Transaction");
-					cachePersistence.jpaCommitTransanction();
-					logger.info("SOLR Commit");
-					server.commit();
-					currentDatasets = null;
-					skipped += currentSkipped;
-					logger.info("Current datasets page was successfully committed and persisted");
-
-					/*
-					 * If there was an error while committing the whole transaction, start to
-					 * persist datasets one by one
-					 */
-				} catch (IllegalStateException | RollbackException | SolrServerException | IOException
-						| SolrException e) {
-
-					logger.info("There was an error while committing the current datasets page: " + e.getClass() + " - "
-							+ e.getMessage());
-					logger.info("Starting to persist datasets one by one");
-					e.printStackTrace();
-
-					// cachePersistence.jpaClear();
-					server.rollback();
-					// cachePersistence.jpaRollbackTransaction();
-
-					i = 0;
-					for (DCATDataset dataset : currentDatasets) {
-
-						try {
-							i++;
-							logger.info("Persisting dataset: " + i);
-							
-							if (enableRdf)
-								dataset=handleRDFDistributions(dataset);
-						
-							cachePersistence.jpaPersistOrMergeAndCommitDataset(dataset);
-							//Se è orion setting sulle downloadURL e accessURL delle distribution
-							if(node.getNodeType().equals(ODMSCatalogueType.ORION)) {
-								handleORIONDistribution(cachePersistence,node,dataset);
-							}
-							server.add(dataset.toDoc());
-							server.commit();
-
-						} catch (RollbackException | IllegalStateException ex) {
-							logger.info("Transaction Failed while committing dataset with Id: " + dataset.getId()
-									+ " - " + e.getClass() + " - " + e.getMessage());
-							skipped++;
-						} catch (Exception ex) {
-
-							logger.info("Problem during committing of dataset with Id: " + dataset.getId()
-									+ " , then skipped: " + ex.getClass() + " - " + ex.getMessage());
-							skipped++;
-							if (ex.getClass().equals(IOException.class)
-									|| ex.getClass().equals(SolrServerException.class))
-								cachePersistence.jpaRemoveDataset(dataset);
-
-						}
-
-					}
-
-					currentDatasets = null;
-
-				}
-
-				/*
-				 * Update all node counts (RDF and datasets) for this page iteration and //
-				 * "Start" number from which to start the next datasets // retrieval (page)
-				 * 
-				 */
-
-				/*
-				 * In any case (whole page or one by one commit), add the current datasets count
-				 * to the global one (node)
-				 */
-
-				datasetCount += currentDatasetCount;
-
-				node.setRdfCount(node.getRdfCount() + rdfCount);
-				node.setDatasetStart(node.getDatasetStart() + currentDatasetCount);
-				ODMSManager.updateODMSCatalogue(node, true);
-
-				if (node.getNodeType().equals(ODMSCatalogueType.CKAN) || node.getNodeType().equals(ODMSCatalogueType.NATIVE)) {
-					if (node.getDatasetCount() == node.getDatasetStart()
-							|| node.getDatasetStart() > node.getDatasetCount() || currentDatasetCount == 0) {
-						stop = true;
-					}
-				} else {
-					stop = true;
-				}
+			/*
+			 * Retrieve all node datasets, page by page, persisting and committing each
+			 * page before the next one is requested. The node "Start" is saved after
+			 * every page, so that an interrupted load resumes from the last committed
+			 * page
+			 */
+			if (node.getDatasetStart() < 0)
+				node.setDatasetStart(0);
 
-			}
+			CataloguePageLoader pageLoader = new CataloguePageLoader(node, cachePersistence);
+			connector.getAllDatasets(node.getDatasetStart(), pageLoader);
 
 			// Check if the node datasets Count, initially retrieved by node
 			// API, mismatches with
 			// the one calculated here
-			// if (node.getDatasetStart() > node.getDatasetCount()) {
-			// node.setDatasetCount(node.getDatasetCount() +
-			// currentDatasetCount);
-			// } else
 			if (node.getDatasetCount() > node.getDatasetStart()) {
-				node.setDatasetCount(datasetCount);
+				node.setDatasetCount(node.getDatasetStart());
 			}
 
 			// Updates the node dataset Count
-			if (skipped != 0) {
-				node.setDatasetCount(node.getDatasetCount() - skipped);
+			if (pageLoader.skipped != 0) {
+				node.setDatasetCount(node.getDatasetCount() - pageLoader.skipped);
 
 				// Decrementando lo start, come si fa a sapere quali dataset
 				// sono stati saltati?
@@ -1546,10 +1587,8 @@ public class MetadataCacheManager {
 				ODMSManager.updateODMSCatalogue(node, true);
 			}
 
-			if (stop) {
-				node.setDatasetStart(-1);
-				ODMSManager.updateODMSCatalogue(node, true);
-			}
+			node.setDatasetStart(-1);
+			ODMSManager.updateODMSCatalogue(node, true);
 
 			logger.info("Adding datasets for ODMS node:" + node.getId() + " completed successfully");
 			// node.setRdfCount(rdfCount);
@@ -1583,62 +1622,397 @@ public class MetadataCacheManager {
 
 	}
 
-	private static DCATDataset handleRDFDistributions(DCATDataset dataset) {
+	/**
+	 * Persists every page of datasets retrieved during the first load of a node,
+	 * committing it to Hibernate and then to SOLR, and saves the node "Start" from
+	 * which the next page will be retrieved
+	 */
+	private static class CataloguePageLoader implements IDatasetPageHandler {
+
+		private final ODMSCatalogue node;
+		private final CachePersistenceManager cachePersistence;
+		private int skipped = 0;
+
+		private CataloguePageLoader(ODMSCatalogue node, CachePersistenceManager cachePersistence) {
+			this.node = node;
+			this.cachePersistence = cachePersistence;
+		}
+
+		@Override
+		public void handlePage(List<DCATDataset> currentDatasets) throws Exception {
+
+			int currentDatasetCount = currentDatasets.size();
+
+			if (!node.getNodeType().equals(ODMSCatalogueType.CKAN) && currentDatasetCount != 0) {
+
+				node.setDatasetCount(node.getDatasetStart() + currentDatasetCount);
+				node.setNodeState(ODMSCatalogueState.ONLINE);
+				ODMSManager.updateODMSCatalogue(node, true);
+			}
 
-		boolean hasStoredRDF = false;
-		List<DCATDistribution> distributionsToAdd = dataset.getDistributions().stream().filter(x -> x.isRDF()).collect(Collectors.toList());
+			skipped += persistDatasetsPage(node, cachePersistence, currentDatasets, node.getGeneration());
 
-		if (distributionsToAdd != null && !distributionsToAdd.isEmpty()) {
+			/*
+			 * In any case (whole page or one by one commit), update the "Start" number
+			 * from which to start the next datasets retrieval (page)
+			 */
+			node.setDatasetStart(node.getDatasetStart() + currentDatasetCount);
+			ODMSManager.updateODMSCatalogue(node, true);
+		}
+	}
 
-			for (DCATDistribution dist : distributionsToAdd) {
+	/**
+	 * Replaces all the cached datasets of the passed node with the ones it
+	 * currently publishes, without leaving the node empty in the meantime.
+	 * 
+	 * The new datasets are persisted and indexed under a staging generation,
+	 * hidden from every query until all of them are loaded. The new generation
+	 * must then hold at least idra.cache.shadow.minCountPercent of the datasets
+	 * the node had, with at most idra.cache.shadow.maxErrorPercent of them
+	 * skipped, to be made visible with a single switch that also hides the old
+	 * datasets, purged afterwards in the background. Otherwise the staging
+	 * generation is purged and the old datasets stay visible.
+	 * 
+	 * @param node
+	 *            ODMSCatalogue which datasets are to be reloaded
+	 * @throws InvocationTargetException
+	 *             if the datasets could not be retrieved or the new generation
+	 *             failed the checks
+	 */
+	public static void reloadCacheFromODMSCatalogue(ODMSCatalogue node) throws InvocationTargetException {
 
-				//if (dist.isRDF()) {
+		LocalTime startTime = LocalTime.now();
+		int nodeId = node.getId();
+		int previousCount = node.getDatasetCount();
+		long generation = visibility.newGeneration();
+		visibility.hide(generation);
+		logger.info("Reloading all datasets of ODMS Node " + node.getName() + " in generation " + generation);
 
-					logger.info("Adding new RDF to LODCache - " + dist.getAccessURL().getValue());
-					try {
+		CachePersistenceManager cachePersistence = new CachePersistenceManager();
+		ShadowPageLoader pageLoader = new ShadowPageLoader(node, cachePersistence, generation);
+		boolean switched = false;
+		try {
 
-						int rdfAdded;
-						if (dist.getAccessURL().getValue().contains("'"))
-							rdfAdded = LODCacheManager.addRDF(dist.getAccessURL().getValue().split("'")[1]);
-						else
-							rdfAdded = LODCacheManager.addRDF(dist.getAccessURL().getValue());
+			ODMSManager.getODMSCatalogueConnector(node).getAllDatasets(0, pageLoader);
 
-						// Set to true the "storedRDF" flag if
-						// adding RDF was successful
-						if (rdfAdded != 0) {
-							hasStoredRDF = true;
-							dist.setStoredRDF(true);
+			int total = pageLoader.loaded + pageLoader.skipped;
+			if (pageLoader.skipped * 100L > total * (long) shadowMaxErrorPercent)
+				throw new IllegalStateException(
+						pageLoader.skipped + " of the " + total + " retrieved datasets could not be stored");
+			if (pageLoader.loaded * 100L < previousCount * (long) shadowMinCountPercent)
+				throw new IllegalStateException("Only " + pageLoader.loaded + " datasets were retrieved, against the "
+						+ previousCount + " currently cached");
 
-							//cachePersistence.jpaUpdateDistribution(dist, getTransaction);
-							logger.info(
-									"Adding new RDF to LODCache - " + dist.getAccessURL().getValue() + " -Successful");
-						} else {
-							logger.info(
-									"Adding new RDF to LODCache - " + dist.getAccessURL().getValue() + " - Skipped");
+			indexer.commit();
+			List<String> oldIds = getDatasetIds(cachePersistence.jpaGetDatasetsOutsideGeneration(
+					Integer.toString(nodeId), generation));
 
-						}
+			node.setGeneration(generation);
+			node.setDatasetCount(pageLoader.loaded);
+			node.setNodeState(ODMSCatalogueState.ONLINE);
+			ODMSManager.updateODMSCatalogue(node, true);
 
-					} catch (Exception e) {
+			visibility.switchTo(nodeId, generation);
+			generations.switched(nodeId);
+			switched = true;
+			logger.info("Generation " + generation + " of ODMS Node " + nodeId + " is now visible with "
+					+ pageLoader.loaded + " datasets, purging " + oldIds.size() + " old datasets");
 
-						logger.error("Exception while adding rdf: " + dist.getAccessURL().getValue() + " "
-								+ e.getMessage() + "\n Then this RDF was skipped and not stored on LODCache");
+			purgeExecutor.execute(() -> purgeDatasets(nodeId, oldIds, () -> visibility.purged(nodeId, generation)));
 
-					}
+		} catch (Exception e) {
+			logger.error("Reload of ODMS Node " + nodeId + " failed, its current datasets are kept: "
+					+ e.getMessage());
+			throw new InvocationTargetException(e, e.getMessage());
+		} finally {
+			cachePersistence.jpaClose();
+			if (!switched) {
+				List<String> stagedIds = pageLoader.ids;
+				purgeExecutor.execute(() -> purgeDatasets(nodeId, stagedIds, () -> visibility.discarded(generation)));
 			}
+		}
 
+		LocalTime endTime = LocalTime.now();
+		logger.info("Elapsed time to reload: " + Duration.between(startTime, endTime));
+	}
+
+	/**
+	 * Persists every page of datasets retrieved during a shadow reload under the
+	 * staging generation, keeping track of their ids so that they can be purged
+	 * if the reload fails
+	 */
+	private static class ShadowPageLoader implements IDatasetPageHandler {
+
+		private final ODMSCatalogue node;
+		private final CachePersistenceManager cachePersistence;
+		private final long generation;
+		private final List<String> ids = new ArrayList<String>();
+		private int loaded = 0;
+		private int skipped = 0;
+
+		private ShadowPageLoader(ODMSCatalogue node, CachePersistenceManager cachePersistence, long generation) {
+			this.node = node;
+			this.cachePersistence = cachePersistence;
+			this.generation = generation;
 		}
 
+		@Override
+		public void handlePage(List<DCATDataset> currentDatasets) throws Exception {
+			for (DCATDataset dataset : currentDatasets)
+				ids.add(dataset.getId());
+
+			int currentSkipped = persistDatasetsPage(node, cachePersistence, currentDatasets, generation);
+			skipped += currentSkipped;
+			loaded += currentDatasets.size() - currentSkipped;
+		}
+	}
+
+	/**
+	 * Purges in the background the datasets left behind by the shadow reloads
+	 * interrupted by a shutdown, that is the datasets in DB that do not belong to
+	 * the visible generation of their node: staging generations never made
+	 * visible and old generations not yet purged. They are hidden until purged.
+	 * 
+	 * @param nodes
+	 *            the federated catalogues
+	 */
+	public static void purgeStaleGenerations(List<ODMSCatalogue> nodes) {
+		CachePersistenceManager cachePersistence = new CachePersistenceManager();
+		try {
+			for (ODMSCatalogue node : nodes) {
+				int nodeId = node.getId();
+				Long visible = node.getGeneration();
+				List<Object[]> stale = cachePersistence.jpaGetDatasetsOutsideGeneration(Integer.toString(nodeId),
+						visible);
+				if (stale.isEmpty())
+					continue;
+
+				List<String> ids = getDatasetIds(stale);
+				logger.info("Purging " + ids.size() + " datasets of the stale generations of ODMS Node " + nodeId);
+				if (visible != null) {
+					// As at the end of a reload, only the visible generation is shown
+					visibility.switchTo(nodeId, visible);
+					purgeExecutor.execute(() -> purgeDatasets(nodeId, ids, () -> visibility.purged(nodeId, visible)));
+				} else {
+					// Staging generations of reloads never switched to
+					Set<Long> staleGenerations = stale.stream().map(row -> (Long) row[1]).collect(Collectors.toSet());
+					staleGenerations.forEach(visibility::hide);
+					purgeExecutor.execute(
+							() -> purgeDatasets(nodeId, ids, () -> staleGenerations.forEach(visibility::discarded)));
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Error while looking for stale generations: " + e.getMessage());
+		} finally {
+			cachePersistence.jpaClose();
+		}
+	}
+
+	/*
+	 * Deletes the datasets with the passed ids from DB and SOLR, in batches, and
+	 * then runs the passed action, which can show the remaining datasets again
+	 */
+	private static void purgeDatasets(int nodeId, List<String> ids, Runnable onPurged) {
+		CachePersistenceManager cachePersistence = new CachePersistenceManager();
+		try {
+			for (int from = 0; from < ids.size(); from += PURGE_BATCH_SIZE) {
+				List<String> batch = ids.subList(from, Math.min(ids.size(), from + PURGE_BATCH_SIZE));
+				cachePersistence.jpaDeleteDatasetsByIds(Integer.toString(nodeId), batch);
+				indexer.deleteByIds(nodeId, batch);
+			}
+			indexer.commit();
+			onPurged.run();
+			generations.switched(nodeId);
+			logger.info("Purged " + ids.size() + " datasets of ODMS Node " + nodeId);
+		} catch (Exception e) {
+			logger.error("Error while purging " + ids.size() + " datasets of ODMS Node " + nodeId + ": "
+					+ e.getMessage());
+		} finally {
+			cachePersistence.jpaClose();
+		}
+	}
+
+	private static List<String> getDatasetIds(List<Object[]> rows) {
+		return rows.stream().map(row -> (String) row[0]).collect(Collectors.toList());
+	}
+
+	/**
+	 * Persists a page of datasets in a single transaction, falling back to one by
+	 * one commits if the whole page cannot be committed. The datasets are tagged
+	 * with the passed generation, both in DB and in SOLR
+	 * 
+	 * @return the number of skipped datasets
+	 */
+	private static int persistDatasetsPage(ODMSCatalogue node, CachePersistenceManager cachePersistence,
+			List<DCATDataset> currentDatasets, Long generation) throws SolrServerException, IOException {
+
+		int i = 0, currentSkipped = 0;
+		List<String> indexedIds = new ArrayList<String>();
+
 		/*
-		 * Update the hasStored flag of the dataset, if there was at least one
-		 * distribution with RDF stored in LODCache
+		 * Add distribution RDFs (if any) of the whole page to the LODCache
 		 */
-		if (hasStoredRDF) 
-			dataset.setHasStoredRDF(hasStoredRDF);
-			//cachePersistence.jpaUpdateDataset(dataset, getTransaction);
-//		}
-		distributionsToAdd = null;
-		return dataset;
+		if (enableRdf)
+			handleRDFDistributions(currentDatasets);
+
+		logger.info("Starting to persist current datasets (ALL in one transaction");
+		cachePersistence.jpaBeginTransaction();
+
+		for (DCATDataset dataset : currentDatasets) {
+
+			try {
 
+				i++;
+				logger.debug("Persisting " + i);
+
+				dataset.setGeneration(generation);
+
+				cachePersistence.jpaPersistDataset(dataset);
+				
+				//Se è orion setting sulle downloadURL e accessURL delle distribution
+				if(node.getNodeType().equals(ODMSCatalogueType.ORION)) {
+					handleORIONDistribution(cachePersistence,node,dataset);
+				}
+				
+				indexer.add(dataset.toDoc());
+				indexedIds.add(dataset.getId());
+				
+			} catch (EntityExistsException e) {
+				logger.info("Dataset with Id: " + dataset.getId() + " is already present, then skipped");
+				currentSkipped++;
+
+			} catch (SolrServerException | IOException | SolrException e) {
+				logger.info("Problem during SOLR adding of dataset with Id: " + dataset.getId()
+						+ " , then skipped:" + e.getClass() + " - " + e.getMessage());
+				currentSkipped++;
+				cachePersistence.jpaRemoveDataset(dataset);
+
+			}
+
+		}
+
+		/*
+		 * Commit the current datasets page to Hibernate and then to SOLR Cache
+		 * 
+		 */
+		try {
+
+			logger.info("Starting to commit the current datasets page");
+			logger.info("Hibernate Commit Transaction");
+			cachePersistence.jpaCommitTransanction();
+			logger.info("SOLR Commit");
+			indexer.commit();
+			currentSkipped += removeRejectedDatasets(node.getId(), cachePersistence).size();
+			logger.info("Current datasets page was successfully committed and persisted");
+			return currentSkipped;
+
+			/*
+			 * If there was an error while committing the whole transaction, start to
+			 * persist datasets one by one
+			 */
+		} catch (IllegalStateException | RollbackException | SolrServerException | IOException
+				| SolrException e) {
+
+			logger.info("There was an error while committing the current datasets page: " + e.getClass() + " - "
+					+ e.getMessage());
+			logger.info("Starting to persist datasets one by one");
+			e.printStackTrace();
+
+			currentSkipped = 0;
+			// The page may be partly committed to SOLR already, delete it there too
+			indexer.discard(node.getId(), indexedIds);
+
+			i = 0;
+			for (DCATDataset dataset : currentDatasets) {
+
+				try {
+					i++;
+					logger.info("Persisting dataset: " + i);
+
+					// The RDF distributions were already added to the LODCache
+					cachePersistence.jpaPersistOrMergeAndCommitDataset(dataset);
+					//Se è orion setting sulle downloadURL e accessURL delle distribution
+					if(node.getNodeType().equals(ODMSCatalogueType.ORION)) {
+						handleORIONDistribution(cachePersistence,node,dataset);
+					}
+					indexer.add(dataset.toDoc());
+
+				} catch (RollbackException | IllegalStateException ex) {
+					logger.info("Transaction Failed while committing dataset with Id: " + dataset.getId()
+							+ " - " + e.getClass() + " - " + e.getMessage());
+					currentSkipped++;
+				} catch (Exception ex) {
+
+					logger.info("Problem during committing of dataset with Id: " + dataset.getId()
+							+ " , then skipped: " + ex.getClass() + " - " + ex.getMessage());
+					currentSkipped++;
+					if (ex.getClass().equals(IOException.class)
+							|| ex.getClass().equals(SolrServerException.class))
+						cachePersistence.jpaRemoveDataset(dataset);
+
+				}
+
+			}
+
+			indexer.commit();
+			currentSkipped += removeRejectedDatasets(node.getId(), cachePersistence).size();
+			return currentSkipped;
+
+		}
+	}
+
+	/*
+	 * Adds the RDF distributions of the datasets to the LODCache, all together so
+	 * that they are downloaded in parallel, and sets the storedRDF flag of the
+	 * distributions and datasets that were stored
+	 */
+	private static void handleRDFDistributions(List<DCATDataset> datasets) {
+
+		List<String> links = datasets.stream().flatMap(dataset -> dataset.getDistributions().stream())
+				.filter(x -> x.isRDF()).map(MetadataCacheManager::getRDFLink).collect(Collectors.toList());
+
+		if (links.isEmpty())
+			return;
+
+		logger.info("Adding " + links.size() + " new RDF to LODCache");
+		Set<String> added = LODCacheManager.addRDFs(links);
+
+		for (DCATDataset dataset : datasets) {
+
+			boolean hasStoredRDF = false;
+			for (DCATDistribution dist : dataset.getDistributions()) {
+				if (!dist.isRDF())
+					continue;
+
+				// Set to true the "storedRDF" flag if
+				// adding RDF was successful
+				if (added.contains(getRDFLink(dist))) {
+					hasStoredRDF = true;
+					dist.setStoredRDF(true);
+					logger.info("Adding new RDF to LODCache - " + dist.getAccessURL().getValue() + " -Successful");
+				} else {
+					logger.info("Adding new RDF to LODCache - " + dist.getAccessURL().getValue() + " - Skipped");
+				}
+			}
+
+			/*
+			 * Update the hasStored flag of the dataset, if there was at least one
+			 * distribution with RDF stored in LODCache
+			 */
+			if (hasStoredRDF)
+				dataset.setHasStoredRDF(hasStoredRDF);
+		}
+
+	}
+
+	/**
+	 * Returns the link of the RDF of the distribution, stripping the quotes that
+	 * some catalogues put around the access URL
+	 */
+	public static String getRDFLink(DCATDistribution dist) {
+		if (dist.getAccessURL().getValue().contains("'"))
+			return dist.getAccessURL().getValue().split("'")[1];
+		return dist.getAccessURL().getValue();
 	}
 
 	private static void handleORIONDistribution(CachePersistenceManager cachePersistence,ODMSCatalogue node,DCATDataset dataset) {
@@ -1684,7 +2058,77 @@ public class MetadataCacheManager {
 		return res;
 	}
 	
+	/**
+	 * Sends the queued updates to SOLR and makes them visible to searches. To be
+	 * called at the end of a batch of add/update/delete operations
+	 * 
+	 * @throws SolrServerException
+	 * @throws IOException
+	 */
+	public static void commitIndex() throws SolrServerException, IOException {
+		indexer.commit();
+	}
+
+	/**
+	 * Deletes from the DB the datasets of the catalogue that SOLR refused since
+	 * the last call, so that DB and SOLR cache stay aligned. To be called after
+	 * {@link #commitIndex()}
+	 * 
+	 * @return the ids of the deleted datasets
+	 */
+	public static Set<String> removeRejectedDatasets(int nodeId) {
+		CachePersistenceManager cachePersistence = new CachePersistenceManager();
+		try {
+			return removeRejectedDatasets(nodeId, cachePersistence);
+		} finally {
+			cachePersistence.jpaClose();
+		}
+	}
+
+	private static Set<String> removeRejectedDatasets(int nodeId, CachePersistenceManager cachePersistence) {
+		Set<String> rejected = indexer.takeRejected(nodeId);
+		if (!rejected.isEmpty()) {
+			logger.error(rejected.size() + " datasets of ODMS Node " + nodeId
+					+ " were refused by SOLR, removing them from the cache: " + rejected);
+			cachePersistence.jpaDeleteDatasetsByIds(Integer.toString(nodeId), rejected);
+		}
+		return rejected;
+	}
+
+	/**
+	 * Returns a key identifying the version of the cache content of the passed
+	 * catalogues, all of them if empty, or null while any of them has changes not
+	 * yet committed. Results computed with the same key are still valid
+	 */
+	public static String getGenerationSnapshot(Collection<Integer> nodeIds) {
+		return generations.getSnapshot(nodeIds);
+	}
+
+	/**
+	 * Returns the counters of the SOLR write path: bulk flushes, commits and
+	 * commit latency
+	 */
+	public static HashMap<String, Object> getIndexingStatistics() {
+		HashMap<String, Object> stats = new HashMap<String, Object>();
+		stats.put("pendingDocuments", indexer.getPendingCount());
+		stats.put("flushCount", indexer.getFlushCount());
+		stats.put("flushedDocuments", indexer.getFlushedDocs());
+		stats.put("deleteCount", indexer.getDeleteCount());
+		stats.put("commitCount", indexer.getCommitCount());
+		stats.put("lastCommitLatency", indexer.getLastCommitLatency());
+		stats.put("maxCommitLatency", indexer.getMaxCommitLatency());
+		stats.put("averageCommitLatency", indexer.getAverageCommitLatency());
+		return stats;
+	}
+
 	public static void onFinalize() {
+		// Purges of staging and old generations are resumed at the next startup
+		purgeExecutor.shutdownNow();
+		try {
+			indexer.hardCommit();
+		} catch (SolrServerException | IOException e) {
+			e.printStackTrace();
+		}
 		try {
 			server.close();
 			CachePersistenceManager.jpaFinalize();
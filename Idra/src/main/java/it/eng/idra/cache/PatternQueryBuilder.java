@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+
+/**
+ * Builds the SOLR filters of the regular expression and substring searches on
+ * the lowercased copies of title and description.
+ * 
+ * Regular expressions follow the MySQL syntax previously used on the DB: they
+ * are case insensitive and match anywhere in the value unless anchored with ^
+ * and $. They are translated to the Lucene syntax and rejected if too long or
+ * too complex to be run on the index.
+ */
+class PatternQueryBuilder {
+
+	static final int MAX_PATTERN_LENGTH = 256;
+	// Same limit applied by SOLR to the regular expression queries
+	static final int MAX_DETERMINIZED_STATES = 10000;
+
+	private static final String WHITESPACE = " \t\n\r";
+
+	// Substrings shorter than a trigram are searched with a wildcard
+	private static final int TRIGRAM_LENGTH = 3;
+
+	private static final String[][] POSIX_CLASSES = { { "[:alpha:]", "a-z" }, { "[:digit:]", "0-9" },
+			{ "[:alnum:]", "a-z0-9" }, { "[:space:]", WHITESPACE }, { "[:upper:]", "a-z" },
+			{ "[:lower:]", "a-z" } };
+
+	private PatternQueryBuilder() {
+	}
+
+	/**
+	 * Returns the filter matching the documents with at least one of the fields
+	 * matching the pattern, or null if the pattern matches any value
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the pattern is invalid, not supported or too complex
+	 */
+	static String regexFilter(String pattern, String... fields) {
+		String regex = toLuceneRegex(pattern);
+		if (regex == null)
+			return null;
+
+		StringBuilder filter = new StringBuilder();
+		for (String field : fields) {
+			if (filter.length() > 0)
+				filter.append(" OR ");
+			filter.append(field).append("_lc:/").append(regex).append("/");
+		}
+		return filter.toString();
+	}
+
+	/**
+	 * Returns the filter matching the documents whose field contains the value,
+	 * ignoring the case
+	 */
+	static String substringFilter(String field, String value) {
+		if (value.length() >= TRIGRAM_LENGTH)
+			return field + "_trigram:\"" + ClientUtils.escapeQueryChars(value) + "\"";
+		return field + "_lc:*" + ClientUtils.escapeQueryChars(value.toLowerCase()) + "*";
+	}
+
+	static String toLuceneRegex(String pattern) {
+		if (pattern == null || pattern.length() > MAX_PATTERN_LENGTH)
+			throw new IllegalArgumentException(
+					"The pattern must be at most " + MAX_PATTERN_LENGTH + " characters long");
+
+		String body = pattern;
+		for (String[] c : POSIX_CLASSES)
+			body = body.replace(c[0], c[1]);
+
+		boolean anchoredStart = body.startsWith("^");
+		if (anchoredStart)
+			body = body.substring(1);
+		boolean anchoredEnd = body.endsWith("$") && !body.endsWith("\\$");
+		if (anchoredEnd)
+			body = body.substring(0, body.length() - 1);
+
+		StringBuilder regex = new StringBuilder();
+		boolean inClass = false;
+		for (int i = 0; i < body.length(); i++) {
+			char c = body.charAt(i);
+
+			if (c == '\\') {
+				if (++i == body.length())
+					throw new IllegalArgumentException("The pattern ends with an escape character");
+				char e = body.charAt(i);
+				switch (e) {
+				case 'd':
+					regex.append(inClass ? "0-9" : "[0-9]");
+					break;
+				case 'w':
+					regex.append(inClass ? "a-z0-9_" : "[a-z0-9_]");
+					break;
+				case 's':
+					regex.append(inClass ? WHITESPACE : "[" + WHITESPACE + "]");
+					break;
+				case 'D':
+				case 'W':
+				case 'S':
+				case 'b':
+				case 'B':
+					throw new IllegalArgumentException("\\" + e + " is not supported in patterns");
+				default:
+					regex.append('\\').append(Character.toLowerCase(e));
+				}
+				continue;
+			}
+
+			if (inClass) {
+				if (c == ']')
+					inClass = false;
+				appendLiteral(regex, c, "]^-");
+				continue;
+			}
+
+			switch (c) {
+			case '[':
+				inClass = true;
+				regex.append(c);
+				// A leading ] is part of the class
+				if (i + 1 < body.length() && body.charAt(i + 1) == '^')
+					regex.append(body.charAt(++i));
+				if (i + 1 < body.length() && body.charAt(i + 1) == ']') {
+					regex.append("\\]");
+					i++;
+				}
+				break;
+			case '^':
+			case '$':
+				throw new IllegalArgumentException("Anchors are only supported at the start and end of the pattern");
+			default:
+				appendLiteral(regex, c, ".*+?|(){},");
+			}
+		}
+		if (inClass)
+			throw new IllegalArgumentException("Unterminated character class in pattern");
+
+		// A pattern that matches anything is not worth a filter
+		if (regex.toString().matches("(\\.\\*)*") && !(anchoredStart && anchoredEnd && regex.length() == 0))
+			return null;
+
+		String luceneRegex = (anchoredStart ? "" : ".*") + "(" + regex + ")" + (anchoredEnd ? "" : ".*");
+		try {
+			new RegExp(luceneRegex).toAutomaton(MAX_DETERMINIZED_STATES);
+		} catch (TooComplexToDeterminizeException e) {
+			throw new IllegalArgumentException("The pattern is too complex");
+		}
+		return luceneRegex;
+	}
+
+	/**
+	 * Appends a character lowercased, escaping it unless it is one of the passed
+	 * operators of the MySQL syntax
+	 */
+	private static void appendLiteral(StringBuilder regex, char c, String operators) {
+		if (operators.indexOf(c) >= 0 || Character.isLetterOrDigit(c) || Character.isWhitespace(c))
+			regex.append(Character.toLowerCase(c));
+		else
+			regex.append('\\').append(c);
+	}
+
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrInputDocument;
+
+import it.eng.idra.beans.dcat.DCATDataset;
+
+/**
+ * Rebuilds the SOLR metadata cache from the datasets stored in the DB.
+ * 
+ * Datasets are read with keyset paging and the persistence context is cleared
+ * after every page, so that only the pages being indexed are held in memory.
+ * Each page is converted to SOLR documents by a pool of workers and sent
+ * through the {@link SolrIndexingQueue}, while the next one is read from the
+ * DB. The number of pages waiting for a worker is bounded.
+ * 
+ * The queue commits while the rebuild runs, so the current documents are not
+ * deleted upfront: every rebuilt document replaces the one with its id and is
+ * stamped with the id of the rebuild, and only once all of them were added the
+ * documents without the stamp, which are no longer in the DB, are deleted. A
+ * failed rebuild thus leaves every document in the index, old or rebuilt.
+ * 
+ * Datasets that do not belong to the visible generation of their catalogue,
+ * left behind by an interrupted shadow reload, are not indexed.
+ */
+class SolrCacheRebuilder {
+
+	private static Logger logger = LogManager.getLogger(SolrCacheRebuilder.class);
+
+	/** Field holding the id of the rebuild that indexed the document */
+	private static final String REBUILD_FIELD = "rebuild";
+
+	private final SolrClient server;
+	private final SolrIndexingQueue indexer;
+	private final int pageSize;
+	private final int threads;
+	private final Map<String, Long> visibleGenerations;
+	private final long rebuildId = System.currentTimeMillis();
+
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong hidden = new AtomicLong();
+	private final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+	/**
+	 * @param server
+	 *            the SOLR client of the cache, used to count the indexed datasets
+	 * @param indexer
+	 *            the write path of the cache
+	 * @param pageSize
+	 *            number of datasets read from the DB and indexed together
+	 * @param threads
+	 *            number of workers converting and indexing the pages
+	 * @param visibleGenerations
+	 *            visible generation of the datasets of each catalogue, by nodeID,
+	 *            null for the catalogues never reloaded in shadow mode
+	 */
+	SolrCacheRebuilder(SolrClient server, SolrIndexingQueue indexer, int pageSize, int threads,
+			Map<String, Long> visibleGenerations) {
+		this.server = server;
+		this.indexer = indexer;
+		this.pageSize = Math.max(1, pageSize);
+		this.threads = Math.max(1, threads);
+		this.visibleGenerations = visibleGenerations;
+	}
+
+	/**
+	 * Replaces the content of the SOLR cache with the datasets stored in the DB
+	 * 
+	 * @return the number of datasets in the rebuilt cache
+	 */
+	long rebuild() throws Exception {
+
+		Instant start = Instant.now();
+		CachePersistenceManager jpaInstance = new CachePersistenceManager();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		Semaphore pendingPages = new Semaphore(threads * 2);
+
+		try {
+			long total = jpaInstance.jpaCountDatasets();
+			logger.info("Rebuilding SOLR cache from " + total + " datasets with " + threads + " workers");
+
+			long read = 0;
+			String lastId = null, lastNodeID = null;
+			List<DCATDataset> page;
+			do {
+				page = jpaInstance.jpaGetDatasetsPage(lastId, lastNodeID, pageSize);
+				jpaInstance.jpaClear();
+				if (page.isEmpty())
+					break;
+
+				DCATDataset last = page.get(page.size() - 1);
+				lastId = last.getId();
+				lastNodeID = last.getNodeID();
+				read += page.size();
+
+				pendingPages.acquire();
+				if (error.get() != null) {
+					pendingPages.release();
+					break;
+				}
+				List<DCATDataset> toIndex = page;
+				workers.execute(() -> {
+					try {
+						indexPage(toIndex);
+					} finally {
+						pendingPages.release();
+					}
+				});
+
+				logger.info("Rebuilding SOLR cache: read " + read + "/" + total + ", indexed " + indexed.get());
+			} while (page.size() == pageSize);
+
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+			if (error.get() != null) {
+				indexer.commit();
+				throw error.get();
+			}
+
+			// Every dataset in the DB was added again, remove the others
+			indexer.deleteByQuery("*:* -" + REBUILD_FIELD + ":" + rebuildId);
+			indexer.hardCommit();
+
+			long count = countIndexedDatasets();
+			if (count != indexed.get())
+				logger.warn("SOLR cache contains " + count + " datasets, but " + indexed.get() + " were indexed");
+			logger.info("SOLR cache rebuilt in " + Duration.between(start, Instant.now()) + ": " + count
+					+ " datasets indexed, " + failed.get() + " skipped, " + hidden.get()
+					+ " of stale generations left out");
+			return count;
+
+		} finally {
+			workers.shutdownNow();
+			jpaInstance.jpaClose();
+		}
+	}
+
+	private void indexPage(List<DCATDataset> page) {
+		if (error.get() != null)
+			return;
+
+		List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(page.size());
+		for (DCATDataset d : page) {
+			if (!Objects.equals(d.getGeneration(), visibleGenerations.get(d.getNodeID()))) {
+				hidden.incrementAndGet();
+				continue;
+			}
+			try {
+				docs.add(stamp(d.toDoc()));
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				logger.error("Unable to convert dataset " + d.getId() + " to SOLR document: " + e.getMessage());
+			}
+		}
+
+		try {
+			for (SolrInputDocument doc : docs)
+				indexer.add(doc);
+			indexed.addAndGet(docs.size());
+		} catch (Exception e) {
+			logger.error("Error while indexing datasets: " + e.getMessage());
+			error.compareAndSet(null, e);
+		}
+	}
+
+	private SolrInputDocument stamp(SolrInputDocument doc) {
+		doc.setField(REBUILD_FIELD, rebuildId);
+		if (doc.hasChildDocuments())
+			for (SolrInputDocument child : doc.getChildDocuments())
+				stamp(child);
+		return doc;
+	}
+
+	private long countIndexedDatasets() throws Exception {
+		SolrQuery query = new SolrQuery("content_type:" + CacheContentType.dataset);
+		query.setRows(0);
+		return server.query(query).getResults().getNumFound();
+	}
+
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.SortClause;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+
+/**
+ * Lazy iterator over the results of a SOLR query, read one page at a time with
+ * a cursorMark.
+ * 
+ * The query is sorted by the uniqueKey, as required by SOLR cursors, so that
+ * the cost of a page does not depend on how many documents were read before it
+ * and only the current page is held in memory. Each document is converted by
+ * the passed mapper, which can build a whole dataset or extract a few projected
+ * fields.
+ * 
+ * SOLR errors raised while fetching a page are rethrown as
+ * {@link SolrCursorException}.
+ */
+public class SolrCursor<T> implements Iterator<T> {
+
+	private final SolrClient server;
+	private final SolrQuery query;
+	private final Function<SolrDocument, T> mapper;
+
+	private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+	private Iterator<SolrDocument> page = null;
+	private boolean done = false;
+	private long numFound = -1;
+
+	/**
+	 * @param server
+	 *            the SOLR client to query
+	 * @param query
+	 *            the query to run, its sort is replaced by the uniqueKey sort
+	 * @param pageSize
+	 *            number of documents fetched with each request
+	 * @param mapper
+	 *            converts each document into the returned element
+	 */
+	public SolrCursor(SolrClient server, SolrQuery query, int pageSize, Function<SolrDocument, T> mapper) {
+		this.server = server;
+		this.query = query.getCopy();
+		this.mapper = mapper;
+
+		this.query.setStart(null);
+		this.query.setRows(Math.max(1, pageSize));
+		this.query.clearSorts();
+		this.query.setSort(SortClause.asc("id"));
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!done && (page == null || !page.hasNext()))
+			fetchPage();
+		return page != null && page.hasNext();
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return mapper.apply(page.next());
+	}
+
+	/**
+	 * @return the total number of documents matching the query, available once
+	 *         the first page has been fetched
+	 */
+	public long getNumFound() {
+		if (numFound < 0 && !done)
+			hasNext();
+		return Math.max(0, numFound);
+	}
+
+	private void fetchPage() {
+		query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+		QueryResponse rsp;
+		try {
+			rsp = server.query(query);
+		} catch (SolrServerException | IOException e) {
+			throw new SolrCursorException(e);
+		}
+
+		numFound = rsp.getResults().getNumFound();
+		page = rsp.getResults().iterator();
+
+		String nextCursorMark = rsp.getNextCursorMark();
+		if (cursorMark.equals(nextCursorMark))
+			done = true;
+		cursorMark = nextCursorMark;
+	}
+
+	/**
+	 * Unchecked wrapper of the SOLR errors raised while iterating
+	 */
+	public static class SolrCursorException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public SolrCursorException(Throwable cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+}
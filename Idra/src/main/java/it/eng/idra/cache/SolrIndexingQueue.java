@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Write path of the SOLR metadata cache.
+ * 
+ * Added documents are queued and sent to SOLR in bulk, while deletions are sent
+ * in order after the pending additions. Every update request carries a
+ * commitWithin, so that changes become visible even without an explicit commit,
+ * and a soft commit is issued only when the number of uncommitted documents or
+ * the time elapsed since the last commit exceed the configured thresholds.
+ * 
+ * Since updates carry a commitWithin, other catalogues' commits are shared and
+ * SOLR may hard commit on its own, an update cannot be assumed to be still
+ * uncommitted and SOLR rollback is never used. Callers that work inside a
+ * Hibernate transaction must instead {@link #discard(int, Collection)} the
+ * documents they added when the DB commit failed, which deletes them whether
+ * they were committed or not and leaves the updates of the other catalogues
+ * untouched.
+ * 
+ * Queued documents are removed from the queue only once SOLR accepted them. If
+ * SOLR refuses a bulk add, its documents, which may belong to several
+ * catalogues, are sent one by one and only the ones refused again are dropped:
+ * their ids are kept by catalogue until {@link #takeRejected(int)}, so that the
+ * owner of each catalogue can remove them from the DB as well. If SOLR cannot
+ * be reached, the documents not sent yet stay queued for the next flush.
+ * 
+ * Every update is recorded in the {@link CatalogueGenerations} of the affected
+ * catalogues, which stay dirty until the commit that makes it visible.
+ */
+public class SolrIndexingQueue {
+
+	private static Logger logger = LogManager.getLogger(SolrIndexingQueue.class);
+
+	/** Number of ids per delete query, below the default maxBooleanClauses */
+	private static final int DELETE_BATCH_SIZE = 500;
+
+	private final SolrClient server;
+	private final int batchSize;
+	private final int commitWithin;
+	private final int commitMaxDocs;
+	private final long commitMaxTime;
+	private final CatalogueGenerations generations;
+
+	private final List<SolrInputDocument> pendingDocs = new ArrayList<SolrInputDocument>();
+	private final Map<Integer, Set<String>> rejectedIds = new HashMap<Integer, Set<String>>();
+	private int uncommittedUpdates = 0;
+	private long lastCommitTime = System.currentTimeMillis();
+
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong flushedDocs = new AtomicLong();
+	private final AtomicLong deleteCount = new AtomicLong();
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong totalCommitLatency = new AtomicLong();
+	private volatile long lastCommitLatency = 0;
+	private volatile long maxCommitLatency = 0;
+
+	/**
+	 * @param server
+	 *            the SOLR client to send the updates to
+	 * @param batchSize
+	 *            number of queued documents that triggers a bulk add
+	 * @param commitWithin
+	 *            milliseconds within which SOLR must make every update visible
+	 * @param commitMaxDocs
+	 *            number of uncommitted updates that triggers a soft commit
+	 * @param commitMaxTime
+	 *            milliseconds since the last commit that trigger a soft commit
+	 * @param generations
+	 *            the generation counters to notify of every update and commit
+	 */
+	public SolrIndexingQueue(SolrClient server, int batchSize, int commitWithin, int commitMaxDocs,
+			long commitMaxTime, CatalogueGenerations generations) {
+		this.server = server;
+		this.batchSize = Math.max(1, batchSize);
+		this.commitWithin = commitWithin;
+		this.commitMaxDocs = Math.max(1, commitMaxDocs);
+		this.commitMaxTime = commitMaxTime;
+		this.generations = generations;
+	}
+
+	/**
+	 * Queues a document, sending the queue to SOLR if the batch size is reached
+	 */
+	public synchronized void add(SolrInputDocument doc) throws SolrServerException, IOException {
+		pendingDocs.add(doc);
+		generations.changed(getNodeId(doc));
+		if (pendingDocs.size() >= batchSize)
+			flush();
+	}
+
+	/**
+	 * Sends the pending additions and then the delete query, so that an add
+	 * followed by a delete (or vice versa) is applied in the requested order.
+	 * Since the catalogue is not known, every catalogue is considered changed
+	 */
+	public synchronized void deleteByQuery(String query) throws SolrServerException, IOException {
+		deleteByQuery(query, null);
+	}
+
+	/**
+	 * Deletes the documents matching the query, which must all belong to the
+	 * passed catalogue
+	 */
+	public synchronized void deleteByQuery(String query, Integer nodeId) throws SolrServerException, IOException {
+		sendPendingDocs();
+
+		UpdateRequest req = new UpdateRequest();
+		req.deleteByQuery(query);
+		req.setCommitWithin(commitWithin);
+		req.process(server);
+
+		generations.changed(nodeId);
+		deleteCount.incrementAndGet();
+		uncommittedUpdates++;
+		commitIfNeeded();
+	}
+
+	/**
+	 * Sends all the queued documents to SOLR, committing if one of the thresholds
+	 * was exceeded
+	 */
+	public synchronized void flush() throws SolrServerException, IOException {
+		sendPendingDocs();
+		commitIfNeeded();
+	}
+
+	/**
+	 * Flushes the queue and issues a soft commit, making the changes visible to
+	 * searches
+	 */
+	public synchronized void commit() throws SolrServerException, IOException {
+		sendPendingDocs();
+		doCommit(true);
+	}
+
+	/**
+	 * Flushes the queue and issues a hard commit, used at the end of bulk loads
+	 */
+	public synchronized void hardCommit() throws SolrServerException, IOException {
+		sendPendingDocs();
+		doCommit(false);
+	}
+
+	/**
+	 * Deletes the datasets of the catalogue with the passed ids, together with
+	 * their children
+	 */
+	public synchronized void deleteByIds(int nodeId, Collection<String> ids) throws SolrServerException, IOException {
+		List<String> idList = new ArrayList<String>(ids);
+		for (int from = 0; from < idList.size(); from += DELETE_BATCH_SIZE)
+			deleteByQuery("nodeID:" + nodeId + " AND _root_:("
+					+ idList.subList(from, Math.min(idList.size(), from + DELETE_BATCH_SIZE)).stream()
+							.map(id -> "\"" + id.replace("\\", "\\\\").replace("\"", "\\\"") + "\"")
+							.collect(Collectors.joining(" OR "))
+					+ ")", nodeId);
+	}
+
+	/**
+	 * Undoes the addition of the datasets of the catalogue with the passed ids,
+	 * whose DB transaction failed: the ones still queued are dropped and the ones
+	 * already sent are deleted, since they may have been committed already
+	 */
+	public synchronized void discard(int nodeId, Collection<String> ids) throws SolrServerException, IOException {
+		if (ids.isEmpty())
+			return;
+
+		Set<String> discarded = new HashSet<String>(ids);
+		Integer node = nodeId;
+		int queued = pendingDocs.size();
+		pendingDocs.removeIf(doc -> node.equals(getNodeId(doc)) && discarded.contains(doc.getFieldValue("id")));
+		// The caller adds them again on its own, they must not be reported later
+		Set<String> rejected = rejectedIds.get(node);
+		if (rejected != null)
+			rejected.removeAll(discarded);
+		logger.info("Discarding " + ids.size() + " datasets of ODMS Node " + nodeId + ", "
+				+ (queued - pendingDocs.size()) + " of them still queued");
+		deleteByIds(nodeId, discarded);
+	}
+
+	/**
+	 * Returns and forgets the ids of the datasets of the catalogue that SOLR
+	 * refused since the last call
+	 */
+	public synchronized Set<String> takeRejected(int nodeId) {
+		Set<String> rejected = rejectedIds.remove(nodeId);
+		return rejected != null ? rejected : Collections.<String>emptySet();
+	}
+
+	private void sendPendingDocs() throws SolrServerException, IOException {
+		if (pendingDocs.isEmpty())
+			return;
+
+		int size = pendingDocs.size();
+		try {
+			send(pendingDocs);
+		} catch (SolrServerException | SolrException e) {
+			// The batch may hold other catalogues' documents, find out which ones fail
+			logger.warn("SOLR refused a batch of " + size + " documents, sending them one by one: "
+					+ e.getMessage());
+			sendOneByOne();
+			return;
+		}
+		pendingDocs.clear();
+
+		uncommittedUpdates += size;
+		flushCount.incrementAndGet();
+		flushedDocs.addAndGet(size);
+	}
+
+	/*
+	 * Sends the queued documents one at a time, recording the ones SOLR refuses.
+	 * An IOException leaves the documents not sent yet in the queue
+	 */
+	private void sendOneByOne() throws IOException {
+		int sent = 0;
+		try {
+			for (SolrInputDocument doc : pendingDocs) {
+				try {
+					send(Collections.singletonList(doc));
+					uncommittedUpdates++;
+					flushedDocs.incrementAndGet();
+				} catch (SolrServerException | SolrException e) {
+					Integer nodeId = getNodeId(doc);
+					String id = String.valueOf(doc.getFieldValue("id"));
+					logger.error("SOLR refused dataset " + id + " of ODMS Node " + nodeId + ": " + e.getMessage());
+					rejectedIds.computeIfAbsent(nodeId, k -> new HashSet<String>()).add(id);
+				}
+				sent++;
+			}
+		} finally {
+			pendingDocs.subList(0, sent).clear();
+			flushCount.incrementAndGet();
+		}
+	}
+
+	private void send(List<SolrInputDocument> docs) throws SolrServerException, IOException {
+		UpdateRequest req = new UpdateRequest();
+		req.add(docs);
+		req.setCommitWithin(commitWithin);
+		req.process(server);
+	}
+
+	private void commitIfNeeded() throws SolrServerException, IOException {
+		if (uncommittedUpdates >= commitMaxDocs
+				|| (uncommittedUpdates > 0 && System.currentTimeMillis() - lastCommitTime >= commitMaxTime))
+			doCommit(true);
+	}
+
+	private void doCommit(boolean softCommit) throws SolrServerException, IOException {
+		long start = System.currentTimeMillis();
+		long lastUpdate = generations.lastUpdate();
+		server.commit(true, true, softCommit);
+		generations.committed(lastUpdate);
+		long latency = System.currentTimeMillis() - start;
+
+		lastCommitTime = System.currentTimeMillis();
+		uncommittedUpdates = 0;
+		commitCount.incrementAndGet();
+		totalCommitLatency.addAndGet(latency);
+		lastCommitLatency = latency;
+		maxCommitLatency = Math.max(maxCommitLatency, latency);
+
+		logger.debug("SOLR " + (softCommit ? "soft" : "hard") + " commit in " + latency + " ms");
+	}
+
+	private static Integer getNodeId(SolrInputDocument doc) {
+		Object nodeId = doc.getFieldValue("nodeID");
+		if (nodeId == null)
+			return null;
+		try {
+			return Integer.valueOf(nodeId.toString());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingDocs.size();
+	}
+
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	public long getFlushedDocs() {
+		return flushedDocs.get();
+	}
+
+	public long getDeleteCount() {
+		return deleteCount.get();
+	}
+
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	public long getLastCommitLatency() {
+		return lastCommitLatency;
+	}
+
+	public long getMaxCommitLatency() {
+		return maxCommitLatency;
+	}
+
+	public double getAverageCommitLatency() {
+		long commits = commitCount.get();
+		return commits == 0 ? 0 : (double) totalCommitLatency.get() / commits;
+	}
+
+}
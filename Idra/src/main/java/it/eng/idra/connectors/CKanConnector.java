@@ -17,6 +17,7 @@
  ******************************************************************************/
 package it.eng.idra.connectors;
 
+import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.dcat.DCATDistribution;
 import it.eng.idra.beans.dcat.DCTLicenseDocument;
@@ -41,6 +42,7 @@ import it.eng.idra.management.StatisticsManager;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.GsonUtil;
 import it.eng.idra.utils.GsonUtilException;
+import it.eng.idra.utils.PropertyManager;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -49,14 +51,17 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.vocabulary.DCAT;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.logging.log4j.*;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.ckan.*;
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -67,6 +72,7 @@ public class CKanConnector implements IODMSConnector {
 	private ODMSCatalogue node;
 	static private HashMap<String, String> DCATtoCKANmap = new HashMap<String, String>();
 	private static Logger logger = LogManager.getLogger(CKanConnector.class);
+	private static final Gson fingerprintGson = new Gson();
 
 	private static final String GEO_BASE_URI = "http://publications.europa.eu/resource/authority/place/";
 	private static final String GEOJSON_IMT = "https://www.iana.org/assignments/media-types/application/vnd.geo+json";
@@ -508,6 +514,8 @@ public class CKanConnector implements IODMSConnector {
 				language, provenance, releaseDate, updateDate, otherIdentifier, sample, source,
 				spatialCoverage, temporalCoverage, type, version, versionNotes, rightsHolder, creator, subjectList,relatedResource);
 
+		mapped.setContentHash(computeFingerprint(d));
+
 		distributionList = null;
 		publisher = null;
 		contactPointList = null;
@@ -515,6 +523,23 @@ public class CKanConnector implements IODMSConnector {
 		return mapped;
 	}
 
+	/**
+	 * Computes the fingerprint of a CKAN package, leaving out the fields that
+	 * change on every update of the package even if its content does not
+	 */
+	static String computeFingerprint(Dataset d) {
+		JsonObject json = fingerprintGson.toJsonTree(d).getAsJsonObject();
+		json.remove("metadata_modified");
+		json.remove("revision_id");
+		if (json.has("resources") && json.get("resources").isJsonArray()) {
+			for (JsonElement resource : json.getAsJsonArray("resources")) {
+				if (resource.isJsonObject())
+					resource.getAsJsonObject().remove("revision_id");
+			}
+		}
+		return CommonUtil.computeContentHash(json.toString());
+	}
+
 	/*
 	 * Return a List of SKOSConcept, each of them containing a prefLabel from input
 	 * String list.
@@ -713,38 +738,113 @@ public class CKanConnector implements IODMSConnector {
 	 *             Exception if the request fails
 	 */
 	@Override
-	public List<DCATDataset> getAllDatasets() throws CKANException, MalformedURLException, ODMSCatalogueOfflineException,
-			ODMSCatalogueNotFoundException, ODMSCatalogueForbiddenException {
+	public List<DCATDataset> getAllDatasets() throws Exception {
 
 		ArrayList<DCATDataset> dcatResults = new ArrayList<DCATDataset>();
+		getAllDatasets(node.getDatasetStart(), page -> dcatResults.addAll(page));
+		return dcatResults;
+
+	}
+
+	/**
+	 * Retrieves all datasets belonging to a federated CKAN node, requesting them
+	 * in pages of fixed size ordered by modification date and name, and hands each
+	 * converted page to the handler before requesting the next one
+	 * 
+	 * @param start
+	 *            offset of the first dataset to retrieve
+	 * @param handler
+	 *            the handler that receives each page
+	 * @throws An
+	 *             Exception if the request fails or the handler fails
+	 */
+	@Override
+	public void getAllDatasets(int start, IDatasetPageHandler handler) throws Exception {
 
 		logger.info("-- CKAN Connector Request sent -- First synchronization ");
 		Client c = new Client(new Connection(node.getHost()), node.getAPIKey());
 
-		logger.info("\n-----------------------\n");
+		int pageSize = PropertyManager.getIntProperty(IdraProperty.SYNCH_PAGE_SIZE, 1000);
+		String query = "metadata_modified:[* TO " + CommonUtil.formatDate(node.getRegisterDate()) + "]";
+
 		logger.info("NODE - Dataset count: " + node.getDatasetCount());
-		logger.info("START " + node.getDatasetStart());
-		Dataset.SearchResults result;
+		logger.info("START " + start + " - Page size: " + pageSize);
+
+		readAllPages(Math.max(0, start), pageStart -> {
+
+			Dataset.SearchResults result = findDatasetsPage(c, query, pageStart, pageSize);
+			logger.info("-- CKAN Connector Response - Page start: " + pageStart + " - Result count:"
+					+ result.results.size());
+
+			List<DCATDataset> page = new ArrayList<DCATDataset>(result.results.size());
+			for (Dataset d : result.results) {
+				page.add(datasetToDCAT(d, node));
+			}
+			return new DatasetsPage(page, result.count);
+
+		}, handler);
+
+	}
+
+	/**
+	 * Reads the pages starting from the passed offset and hands each of them to
+	 * the handler. CKAN caps the rows of a request with ckan.search.rows_max, so a
+	 * short page does not mean the last one: stop on an empty page or past the
+	 * total count
+	 */
+	static void readAllPages(int start, IPageReader reader, IDatasetPageHandler handler) throws Exception {
+
+		int pageStart = start;
+		boolean lastPage = false;
+		while (!lastPage) {
+
+			DatasetsPage page = reader.readPage(pageStart);
+
+			pageStart += page.datasets.size();
+			lastPage = page.datasets.isEmpty() || pageStart >= page.count;
+
+			if (!page.datasets.isEmpty())
+				handler.handlePage(page.datasets);
+		}
+
+	}
+
+	/**
+	 * Reads the page of datasets starting at the passed offset
+	 */
+	interface IPageReader {
+		DatasetsPage readPage(int start) throws Exception;
+	}
+
+	/**
+	 * A page of converted datasets, with the total count of the query
+	 */
+	static class DatasetsPage {
+		private final List<DCATDataset> datasets;
+		private final int count;
 
-		logger.info("\n\n-----------------------------------\n\n");
+		DatasetsPage(List<DCATDataset> datasets, int count) {
+			this.datasets = datasets;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Requests a single page of datasets, retrying up to 5 times. The name is
+	 * used as a tie-breaker on the modification date, so that the pages are
+	 * stable while the node is being read
+	 */
+	private Dataset.SearchResults findDatasetsPage(Client c, String query, int start, int rows)
+			throws CKANException, MalformedURLException, ODMSCatalogueOfflineException,
+			ODMSCatalogueNotFoundException, ODMSCatalogueForbiddenException {
 
 		int retryNum = 1;
-		boolean retry = false;
-		do {
+		while (true) {
 
 			try {
 
-				result = c.findDatasets(
-						"metadata_modified:[* TO " + CommonUtil.formatDate(node.getRegisterDate()) + "]",
-						Integer.toString(node.getDatasetStart()), "10000000", "metadata_modified asc");
-				retry = false;
-				logger.info("-- CKAN Connector Response - Result count:" + result.results.size());
-				for (Dataset d : result.results) {
-					dcatResults.add(datasetToDCAT(d, node));
-				}
-
-				logger.info("\n-----------------------\n");
-				result = null;
+				return c.findDatasets(query, Integer.toString(start), Integer.toString(rows),
+						"metadata_modified asc, name asc");
 
 			} catch (CKANException e) {
 				e.printStackTrace();
@@ -752,16 +852,12 @@ public class CKanConnector implements IODMSConnector {
 					throw new ODMSCatalogueNotFoundException(e.getMessage());
 				} else {
 					logger.info("Exception! Attempt n: " + retryNum);
-					retry = true;
 					retryNum++;
 					if (retryNum == 5)
 						handleError(e);
 				}
 			}
-
-		} while (retry);
-
-		return dcatResults;
+		}
 
 	}
 
@@ -807,19 +903,24 @@ public class CKanConnector implements IODMSConnector {
 		 */
 
 		HashMap<String,ArrayList<String>> idMap=null;
-		List<String> oldDatasetsID = new ArrayList<String>();
-		List<String> newDatasetsNames = new ArrayList<String>();
+		// Identifier -> content fingerprint of the cached datasets
+		HashMap<String, String> oldDatasetsHash = new HashMap<String, String>();
+		Set<String> newDatasetsNames = new HashSet<String>();
 		try {
 			logger.info("Starting to retrieve present datasets of the node from cache");
 			//oldDatasetsID = MetadataCacheManager.getAllDatasetsIDByODMSCatalogue(node.getId(), true);
 			idMap = MetadataCacheManager.getCKANDatasetNamesIdentifiers(node.getId());
-			oldDatasetsID=new ArrayList<String>(idMap.keySet());
+			oldDatasetsHash = MetadataCacheManager.getDatasetContentHashes(node.getId());
+			for (String identifier : idMap.keySet()) {
+				if (!oldDatasetsHash.containsKey(identifier))
+					oldDatasetsHash.put(identifier, null);
+			}
 		} catch (DatasetNotFoundException | IOException | SolrServerException e) {
 			logger.info(e.getMessage());
 		}
 
 	try {
-			newDatasetsNames = Arrays.asList(c.getAllDatasetsID());
+			newDatasetsNames = new HashSet<String>(Arrays.asList(c.getAllDatasetsID()));
 			
 		} catch (CKANException | MalformedURLException e) {
 			e.printStackTrace();
@@ -895,7 +996,7 @@ public class CKanConnector implements IODMSConnector {
 		 * AND MODIFIED AFTER THE LAST UPDATE DATE
 		 */
 		
-		int changed = 0, added = 0, offset = 0;
+		int changed = 0, added = 0, unchanged = 0, offset = 0;
 		Dataset.SearchResults result = null;
 
 		logger.info("Last update date from which to start:" + startingDateString);
@@ -935,7 +1036,13 @@ public class CKanConnector implements IODMSConnector {
 
 			for (Dataset d : result.results) {
 
-				if (oldDatasetsID.contains(d.getId())) {
+				if (oldDatasetsHash.containsKey(d.getId())) {
+					// Packages touched without changing their content are not updated
+					String oldHash = oldDatasetsHash.get(d.getId());
+					if (oldHash != null && oldHash.equals(computeFingerprint(d))) {
+						unchanged++;
+						continue;
+					}
 					syncrhoResult.addToChangedList(datasetToDCAT(d, node));
 					changed++;
 				} else if (newDatasetsNames.contains(d.getName())) {
@@ -948,6 +1055,7 @@ public class CKanConnector implements IODMSConnector {
 			logger.info("NodeID: " + nodeID + " Changed " + syncrhoResult.getChangedDatasets().size());
 			logger.info("NodeID: " + nodeID + " Added " + syncrhoResult.getAddedDatasets().size());
 			logger.info("NodeID: " + nodeID + " Deleted " + syncrhoResult.getDeletedDatasets().size());
+			logger.info("NodeID: " + nodeID + " Unchanged " + unchanged);
 			logger.info(
 					"NodeID: " + nodeID + " Expected new dataset count: " + (node.getDatasetCount() - deleted + added));
 			offset += result.results.size();
@@ -17,46 +17,45 @@
  ******************************************************************************/
 package it.eng.idra.connectors;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.Map;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.riot.RiotException;
-import org.apache.jena.vocabulary.DCAT;
-import org.apache.jena.vocabulary.RDF;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
-
 import it.eng.idra.beans.IdraProperty;
-import it.eng.idra.beans.dcat.DCATAPFormat;
 import it.eng.idra.beans.dcat.DCATAPProfile;
 import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSSynchronizationResult;
 import it.eng.idra.dcat.dump.DCATAPDeserializer;
 import it.eng.idra.dcat.dump.DCATAPITDeserializer;
-import it.eng.idra.dcat.dump.DCATAPSerializer;
 import it.eng.idra.management.ODMSManager;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
+import it.eng.idra.utils.restclient.HttpValidatorCache;
 
 public class DCATDumpConnector implements IODMSConnector {
 
@@ -66,6 +65,8 @@ public class DCATDumpConnector implements IODMSConnector {
 	private DCATAPDeserializer deserializer;
 	private static Logger logger = LogManager.getLogger(DCATDumpConnector.class);
 
+	private static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
 	private static String odmsDumpFilePath = PropertyManager.getProperty(IdraProperty.ODMS_DUMP_FILE_PATH);
 
 	public DCATDumpConnector() {
@@ -136,6 +137,18 @@ public class DCATDumpConnector implements IODMSConnector {
 
 	}
 
+	/**
+	 * Checks with a conditional request whether the dump at the dump URL changed
+	 * since the last completed synchronization. Dumps passed as a string or file
+	 * are always considered changed
+	 */
+	@Override
+	public boolean isModified() throws Exception {
+		if (StringUtils.isBlank(node.getDumpURL()))
+			return true;
+		return HttpValidatorCache.isModified(node.getId(), node.getDumpURL(), false);
+	}
+
 	@Override
 	public DCATDataset datasetToDCAT(Object dataset, ODMSCatalogue node) throws Exception {
 		return null;
@@ -149,14 +162,39 @@ public class DCATDumpConnector implements IODMSConnector {
 	@Override
 	public List<DCATDataset> getAllDatasets() throws Exception {
 
-		String dumpURL = null, dumpString = null;
+		ArrayList<DCATDataset> datasetsList = new ArrayList<DCATDataset>();
+		getAllDatasets(0, page -> datasetsList.addAll(page));
+		return datasetsList;
+
+	}
+
+	/**
+	 * Streams the datasets of the dump, read from the dump URL, the dump string or
+	 * the dump file stored at the registration of the node, handing them to the
+	 * handler in pages
+	 */
+	@Override
+	public void getAllDatasets(int start, IDatasetPageHandler handler) throws Exception {
+
+		String dumpURL = null, dumpString = null, dumpFilePath = null;
+
+		// Datasets read from a dump are compared by content on synchronization
+		IDatasetPageHandler hashingHandler = page -> {
+			for (DCATDataset dataset : page)
+				dataset.setContentHash(dataset.computeContentHash());
+			handler.handlePage(page);
+		};
 
 		try {
 			if (StringUtils.isNotBlank(dumpURL = node.getDumpURL())) {
 				node.setDumpFilePath(null);
-				return getDatasetsFromDumpURL(dumpURL);
+				streamDatasetsFromDumpURL(dumpURL, start, hashingHandler);
 			} else if (StringUtils.isNotBlank(dumpString = node.getDumpString())) {
-				return getDatasetsFromDumpString(dumpString);
+				streamDatasetsFromDumpString(dumpString, start, hashingHandler);
+			} else if (StringUtils.isNotBlank(dumpFilePath = node.getDumpFilePath())) {
+				try (InputStream in = Files.newInputStream(Paths.get(dumpFilePath))) {
+					checkDatasetsCount(deserializer.streamDatasets(in, node, start, getPageSize(), hashingHandler));
+				}
 			} else
 				throw new Exception("The node must have either the dumpURL or dumpString");
 
@@ -166,150 +204,149 @@ public class DCATDumpConnector implements IODMSConnector {
 
 	}
 
-	private List<DCATDataset> getDatasetsFromDumpString(String dumpString) throws Exception {
-
-		List<DCATDataset> datasetsList = new ArrayList<DCATDataset>();
+	private void streamDatasetsFromDumpString(String dumpString, int start, IDatasetPageHandler handler)
+			throws Exception {
 
 		// Pass the Node Host as base URI for the model
-		Model m = deserializer.dumpToModel(dumpString, node);
-		StmtIterator sIt = m.listStatements(null, RDF.type, DCAT.Dataset);
-		// Matcher matcher =
-		// deserializer.getDatasetPattern(node.getDcatFormat()).matcher(dumpString);
-		String datasetURI = null;
-		while (sIt.hasNext()) {
-			datasetURI = null;
-			try {
-				//
-				// switch (node.getDcatFormat()) {
-				//
-				// case TURTLE:
-				// datasetURI = matcher.group(1);
-				// break;
-				//
-				// // RDFXML is the default
-				// default:
-				// datasetURI = matcher.group(1);
-				// break;
-				//
-				// }
-				//
-				// if (StringUtils.isNotBlank(datasetURI)) {
-				//
-				// Resource r = m.getResource(datasetURI);
-				// System.out.println(r.getLocalName());
-				// datasetsList.add(deserializer.resourceToDataset(nodeID, r));
-				//
-				Statement s = sIt.nextStatement();
-				Resource datasetResource = m.getResource(s.getSubject().getURI());
-				datasetsList.add(deserializer.resourceToDataset(nodeID, datasetResource));
-
-			} catch (Exception e) {
-				logger.info("Skipped dataset - There was an error: " + e.getMessage() + " while deserializing dataset: "
-						+ datasetURI);
-
-			}
+		node.setDcatFormat(null);
+		try (InputStream in = new ByteArrayInputStream(dumpString.getBytes(StandardCharsets.UTF_8))) {
+			checkDatasetsCount(deserializer.streamDatasets(in, node, start, getPageSize(), handler));
 		}
 
-		if (datasetsList.size() != 0) {
-			DCATAPSerializer.writeModelToFile(m, DCATAPFormat.RDFXML, odmsDumpFilePath, "dumpFileString_" + nodeID);
-			node.setDumpFilePath(odmsDumpFilePath + "dumpFileString_" + nodeID);
-			// Since the registration is finished we don't need the file in memory
-			node.setDumpString(null);
-			ODMSManager.updateODMSCatalogue(node, true);
-			return datasetsList;
-		} else
-			throw new Exception("No Datasets retrieved from the provided DUMP!");
+		Path dumpFile = Paths.get(odmsDumpFilePath + "dumpFileString_" + nodeID);
+		Files.write(dumpFile, dumpString.getBytes(StandardCharsets.UTF_8));
+		node.setDumpFilePath(dumpFile.toString());
+		// Since the registration is finished we don't need the file in memory
+		node.setDumpString(null);
+		ODMSManager.updateODMSCatalogue(node, true);
 	}
 
-	private List<DCATDataset> getDatasetsFromDumpURL(String dumpURL) throws Exception {
+	/**
+	 * Streams the dump from its URL, copying it to the node dump file while it is
+	 * parsed. The file is replaced only if the whole dump was read
+	 */
+	private void streamDatasetsFromDumpURL(String dumpURL, int start, IDatasetPageHandler handler) throws Exception {
 
-		try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
+		Path dumpFile = Paths.get(odmsDumpFilePath + "dumpFileString_" + nodeID);
+		Path tmpFile = Paths.get(dumpFile.toString() + ".tmp");
+
+		try {
 			HttpGet httpget = new HttpGet(dumpURL);
 			logger.info("Executing request " + httpget.getRequestLine());
 
-			// Create a custom response handler
-			ResponseHandler<String> responseHandler = response -> {
+			try (CloseableHttpResponse response = HttpClientManager.execute(httpget)) {
 				int status = response.getStatusLine().getStatusCode();
-				if (status >= 200 && status < 300) {
-					HttpEntity entity = response.getEntity();
-					return entity != null ? EntityUtils.toString(entity,"UTF-8") : null;
-				} else {
+				HttpEntity entity = response.getEntity();
+				if (status < 200 || status >= 300 || entity == null)
 					throw new ClientProtocolException("Unexpected response status: " + status);
+				HttpValidatorCache.store(node.getId(), dumpURL, response);
+				// A declared RDF syntax is used as is, otherwise it is detected
+				node.setDcatFormat(DCATAPDeserializer
+						.formatOfMediaType(entity.getContentType() != null ? entity.getContentType().getValue() : null));
+
+				try (OutputStream copy = new BufferedOutputStream(Files.newOutputStream(tmpFile));
+						InputStream in = new TeeInputStream(entity.getContent(), copy)) {
+					checkDatasetsCount(deserializer.streamDatasets(in, node, start, getPageSize(), handler));
 				}
-			};
-			String responseBody = httpclient.execute(httpget, responseHandler);
-			return getDatasetsFromDumpString(responseBody);
+			}
 
+			Files.move(tmpFile, dumpFile, StandardCopyOption.REPLACE_EXISTING);
+			node.setDumpFilePath(dumpFile.toString());
+			ODMSManager.updateODMSCatalogue(node, true);
+
+		} finally {
+			Files.deleteIfExists(tmpFile);
 		}
 	}
 
+	private static void checkDatasetsCount(int count) throws Exception {
+		if (count == 0)
+			throw new Exception("No Datasets retrieved from the provided DUMP!");
+	}
+
+	private static int getPageSize() {
+		return PropertyManager.getIntProperty(IdraProperty.SYNCH_PAGE_SIZE, 1000);
+	}
+
 	@Override
 	public ODMSSynchronizationResult getChangedDatasets(List<DCATDataset> oldDatasets, String startingDateString)
 			throws Exception {
 
 		ArrayList<DCATDataset> newDatasets = (ArrayList<DCATDataset>) getAllDatasets();
 
+		ODMSSynchronizationResult syncrhoResult = diffDatasets(oldDatasets, newDatasets);
+		logger.info("Expected new dataset count: " + (node.getDatasetCount()
+				- syncrhoResult.getDeletedDatasets().size() + syncrhoResult.getAddedDatasets().size()));
+
+		return syncrhoResult;
+	}
+
+	/**
+	 * Compares the cached datasets with the ones read from the dump by identifier,
+	 * returning the added, changed and deleted ones
+	 */
+	static ODMSSynchronizationResult diffDatasets(List<DCATDataset> oldDatasets, List<DCATDataset> newDatasets) {
+
 		ODMSSynchronizationResult syncrhoResult = new ODMSSynchronizationResult();
 
-		ImmutableSet<DCATDataset> newSets = ImmutableSet.copyOf(newDatasets);
-		ImmutableSet<DCATDataset> oldSets = ImmutableSet.copyOf(oldDatasets);
+		// Index both lists by identifier once, then compare the two indexes
+		Map<String, DCATDataset> oldIndex = indexByIdentifier(oldDatasets);
+		Map<String, DCATDataset> newIndex = indexByIdentifier(newDatasets);
 
 		int deleted = 0, added = 0, changed = 0;
 
-		/// Find added datasets
-		// difference(current,present)
-		SetView<DCATDataset> diff = Sets.difference(newSets, oldSets);
-		logger.info("New Packages: " + diff.size());
-		for (DCATDataset d : diff) {
-			syncrhoResult.addToAddedList(d);
-			added++;
+		// Find added and updated datasets
+		for (Map.Entry<String, DCATDataset> entry : newIndex.entrySet()) {
+			DCATDataset oldDataset = oldIndex.get(entry.getKey());
+			if (oldDataset == null) {
+				syncrhoResult.addToAddedList(entry.getValue());
+				added++;
+			} else if (isChanged(oldDataset, entry.getValue())) {
+				syncrhoResult.addToChangedList(entry.getValue());
+				changed++;
+			}
 		}
 
 		// Find removed datasets
-		// difference(present,current)
-		SetView<DCATDataset> diff1 = Sets.difference(oldSets, newSets);
-		logger.info("Deleted Packages: " + diff1.size());
-		for (DCATDataset d : diff1) {
-			syncrhoResult.addToDeletedList(d);
-			deleted++;
-		}
-
-		// Find updated datasets
-		// intersection(present,current)
-		SetView<DCATDataset> intersection = Sets.intersection(newSets, oldSets);
-		logger.fatal("Changed Packages: " + intersection.size());
-
-		GregorianCalendar oldDate = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		oldDate.setLenient(false);
-		GregorianCalendar newDate = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-		oldDate.setLenient(false);
-		SimpleDateFormat ISO = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-
-		int exception = 0;
-		for (DCATDataset d : intersection) {
-			try {
-				int oldIndex = oldDatasets.indexOf(d);
-				int newIndex = newDatasets.indexOf(d);
-				oldDate.setTime(ISO.parse(oldDatasets.get(oldIndex).getUpdateDate().getValue()));
-				newDate.setTime(ISO.parse(newDatasets.get(newIndex).getUpdateDate().getValue()));
-
-				if (newDate.after(oldDate)) {
-					syncrhoResult.addToChangedList(d);
-					changed++;
-				}
-			} catch (Exception ex) {
-				exception++;
-				if (exception % 1000 == 0) {
-					ex.printStackTrace();
-				}
+		for (Map.Entry<String, DCATDataset> entry : oldIndex.entrySet()) {
+			if (!newIndex.containsKey(entry.getKey())) {
+				syncrhoResult.addToDeletedList(entry.getValue());
+				deleted++;
 			}
 		}
-		logger.info("Changed " + syncrhoResult.getChangedDatasets().size());
-		logger.info("Added " + syncrhoResult.getAddedDatasets().size());
-		logger.info("Deleted " + syncrhoResult.getDeletedDatasets().size());
-		logger.info("Expected new dataset count: " + (node.getDatasetCount() - deleted + added));
+
+		logger.info("Changed " + changed);
+		logger.info("Added " + added);
+		logger.info("Deleted " + deleted);
 
 		return syncrhoResult;
 	}
 
+	private static Map<String, DCATDataset> indexByIdentifier(List<DCATDataset> datasets) {
+		Map<String, DCATDataset> index = new LinkedHashMap<String, DCATDataset>(datasets.size() * 2);
+		for (DCATDataset d : datasets) {
+			index.putIfAbsent(d.getIdentifier().getValue(), d);
+		}
+		return index;
+	}
+
+	/**
+	 * Compares the content fingerprints of the two versions of a dataset. Datasets
+	 * cached without a fingerprint are compared by modification date, and are
+	 * considered changed when the date is missing or cannot be parsed
+	 */
+	private static boolean isChanged(DCATDataset oldDataset, DCATDataset newDataset) {
+
+		if (oldDataset.getContentHash() != null)
+			return !oldDataset.getContentHash().equals(newDataset.getContentHash());
+
+		try {
+			LocalDateTime oldDate = LocalDateTime.parse(oldDataset.getUpdateDate().getValue(), ISO_DATE);
+			LocalDateTime newDate = LocalDateTime.parse(newDataset.getUpdateDate().getValue(), ISO_DATE);
+			return newDate.isAfter(oldDate);
+		} catch (NullPointerException | DateTimeParseException e) {
+			return true;
+		}
+	}
+
 }
@@ -36,17 +36,15 @@ import it.eng.idra.beans.odms.ODMSCatalogueOfflineException;
 import it.eng.idra.beans.odms.ODMSSynchronizationResult;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
+import it.eng.idra.utils.restclient.HttpValidatorCache;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -58,34 +56,14 @@ import java.util.Locale;
 import java.util.TimeZone;
 import java.util.UUID;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.Response.StatusType;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.impl.client.AbstractHttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.vocabulary.DCAT;
 import org.apache.jena.vocabulary.DCTerms;
@@ -105,6 +83,9 @@ public class DkanConnector implements IODMSConnector {
 	private JSONArray datasetsArray;
 	public static final MediaType JSON_TYPE = MediaType.APPLICATION_JSON_TYPE;
 	private static Logger logger = LogManager.getLogger(DkanConnector.class);
+	// Dkan returns the whole catalogue in a single response, which may take far
+	// longer than the default read timeout of the shared HTTP client
+	private static final int READ_TIMEOUT = 9000000;
 
 	public DkanConnector(ODMSCatalogue node) {
 		this.node = node;
@@ -116,7 +97,7 @@ public class DkanConnector implements IODMSConnector {
 
 		logger.info("-- DKAN Connector Request sent -- " + node.getHost());
 
-		String returned_json = sendGetRequest1(node.getHost() + "/data.json");
+		String returned_json = sendGetRequest1(getDataJsonURL());
 
 		if (!returned_json.startsWith("{")) {
 			if (returned_json.matches(".*The requested URL could not be retrieved.*")
@@ -379,6 +360,27 @@ public class DkanConnector implements IODMSConnector {
 
 	}
 
+	/**
+	 * Checks that the data.json of the node answers, without downloading it
+	 */
+	@Override
+	public boolean isReachable() throws IOException {
+		return HttpClientManager.probe(getDataJsonURL(), true);
+	}
+
+	/**
+	 * Checks with a conditional request whether the data.json of the node changed
+	 * since the last completed synchronization
+	 */
+	@Override
+	public boolean isModified() throws IOException {
+		return HttpValidatorCache.isModified(node.getId(), getDataJsonURL(), true);
+	}
+
+	private String getDataJsonURL() {
+		return node.getHost() + "/data.json";
+	}
+
 	// Live search is not available on current SODA API
 	@Override
 	public List<DCATDataset> findDatasets(HashMap<String, Object> searchParameters) {
@@ -642,75 +644,20 @@ public class DkanConnector implements IODMSConnector {
 
 	private String sendGetRequest1(String urlString) {
 
-
-//		logger.info("Requesting a new token for the notification server");
-		try{
-			TrustManager[] certs = new TrustManager[]{new X509TrustManager() {
-	            @Override
-	            public X509Certificate[] getAcceptedIssuers() {
-	                return null;
-	            }
-
-	            @Override
-	            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-	            }
-
-	            @Override
-	            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-	            }
-	        }};
-
-	        SSLContext ctx = null;
-	        try {
-	            ctx = SSLContext.getInstance("TLS");
-	            ctx.init(null, certs, new SecureRandom());
-	        } catch (java.security.GeneralSecurityException e) {
-	            logger.error("", e);
-	            //throw OurExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
-	        }
-
-	        HttpsURLConnection.setDefaultSSLSocketFactory(ctx.getSocketFactory());
-
-	        ClientBuilder clientBuilder = ClientBuilder.newBuilder();
-	        try {
-	            clientBuilder.sslContext(ctx);
-	            clientBuilder.hostnameVerifier(new HostnameVerifier() {
-	                @Override
-	                public boolean verify(String hostname, SSLSession session) {
-	                    return true;
-	                }
-	            });
-	        } catch (Exception e) {
-	        	e.printStackTrace();
-	        	logger.error("", e);
-	            //throw OurExceptionUtils.wrapInRuntimeExceptionIfNecessary(e);
-	        }
-			
-	        Client client = ClientBuilder.newBuilder().build();
-	        
-			WebTarget webTarget = client.target(urlString);
-
-			Invocation.Builder invocationBuilder =  webTarget.request(MediaType.APPLICATION_JSON);
-			Response response = invocationBuilder.get();
-
-			StatusType status = response.getStatusInfo();
-			String res = response.readEntity(String.class);
-			return res;
-//			if(status.getStatusCode() == 200){
-//				logger.info("Token retrieved");
-//				JSONObject json = new JSONObject(res);
-//				return json.getString("access_token");
-//			}else{
-//				logger.info("Problem during getting the token");
-//				logger.info("res");
-//				return res;
-//			}
-		}catch(Exception e){
+		HttpGet getRequest = new HttpGet(urlString);
+		getRequest.addHeader("accept", MediaType.APPLICATION_JSON);
+		getRequest.setConfig(HttpClientManager.customRequestConfig().setSocketTimeout(READ_TIMEOUT).build());
+
+		// Portals with self-signed certificates are accepted
+		try (CloseableHttpResponse response = HttpClientManager.executeTrusting(getRequest)) {
+			String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
+				HttpValidatorCache.store(node.getId(), urlString, response);
+			return body;
+		} catch (Exception e) {
 			e.printStackTrace();
 			return "";
 		}
-
-	
 	}
 	
 	private String sendGetRequest(String urlString) throws IOException {
@@ -726,74 +673,22 @@ public class DkanConnector implements IODMSConnector {
 
 		String body = "";
 
-		final HttpParams httpParams = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParams, 3000000);
-		// if(!(data.contains("\"rows\":\"1\"") ||
-		// data.contains("\"rows\":\"0\"") || path.contains("package_list")) )
-		// HttpConnectionParams.setSoTimeout(httpParams, 6);
-		// else
-		HttpConnectionParams.setSoTimeout(httpParams, 9000000);
+		HttpGet getRequest = new HttpGet(url.toString());
+		getRequest.addHeader("accept", "application/json");
+		getRequest.setConfig(HttpClientManager.customRequestConfig().setSocketTimeout(READ_TIMEOUT).build());
 
-		// apache HttpClient version >4.2 should use BasicClientConnectionManager
-		HttpClient httpclient = new DefaultHttpClient(httpParams);
-
-		// HttpClient httpclient = new DefaultHttpClient(httpParams);
-		/*
-		 * Set an HTTP proxy if it is specified in system properties.
-		 * 
-		 * http://docs.oracle.com/javase/6/docs/technotes/guides/net/proxies.html
-		 * http://hc.apache.org/httpcomponents-client-ga/httpclient/examples/org/apache/
-		 * http/examples/client/ClientExecuteProxy.java
-		 */
-		if (Boolean.parseBoolean(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_ENABLED).trim())
-				&& StringUtils.isNotBlank(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST).trim())) {
-
-			int port = 80;
-			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT))) {
-				port = Integer.parseInt(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT));
-			}
-			HttpHost proxy = new HttpHost(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port, "http");
-			httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
-			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER))) {
-				((AbstractHttpClient) httpclient).getCredentialsProvider().setCredentials(
-						new AuthScope(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port),
-						(Credentials) new UsernamePasswordCredentials(
-								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER),
-								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PASSWORD)));
-			}
-		}
-		try {
-			
-			HttpGet getRequest = new HttpGet(url.toString());
-			getRequest.addHeader("accept", "application/json");
-
-			HttpResponse response = httpclient.execute(getRequest);
+		try (CloseableHttpResponse response = HttpClientManager.execute(getRequest)) {
 
 			if (response.getStatusLine().getStatusCode() != 200) {
 				throw new RuntimeException("Failed : HTTP error code : " + response.getStatusLine().getStatusCode());
 			}
 
-			BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
-			}
-
-			body = result.toString();
-
-		} finally {
-			httpclient.getConnectionManager().shutdown();
+			body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
 		}
 
 		return body;
 	}
 
-	private static boolean isSet(String string) {
-		return string != null && string.length() > 0;
-	}
-
 	@Override
 	public int countSearchDatasets(HashMap<String, Object> searchParameters) throws Exception {
 		// TODO Auto-generated method stub
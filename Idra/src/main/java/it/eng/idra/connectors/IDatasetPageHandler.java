@@ -15,36 +15,26 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  ******************************************************************************/
-package it.eng.idra.connectors.webscraper;
-//package it.eng.idra.connectors.webscraper;
-//
-//import java.util.List;
-//import java.util.concurrent.CountDownLatch;
-//
-//import org.jsoup.nodes.Document;
-//
-//public class DatasetsWorker implements Runnable {
-//	 
-//		private List<Document> outputScraper;
-//	    private CountDownLatch countDownLatch;
-//	 
-//	    public DatasetsWorker(List<Document> outputScraper, CountDownLatch countDownLatch) {
-//	        this.outputScraper = outputScraper;
-//	        this.countDownLatch = countDownLatch;
-//	        
-//	    }
-//	 
-//	    @Override
-//	    public void run() {
-////	        doSomeWork();
-//	    	
-//	    	
-//	    	
-//	    	
-//	    	
-//	        outputScraper.add("Counted down");
-//	        countDownLatch.countDown();
-//	    }
-//	}
-//
-//}
+package it.eng.idra.connectors;
+
+import java.util.List;
+
+import it.eng.idra.beans.dcat.DCATDataset;
+
+/**
+ * Receives the datasets of a catalogue one page at a time during a full
+ * retrieval, so that the whole catalogue never has to be held in memory
+ */
+@FunctionalInterface
+public interface IDatasetPageHandler {
+
+	/**
+	 * Called once for every retrieved page, in the order the pages were
+	 * requested. An exception stops the retrieval of the following pages.
+	 * 
+	 * @param page
+	 *            the datasets of the current page, already converted to DCAT
+	 */
+	public void handlePage(List<DCATDataset> page) throws Exception;
+
+}
@@ -29,9 +29,45 @@ public interface IODMSConnector {
 	public List<DCATDataset> findDatasets(HashMap<String,Object> searchParameters) throws Exception;
 	public int countSearchDatasets(HashMap<String,Object> searchParameters) throws Exception;
 	public int countDatasets() throws Exception;
+
+	/**
+	 * Checks whether the remote catalogue is up, with the cheapest request its API
+	 * offers. By default the datasets of the catalogue are counted, connectors
+	 * whose count requires downloading the whole catalogue override it with a
+	 * lighter request.
+	 */
+	public default boolean isReachable() throws Exception {
+		return countDatasets() != 0;
+	}
+
+	/**
+	 * Tells whether the remote catalogue may have changed since its last completed
+	 * synchronization, so that an unchanged catalogue is not downloaded again.
+	 * Connectors without a way to tell always return true.
+	 */
+	public default boolean isModified() throws Exception {
+		return true;
+	}
 	DCATDataset datasetToDCAT(Object dataset,ODMSCatalogue node) throws Exception;
 	public DCATDataset getDataset(String datasetId) throws Exception;
 	public List<DCATDataset> getAllDatasets() throws Exception;
+
+	/**
+	 * Retrieves all the datasets of the catalogue, starting from the passed
+	 * offset, and hands them to the handler one page at a time. Connectors whose
+	 * API is not paginated return every dataset from the offset on as a single
+	 * page.
+	 *
+	 * @param start
+	 *            offset of the first dataset to retrieve, used to resume an
+	 *            interrupted first load
+	 * @param handler
+	 *            the handler that receives each page
+	 */
+	public default void getAllDatasets(int start, IDatasetPageHandler handler) throws Exception {
+		List<DCATDataset> datasets = getAllDatasets();
+		handler.handlePage(datasets.subList(Math.min(Math.max(0, start), datasets.size()), datasets.size()));
+	}
 //	public HashMap<DCATDataset, String> getChangedDatasets(List<DCATDataset> oldDatasets,String startingDate) throws Exception;
 	public ODMSSynchronizationResult getChangedDatasets(List<DCATDataset> oldDatasets,String startingDate) throws Exception;
 }
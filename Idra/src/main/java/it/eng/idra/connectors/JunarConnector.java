@@ -95,6 +95,16 @@ public class JunarConnector implements IODMSConnector {
 	public int countDatasets() throws Exception {
 		return getAllDatasets().size();
 	}
+
+	/**
+	 * Asks the node for a single resource, instead of downloading all of them
+	 */
+	@Override
+	public boolean isReachable() throws Exception {
+		String returned_json = sendGetRequest(
+				node.getHost() + "/api/v2/resources?auth_key=" + node.getAPIKey() + "&format=json&limit=1");
+		return returned_json != null && returned_json.startsWith("[");
+	}
 	
 	@Override
 	public List<DCATDataset> getAllDatasets() throws Exception {
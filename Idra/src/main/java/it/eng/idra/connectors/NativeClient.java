@@ -17,40 +17,26 @@
  ******************************************************************************/
 package it.eng.idra.connectors;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.HttpClient;
+import java.nio.charset.StandardCharsets;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.AbstractHttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSCatalogueForbiddenException;
 import it.eng.idra.beans.odms.ODMSCatalogueNotFoundException;
 import it.eng.idra.beans.odms.ODMSCatalogueOfflineException;
-import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
-@SuppressWarnings("deprecation")
 public class NativeClient {
 
 	private ODMSCatalogue node;
@@ -179,67 +165,19 @@ public class NativeClient {
 
 		String body = "";
 
-		final HttpParams httpParams = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParams, 3000000);
-		// if(!(data.contains("\"rows\":\"1\"") ||
-		// data.contains("\"rows\":\"0\"") || path.contains("package_list")) )
-		// HttpConnectionParams.setSoTimeout(httpParams, 6);
-		// else
-		HttpConnectionParams.setSoTimeout(httpParams, 9000000);
-
-		// apache HttpClient version >4.2 should use
-		// BasicClientConnectionManager
-		HttpClient httpclient = new DefaultHttpClient(httpParams);
-
-		// HttpClient httpclient = new DefaultHttpClient(httpParams);
-		/*
-		 * Set an HTTP proxy if it is specified in system properties.
-		 * 
-		 * http://docs.oracle.com/javase/6/docs/technotes/guides/net/proxies. html
-		 * http://hc.apache.org/httpcomponents-client-ga/httpclient/examples/org
-		 * /apache/http/examples/client/ClientExecuteProxy.java
-		 */
-//		if (Boolean.parseBoolean(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_ENABLED).trim())
-//				&& StringUtils.isNotBlank(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST).trim())) {
-//
-//			int port = 80;
-//			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT))) {
-//				port = Integer.parseInt(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT));
-//			}
-//			HttpHost proxy = new HttpHost(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port, "http");
-//			httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
-//			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER))) {
-//				((AbstractHttpClient) httpclient).getCredentialsProvider().setCredentials(
-//						new AuthScope(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port),
-//						(Credentials) new UsernamePasswordCredentials(
-//								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER),
-//								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PASSWORD)));
-//			}
-//		}
-		try {
-			HttpGet getRequest = new HttpGet(url.toString());
-			getRequest.addHeader("accept", "application/json");
+		HttpGet getRequest = new HttpGet(url.toString());
+		getRequest.addHeader("accept", "application/json");
 
-			HttpResponse response = httpclient.execute(getRequest);
+		try (CloseableHttpResponse response = HttpClientManager.execute(getRequest)) {
 
 			if (response.getStatusLine().getStatusCode() != 200) {
 				throw new RuntimeException("Failed : HTTP error code : " + response.getStatusLine().getStatusCode());
 			}
 
-			BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
-			}
-
-			body = result.toString();
+			body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 			logger.info(ioe);
-		} finally {
-			httpclient.getConnectionManager().shutdown();
 		}
 
 		return body;
@@ -259,75 +197,21 @@ public class NativeClient {
 
 		String body = "";
 
-		// RequestConfig requestConfig =
-		// RequestConfig.custom().setConnectTimeout(300 * 1000).build();
+		HttpPost postRequest = new HttpPost(url.toString());
 
-		final HttpParams httpParams = new BasicHttpParams();
-		HttpConnectionParams.setConnectionTimeout(httpParams, 300000);
-		// if(!(data.contains("\"rows\":\"1\"") ||
-		// data.contains("\"rows\":\"0\"") || path.contains("package_list")) )
-		// HttpConnectionParams.setSoTimeout(httpParams, 6);
-		// else
-		HttpConnectionParams.setSoTimeout(httpParams, 900000);
-
-		HttpClient httpclient = new DefaultHttpClient(httpParams);
-
-		/*
-		 * Set an HTTP proxy if it is specified in system properties.
-		 * 
-		 * http://docs.oracle.com/javase/6/docs/technotes/guides/net/proxies. html
-		 * http://hc.apache.org/httpcomponents-client-ga/httpclient/examples/org
-		 * /apache/http/examples/client/ClientExecuteProxy.java
-		 */
-		if (Boolean.parseBoolean(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_ENABLED).trim())
-				&& StringUtils.isNotBlank(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST).trim())) {
-
-			int port = 80;
-			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT))) {
-				port = Integer.parseInt(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PORT));
-			}
-			HttpHost proxy = new HttpHost(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port, "http");
-			httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
-			if (isSet(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER))) {
-				((AbstractHttpClient) httpclient).getCredentialsProvider().setCredentials(
-						new AuthScope(PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST), port),
-						(Credentials) new UsernamePasswordCredentials(
-								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER),
-								PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PASSWORD)));
-			}
-		}
 		try {
-			HttpPost postRequest = new HttpPost(url.toString());
-
-			// postRequest.setConfig(requestConfig);
-
 			StringEntity input = new StringEntity(data);
 			input.setContentType("application/json");
 			postRequest.setEntity(input);
 
-			HttpResponse response = httpclient.execute(postRequest);
-			int statusCode = response.getStatusLine().getStatusCode();
-
-			BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
+			try (CloseableHttpResponse response = HttpClientManager.execute(postRequest)) {
+				body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
 			}
-
-			body = result.toString();
 		} catch (IOException ioe) {
 			logger.info(ioe);
-		} finally {
-			httpclient.getConnectionManager().shutdown();
 		}
 
 		return body;
 	}
 
-	private static boolean isSet(String string) {
-		return string != null && string.length() > 0;
-	}
-
 }
@@ -21,12 +21,15 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
@@ -45,10 +48,6 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.select.Elements;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Sets.SetView;
-
 import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.dcat.DCATDistribution;
 import it.eng.idra.beans.dcat.DCTLocation;
@@ -66,8 +65,10 @@ import it.eng.idra.beans.odms.ODMSSynchronizationResult;
 import it.eng.idra.beans.webscraper.DatasetSelector;
 import it.eng.idra.beans.webscraper.WebScraperSelector;
 import it.eng.idra.beans.webscraper.WebScraperSelectorType;
+import it.eng.idra.connectors.webscraper.IDatasetDocumentHandler;
 import it.eng.idra.connectors.webscraper.WebScraper;
 import it.eng.idra.utils.CommonUtil;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
 public class WebConnector implements IODMSConnector {
 
@@ -114,6 +115,14 @@ public class WebConnector implements IODMSConnector {
 		}
 	}
 
+	/**
+	 * Checks that the home page of the node answers, without parsing it
+	 */
+	@Override
+	public boolean isReachable() throws Exception {
+		return HttpClientManager.probe(node.getHost(), false);
+	}
+
 	@Override
 	public DCATDataset datasetToDCAT(Object dataset, ODMSCatalogue node) throws DatasetNotValidException {
 
@@ -621,78 +630,119 @@ public class WebConnector implements IODMSConnector {
 	public List<DCATDataset> getAllDatasets() throws Exception {
 
 		/*
-		 * Call the WebScraper to get the Dataset Documents to be mapped
+		 * Call the WebScraper to get the Dataset Documents to be mapped. Each Document
+		 * is mapped as soon as it is scraped, so that it can be released right after
 		 */
-		List<Document> docs = WebScraper.getDatasetsDocument(node.getSitemap());
-
 		AtomicInteger counter = new AtomicInteger(0);
-		List<DCATDataset> totalDatasets = docs.stream().map(doc -> {
-			try {
-				return datasetToDCAT(doc, node);
-			} catch (DatasetNotValidException e) {
-				logger.info(e.getMessage());
-				counter.getAndIncrement();
-				return null;
-			}
-			// }).filter(item -> item != null).filter(distinctByKey(p ->
-			// p.getTitle())).collect(Collectors.toList());
-		}).filter(item -> item != null).collect(Collectors.toList());
+		List<DCATDataset> totalDatasets = Collections.synchronizedList(new ArrayList<DCATDataset>());
+		int docs = WebScraper.getDatasetsDocument(node.getSitemap(), node.getId(), false,
+				(doc, contentHash) -> mapDocument(doc, contentHash, totalDatasets, counter));
 
-		logger.info("Skipped Web datasets when mapping: " + counter.get() + "/" + docs.size());
-		logger.info("Final mapped and returned datasets: " + totalDatasets.size() + "/" + docs.size());
+		logger.info("Skipped Web datasets when mapping: " + counter.get() + "/" + docs);
+		logger.info("Final mapped and returned datasets: " + totalDatasets.size() + "/" + docs);
 
-		return totalDatasets;
+		synchronized (totalDatasets) {
+			return new ArrayList<DCATDataset>(totalDatasets);
+		}
+
+	}
 
+	/**
+	 * Maps a scraped Document, adding the resulting dataset to the passed list
+	 * 
+	 * @return the identifier of the mapped dataset, null if the Document is not a
+	 *         valid dataset
+	 */
+	private String mapDocument(Document doc, String contentHash, List<DCATDataset> datasets, AtomicInteger skipped) {
+		try {
+			DCATDataset mapped = datasetToDCAT(doc, node);
+			mapped.setContentHash(contentHash);
+			datasets.add(mapped);
+			return mapped.getIdentifier().getValue();
+		} catch (DatasetNotValidException e) {
+			logger.info(e.getMessage());
+			skipped.getAndIncrement();
+			return null;
+		}
 	}
 
+	/**
+	 * Scrapes the catalogue incrementally: the pages that did not change since the
+	 * last completed synchronization are revalidated without being mapped again,
+	 * and only the datasets whose page region changed are returned as changed
+	 */
 	@Override
 	public ODMSSynchronizationResult getChangedDatasets(List<DCATDataset> oldDatasets, String startingDate)
 			throws Exception {
 
-		ArrayList<DCATDataset> newDatasets = (ArrayList<DCATDataset>) getAllDatasets();
-		ODMSSynchronizationResult syncrhoResult = new ODMSSynchronizationResult();
+		AtomicInteger counter = new AtomicInteger(0);
+		List<DCATDataset> newDatasets = Collections.synchronizedList(new ArrayList<DCATDataset>());
+		Set<String> unchangedIdentifiers = ConcurrentHashMap.newKeySet();
+		int docs = WebScraper.getDatasetsDocument(node.getSitemap(), node.getId(), true,
+				new IDatasetDocumentHandler() {
+
+					@Override
+					public String handleDocument(Document document, String contentHash) {
+						return mapDocument(document, contentHash, newDatasets, counter);
+					}
 
-		ImmutableSet<DCATDataset> newSets = ImmutableSet.copyOf(newDatasets);
-		ImmutableSet<DCATDataset> oldSets = ImmutableSet.copyOf(oldDatasets);
+					@Override
+					public void handleUnchanged(String identifier) {
+						unchangedIdentifiers.add(identifier);
+					}
+				});
 
-		int deleted = 0, added = 0, changed = 0;
+		logger.info("Skipped Web datasets when mapping: " + counter.get() + "/" + docs);
+		logger.info("Unchanged Web datasets: " + unchangedIdentifiers.size());
 
-		/// Find added datasets
-		// difference(current,present)
-		SetView<DCATDataset> diff = Sets.difference(newSets, oldSets);
-		logger.info("New Packages: " + diff.size());
-		for (DCATDataset d : diff) {
-			syncrhoResult.addToAddedList(d);
-			added++;
-		}
+		ODMSSynchronizationResult syncrhoResult = new ODMSSynchronizationResult();
 
-		// Find removed datasets
-		// difference(present,current)
-		SetView<DCATDataset> diff1 = Sets.difference(oldSets, newSets);
-		logger.info("Deleted Packages: " + diff1.size());
-		for (DCATDataset d : diff1) {
-			syncrhoResult.addToDeletedList(d);
-			deleted++;
+		// Index both lists by identifier once, then compare the two indexes
+		Map<String, DCATDataset> oldIndex = indexByIdentifier(oldDatasets);
+		Map<String, DCATDataset> newIndex;
+		synchronized (newDatasets) {
+			newIndex = indexByIdentifier(newDatasets);
 		}
 
-		// Find updated datasets
-		// intersection(present,current)
-		SetView<DCATDataset> intersection = Sets.intersection(newSets, oldSets);
-		logger.fatal("Changed Packages: " + intersection.size());
+		int deleted = 0, added = 0, changed = 0;
+
+		// Find added and updated datasets
+		for (Map.Entry<String, DCATDataset> entry : newIndex.entrySet()) {
+			DCATDataset oldDataset = oldIndex.get(entry.getKey());
+			if (oldDataset == null) {
+				syncrhoResult.addToAddedList(entry.getValue());
+				added++;
+			} else if (oldDataset.getContentHash() == null
+					|| !oldDataset.getContentHash().equals(entry.getValue().getContentHash())) {
+				syncrhoResult.addToChangedList(entry.getValue());
+				changed++;
+			}
+		}
 
-		for (DCATDataset d : intersection) {
-			syncrhoResult.addToChangedList(d);
-			changed++;
+		// Find removed datasets, the ones of the unchanged pages are still present
+		for (Map.Entry<String, DCATDataset> entry : oldIndex.entrySet()) {
+			if (!newIndex.containsKey(entry.getKey()) && !unchangedIdentifiers.contains(entry.getKey())) {
+				syncrhoResult.addToDeletedList(entry.getValue());
+				deleted++;
+			}
 		}
 
-		logger.info("Changed " + syncrhoResult.getChangedDatasets().size());
-		logger.info("Added " + syncrhoResult.getAddedDatasets().size());
-		logger.info("Deleted " + syncrhoResult.getDeletedDatasets().size());
+		logger.info("Changed " + changed);
+		logger.info("Added " + added);
+		logger.info("Deleted " + deleted);
 		logger.info("Expected new dataset count: " + (node.getDatasetCount() - deleted + added));
 
 		return syncrhoResult;
 	}
 
+	private static Map<String, DCATDataset> indexByIdentifier(List<DCATDataset> datasets) {
+		Map<String, DCATDataset> index = new LinkedHashMap<String, DCATDataset>(datasets.size() * 2);
+		for (DCATDataset d : datasets) {
+			index.putIfAbsent(d.getIdentifier().getValue(), d);
+		}
+		return index;
+	}
+
 	private static <T> Predicate<T> distinctByKey(Function<? super T, Object> keyExtractor) {
 		Map<Object, Boolean> map = new ConcurrentHashMap<>();
 		return t -> map.putIfAbsent(keyExtractor.apply(t), Boolean.TRUE) == null;
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors.webscraper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.Connection;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Selector.SelectorParseException;
+
+import it.eng.idra.beans.webscraper.DatasetSelector;
+import it.eng.idra.connectors.webscraper.PageFingerprints.Fingerprint;
+import it.eng.idra.utils.CommonUtil;
+
+/**
+ * Scrapes the pages of a web catalogue for one synchronization, shared by all
+ * its Page and Range workers.
+ * 
+ * Every page is revalidated against its fingerprint, if any, and only the
+ * dataset pages whose region changed are handed to the handler.
+ */
+class DatasetPageScraper {
+
+	private static Logger logger = LogManager.getLogger(DatasetPageScraper.class);
+
+	private final PageFingerprints fingerprints;
+	private final List<String> regionSelectors = new ArrayList<String>();
+	private final IDatasetDocumentHandler handler;
+
+	private final AtomicInteger extracted = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+
+	DatasetPageScraper(PageFingerprints fingerprints, List<DatasetSelector> datasetSelectors,
+			IDatasetDocumentHandler handler) {
+		this.fingerprints = fingerprints;
+		this.handler = handler;
+
+		/*
+		 * The region of a dataset page is made of the elements read by the dataset
+		 * selectors. The nth-of-type positions are dropped, since the mapping shifts
+		 * them according to the number of distributions
+		 */
+		if (datasetSelectors != null)
+			for (DatasetSelector selector : datasetSelectors)
+				if (StringUtils.isNotBlank(selector.getSelector()))
+					regionSelectors.add(selector.getSelector().replaceAll("'", "")
+							.replaceAll(":nth-of-type\\(\\d+\\)", ""));
+	}
+
+	/**
+	 * Scrape a dataset page, handing it to the handler only if it is new or its
+	 * region changed
+	 * 
+	 * @param url
+	 * @param timeout
+	 * @param attempts
+	 * @throws IOException
+	 */
+	void scrapeDataset(String url, int timeout, int attempts) throws IOException {
+
+		Fingerprint stored = fingerprints.get(url);
+		Connection.Response response = WebScraper.fetchResponse(url, timeout, attempts, stored);
+
+		if (response.statusCode() == HttpStatus.SC_NOT_MODIFIED) {
+			handleUnchanged(url, stored);
+			return;
+		}
+
+		Document document = response.parse();
+		String hash = hashRegion(document);
+		if (stored != null && hash.equals(stored.getHash())) {
+			handleUnchanged(url, stored.withValidators(response));
+			return;
+		}
+
+		String identifier = null;
+		try {
+			identifier = handler.handleDocument(document, hash);
+		} catch (RuntimeException e) {
+			logger.error("Error while handling the Document " + url + ": " + e.getMessage());
+		}
+		extracted.incrementAndGet();
+
+		// Pages without a valid dataset are scraped again the next time
+		if (identifier != null)
+			fingerprints.record(url, Fingerprint.of(response, hash, Collections.singletonList(identifier)));
+	}
+
+	/**
+	 * Scrape a navigation page, returning the links extracted by the passed
+	 * selector. If the page did not change, the links extracted the last time
+	 * are returned without parsing it
+	 * 
+	 * @param url
+	 * @param timeout
+	 * @param attempts
+	 * @param linkSelector
+	 * @return
+	 * @throws IOException
+	 */
+	List<String> scrapeLinks(String url, int timeout, int attempts, String linkSelector) throws IOException {
+
+		Fingerprint stored = fingerprints.get(url);
+		Connection.Response response = WebScraper.fetchResponse(url, timeout, attempts, stored);
+
+		if (response.statusCode() == HttpStatus.SC_NOT_MODIFIED) {
+			fingerprints.record(url, stored);
+			return stored.getValues();
+		}
+
+		// Only the links are kept, so that the Page Document is released before the
+		// datasets are retrieved
+		List<String> links = response.parse().select(linkSelector).eachAttr("href");
+		fingerprints.record(url,
+				Fingerprint.of(response, CommonUtil.computeContentHash(String.join("\n", links)), links));
+		return links;
+	}
+
+	private void handleUnchanged(String url, Fingerprint fingerprint) {
+		fingerprints.record(url, fingerprint);
+		unchanged.incrementAndGet();
+		try {
+			handler.handleUnchanged(fingerprint.getValues().get(0));
+		} catch (RuntimeException e) {
+			logger.error("Error while handling the unchanged Document " + url + ": " + e.getMessage());
+		}
+	}
+
+	private String hashRegion(Document document) {
+
+		if (regionSelectors.isEmpty())
+			return CommonUtil.computeContentHash(document.outerHtml());
+
+		StringBuilder region = new StringBuilder();
+		for (String selector : regionSelectors) {
+			try {
+				region.append(document.select(selector).outerHtml());
+			} catch (SelectorParseException e) {
+				// A selector Jsoup cannot parse does not restrict the region
+				return CommonUtil.computeContentHash(document.outerHtml());
+			}
+			region.append('\n');
+		}
+		return CommonUtil.computeContentHash(region.toString());
+	}
+
+	/**
+	 * Returns the number of new or changed dataset pages handed to the handler
+	 */
+	int getExtractedCount() {
+		return extracted.get();
+	}
+
+	/**
+	 * Returns the number of dataset pages skipped because they did not change
+	 */
+	int getUnchangedCount() {
+		return unchanged.get();
+	}
+
+}
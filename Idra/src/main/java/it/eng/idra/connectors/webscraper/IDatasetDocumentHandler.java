@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors.webscraper;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * Receives the dataset pages of a web catalogue as soon as they are scraped,
+ * from the worker thread that scraped them, so implementations must be thread
+ * safe
+ */
+@FunctionalInterface
+public interface IDatasetDocumentHandler {
+
+	/**
+	 * Called for every new or changed dataset page. The Document is not
+	 * referenced by the Web Scraper afterwards.
+	 * 
+	 * @param document
+	 *            the dataset page
+	 * @param contentHash
+	 *            the hash of the region of the page read by the dataset
+	 *            selectors
+	 * @return the identifier of the dataset extracted from the page, or null if
+	 *         the page does not contain a valid dataset
+	 */
+	public String handleDocument(Document document, String contentHash);
+
+	/**
+	 * Called, during an incremental scraping, for every dataset page whose
+	 * region did not change since the last completed synchronization
+	 * 
+	 * @param identifier
+	 *            the identifier of the dataset extracted from the page the last
+	 *            time
+	 */
+	public default void handleUnchanged(String identifier) {
+	}
+
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors.webscraper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.HttpHeaders;
+import org.jsoup.Connection;
+
+/**
+ * Fingerprints of the pages scraped from the web catalogues.
+ * 
+ * For every page URL the ETag and Last-Modified validators are kept, together
+ * with a hash of the region of the page the scraper reads and the values
+ * extracted from it: the dataset links of a navigation page, or the identifier
+ * of the dataset of a dataset page. An incremental scraping revalidates each
+ * page with a conditional request and skips the pages whose region did not
+ * change. As for the HTTP validators of the downloaded catalogues, the
+ * fingerprints of a scraping stay pending until the synchronization that used
+ * it completes, so that a failed synchronization is repeated in full.
+ */
+public class PageFingerprints {
+
+	private static final Map<Integer, Map<String, Fingerprint>> confirmed = new ConcurrentHashMap<Integer, Map<String, Fingerprint>>();
+	private static final Map<Integer, Map<String, Fingerprint>> pending = new ConcurrentHashMap<Integer, Map<String, Fingerprint>>();
+
+	private final int catalogueId;
+	private final boolean incremental;
+
+	/**
+	 * @param catalogueId
+	 *            the scraped catalogue
+	 * @param incremental
+	 *            whether the fingerprints of the last completed synchronization
+	 *            are used, otherwise they are only recorded
+	 */
+	PageFingerprints(int catalogueId, boolean incremental) {
+		this.catalogueId = catalogueId;
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Returns the fingerprint of the page recorded by the last completed
+	 * synchronization, or null if the scraping is not incremental
+	 */
+	Fingerprint get(String url) {
+		if (!incremental)
+			return null;
+		Map<String, Fingerprint> pages = confirmed.get(catalogueId);
+		return pages != null ? pages.get(url) : null;
+	}
+
+	/**
+	 * Records the fingerprint of a scraped page, pending until the
+	 * synchronization of the catalogue completes
+	 */
+	void record(String url, Fingerprint fingerprint) {
+		pending.computeIfAbsent(catalogueId, id -> new ConcurrentHashMap<String, Fingerprint>()).put(url,
+				fingerprint);
+	}
+
+	/**
+	 * Keeps the fingerprints of the pages scraped by the completed
+	 * synchronization, replacing the previous ones so that the pages no longer
+	 * reachable are forgotten
+	 */
+	public static void confirm(int catalogueId) {
+		Map<String, Fingerprint> scraped = pending.remove(catalogueId);
+		if (scraped != null)
+			confirmed.put(catalogueId, scraped);
+	}
+
+	/**
+	 * Drops the fingerprints of the pages scraped by a failed synchronization
+	 */
+	public static void discard(int catalogueId) {
+		pending.remove(catalogueId);
+	}
+
+	public static void remove(int catalogueId) {
+		pending.remove(catalogueId);
+		confirmed.remove(catalogueId);
+	}
+
+	static final class Fingerprint {
+
+		private final String eTag;
+		private final String lastModified;
+		private final String hash;
+		private final List<String> values;
+
+		private Fingerprint(String eTag, String lastModified, String hash, List<String> values) {
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.values = Collections.unmodifiableList(values);
+		}
+
+		static Fingerprint of(Connection.Response response, String hash, List<String> values) {
+			return new Fingerprint(response.header(HttpHeaders.ETAG), response.header(HttpHeaders.LAST_MODIFIED),
+					hash, values);
+		}
+
+		/**
+		 * Returns this fingerprint with the validators of a new response whose
+		 * region did not change
+		 */
+		Fingerprint withValidators(Connection.Response response) {
+			return of(response, hash, values);
+		}
+
+		void addTo(Connection connection) {
+			if (eTag != null)
+				connection.header(HttpHeaders.IF_NONE_MATCH, eTag);
+			if (lastModified != null)
+				connection.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+
+		String getHash() {
+			return hash;
+		}
+
+		List<String> getValues() {
+			return values;
+		}
+	}
+
+}
@@ -18,23 +18,18 @@
 package it.eng.idra.connectors.webscraper;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.webscraper.NavigationParameter;
 import it.eng.idra.beans.webscraper.NavigationType;
 import it.eng.idra.beans.webscraper.NavigationTypeNotValidException;
+import it.eng.idra.beans.webscraper.PageSelector;
 import it.eng.idra.beans.webscraper.UrlNotParseableException;
 import it.eng.idra.utils.PropertyManager;
 
@@ -44,10 +39,8 @@ public class PageWorker implements Runnable {
 	private static final int DATASET_RETRY_NUM;
 	private static final int PAGE_TIMEOUT;
 	private static final int DATASET_TIMEOUT;
-	private static final int JSOUP_THROTTLING;
 
-	private List<Document> outputScraper;
-	private CountDownLatch countDownLatch;
+	private DatasetPageScraper scraper;
 	private int pageNumber;
 	private String startUrl;
 	private NavigationParameter navParam;
@@ -58,14 +51,16 @@ public class PageWorker implements Runnable {
 		DATASET_RETRY_NUM = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_DATASET_RETRY_NUM));
 		PAGE_TIMEOUT = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_PAGE_TIMEOUT));
 		DATASET_TIMEOUT = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_DATASET_TIMEOUT));
-		JSOUP_THROTTLING = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_GLOBAL_THROTTILING));
 		
 	}
 	
-	public PageWorker(String startUrl, NavigationParameter navParam, int pageNumber, List<Document> outputScraper,
-			CountDownLatch countDownLatch) {
-		this.outputScraper = outputScraper;
-		this.countDownLatch = countDownLatch;
+	/**
+	 * @param scraper
+	 *            the scraper of the catalogue, which hands the retrieved dataset
+	 *            Documents to the handler
+	 */
+	PageWorker(String startUrl, NavigationParameter navParam, int pageNumber, DatasetPageScraper scraper) {
+		this.scraper = scraper;
 		this.navParam = navParam;
 		this.pageNumber = pageNumber;
 		this.startUrl = startUrl;
@@ -113,85 +108,43 @@ public class PageWorker implements Runnable {
 	}
 
 	/**
-	 * Try to get the Page document, for max N attempts, starting from StartUrl,
-	 * PageNumber and Nav Param to build the URL
+	 * Try to get the dataset links of the Page, for max N attempts, starting from
+	 * StartUrl, PageNumber and Nav Param to build the URL
 	 * 
-	 * @return Document The Document representing the result Page
+	 * @param linkSelector
+	 * @return the links extracted from the result Page
 	 * @throws IOException
 	 * @throws NavigationTypeNotValidException
 	 */
-	private Document getPageDocument() throws IOException, NavigationTypeNotValidException {
-
-		int retryNum = 1;
-		boolean retry = false;
-		do {
-
-			try {
-				String pageUrl = buildPageUrl(startUrl, navParam, pageNumber);
-				 logger.debug("--------------- PAGE URL: " + pageUrl + "---------------------------");
- 				return Jsoup.connect(pageUrl).timeout(PAGE_TIMEOUT).get();
-
-			} catch (IOException | NavigationTypeNotValidException e) {
-				logger.info("\nThread: " + Thread.currentThread().getId() + " Error: " + e.getMessage()
-						+ " retrieving Page Document: " + pageNumber + " - Attempt n: " + retryNum);
-				retry = true;
-				retryNum++;
-				if (retryNum > PAGE_RETRY_NUM) {
-					retry = false;
-					throw e;
-				}
-			}
-
-		} while (retry);
+	private List<String> getPageLinks(String linkSelector) throws IOException, NavigationTypeNotValidException {
 
-		throw new IOException("It was reached the max connection attempts for Page Document retrieval");
+		String pageUrl = buildPageUrl(startUrl, navParam, pageNumber);
+		logger.debug("--------------- PAGE URL: " + pageUrl + "---------------------------");
+		return scraper.scrapeLinks(pageUrl, PAGE_TIMEOUT, PAGE_RETRY_NUM, linkSelector);
 	}
 
 	/**
-	 * Get the Dataset document, by extracting related link from input Item Element
-	 * (extracted from Result Page)
+	 * Scrape the Dataset document, from the related link extracted from the
+	 * Result Page
 	 * 
-	 * @param linkElement
-	 * @return Document The Document representing the Document Page
+	 * @param link
 	 * @throws IOException
 	 * @throws UrlNotParseableException
 	 */
-	private Document getDatasetDocument(Element linkElement) throws IOException, UrlNotParseableException {
-
-		int retryNum = 1;
-		boolean retry = false;
-		String link = null;
-		do {
-
-			try {
-				link = linkElement.attr("href");
-
-				// Handle relative path links
-				if (link.startsWith("/"))
-					link = extractBaseUrlFromStartUrl() + link;
-
-				return Jsoup.connect(link).timeout(DATASET_TIMEOUT).get();
-			} catch (IOException e) {
-				logger.info("\nThread: " + Thread.currentThread().getId() + "Page: " + pageNumber + " Error: "
-						+ e.getMessage() + " retrieving Dataset Document: " + link + " - Attempt n: " + retryNum);
-				retry = true;
-				retryNum++;
-				if (retryNum == DATASET_RETRY_NUM) {
-					retry = false;
-					throw e;
-				}
-			}
+	private void scrapeDatasetDocument(String link) throws IOException, UrlNotParseableException {
 
-		} while (retry);
+		// Handle relative path links
+		if (link.startsWith("/"))
+			link = extractBaseUrlFromStartUrl() + link;
 
-		throw new IOException("It was reached the max connection attempts for Dataset Document retrieval");
+		scraper.scrapeDataset(link, DATASET_TIMEOUT, DATASET_RETRY_NUM);
 
 	}
 
 	@Override
 	public void run() {
 
-		List<Document> pageResult = new ArrayList<Document>();
+		int retrieved = 0;
 
 		logger.info("Thread: " + Thread.currentThread().getId() + " Starting to retrieve Page Document: " + pageNumber);
 
@@ -199,50 +152,42 @@ public class PageWorker implements Runnable {
 		 * Start trying to get the Page document, for max N attempts
 		 */
 		try {
-			final Document pageDocument = getPageDocument();
+			List<String> links = null;
+			for (PageSelector selector : navParam.getPageSelectors()) {
+				if ("datasetLink".equalsIgnoreCase(selector.getName())) {
+					links = getPageLinks(selector.getSelector());
+					break;
+				}
+			}
 
 			/*
 			 * If the Selector for extracting datasets links is present Start to retrieve
 			 * Datasets document from extracted links
 			 */
-			navParam.getPageSelectors().stream().forEach(selector -> {
-				if ("datasetLink".equalsIgnoreCase(selector.getName())) {
-					List<Element> itemElements = pageDocument.select(selector.getSelector());
-
-					if (itemElements != null && !itemElements.isEmpty()) {
-						logger.info("Thread: " + Thread.currentThread().getId() + " Page Document: " + pageNumber
-								+ " Starting to retrieve datasets documents from Datasets List with size: "
-								+ itemElements.size());
-
-						for (Element e : itemElements) {
-							try {
-								try {
-									TimeUnit.MILLISECONDS.sleep(JSOUP_THROTTLING);
-								} catch (InterruptedException e2) {
-									e2.printStackTrace();
-								}
-								pageResult.add(getDatasetDocument(e));
-							} catch (IOException | UrlNotParseableException e1) {
-								e1.printStackTrace();
-								continue;
-							}
-						}
+			if (links != null && !links.isEmpty()) {
+				logger.info("Thread: " + Thread.currentThread().getId() + " Page Document: " + pageNumber
+						+ " Starting to retrieve datasets documents from Datasets List with size: "
+						+ links.size());
+
+				for (String link : links) {
+					if (Thread.currentThread().isInterrupted())
+						break;
+					try {
+						scrapeDatasetDocument(link);
+						retrieved++;
+					} catch (IOException | UrlNotParseableException e1) {
+						logger.info("Thread: " + Thread.currentThread().getId() + " Page: " + pageNumber + " Error: "
+								+ e1.getMessage() + " retrieving Dataset Document: " + link);
 					}
 				}
-			});
+			}
 
-			logger.info("Thread: " + Thread.currentThread().getId() + " Adding " + pageResult.size()
-					+ " retrieved documents to shared total List");
-			outputScraper.addAll(pageResult);
-			countDownLatch.countDown();
-			logger.debug("Thread: " + Thread.currentThread().getId() + " Decremented Latch to count: "
-					+ countDownLatch.getCount());
-			System.out.println("____________________________________________________");
+			logger.info("Thread: " + Thread.currentThread().getId() + " Page Document: " + pageNumber + " Retrieved "
+					+ retrieved + " dataset documents");
 
 		} catch (IOException | NavigationTypeNotValidException e1) {
-			e1.printStackTrace();
-			countDownLatch.countDown();
-			return;
+			logger.info("Thread: " + Thread.currentThread().getId() + " Error: " + e1.getMessage()
+					+ " retrieving Page Document: " + pageNumber);
 		}
 	}
 
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors.webscraper;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Spaces the requests of the web scraper sent to the same host.
+ * 
+ * Every request reserves the first free slot of its host, at least the
+ * configured delay after the previous one, and waits for it. Since waiting
+ * occupies the worker, the tasks scraping a host are queued and run one at a
+ * time when a delay is set: a single worker waits for the slots of a host,
+ * while the other workers of the scraper pool serve the other hosts.
+ */
+class PolitenessScheduler {
+
+	private final long delay;
+	private final ConcurrentMap<String, Long> nextSlots = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<String, HostQueue>();
+
+	/**
+	 * @param delay
+	 *            minimum milliseconds between two requests to the same host
+	 */
+	PolitenessScheduler(long delay) {
+		this.delay = Math.max(0, delay);
+	}
+
+	/**
+	 * Runs the task on the passed workers after the tasks of the same host
+	 * already queued. Without a delay, the tasks of a host run concurrently
+	 * 
+	 * @param workers
+	 * @param url
+	 *            the URL whose host is scraped by the task
+	 * @param task
+	 */
+	void execute(Executor workers, String url, Runnable task) {
+		if (delay == 0)
+			workers.execute(task);
+		else
+			hostQueues.computeIfAbsent(getHost(url), host -> new HostQueue()).add(workers, task);
+	}
+
+	/**
+	 * Forgets the queued tasks, whose workers are being shut down
+	 */
+	void clear() {
+		hostQueues.clear();
+	}
+
+	/**
+	 * Blocks until a request to the host of the passed URL is allowed
+	 * 
+	 * @param url
+	 * @throws InterruptedException
+	 */
+	void await(String url) throws InterruptedException {
+		if (delay == 0)
+			return;
+
+		long now = System.currentTimeMillis();
+		long slot = nextSlots.compute(getHost(url), (host, next) -> Math.max(now, next == null ? now : next) + delay)
+				- delay;
+
+		if (slot > now)
+			TimeUnit.MILLISECONDS.sleep(slot - now);
+	}
+
+	private static String getHost(String url) {
+		try {
+			String host = URI.create(url.trim()).getHost();
+			if (StringUtils.isNotBlank(host))
+				return host.toLowerCase();
+		} catch (IllegalArgumentException e) {
+			// Unparseable URLs share a single slot
+		}
+		return "";
+	}
+
+	/*
+	 * Tasks of a host waiting for a worker: at most one worker at a time drains
+	 * the queue, running its tasks one after the other
+	 */
+	private static class HostQueue {
+
+		// Guarded by this
+		private final Queue<Runnable> pending = new ArrayDeque<Runnable>();
+		private boolean draining = false;
+
+		synchronized void add(Executor workers, Runnable task) {
+			pending.add(task);
+			if (!draining) {
+				try {
+					workers.execute(this::drain);
+				} catch (RejectedExecutionException e) {
+					pending.clear();
+					throw e;
+				}
+				draining = true;
+			}
+		}
+
+		private void drain() {
+			Runnable task;
+			while ((task = next()) != null) {
+				task.run();
+				// A cancelled task must not interrupt the next ones
+				Thread.interrupted();
+			}
+		}
+
+		private synchronized Runnable next() {
+			Runnable task = pending.poll();
+			if (task == null)
+				draining = false;
+			return task;
+		}
+	}
+
+}
@@ -18,14 +18,9 @@
 package it.eng.idra.connectors.webscraper;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jsoup.nodes.Document;
 
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.webscraper.NavigationParameter;
@@ -35,10 +30,9 @@ import it.eng.idra.utils.PropertyManager;
 public class RangeWorker implements Runnable {
 
 	private static final int RANGE_RETRY_NUM;
-	private static final int JSOUP_THROTTLING;
+	private static final int DATASET_TIMEOUT;
 
-	private List<Document> outputScraper;
-	private CountDownLatch countDownLatch;
+	private DatasetPageScraper scraper;
 	private int roundNumber, rangeScale, rangeRest;
 	private String startUrl;
 	private NavigationParameter navParam;
@@ -46,91 +40,58 @@ public class RangeWorker implements Runnable {
 
 	static {
 		RANGE_RETRY_NUM = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_RANGE_RETRY_NUM));
-		JSOUP_THROTTLING = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_GLOBAL_THROTTILING));
+		DATASET_TIMEOUT = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_DATASET_TIMEOUT));
 
 	}
 
-	public RangeWorker(String startUrl, NavigationParameter navParam, int roundNumber, int rangeScale, int rangeRest,
-			List<Document> outputScraper, CountDownLatch countDownLatch) {
+	/**
+	 * @param scraper
+	 *            the scraper of the catalogue, which hands the retrieved
+	 *            Documents to the handler
+	 */
+	RangeWorker(String startUrl, NavigationParameter navParam, int roundNumber, int rangeScale, int rangeRest,
+			DatasetPageScraper scraper) {
 
 		this.roundNumber = roundNumber;
 		this.rangeScale = rangeScale;
 		this.rangeRest = rangeRest;
 		this.navParam = navParam;
 		this.startUrl = startUrl;
-		this.outputScraper = outputScraper;
-		this.countDownLatch = countDownLatch;
+		this.scraper = scraper;
 
 	}
 
 	@Override
 	public void run() {
 
-		List<Document> roundResult = new ArrayList<Document>();
+		int retrieved = 0;
 
 		logger.info("Thread: " + Thread.currentThread().getId() + " ROUND: " + roundNumber + " Starting to retrieve "
 				+ rangeScale + " documents");
 
 		for (int j = 0; j < (rangeRest != 0 ? rangeRest : rangeScale); j++) {
 
-			boolean retry = false;
-			int retryNum = 1;
-
-			/*
-			 * Start trying to get the document, for max N attempts
-			 */
-
-			do {
-
-				int finalParam = (Integer.parseInt(navParam.getStartValue()) + (roundNumber * rangeScale) + j);
-				try {
-
-					// logger.debug("Thread: " + Thread.currentThread().getId()
-					// + " Round: " + roundNumber
-					// + " - Getting document number: " + j + " with final
-					// query/path parameter: "
-					// + finalParam);
-
-					/*
-					 * AVOID DOS EFFECT TO ODMS SERVER
-					 */
-					try {
-						TimeUnit.MILLISECONDS.sleep(JSOUP_THROTTLING);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-
-					Document doc = WebScraper.getDatasetDocumentByIncrement(startUrl, navParam,
-							(roundNumber * rangeScale) + j);
-					roundResult.add(doc);
-					logger.debug("Thread: " + Thread.currentThread().getId() + " - Param: " + finalParam);
-					retry = false;
-
-					// logger.debug("Thread: " + Thread.currentThread().getId()
-					// + " Got document with final param "
-					// + (Integer.parseInt(navParam.getStartValue()) +
-					// (roundNumber * rangeScale) + j));
-
-				} catch (IOException | NavigationTypeNotValidException e) {
-					logger.info("\nThread: " + Thread.currentThread().getId() + " Error: " + e.getMessage()
-							+ " while retrieving documents with parameter: " + finalParam + "\nAttempt n: " + retryNum);
-					retry = true;
-					retryNum++;
-					if (retryNum > RANGE_RETRY_NUM) {
-						retry = false;
-						e.printStackTrace();
-					}
-				}
-
-			} while (retry);
+			if (Thread.currentThread().isInterrupted())
+				break;
+
+			int finalParam = (Integer.parseInt(navParam.getStartValue()) + (roundNumber * rangeScale) + j);
+			try {
+
+				/*
+				 * Throttling and retries are handled by the Web Scraper, for max N attempts
+				 */
+				scraper.scrapeDataset(WebScraper.buildRangeUrl(startUrl, navParam, (roundNumber * rangeScale) + j),
+						DATASET_TIMEOUT, RANGE_RETRY_NUM);
+				logger.debug("Thread: " + Thread.currentThread().getId() + " - Param: " + finalParam);
+				retrieved++;
+
+			} catch (IOException | NavigationTypeNotValidException e) {
+				logger.info("\nThread: " + Thread.currentThread().getId() + " Error: " + e.getMessage()
+						+ " while retrieving documents with parameter: " + finalParam);
+			}
 		}
 
-		logger.info("Thread: " + Thread.currentThread().getId() + " Adding " + roundResult.size()
-				+ " retrieved document to shared total List");
-		outputScraper.addAll(roundResult);
-		countDownLatch.countDown();
-		logger.debug("Thread: " + Thread.currentThread().getId() + " Decremented Latch to count: "
-				+ countDownLatch.getCount());
-		// System.out.println("____________________________________________________");
+		logger.info("Thread: " + Thread.currentThread().getId() + " ROUND: " + roundNumber + " Retrieved " + retrieved
+				+ " documents");
 	}
 }
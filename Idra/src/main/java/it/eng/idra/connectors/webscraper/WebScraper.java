@@ -18,15 +18,21 @@
 package it.eng.idra.connectors.webscraper;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,6 +45,8 @@ import javax.swing.plaf.synth.SynthScrollBarUI;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -56,6 +64,7 @@ import it.eng.idra.beans.webscraper.WebScraperSelector;
 import it.eng.idra.beans.webscraper.WebScraperSelectorNotFoundException;
 import it.eng.idra.beans.webscraper.WebScraperSitemap;
 import it.eng.idra.connectors.CKanConnector;
+import it.eng.idra.connectors.webscraper.PageFingerprints.Fingerprint;
 import it.eng.idra.utils.PropertyManager;
 
 public class WebScraper {
@@ -64,21 +73,112 @@ public class WebScraper {
 
 	private static final int PAGINATION_RETRY_NUM;
 	private static final int DATASET_TIMEOUT;
-	private static final long COUNTDOWN_LATCH_TIMEOUT;
+	private static final int PAGE_TIMEOUT;
+	private static final long GLOBAL_TIMEOUT;
 	private static final int WEB_SCRAPER_RANGE_SCALE_NUM;
+	private static final int WEB_SCRAPER_THREADS;
+
+	private static final PolitenessScheduler scheduler;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static ExecutorService workers;
 
 	static {
 		PAGINATION_RETRY_NUM = Integer
 				.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_PAGINATION_RETRY_NUM));
 		DATASET_TIMEOUT = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_DATASET_TIMEOUT));
-		COUNTDOWN_LATCH_TIMEOUT = Long.parseLong(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_GLOBAL_TIMEOUT));
+		PAGE_TIMEOUT = Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_PAGE_TIMEOUT));
+		GLOBAL_TIMEOUT = Long.parseLong(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_GLOBAL_TIMEOUT));
 		WEB_SCRAPER_RANGE_SCALE_NUM = Integer
 				.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_RANGE_SCALE_NUM));
+		WEB_SCRAPER_THREADS = Math.max(1, PropertyManager.getIntProperty(IdraProperty.WEB_SCRAPER_THREADS, 8));
+		scheduler = new PolitenessScheduler(
+				Integer.parseInt(PropertyManager.getProperty(IdraProperty.WEB_SCRAPER_GLOBAL_THROTTILING)));
 	}
 
 	private WebScraper() {
 	}
 
+	/**
+	 * Returns the worker pool shared by all the scraped catalogues, created on
+	 * first use
+	 */
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null)
+			workers = Executors.newFixedThreadPool(WEB_SCRAPER_THREADS, r -> {
+				Thread t = new Thread(r, "idra-scraper-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		return workers;
+	}
+
+	public static synchronized void onFinalize() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+			scheduler.clear();
+		}
+	}
+
+	/**
+	 * Get the Document at the passed URL, for max N attempts. Every attempt waits
+	 * for the politeness delay of the URL host, to avoid a DOS effect on the ODMS
+	 * server
+	 * 
+	 * @param url
+	 * @param timeout
+	 * @param attempts
+	 * @return
+	 * @throws IOException
+	 *             the error of the last attempt, or an InterruptedIOException if
+	 *             the scraping was cancelled
+	 */
+	static Document fetchDocument(String url, int timeout, int attempts) throws IOException {
+		return fetchResponse(url, timeout, attempts, null).parse();
+	}
+
+	/**
+	 * Get the response of the page at the passed URL, for max N attempts, as
+	 * {@link #fetchDocument(String, int, int)}. If a fingerprint is passed, the
+	 * request is conditional and the response may be a 304 Not Modified
+	 * 
+	 * @param url
+	 * @param timeout
+	 * @param attempts
+	 * @param fingerprint
+	 *            the fingerprint of the page, or null
+	 * @return
+	 * @throws IOException
+	 */
+	static Connection.Response fetchResponse(String url, int timeout, int attempts, Fingerprint fingerprint)
+			throws IOException {
+
+		for (int attempt = 1;; attempt++) {
+			try {
+				scheduler.await(url);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Web Scraper interrupted while retrieving: " + url);
+			}
+
+			try {
+				Connection connection = Jsoup.connect(url).timeout(timeout).ignoreHttpErrors(true);
+				if (fingerprint != null)
+					fingerprint.addTo(connection);
+
+				Connection.Response response = connection.execute();
+				if (response.statusCode() >= 400)
+					throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), url);
+				return response;
+			} catch (IOException e) {
+				if (attempt >= attempts || Thread.currentThread().isInterrupted())
+					throw e;
+				logger.debug("Thread: " + Thread.currentThread().getId() + " Error: " + e.getMessage()
+						+ " retrieving: " + url + " - Attempt n: " + attempt);
+			}
+		}
+	}
+
 	/**
 	 * Get the Document corresponding to the dataset page
 	 * 
@@ -91,8 +191,8 @@ public class WebScraper {
 	public static Document getDatasetDocumentByIncrement(WebScraperSitemap conf, int incrementValue)
 			throws IOException, NavigationTypeNotValidException {
 
-		return Jsoup.connect(buildRangeUrl(conf.getStartUrl(), conf.getNavigationParameter(), incrementValue))
-				.timeout(DATASET_TIMEOUT).get();
+		return fetchDocument(buildRangeUrl(conf.getStartUrl(), conf.getNavigationParameter(), incrementValue),
+				DATASET_TIMEOUT, 1);
 
 	}
 
@@ -101,38 +201,101 @@ public class WebScraper {
 		String finalUrl = buildRangeUrl(startUrl, navParam, incrementValue);
 		// System.out.println(finalUrl);
 
-		return Jsoup.connect(finalUrl).timeout(DATASET_TIMEOUT).get();
+		return fetchDocument(finalUrl, DATASET_TIMEOUT, 1);
 
 	}
 
 	/**
-	 * Get the Document list of all corresponding dataset pages
+	 * Get the Documents of all corresponding dataset pages. Each Document is
+	 * handed to the handler as soon as it is retrieved and is not referenced by
+	 * the Web Scraper afterwards. The fingerprints of the scraped pages are
+	 * recorded, pending until the synchronization of the catalogue completes
 	 * 
-	 * @param navParam
-	 * @return
+	 * @param sitemap
+	 * @param catalogueId
+	 * @param incremental
+	 *            if true, the pages that did not change since the last completed
+	 *            synchronization are not handed to the handler, which is only
+	 *            notified of their dataset identifier
+	 * @param handler
+	 * @return the number of new or changed dataset Documents
 	 * @throws InterruptedException
 	 * @throws PageNumberNotParseableException
 	 * @throws SitemapNotValidException
 	 */
-	public static List<Document> getDatasetsDocument(WebScraperSitemap sitemap)
+	public static int getDatasetsDocument(WebScraperSitemap sitemap, int catalogueId, boolean incremental,
+			IDatasetDocumentHandler handler)
 			throws InterruptedException, PageNumberNotParseableException, SitemapNotValidException {
 		NavigationParameter navParam = sitemap.getNavigationParameter();
 
 		validateSitemap(sitemap);
 
+		DatasetPageScraper scraper = new DatasetPageScraper(new PageFingerprints(catalogueId, incremental),
+				sitemap.getDatasetSelectors(), handler);
+
 		switch (navParam.getType()) {
 		case QUERY_RANGE:
 		case PATH_RANGE:
-			return getDatasetsDocumentByRange(sitemap.getStartUrl(), navParam);
+			getDatasetsDocumentByRange(sitemap.getStartUrl(), navParam, scraper);
+			break;
 
 		case PATH_PAGE:
 		case QUERY_PAGE:
-			return getDatasetsDocumentByPage(sitemap.getStartUrl(), navParam);
+			getDatasetsDocumentByPage(sitemap.getStartUrl(), navParam, scraper);
+			break;
 
 		default:
-			return null;
+			return 0;
 		}
 
+		logger.info("Web Scraper retrieved " + scraper.getExtractedCount() + " new or changed documents, skipped "
+				+ scraper.getUnchangedCount() + " unchanged documents");
+		return scraper.getExtractedCount();
+
+	}
+
+	/**
+	 * Run the tasks on the shared worker pool and wait for them, for max the
+	 * global timeout. The tasks still queued or running at the timeout are
+	 * cancelled. The tasks scrape the host of the passed URL, so they are
+	 * queued by the politeness scheduler
+	 * 
+	 * @param url
+	 * @param tasks
+	 * @return the number of completed tasks
+	 * @throws InterruptedException
+	 */
+	private static int runWorkers(String url, List<Runnable> tasks) throws InterruptedException {
+
+		ExecutorService pool = getWorkers();
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+		for (Runnable task : tasks) {
+			FutureTask<?> future = new FutureTask<Void>(task, null);
+			scheduler.execute(pool, url, future);
+			futures.add(future);
+		}
+
+		long deadline = System.currentTimeMillis() + GLOBAL_TIMEOUT;
+		int completed = 0;
+		try {
+			for (Future<?> future : futures) {
+				try {
+					future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					completed++;
+				} catch (ExecutionException e) {
+					logger.error("Web Scraper task failed: " + e.getCause());
+				} catch (TimeoutException e) {
+					logger.info("Web Scraper global timeout reached, " + (tasks.size() - completed)
+							+ " tasks not completed are cancelled");
+					break;
+				}
+			}
+		} finally {
+			for (Future<?> future : futures)
+				future.cancel(true);
+		}
+
+		return completed;
 	}
 
 	/**
@@ -176,52 +339,45 @@ public class WebScraper {
 	 * @param endValue
 	 * @throws InterruptedException
 	 */
-	private static List<Document> getDatasetsDocumentByRange(String startUrl, NavigationParameter navParam)
-			throws InterruptedException {
+	private static void getDatasetsDocumentByRange(String startUrl, NavigationParameter navParam,
+			DatasetPageScraper scraper) throws InterruptedException {
 
-		List<Document> rangeResult = Collections.synchronizedList(new ArrayList<Document>());
 		Integer rangeScale = WEB_SCRAPER_RANGE_SCALE_NUM, skipped = 0;
 		Integer startValue = Integer.parseInt(navParam.getStartValue());
 		Integer endValue = Integer.parseInt(navParam.getEndValue());
 
-		// Break the whole range in a thread pool, each of them collects
-		// sequentially a rangeScale number of Documents
-		Integer threadNumber = calculateRangeThreadNumber(startValue, endValue, rangeScale);
+		// Break the whole range in rounds run by the worker pool, each of them
+		// collects sequentially a rangeScale number of Documents
+		Integer roundNumber = calculateRangeThreadNumber(startValue, endValue, rangeScale);
 
-		// Create a Runnable list of threadNumber size and an associated
-		// CountDownLatch
+		logger.info("Starting Web Scraper RANGE retrieval: " + roundNumber + " rounds");
+		List<Runnable> rounds = new ArrayList<Runnable>(roundNumber);
 
-		logger.info("Starting Web Scraper RANGE retrieval: " + threadNumber + " threads");
-		CountDownLatch rangeLatch = new CountDownLatch(threadNumber);
+		for (int i = 0; i < roundNumber; i++) {
 
-		for (int i = 0; i < threadNumber; i++) {
-
-			// The last thread of the pool is launched with the correct range
-			// rest (calculated with: end-start MOD rangeScale )
-			if (i == threadNumber - 1)
-				new Thread(new RangeWorker(startUrl, navParam, i, rangeScale,
-						calculateRangeRest(startValue, endValue, rangeScale), rangeResult, rangeLatch)).start();
+			// The last round is launched with the correct range rest
+			// (calculated with: end-start MOD rangeScale )
+			if (i == roundNumber - 1)
+				rounds.add(new RangeWorker(startUrl, navParam, i, rangeScale,
+						calculateRangeRest(startValue, endValue, rangeScale), scraper));
 			else
-				// All the other threads are launched with range rest 0
-				new Thread(new RangeWorker(startUrl, navParam, i, rangeScale, 0, rangeResult, rangeLatch)).start();
+				// All the other rounds are launched with range rest 0
+				rounds.add(new RangeWorker(startUrl, navParam, i, rangeScale, 0, scraper));
 		}
 
-		logger.info("Waiting for threads...");
-		rangeLatch.await(COUNTDOWN_LATCH_TIMEOUT, TimeUnit.MILLISECONDS);
-		// skipped = (startValue-endValue) - rangeResult.size();
+		logger.info("Waiting for rounds...");
+		runWorkers(startUrl, rounds);
+		// skipped = (startValue-endValue) - rangeResult.get();
 		// if (skipped > 0)
-		logger.info("All threads returned\n Returned documents: " + rangeResult.size() + " - Expected: "
+		logger.info("All rounds returned\n Returned documents: "
+				+ (scraper.getExtractedCount() + scraper.getUnchangedCount()) + " - Expected: "
 				+ (endValue - startValue));
-		// rangeResult.stream().forEach(d ->
-		// System.out.println(d.select("div#notices div:nth-of-type(10)")));
-		return rangeResult;
 
 	}
 
-	private static List<Document> getDatasetsDocumentByPage(String startUrl, NavigationParameter navParam)
-			throws PageNumberNotParseableException, InterruptedException {
+	private static void getDatasetsDocumentByPage(String startUrl, NavigationParameter navParam,
+			DatasetPageScraper scraper) throws PageNumberNotParseableException, InterruptedException {
 
-		List<Document> pageResult = Collections.synchronizedList(new ArrayList<Document>());
 		List<PageSelector> pageSelectors = navParam.getPageSelectors();
 		Integer startPageValue = Integer.parseInt(navParam.getStartValue());
 		Integer threadNumber = null, skipped = 0;
@@ -243,26 +399,22 @@ public class WebScraper {
 			throw new PageNumberNotParseableException(e.getMessage());
 		}
 
-		// Create a Runnable list of threadNumber size and an associated
-		// CountDownLatch
-
 		/*
 		 * Analizza le pagine utilizzando i pageSelectors, da essi prende gli url dei
 		 * risultati e chiama lo scraping del dataset singolo
 		 */
 
-		logger.info("Starting Web Scraper PAGE retrieval: " + threadNumber + " Threads");
+		logger.info("Starting Web Scraper PAGE retrieval: " + threadNumber + " Pages");
 
-		CountDownLatch pageLatch = new CountDownLatch(threadNumber);
+		List<Runnable> pages = new ArrayList<Runnable>();
 		for (int i = startPageValue; i < threadNumber; i++) {
-			new Thread(new PageWorker(startUrl, navParam, i, pageResult, pageLatch)).start();
+			pages.add(new PageWorker(startUrl, navParam, i, scraper));
 		}
 
-		logger.info("Waiting for threads...");
-		pageLatch.await(COUNTDOWN_LATCH_TIMEOUT, TimeUnit.MILLISECONDS);
-		logger.info("All threads returned - Returned documents: " + pageResult.size());
-
-		return pageResult;
+		logger.info("Waiting for pages...");
+		runWorkers(startUrl, pages);
+		logger.info("All pages returned - Returned documents: "
+				+ (scraper.getExtractedCount() + scraper.getUnchangedCount()));
 
 	}
 
@@ -294,7 +446,7 @@ public class WebScraper {
 			do {
 
 				try {
-					Document firstPageDocument = Jsoup.connect(startUrl).get();
+					Document firstPageDocument = fetchDocument(startUrl, PAGE_TIMEOUT, 1);
 
 					if (firstPageDocument != null) {
 
@@ -414,7 +566,7 @@ public class WebScraper {
 
 	}
 
-	private static String buildRangeUrl(String startUrl, NavigationParameter param, int incrementValue)
+	static String buildRangeUrl(String startUrl, NavigationParameter param, int incrementValue)
 			throws NavigationTypeNotValidException {
 
 		if (param.getType().equals(NavigationType.PATH_RANGE))
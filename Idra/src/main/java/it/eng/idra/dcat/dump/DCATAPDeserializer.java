@@ -17,7 +17,10 @@
  ******************************************************************************/
 package it.eng.idra.dcat.dump;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -26,6 +29,7 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jena.iri.IRIFactory;
 import org.apache.jena.rdf.model.LiteralRequiredException;
@@ -38,6 +42,7 @@ import org.apache.jena.rdf.model.ResourceRequiredException;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RiotException;
 import org.apache.jena.shared.PropertyNotFoundException;
 import org.apache.jena.sparql.vocabulary.FOAF;
@@ -47,6 +52,8 @@ import org.apache.jena.vocabulary.OWL;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.SKOS;
 import org.apache.jena.vocabulary.VCARD4;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import it.eng.idra.beans.DCATThemes;
 import it.eng.idra.beans.dcat.DCATAPFormat;
@@ -66,6 +73,7 @@ import it.eng.idra.beans.dcat.SKOSPrefLabel;
 import it.eng.idra.beans.dcat.SPDXChecksum;
 import it.eng.idra.beans.dcat.VCardOrganization;
 import it.eng.idra.beans.odms.ODMSCatalogue;
+import it.eng.idra.connectors.IDatasetPageHandler;
 import it.eng.idra.utils.CommonUtil;
 
 public class DCATAPDeserializer implements IDCATAPDeserialize {
@@ -77,6 +85,17 @@ public class DCATAPDeserializer implements IDCATAPDeserialize {
 	protected static final String GEO_BASE_URI = "http://publications.europa.eu/mdr/authority/place";
 	protected static final String GEO_BASE_URI_ALT = "http://www.geonames.org";
 
+	private static final int FORMAT_DETECTION_BYTES = 1024;
+	// An XML start tag, as opposed to the IRI that starts an N-Triples or Turtle dump
+	private static final Pattern xmlElementPattern = Pattern.compile("<[A-Za-z_][\\w.-]*(:[A-Za-z_][\\w.-]*)?[\\s/>]");
+	private static final Pattern jsonLdKeywordPattern = Pattern
+			.compile("\"@(context|graph|id|type|value|language|list|set|reverse|base|vocab)\"\\s*:");
+	private static final Pattern jsonFirstKeyPattern = Pattern.compile("\\{\\s*\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:");
+	// An absolute IRI or a blank node, the subjects that key an RDF/JSON object
+	private static final Pattern rdfJsonSubjectPattern = Pattern.compile("(_:|[A-Za-z][A-Za-z0-9+.-]*:)");
+
+	private static Logger logger = LogManager.getLogger(DCATAPDeserializer.class);
+
 	public DCATAPDeserializer() {
 	}
 
@@ -85,21 +104,158 @@ public class DCATAPDeserializer implements IDCATAPDeserialize {
 		String nodeBaseURI = node.getHost();
 		// create an empty model
 		Model model = ModelFactory.createDefaultModel();
-		for (DCATAPFormat format : DCATAPFormat.values()) {
+		try {
+			BufferedInputStream in = new BufferedInputStream(
+					new ByteArrayInputStream(modelText.getBytes(StandardCharsets.UTF_8)));
+			DCATAPFormat format = detectFormat(in, node.getDcatFormat());
+			RDFDataMgr.read(model, in, nodeBaseURI, toLang(format));
+			node.setDcatFormat(format);
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+		return model;
+	}
+
+	@Override
+	public int streamDatasets(InputStream dump, ODMSCatalogue node, int start, int pageSize,
+			IDatasetPageHandler handler) throws Exception {
+
+		BufferedInputStream in = new BufferedInputStream(dump);
+		DCATAPFormat format = detectFormat(in, node.getDcatFormat());
+		node.setDcatFormat(format);
+
+		DatasetPager pager = new DatasetPager(String.valueOf(node.getId()), start, pageSize, handler);
+		DCATDatasetStreamSink sink = new DCATDatasetStreamSink(pager);
+
+		try {
+			RDFDataMgr.parse(sink, in, node.getHost(), toLang(format));
+			int count = sink.complete();
+			pager.flush();
+			return count;
+		} catch (DCATDatasetStreamSink.DatasetHandlerException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Deserializes the streamed datasets and hands them to the page handler
+	 */
+	private class DatasetPager implements DCATDatasetStreamSink.DatasetResourceHandler {
+
+		private final String nodeID;
+		private final int start, pageSize;
+		private final IDatasetPageHandler handler;
+		private List<DCATDataset> page;
+		private int index = 0;
+
+		private DatasetPager(String nodeID, int start, int pageSize, IDatasetPageHandler handler) {
+			this.nodeID = nodeID;
+			this.start = start;
+			this.pageSize = Math.max(1, pageSize);
+			this.handler = handler;
+			this.page = new ArrayList<DCATDataset>(this.pageSize);
+		}
+
+		@Override
+		public void handleDataset(Resource datasetResource) throws Exception {
+
+			// Datasets already loaded by an interrupted load are skipped
+			if (index++ < start)
+				return;
+
 			try {
-				model.read(new ByteArrayInputStream(modelText.getBytes(StandardCharsets.UTF_8)), nodeBaseURI,
-						format.formatName());
-				node.setDcatFormat(format);
-				break;
-			} catch (RiotException e) {
-				if (!e.getMessage().contains("Content is not allowed in prolog") && !e.getMessage()
-						.contains("[line: 1, col: 1 ] Expected BNode or IRI: Got: [DIRECTIVE:prefix]"))
-					throw e;
-				else
-					continue;
+				page.add(resourceToDataset(nodeID, datasetResource));
+			} catch (Exception e) {
+				logger.info("Skipped dataset - There was an error: " + e.getMessage() + " while deserializing dataset: "
+						+ datasetResource);
 			}
+
+			if (page.size() >= pageSize)
+				flush();
+		}
+
+		private void flush() throws Exception {
+			if (!page.isEmpty()) {
+				handler.handlePage(page);
+				page = new ArrayList<DCATDataset>(pageSize);
+			}
+		}
+	}
+
+	/**
+	 * Returns the declared RDF syntax of a dump, if any, otherwise detects it from
+	 * its first bytes, leaving the stream at its beginning
+	 */
+	protected static DCATAPFormat detectFormat(BufferedInputStream in, DCATAPFormat declared) throws IOException {
+
+		if (declared != null)
+			return declared;
+
+		byte[] head = new byte[FORMAT_DETECTION_BYTES];
+		in.mark(FORMAT_DETECTION_BYTES);
+		int length = IOUtils.read(in, head);
+		in.reset();
+
+		String text = StringUtils.stripStart(new String(head, 0, length, StandardCharsets.UTF_8), "\uFEFF \t\r\n");
+
+		if (text.startsWith("["))
+			return DCATAPFormat.JSONLD;
+		if (text.startsWith("{")) {
+			/*
+			 * Both are JSON objects: RDF/JSON is keyed by subject IRIs and never has
+			 * JSON-LD keywords, which JSON-LD uses for ids, contexts and values
+			 */
+			if (jsonLdKeywordPattern.matcher(text).find())
+				return DCATAPFormat.JSONLD;
+			Matcher firstKey = jsonFirstKeyPattern.matcher(text);
+			if (firstKey.lookingAt() && rdfJsonSubjectPattern.matcher(firstKey.group(1)).lookingAt())
+				return DCATAPFormat.RDFJSON;
+			return DCATAPFormat.JSONLD;
+		}
+		if (text.startsWith("<?") || text.startsWith("<!") || xmlElementPattern.matcher(text).lookingAt())
+			return DCATAPFormat.RDFXML;
+		// Turtle is a superset of N-Triples
+		return DCATAPFormat.TURTLE;
+	}
+
+	/**
+	 * Returns the RDF syntax of a media type, or null if it does not identify one,
+	 * as generic types like application/json or text/plain
+	 */
+	public static DCATAPFormat formatOfMediaType(String mediaType) {
+		if (StringUtils.isBlank(mediaType))
+			return null;
+
+		switch (StringUtils.substringBefore(mediaType, ";").trim().toLowerCase()) {
+		case "application/rdf+xml":
+			return DCATAPFormat.RDFXML;
+		case "text/turtle":
+		case "application/x-turtle":
+			return DCATAPFormat.TURTLE;
+		case "application/n-triples":
+			return DCATAPFormat.NTRIPLES;
+		case "application/ld+json":
+			return DCATAPFormat.JSONLD;
+		case "application/rdf+json":
+			return DCATAPFormat.RDFJSON;
+		default:
+			return null;
+		}
+	}
+
+	protected static Lang toLang(DCATAPFormat format) {
+		switch (format) {
+		case RDFXML:
+			return Lang.RDFXML;
+		case NTRIPLES:
+			return Lang.NTRIPLES;
+		case JSONLD:
+			return Lang.JSONLD;
+		case RDFJSON:
+			return Lang.RDFJSON;
+		default:
+			return Lang.TURTLE;
 		}
-		return model;
 	}
 
 	public DCATDataset resourceToDataset(String nodeID, Resource datasetResource)
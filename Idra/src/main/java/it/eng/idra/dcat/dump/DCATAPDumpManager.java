@@ -17,27 +17,29 @@
  ******************************************************************************/
 package it.eng.idra.dcat.dump;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.solr.client.solrj.SolrServerException;
+import org.quartz.SchedulerException;
 
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATAPFormat;
 import it.eng.idra.beans.dcat.DCATAPProfile;
-import it.eng.idra.beans.dcat.DCATAPWriteType;
-import it.eng.idra.beans.exception.DatasetNotFoundException;
 import it.eng.idra.beans.odms.ODMSCatalogue;
-import it.eng.idra.beans.search.SearchResult;
 import it.eng.idra.cache.LODCacheManager;
-import it.eng.idra.cache.MetadataCacheManager;
+import it.eng.idra.scheduler.IdraScheduler;
+import it.eng.idra.scheduler.exception.SchedulerNotInitialisedException;
 import it.eng.idra.utils.PropertyManager;
 
 public class DCATAPDumpManager {
@@ -54,68 +56,72 @@ public class DCATAPDumpManager {
 	private static final String globalDumpFilePath = PropertyManager.getProperty(IdraProperty.DUMP_FILE_PATH);
 	public static final String globalDumpFileName = PropertyManager.getProperty(IdraProperty.DUMP_FILE_NAME);
 
+	private static final Set<String> requestedDumps = ConcurrentHashMap.newKeySet();
+
 	
 	private DCATAPDumpManager() {
 	}
 
-	public static byte[] getDatasetDumpFromFile(String nodeID, Boolean forceDump, Boolean returnZip)
-			throws IOException, NumberFormatException, DatasetNotFoundException, SolrServerException {
-		/*
-		 * Non necessario unzippare perchè ci teniamo entrambe le versioni del dump
-		 * 
-		 */
-		// ZipFile zipFile = new ZipFile(globalDumpFilePath + globalDumpFileName + ".zip");
-		// InputStream in = null;
-		// ByteArrayOutputStream out = null;
-		// try {
-		// in = zipFile.getInputStream(zipFile.getEntry(globalDumpFileName));
-		// out = new ByteArrayOutputStream();
-		// IOUtils.copy(in, out);
-		// return out.toByteArray();
-		// } finally {
-		// zipFile.close();
-		// IOUtils.closeQuietly(in);
-		// IOUtils.closeQuietly(out);
-		// }
-
-		try {
-			if (forceDump) {
-				if (StringUtils.isBlank(nodeID))
-					return DCATAPSerializer.searchResultToDCATAP(MetadataCacheManager.searchAllDatasets(), dumpFormat,
-							dumpProfile, DCATAPWriteType.FILE).getBytes();
-				else
-					return DCATAPSerializer.searchResultToDCATAPByNode(nodeID,
-							MetadataCacheManager.searchAllDatasetsByODMSNode(Integer.parseInt(nodeID)), dumpFormat,
-							dumpProfile, DCATAPWriteType.FILE).getBytes();
-			} else
-				return Files.readAllBytes(Paths.get(
-						globalDumpFilePath + globalDumpFileName + (StringUtils.isBlank(nodeID) ? "" : new String("_node_" + nodeID))
-								+ (returnZip ? ".zip" : "")));
-
-		} catch (NoSuchFileException e) {
-			logger.info("No dump file found" + (StringUtils.isNotBlank(nodeID) ? ("for nodeID: " + nodeID)
-					: "" + " Starting to create a new one"));
-
-			// TODO Provide dumpReady flag of the Node for availability polling
+	/**
+	 * Returns the dump file of the passed node or, if the node ID is blank, of the
+	 * whole federation. The file may not exist yet, since dumps are only written
+	 * by the scheduled dump job, see {@link #requestDump(String)}
+	 * 
+	 * @param nodeID
+	 * @param zip
+	 *            whether the zip archive of the dump is returned
+	 * @return
+	 */
+	public static Path getDumpFile(String nodeID, boolean zip) {
+		return Paths.get(globalDumpFilePath + globalDumpFileName
+				+ (StringUtils.isBlank(nodeID) ? "" : new String("_node_" + nodeID)) + (zip ? ".zip" : ""));
+	}
 
-			// Create the dump file for the relative node
+	/**
+	 * Returns the pre-compressed gzip variant of the dump file, written along with
+	 * it by the dump job
+	 */
+	public static Path getGzipDumpFile(String nodeID) {
+		return Paths.get(getDumpFile(nodeID, false).toString() + ".gz");
+	}
 
-			if (StringUtils.isBlank(nodeID))
-				return DCATAPSerializer.searchResultToDCATAP(MetadataCacheManager.searchAllDatasets(), dumpFormat,
-						dumpProfile, DCATAPWriteType.FILE).getBytes();
-			else
-				return DCATAPSerializer.searchResultToDCATAPByNode(nodeID,
-						MetadataCacheManager.searchAllDatasetsByODMSNode(Integer.parseInt(nodeID)), dumpFormat,
-						dumpProfile, DCATAPWriteType.FILE).getBytes();
+	/**
+	 * Asks the dump job to write the dump of the passed node or, if the node ID is
+	 * blank, of the whole federation. Requests for a dump that was already
+	 * requested and not yet started are coalesced
+	 * 
+	 * @param nodeID
+	 * @throws SchedulerNotInitialisedException
+	 * @throws SchedulerException
+	 */
+	public static void requestDump(String nodeID) throws SchedulerNotInitialisedException, SchedulerException {
+		String key = StringUtils.defaultString(nodeID);
+		if (!requestedDumps.add(key))
+			return;
 
+		try {
+			logger.info("Requesting the dump" + (StringUtils.isNotBlank(nodeID) ? (" of node " + nodeID) : ""));
+			IdraScheduler.getSingletonInstance().triggerCataloguesDumpJob(nodeID);
+		} catch (SchedulerNotInitialisedException | SchedulerException e) {
+			requestedDumps.remove(key);
+			throw e;
 		}
+	}
 
+	/**
+	 * Called by the dump job when it starts writing a dump, so that the requests
+	 * received from now on trigger a new one
+	 */
+	public static void dumpStarted(String nodeID) {
+		requestedDumps.remove(StringUtils.defaultString(nodeID));
 	}
-	
+
 	public static void sendDumpToRepository(ODMSCatalogue node) throws Exception{
-		byte[] file = Files.readAllBytes(Paths.get(globalDumpFilePath + globalDumpFileName + "_node_" + node.getId()));
+		Path file = Paths.get(globalDumpFilePath + globalDumpFileName + "_node_" + node.getId());
 		//Context of the RDF equals the catalogue's host
 		LODCacheManager.deleteRDF(node.getHost());
-		LODCacheManager.addCatalogueDump(node,file);
+		try (InputStream dump = new BufferedInputStream(Files.newInputStream(file))) {
+			LODCacheManager.addCatalogueDump(node, dump);
+		}
 	}
 }
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.dcat.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFWriter;
+import org.apache.jena.rdfxml.xmloutput.impl.Basic;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamOps;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.shared.PrefixMapping;
+
+import it.eng.idra.beans.dcat.DCATAPFormat;
+
+/**
+ * Writes a DCAT-AP dump to an output stream one model at a time, so that a dump
+ * never needs the whole federation in memory and is serialized in a single
+ * pass.
+ * 
+ * Turtle, N3 and N-Triples are written with the Jena streaming writers. RDF/XML
+ * is written by serializing each model on its own and emitting only its
+ * descriptions inside a single rdf:RDF element; blank nodes get globally unique
+ * ids so that they cannot clash across models. JSON-LD and RDF/JSON cannot be
+ * streamed, hence their models are collected and written once by
+ * {@link #finish()}.
+ */
+class DCATAPDumpWriter {
+
+	private static final String RDFXML_END = "</rdf:RDF>";
+	private static final Pattern xmlnsPattern = Pattern.compile("xmlns:([^=\\s]+)=\"([^\"]*)\"");
+	private static final Pattern descriptionPattern = Pattern.compile("(?m)^(\\s*<rdf:Description)");
+
+	private final OutputStream out;
+	private final DCATAPFormat format;
+	private final PrefixMapping prefixes;
+
+	private StreamRDF stream;
+	private Writer xmlWriter;
+	private Map<String, String> xmlNamespaces;
+	private Model model;
+
+	/**
+	 * @param out
+	 *            the stream the dump is written to, it is flushed but not closed
+	 * @param format
+	 *            the format of the dump
+	 * @param prefixes
+	 *            the prefixes declared once at the beginning of the dump, they
+	 *            must cover the namespaces used by the written models
+	 */
+	DCATAPDumpWriter(OutputStream out, DCATAPFormat format, PrefixMapping prefixes) throws IOException {
+		this.out = out;
+		this.format = format;
+		this.prefixes = prefixes;
+
+		switch (format) {
+		case TURTLE:
+		case N3:
+			startStream(RDFFormat.TURTLE_BLOCKS);
+			break;
+		case NTRIPLES:
+			startStream(RDFFormat.NTRIPLES);
+			break;
+		case RDFXML:
+			Model prefixModel = ModelFactory.createDefaultModel();
+			prefixModel.setNsPrefixes(prefixes);
+			String header = writeRDFXML(prefixModel);
+			header = header.substring(0, header.lastIndexOf(RDFXML_END));
+			xmlNamespaces = getNamespaces(header);
+			xmlWriter = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			xmlWriter.write(header);
+			break;
+		default:
+			model = ModelFactory.createDefaultModel();
+			model.setNsPrefixes(prefixes);
+			break;
+		}
+	}
+
+	private void startStream(RDFFormat rdfFormat) {
+		stream = StreamRDFWriter.getWriterStream(out, rdfFormat);
+		stream.start();
+		StreamOps.sendPrefixesToStream(prefixes, stream);
+	}
+
+	/**
+	 * Appends the statements of the model to the dump
+	 */
+	void write(Model datasetModel) throws IOException {
+		if (stream != null) {
+			StreamOps.sendTriplesToStream(datasetModel.getGraph(), stream);
+		} else if (xmlWriter != null) {
+			xmlWriter.write(toRDFXMLDescriptions(datasetModel));
+		} else {
+			model.add(datasetModel);
+		}
+	}
+
+	/**
+	 * Completes the dump and flushes the output stream
+	 */
+	void finish() throws IOException {
+		if (stream != null) {
+			stream.finish();
+		} else if (xmlWriter != null) {
+			xmlWriter.write(RDFXML_END + "\n");
+			xmlWriter.flush();
+		} else {
+			model.write(out, format.formatName());
+			model = null;
+		}
+		out.flush();
+	}
+
+	/*
+	 * Serializes the model and strips the enclosing rdf:RDF element. Namespaces
+	 * that were not declared in the dump header are declared on each description.
+	 */
+	private String toRDFXMLDescriptions(Model datasetModel) {
+		String xml = writeRDFXML(datasetModel);
+		int headerEnd = xml.indexOf('>', xml.indexOf("<rdf:RDF")) + 1;
+		int trailerStart = xml.lastIndexOf(RDFXML_END);
+		if (headerEnd <= 0 || trailerStart < headerEnd)
+			return "";
+
+		StringBuilder missing = new StringBuilder();
+		for (Map.Entry<String, String> ns : getNamespaces(xml.substring(0, headerEnd)).entrySet()) {
+			if (!ns.getValue().equals(xmlNamespaces.get(ns.getKey())))
+				missing.append(" xmlns:").append(ns.getKey()).append("=\"").append(ns.getValue()).append('"');
+		}
+
+		String descriptions = xml.substring(headerEnd, trailerStart);
+		if (missing.length() == 0)
+			return descriptions;
+		return descriptionPattern.matcher(descriptions)
+				.replaceAll("$1" + Matcher.quoteReplacement(missing.toString()));
+	}
+
+	private static String writeRDFXML(Model m) {
+		StringWriter writer = new StringWriter();
+		RDFWriter rdfWriter = new Basic();
+		rdfWriter.setProperty("longId", true);
+		rdfWriter.write(m, writer, null);
+		return writer.toString();
+	}
+
+	private static Map<String, String> getNamespaces(String header) {
+		Map<String, String> namespaces = new HashMap<String, String>();
+		Matcher matcher = xmlnsPattern.matcher(header);
+		while (matcher.find())
+			namespaces.put(matcher.group(1), matcher.group(2));
+		return namespaces;
+	}
+
+}
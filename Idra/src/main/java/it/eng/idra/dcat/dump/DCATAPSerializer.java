@@ -17,22 +17,34 @@
  ******************************************************************************/
 package it.eng.idra.dcat.dump;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.jena.datatypes.RDFDatatype;
 import org.apache.jena.datatypes.xsd.XSDhexBinary;
@@ -79,6 +91,7 @@ import it.eng.idra.beans.dcat.SPDXChecksum;
 import it.eng.idra.beans.dcat.VCardOrganization;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.search.SearchResult;
+import it.eng.idra.cache.MetadataCacheManager;
 import it.eng.idra.management.FederationCore;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.PropertyManager;
@@ -88,7 +101,8 @@ import it.eng.idra.utils.PropertyManager;
  */
 public class DCATAPSerializer {
 
-	static Map<Integer, ODMSCatalogue> nodeResources = null;
+	// Federated catalogues by id, refreshed before each serialization
+	static final Map<Integer, ODMSCatalogue> nodeResources = new ConcurrentHashMap<Integer, ODMSCatalogue>();
 
 	@SuppressWarnings("deprecation")
 	protected static final IRIFactory iriFactory = IRIFactory.jenaImplementation();
@@ -106,6 +120,7 @@ public class DCATAPSerializer {
 	protected static Logger logger = LogManager.getLogger(DCATAPSerializer.class);
 	private static String filePath = PropertyManager.getProperty(IdraProperty.DUMP_FILE_PATH);
 	private static String fileName = PropertyManager.getProperty(IdraProperty.DUMP_FILE_NAME);
+	private static final int DUMP_PAGE_SIZE = 1000;
 
 	static {
 
@@ -810,8 +825,7 @@ public class DCATAPSerializer {
 	public static String searchResultToDCATAP(SearchResult result, DCATAPFormat format, DCATAPProfile profile,
 			DCATAPWriteType writeType) throws IOException {
 
-		nodeResources = FederationCore.getODMSCatalogues().stream()
-				.collect(Collectors.toMap(ODMSCatalogue::getId, node -> node));
+		refreshNodeResources();
 
 		Model model = datasetsToModel(result.getResults(), profile);
 
@@ -837,35 +851,115 @@ public class DCATAPSerializer {
 
 	}
 
-	public static String searchResultToDCATAPByNode(String nodeID, SearchResult result, DCATAPFormat format,
-			DCATAPProfile profile, DCATAPWriteType writeType) throws IOException {
+	/**
+	 * Writes the dump of all the federated datasets to the dump file and to its
+	 * zip archive. Datasets are read from the cache one page at a time and
+	 * serialized in a single pass, see {@link #writeDumpToFileAndZip}.
+	 * 
+	 * @return the number of datasets in the dump
+	 */
+	public static long writeDCATAPDump(DCATAPFormat format, DCATAPProfile profile) throws Exception {
+		return writeDumpToFileAndZip(null, format, profile, fileName);
+	}
 
-		nodeResources = FederationCore.getODMSCatalogues().stream()
-				.collect(Collectors.toMap(ODMSCatalogue::getId, node -> node));
+	/**
+	 * Writes the dump of the datasets of a node to the node dump file and to its
+	 * zip archive
+	 * 
+	 * @return the number of datasets in the dump
+	 */
+	public static long writeDCATAPDumpByNode(String nodeID, DCATAPFormat format, DCATAPProfile profile)
+			throws Exception {
+		return writeDumpToFileAndZip(Integer.parseInt(nodeID), format, profile, fileName + "_node_" + nodeID);
+	}
 
-		Model model = datasetsToModel(result.getResults(), profile);
+	/*
+	 * Streams the datasets from the cache to a single output teed to the plain
+	 * file, to the zip entry and to the gzip variant served to the clients that
+	 * accept the gzip encoding. All are written to temporary files and moved in
+	 * place only when complete, so that readers never see a partial dump.
+	 */
+	private static long writeDumpToFileAndZip(Integer nodeID, DCATAPFormat format, DCATAPProfile profile,
+			String dumpFileName) throws Exception {
 
-		model.setNsPrefix("co", "http://purl.org/ontology/co/core#");
-		model.createResource("http://purl.org/ontology/co/core#Counter")
-				.addProperty(DCTerms.description, "The total count of matching datasets")
-				.addLiteral(model.createProperty("http://purl.org/ontology/co/core#count"), result.getCount());
+		refreshNodeResources();
 
-		if (writeType.equals(DCATAPWriteType.FILE)) {
+		Path dumpFile = Paths.get(filePath + dumpFileName);
+		Path zipFile = Paths.get(filePath + dumpFileName + ".zip");
+		Path tmpDumpFile = Paths.get(filePath + dumpFileName + ".tmp");
+		Path tmpZipFile = Paths.get(filePath + dumpFileName + ".zip.tmp");
+		Path gzipFile = Paths.get(filePath + dumpFileName + ".gz");
+		Path tmpGzipFile = Paths.get(filePath + dumpFileName + ".gz.tmp");
+
+		logger.info("Writing dump to file: " + dumpFile + " and " + zipFile);
+		Instant tick = Instant.now();
+		AtomicLong count = new AtomicLong();
+
+		try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tmpDumpFile));
+				ZipOutputStream zipOut = new ZipOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(tmpZipFile)));
+				OutputStream gzipOut = new GZIPOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(tmpGzipFile)))) {
+
+			zipOut.putNextEntry(new ZipEntry(dumpFileName));
+
+			Model prefixes = initializeModel();
+			if (profile.equals(DCATAPProfile.DCATAP_IT))
+				prefixes.setNsPrefix("dcatapit", DCATAP_IT_BASE_URI);
+			prefixes.setNsPrefix("co", "http://purl.org/ontology/co/core#");
+
+			DCATAPDumpWriter writer = new DCATAPDumpWriter(
+					new TeeOutputStream(fileOut, new TeeOutputStream(zipOut, gzipOut)), format, prefixes);
+
+			Set<String> describedCatalogues = new HashSet<String>();
+			MetadataCacheManager.forEachDatasetsPage(nodeID, DUMP_PAGE_SIZE, page -> {
+				for (DCATDataset dataset : page) {
+					Model model = datasetToModel(dataset, profile);
+					ODMSCatalogue node = nodeResources.get(Integer.valueOf(dataset.getNodeID()));
+					// The Catalogue is described along with its first dataset only
+					if (node != null && !describedCatalogues.add(dataset.getNodeID())) {
+						Resource catalogue = model.getResource(node.getHost());
+						model.remove(catalogue.listProperties()
+								.filterDrop(statement -> statement.getPredicate().equals(DCAT.dataset)).toList());
+					}
+					writer.write(model);
+				}
+				count.addAndGet(page.size());
+			});
 
-			writeModelToFileAndZip(model, format, filePath, fileName + "_node_" + nodeID);
+			Model counter = ModelFactory.createDefaultModel();
+			counter.createResource("http://purl.org/ontology/co/core#Counter")
+					.addProperty(DCTerms.description, "The total count of matching datasets")
+					.addLiteral(counter.createProperty("http://purl.org/ontology/co/core#count"), count.get());
+			writer.write(counter);
+			writer.finish();
 
-			return writeModelToString(model, format);
-			// } else if (writeType.equals(DCATAPWriteType.ZIPFILE)) {
-			//
-			// writeModelToZipFile(model, format,
-			// PropertyManager.getProperty(IdraProperty.DUMP_FILE_PATH),
-			// "datasetDump");
-			// return "";
-		} else {
+			zipOut.closeEntry();
 
-			return writeModelToString(model, format);
+		} catch (Exception e) {
+			Files.deleteIfExists(tmpDumpFile);
+			Files.deleteIfExists(tmpZipFile);
+			Files.deleteIfExists(tmpGzipFile);
+			throw e;
 		}
 
+		Files.move(tmpDumpFile, dumpFile, StandardCopyOption.REPLACE_EXISTING);
+		Files.move(tmpZipFile, zipFile, StandardCopyOption.REPLACE_EXISTING);
+		Files.move(tmpGzipFile, gzipFile, StandardCopyOption.REPLACE_EXISTING);
+
+		logger.info("Dump of " + count.get() + " datasets completed in: "
+				+ Duration.between(tick, Instant.now()).toString());
+		return count.get();
+	}
+
+	/*
+	 * Updates the catalogues in place, so that concurrent serializations always
+	 * find the catalogues of their datasets
+	 */
+	private static void refreshNodeResources() {
+		List<ODMSCatalogue> nodes = FederationCore.getODMSCatalogues();
+		nodes.forEach(node -> nodeResources.put(node.getId(), node));
+		nodeResources.keySet().retainAll(nodes.stream().map(ODMSCatalogue::getId).collect(Collectors.toSet()));
 	}
 
 	protected static boolean isValidURI(String uri) {
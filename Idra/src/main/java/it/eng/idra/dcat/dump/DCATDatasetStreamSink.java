@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.dcat.dump;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.compose.MultiUnion;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Groups the triples of a streamed DCAT-AP dump by dataset and hands each
+ * dataset to the handler as soon as its description is complete, so that the
+ * whole dump never has to be loaded in a single model.
+ * 
+ * The triples of a dataset start with its rdf:type dcat:Dataset triple and end
+ * when the next dataset starts. The description is complete when every blank
+ * node and every distribution, agent and contact point it refers to is
+ * described by those triples or by the ones read before, as happens with the
+ * nested serializations produced by the common catalogue platforms. The
+ * datasets that are not complete are kept and handed to the handler by
+ * {@link #complete()}, once the whole dump has been read.
+ */
+public class DCATDatasetStreamSink implements StreamRDF {
+
+	@FunctionalInterface
+	public interface DatasetResourceHandler {
+		public void handleDataset(Resource datasetResource) throws Exception;
+	}
+
+	/**
+	 * Wraps the exceptions of the handler, which cannot be thrown through the
+	 * parser
+	 */
+	public static class DatasetHandlerException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public DatasetHandlerException(Exception cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized Exception getCause() {
+			return (Exception) super.getCause();
+		}
+	}
+
+	private static Logger logger = LogManager.getLogger(DCATDatasetStreamSink.class);
+
+	private static final Node RDF_TYPE = RDF.type.asNode();
+	private static final Node DATASET = DCAT.Dataset.asNode();
+	private static final Node DISTRIBUTION = DCAT.Distribution.asNode();
+
+	// Links from the catalogue to its datasets, not needed to deserialize them
+	private static final Set<Node> skippedPredicates = new HashSet<Node>(
+			Arrays.asList(DCAT.dataset.asNode(), DCAT.record.asNode()));
+
+	// Objects that must be described, even if identified by IRI
+	private static final Set<Node> describedPredicates = new HashSet<Node>(
+			Arrays.asList(DCAT.distribution.asNode(), DCTerms.publisher.asNode(), DCTerms.creator.asNode(),
+					DCTerms.rightsHolder.asNode(), DCAT.contactPoint.asNode()));
+
+	private final DatasetResourceHandler handler;
+
+	// Triples of the dataset being read
+	private Graph segment = GraphFactory.createGraphMem();
+	private Node currentDataset = null;
+
+	// Triples that may be referred by the following datasets
+	private final Graph shared = GraphFactory.createGraphMem();
+
+	// Datasets whose description was not complete, with their triples
+	private final Graph pending = GraphFactory.createGraphMem();
+	private final List<Node> pendingDatasets = new ArrayList<Node>();
+
+	private final Set<Node> seenDatasets = new HashSet<Node>();
+	private int streamedCount = 0;
+
+	public DCATDatasetStreamSink(DatasetResourceHandler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void triple(Triple triple) {
+
+		if (skippedPredicates.contains(triple.getPredicate()))
+			return;
+
+		if (triple.getPredicate().equals(RDF_TYPE) && triple.getObject().equals(DATASET)
+				&& seenDatasets.add(triple.getSubject())) {
+
+			// The triples of the new dataset may precede its type
+			Graph next = GraphFactory.createGraphMem();
+			for (Triple t : segment.find(triple.getSubject(), Node.ANY, Node.ANY).toList()) {
+				segment.delete(t);
+				next.add(t);
+			}
+
+			if (currentDataset != null)
+				finishSegment();
+			else
+				segment.find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(shared::add);
+
+			segment = next;
+			currentDataset = triple.getSubject();
+		}
+
+		segment.add(triple);
+	}
+
+	@Override
+	public void quad(Quad quad) {
+		triple(quad.asTriple());
+	}
+
+	@Override
+	public void base(String base) {
+	}
+
+	@Override
+	public void prefix(String prefix, String iri) {
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	/**
+	 * Hands the last dataset and the incomplete ones to the handler. To be called
+	 * only after the whole dump was parsed successfully.
+	 * 
+	 * @return the number of datasets found in the dump
+	 */
+	public int complete() {
+
+		if (currentDataset != null)
+			finishSegment();
+		currentDataset = null;
+
+		if (!pendingDatasets.isEmpty()) {
+			logger.info(pendingDatasets.size() + " of " + seenDatasets.size()
+					+ " datasets were not described contiguously, handling them with the whole dump");
+
+			Graph all = new MultiUnion(new Graph[] { shared, pending });
+			for (Node dataset : pendingDatasets)
+				handle(dataset, all);
+			pendingDatasets.clear();
+		}
+
+		logger.info("Datasets handled while streaming: " + streamedCount + " - at the end: "
+				+ (seenDatasets.size() - streamedCount));
+		return seenDatasets.size();
+	}
+
+	private void finishSegment() {
+
+		Set<Node> subjects = reachableSubjects(currentDataset);
+
+		// The other subjects may be referred by the following datasets
+		for (Triple t : segment.find(Node.ANY, Node.ANY, Node.ANY).toList()) {
+			if (!subjects.contains(t.getSubject()))
+				shared.add(t);
+		}
+
+		if (isComplete(subjects)) {
+
+			handle(currentDataset, new MultiUnion(new Graph[] { segment, shared, pending }));
+			streamedCount++;
+
+			// Agents and other resources identified by IRI may be shared
+			for (Node subject : subjects) {
+				if (subject.isURI() && !subject.equals(currentDataset)
+						&& !segment.contains(subject, RDF_TYPE, DISTRIBUTION))
+					segment.find(subject, Node.ANY, Node.ANY).forEachRemaining(shared::add);
+			}
+
+		} else {
+			for (Node subject : subjects)
+				segment.find(subject, Node.ANY, Node.ANY).forEachRemaining(pending::add);
+			pendingDatasets.add(currentDataset);
+		}
+	}
+
+	/**
+	 * Returns the subjects of the segment reachable from the dataset, the dataset
+	 * included
+	 */
+	private Set<Node> reachableSubjects(Node dataset) {
+
+		Set<Node> subjects = new HashSet<Node>();
+		Deque<Node> toVisit = new ArrayDeque<Node>();
+		subjects.add(dataset);
+		toVisit.add(dataset);
+
+		while (!toVisit.isEmpty()) {
+			segment.find(toVisit.poll(), Node.ANY, Node.ANY).forEachRemaining(t -> {
+				Node object = t.getObject();
+				if ((object.isURI() || object.isBlank()) && !seenDatasets.contains(object)
+						&& segment.contains(object, Node.ANY, Node.ANY) && subjects.add(object))
+					toVisit.add(object);
+			});
+		}
+		return subjects;
+	}
+
+	private boolean isComplete(Set<Node> subjects) {
+
+		for (Node subject : subjects) {
+			for (Triple t : segment.find(subject, Node.ANY, Node.ANY).toList()) {
+				Node object = t.getObject();
+				if ((object.isBlank() || (object.isURI() && describedPredicates.contains(t.getPredicate())))
+						&& !isDescribed(object))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isDescribed(Node node) {
+		return segment.contains(node, Node.ANY, Node.ANY) || shared.contains(node, Node.ANY, Node.ANY)
+				|| pending.contains(node, Node.ANY, Node.ANY);
+	}
+
+	private void handle(Node dataset, Graph graph) {
+		Model model = ModelFactory.createModelForGraph(graph);
+		try {
+			handler.handleDataset(model.wrapAsResource(dataset));
+		} catch (Exception e) {
+			throw new DatasetHandlerException(e);
+		}
+	}
+
+}
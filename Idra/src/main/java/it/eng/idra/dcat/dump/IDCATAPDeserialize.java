@@ -17,6 +17,7 @@
  ******************************************************************************/
 package it.eng.idra.dcat.dump;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -38,11 +39,21 @@ import it.eng.idra.beans.dcat.SKOSConcept;
 import it.eng.idra.beans.dcat.SPDXChecksum;
 import it.eng.idra.beans.dcat.VCardOrganization;
 import it.eng.idra.beans.odms.ODMSCatalogue;
+import it.eng.idra.connectors.IDatasetPageHandler;
 
 public interface IDCATAPDeserialize {
 
 	public Model dumpToModel(String modelText, ODMSCatalogue node) throws RiotException;
 
+	/**
+	 * Parses a dump as a stream, detecting its format, and hands its datasets to
+	 * the handler in pages, skipping the first <code>start</code> ones
+	 * 
+	 * @return the number of datasets found in the dump
+	 */
+	public int streamDatasets(InputStream dump, ODMSCatalogue node, int start, int pageSize,
+			IDatasetPageHandler handler) throws Exception;
+
 	public DCATDataset resourceToDataset(String nodeID, Resource datasetResource) throws DCATAPProfileNotValidException;
 
 	<T extends SKOSConcept> List<T> deserializeConcept(String nodeID, Resource datasetResource, Property toExtractP,Class<T> type);
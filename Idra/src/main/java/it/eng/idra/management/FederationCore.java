@@ -25,7 +25,6 @@ import it.eng.idra.beans.Log;
 import it.eng.idra.beans.User;
 import it.eng.idra.beans.dcat.DCATAPFormat;
 import it.eng.idra.beans.dcat.DCATAPProfile;
-import it.eng.idra.beans.dcat.DCATAPWriteType;
 import it.eng.idra.beans.exception.DatasetNotFoundException;
 import it.eng.idra.beans.exception.InvalidPasswordException;
 import it.eng.idra.beans.odms.ODMSAlreadyPresentException;
@@ -40,17 +39,20 @@ import it.eng.idra.beans.odms.ODMSCatalogueSSLException;
 import it.eng.idra.beans.odms.ODMSCatalogueState;
 import it.eng.idra.beans.odms.ODMSCatalogueType;
 import it.eng.idra.beans.odms.ODMSSynchLock;
-import it.eng.idra.beans.search.SearchResult;
 import it.eng.idra.cache.CachePersistenceManager;
 import it.eng.idra.cache.LODCacheManager;
 import it.eng.idra.cache.MetadataCacheManager;
+import it.eng.idra.connectors.webscraper.WebScraper;
 import it.eng.idra.dcat.dump.DCATAPDumpManager;
 import it.eng.idra.dcat.dump.DCATAPSerializer;
+import it.eng.idra.scheduler.CatalogueSynchQueue;
 import it.eng.idra.scheduler.IdraScheduler;
 import it.eng.idra.scheduler.exception.SchedulerNotInitialisedException;
 import it.eng.idra.search.EuroVocTranslator;
+import it.eng.idra.search.FederatedSearch;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -99,6 +101,7 @@ public class FederationCore {
 			dcatThemes = manageBeansJpa.getDCATThems();
 
 			MetadataCacheManager.init(loadCacheFromDB, solrPath);
+			MetadataCacheManager.purgeStaleGenerations(ODMSManager.getODMSCatalogues());
 			EuroVocTranslator.init();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -111,7 +114,12 @@ public class FederationCore {
 
 		try {
 
+			FederatedSearch.onFinalize();
 			MetadataCacheManager.onFinalize();
+			StatisticsManager.onFinalize();
+			CatalogueSynchQueue.onFinalize();
+			WebScraper.onFinalize();
+			HttpClientManager.onFinalize();
 			PersistenceManager.jpaFinalize();
 			DBConnectionManager.closeDbConnection();
 
@@ -410,11 +418,9 @@ public class FederationCore {
 				 */
 				
 				try {
-					SearchResult result = MetadataCacheManager.getAllDatasetsByODMSCatalogueID(node.getId());
-					DCATAPSerializer.searchResultToDCATAPByNode(Integer.toString(node.getId()), result,
+					DCATAPSerializer.writeDCATAPDumpByNode(Integer.toString(node.getId()),
 							DCATAPFormat.fromString(PropertyManager.getProperty(IdraProperty.DUMP_FORMAT)),
-							DCATAPProfile.fromString(PropertyManager.getProperty(IdraProperty.DUMP_PROFILE)),
-							DCATAPWriteType.FILE);
+							DCATAPProfile.fromString(PropertyManager.getProperty(IdraProperty.DUMP_PROFILE)));
 					
 					// Write Catalogue's DCAT Dump into RDF4J
 					DCATAPDumpManager.sendDumpToRepository(node);
@@ -629,8 +635,7 @@ public class FederationCore {
 			}
 			
 			if(newLevel.equals(ODMSCatalogueFederationLevel.LEVEL_4) && rescheduleJob) {
-				MetadataCacheManager.deleteAllDatasetsByODMSCatalogue(node);
-				MetadataCacheManager.loadCacheFromODMSCatalogue(node,false);
+				MetadataCacheManager.reloadCacheFromODMSCatalogue(node);
 			}
 
 		} catch (SchedulerNotInitialisedException e) {
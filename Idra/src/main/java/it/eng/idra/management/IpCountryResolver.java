@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.management;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.net.InetAddresses;
+
+import it.eng.idra.beans.IdraProperty;
+import it.eng.idra.utils.PropertyManager;
+
+/**
+ * Resolves the country of the clients for the search statistics.
+ * 
+ * The ip2nation ranges are loaded once, from the DB or from the CSV file set in
+ * idra.statistics.geoip.file, into sorted primitive arrays of range starts and
+ * country indexes, and each address is resolved with a binary search instead
+ * of a query. As on the DB, an address belongs to the range with the greatest
+ * start lower than the address.
+ * 
+ * The file holds one "start,country" line per range, where the start is an
+ * IPv4 or IPv6 address or an IPv4 address as a number, so that it can also
+ * provide IPv6 ranges. IPv6 addresses embedding an IPv4 one (mapped, 6to4,
+ * Teredo) fall back to the IPv4 ranges.
+ * 
+ * The ranges are replaced as a whole on reload, so lookups never block.
+ */
+public class IpCountryResolver {
+
+	private static Logger logger = LogManager.getLogger(IpCountryResolver.class);
+
+	private static volatile Ranges ranges;
+	private static long loadedFileModified = -1;
+
+	private IpCountryResolver() {
+	}
+
+	public static boolean isLoaded() {
+		return ranges != null;
+	}
+
+	/**
+	 * Returns the country of the address, an empty string if it is not valid or
+	 * not covered by any range, or null if the ranges were never loaded
+	 */
+	public static String resolve(String ip) {
+		Ranges current = ranges;
+		if (current == null)
+			return null;
+		if (StringUtils.isBlank(ip))
+			return "";
+
+		// Only the client of a forwarded address list
+		String address = StringUtils.substringBefore(ip, ",").trim();
+		if (!InetAddresses.isInetAddress(address))
+			return "";
+		return current.lookup(InetAddresses.forString(address));
+	}
+
+	/**
+	 * Loads the ranges again, from the file if one is configured, otherwise from
+	 * the DB
+	 */
+	public static synchronized void reload() throws IOException {
+		String path = PropertyManager.getProperty(IdraProperty.STATISTICS_GEOIP_FILE);
+		long start = System.currentTimeMillis();
+		Ranges loaded;
+		if (StringUtils.isNotBlank(path)) {
+			File file = new File(path.trim());
+			loadedFileModified = file.lastModified();
+			loaded = loadFromFile(file);
+		} else {
+			loaded = loadFromDB();
+		}
+		ranges = loaded;
+		logger.info("Loaded " + loaded.size() + " IP ranges in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Reloads a file only if it changed since the last load, the DB always
+	 */
+	public static synchronized void reloadIfChanged() throws IOException {
+		String path = PropertyManager.getProperty(IdraProperty.STATISTICS_GEOIP_FILE);
+		if (ranges != null && StringUtils.isNotBlank(path)
+				&& new File(path.trim()).lastModified() == loadedFileModified)
+			return;
+		reload();
+	}
+
+	/**
+	 * Loads the ranges from the passed file, regardless of the configuration
+	 */
+	static synchronized void load(File file) throws IOException {
+		ranges = loadFromFile(file);
+	}
+
+	private static Ranges loadFromDB() {
+		RangesBuilder builder = new RangesBuilder();
+		PersistenceManager manageBeansJpa = new PersistenceManager();
+		try {
+			for (Object[] row : manageBeansJpa.getIpCountryRanges())
+				builder.addIPv4(((Number) row[0]).longValue(), row[1].toString());
+		} finally {
+			manageBeansJpa.jpaClose();
+		}
+		return builder.build();
+	}
+
+	private static Ranges loadFromFile(File file) throws IOException {
+		RangesBuilder builder = new RangesBuilder();
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#") || line.indexOf(',') < 0)
+					continue;
+
+				String start = StringUtils.substringBefore(line, ",").trim();
+				String country = StringUtils.substringAfter(line, ",").trim().replaceAll("^\"|\"$", "");
+				if (StringUtils.isNumeric(start))
+					builder.addIPv4(Long.parseLong(start), country);
+				else if (InetAddresses.isInetAddress(start))
+					builder.add(InetAddresses.forString(start), country);
+				else
+					logger.warn("Skipping IP range with invalid start: " + line);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Range starts are stored with the sign bit flipped, so that signed
+	 * comparisons follow the unsigned order of the addresses
+	 */
+	private static final class Ranges {
+		private final int[] ipv4Starts;
+		private final short[] ipv4Countries;
+		private final long[] ipv6High;
+		private final long[] ipv6Low;
+		private final short[] ipv6Countries;
+		private final String[] countries;
+
+		private Ranges(int[] ipv4Starts, short[] ipv4Countries, long[] ipv6High, long[] ipv6Low,
+				short[] ipv6Countries, String[] countries) {
+			this.ipv4Starts = ipv4Starts;
+			this.ipv4Countries = ipv4Countries;
+			this.ipv6High = ipv6High;
+			this.ipv6Low = ipv6Low;
+			this.ipv6Countries = ipv6Countries;
+			this.countries = countries;
+		}
+
+		private int size() {
+			return ipv4Starts.length + ipv6High.length;
+		}
+
+		private String lookup(InetAddress address) {
+			if (address instanceof Inet4Address)
+				return lookupIPv4(InetAddresses.coerceToInteger(address));
+
+			byte[] bytes = address.getAddress();
+			int i = floor(ipv6High, ipv6Low, toLong(bytes, 0) ^ Long.MIN_VALUE, toLong(bytes, 8) ^ Long.MIN_VALUE);
+			if (i >= 0)
+				return countries[ipv6Countries[i]];
+			Inet6Address ipv6 = (Inet6Address) address;
+			if (InetAddresses.hasEmbeddedIPv4ClientAddress(ipv6))
+				return lookupIPv4(InetAddresses.coerceToInteger(InetAddresses.getEmbeddedIPv4ClientAddress(ipv6)));
+			return "";
+		}
+
+		private String lookupIPv4(int address) {
+			int i = Arrays.binarySearch(ipv4Starts, address ^ Integer.MIN_VALUE);
+			// The greatest start strictly lower than the address
+			i = i >= 0 ? i - 1 : -i - 2;
+			return i >= 0 ? countries[ipv4Countries[i]] : "";
+		}
+
+		private static int floor(long[] high, long[] low, long keyHigh, long keyLow) {
+			int lo = 0, hi = high.length - 1, found = -1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (high[mid] < keyHigh || (high[mid] == keyHigh && low[mid] < keyLow)) {
+					found = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return found;
+		}
+
+		private static long toLong(byte[] bytes, int offset) {
+			long value = 0;
+			for (int i = offset; i < offset + 8; i++)
+				value = (value << 8) | (bytes[i] & 0xFF);
+			return value;
+		}
+	}
+
+	private static final class RangesBuilder {
+		private final List<long[]> ipv4 = new ArrayList<long[]>();
+		private final List<long[]> ipv6 = new ArrayList<long[]>();
+		private final HashMap<String, Integer> countryIndexes = new HashMap<String, Integer>();
+		private final List<String> countries = new ArrayList<String>();
+
+		private void addIPv4(long start, String country) {
+			ipv4.add(new long[] { (int) start ^ Integer.MIN_VALUE, countryIndex(country) });
+		}
+
+		private void add(InetAddress start, String country) {
+			if (start instanceof Inet4Address) {
+				addIPv4(InetAddresses.coerceToInteger(start), country);
+			} else {
+				byte[] bytes = start.getAddress();
+				ipv6.add(new long[] { Ranges.toLong(bytes, 0) ^ Long.MIN_VALUE, Ranges.toLong(bytes, 8) ^ Long.MIN_VALUE,
+						countryIndex(country) });
+			}
+		}
+
+		private int countryIndex(String country) {
+			return countryIndexes.computeIfAbsent(country, c -> {
+				countries.add(c);
+				return countries.size() - 1;
+			});
+		}
+
+		private Ranges build() {
+			if (countries.size() > Short.MAX_VALUE)
+				throw new IllegalStateException("Too many countries in the IP ranges: " + countries.size());
+
+			// Sorted by start, keeping the first of the ranges with the same start
+			ipv4.sort(Comparator.comparingLong(r -> r[0]));
+			ipv6.sort(Comparator.<long[]>comparingLong(r -> r[0]).thenComparingLong(r -> r[1]));
+
+			int[] ipv4Starts = new int[ipv4.size()];
+			short[] ipv4Countries = new short[ipv4.size()];
+			int n = 0;
+			for (long[] r : ipv4) {
+				if (n > 0 && ipv4Starts[n - 1] == (int) r[0])
+					continue;
+				ipv4Starts[n] = (int) r[0];
+				ipv4Countries[n++] = (short) r[1];
+			}
+
+			long[] ipv6High = new long[ipv6.size()];
+			long[] ipv6Low = new long[ipv6.size()];
+			short[] ipv6Countries = new short[ipv6.size()];
+			int m = 0;
+			for (long[] r : ipv6) {
+				if (m > 0 && ipv6High[m - 1] == r[0] && ipv6Low[m - 1] == r[1])
+					continue;
+				ipv6High[m] = r[0];
+				ipv6Low[m] = r[1];
+				ipv6Countries[m++] = (short) r[2];
+			}
+
+			return new Ranges(Arrays.copyOf(ipv4Starts, n), Arrays.copyOf(ipv4Countries, n),
+					Arrays.copyOf(ipv6High, m), Arrays.copyOf(ipv6Low, m), Arrays.copyOf(ipv6Countries, m),
+					countries.toArray(new String[0]));
+		}
+	}
+
+}
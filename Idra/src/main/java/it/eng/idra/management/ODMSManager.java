@@ -33,11 +33,13 @@ import it.eng.idra.beans.odms.ODMSCatalogueType;
 import it.eng.idra.beans.odms.ODMSSynchLock;
 import it.eng.idra.beans.orion.OrionCatalogueConfiguration;
 import it.eng.idra.connectors.*;
+import it.eng.idra.connectors.webscraper.PageFingerprints;
 import it.eng.idra.dcat.dump.DCATAPDeserializer;
 import it.eng.idra.dcat.dump.DCATAPITDeserializer;
 import it.eng.idra.dcat.dump.DCATAPSerializer;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpValidatorCache;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -537,6 +539,8 @@ public class ODMSManager {
 
 			jpa.jpaDeleteODMSCatalogue(node.getId());
 			federatedNodes.remove(federatedNodes.indexOf(node));
+			HttpValidatorCache.remove(node.getId());
+			PageFingerprints.remove(node.getId());
 
 		} catch (IndexOutOfBoundsException e) {
 			throw new ODMSCatalogueNotFoundException("ODMSCatalogue is not present");
@@ -657,12 +661,11 @@ public class ODMSManager {
 
 		try {
 			/*
-			 * Check availability through dataset count of the node and then related node
-			 * State TODO Provide a specific method "getNodeState" in ODMSNodeConnector
-			 * interface?
+			 * Check availability through the lightweight probe of the connector and then
+			 * related node State
 			 */
 
-			return getODMSCatalogueConnector(node).countDatasets() != 0 ? ODMSCatalogueState.ONLINE
+			return getODMSCatalogueConnector(node).isReachable() ? ODMSCatalogueState.ONLINE
 					: ODMSCatalogueState.OFFLINE;
 
 		} catch (Exception e) {
@@ -693,6 +696,24 @@ public class ODMSManager {
 		}
 	}
 
+	/**
+	 * Tells whether the content of a federated ODMS node may have changed since
+	 * its last completed synchronization. If the check fails the node is
+	 * considered changed, so that the synchronization is not skipped
+	 *
+	 * @param node the ODMSCatalogue to be verified
+	 * @returns false only if the node reported that its content did not change
+	 */
+	public static boolean isODMSCatalogueModified(ODMSCatalogue node) {
+
+		try {
+			return getODMSCatalogueConnector(node).isModified();
+		} catch (Exception e) {
+			logger.info("Unable to check the changes of node " + node.getId() + ": " + e.getLocalizedMessage());
+			return true;
+		}
+	}
+
 	public static int countODMSCatalogueDatasets(ODMSCatalogue node)
 			throws ODMSCatalogueNotFoundException, ODMSManagerException {
 
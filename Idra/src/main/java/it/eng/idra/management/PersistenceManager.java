@@ -21,8 +21,11 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
@@ -429,15 +432,21 @@ public class PersistenceManager {
 
 	public String getCountryFromIp(String ip) {
 
-		String query = "SELECT c.country  FROM ip2nationCountries c,  ip2nation i  WHERE" + " i.ip < INET_ATON('" + ip
-				+ "') AND  c.code = i.country ORDER BY  i.ip DESC";
+		String query = "SELECT c.country  FROM ip2nationCountries c,  ip2nation i  WHERE"
+				+ " i.ip < INET_ATON(?1) AND  c.code = i.country ORDER BY  i.ip DESC";
 
-		Query q = em.createNativeQuery(query);
-		String res = "";
-		if (q.getResultList().size() > 0)
-			res = q.getResultList().get(0).toString();
+		List<?> result = em.createNativeQuery(query).setParameter(1, ip).setMaxResults(1).getResultList();
+		return result.isEmpty() ? "" : result.get(0).toString();
+	}
 
-		return res;
+	/**
+	 * Returns the start address of every IPv4 range of the ip2nation table, as
+	 * a number, with the name of its country, ordered by address
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getIpCountryRanges() {
+		return em.createNativeQuery("SELECT i.ip, c.country FROM ip2nation i, ip2nationCountries c"
+				+ " WHERE c.code = i.country ORDER BY i.ip").getResultList();
 	}
 
 	public SearchStatistics getCountryStatistics(String country, String searchType, int day, int month, int year) {
@@ -479,6 +488,38 @@ public class PersistenceManager {
 		}
 	}
 
+	/**
+	 * Adds the passed counters to the search statistics of the same country and
+	 * day, creating the missing rows, in the transaction begun by the caller
+	 */
+	public void upsertCountryStatistics(Collection<SearchStatistics> increments) {
+		for (SearchStatistics inc : increments) {
+			SearchStatistics stat = getCountryStatistics(inc.getCountry(), null, inc.getDay(), inc.getMonth(),
+					inc.getYear());
+			if (stat == null) {
+				em.persist(inc);
+			} else {
+				stat.incLive(inc.getLive());
+				stat.incCache(inc.getCache());
+				stat.incSparql(inc.getSparql());
+			}
+		}
+	}
+
+	/**
+	 * Adds the passed counters to the keyword statistics, creating the missing
+	 * rows, in the transaction begun by the caller
+	 */
+	public void upsertKeywordStatistics(Map<String, Long> increments) {
+		for (Entry<String, Long> inc : increments.entrySet()) {
+			KeywordStatistics stat = getKeywordStatistics(inc.getKey());
+			if (stat == null)
+				em.persist(new KeywordStatistics(inc.getKey(), inc.getValue().intValue()));
+			else
+				stat.setCounter(stat.getCounter() + inc.getValue().intValue());
+		}
+	}
+
 	public ODMSStatistics getODMSStatistics(ODMSCatalogue node, int year, int month, int day) {
 
 		String query = "Select d From ODMSStatistics d Where d.nodeID=" + node.getId() + " and d.day=" + day
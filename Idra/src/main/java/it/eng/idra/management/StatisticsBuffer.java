@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.management;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityTransaction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import it.eng.idra.beans.statistics.SearchStatistics;
+
+/**
+ * In-memory aggregation of the search and keyword statistics.
+ * 
+ * Searches only increment a counter, keyed by client IP, search type and day,
+ * so that they never touch the DB. The counters are periodically drained and
+ * written as one transaction of upserts, resolving the country of each IP once
+ * per flush with the {@link IpCountryResolver}. Draining removes each counter
+ * atomically, so concurrent searches are either in the drained value or in a
+ * new counter, and counts stay exact; since nothing of a failed flush is
+ * committed, its counters are merged back for the next one.
+ */
+class StatisticsBuffer {
+
+	private static Logger logger = LogManager.getLogger(StatisticsBuffer.class);
+
+	private final ConcurrentHashMap<SearchKey, Long> searches = new ConcurrentHashMap<SearchKey, Long>();
+	private final ConcurrentHashMap<String, Long> keywords = new ConcurrentHashMap<String, Long>();
+
+	void recordSearch(String ip, String searchType) {
+		searches.merge(new SearchKey(ip, searchType, new GregorianCalendar()), 1L, Long::sum);
+	}
+
+	void recordKeyword(String keyword) {
+		keywords.merge(keyword, 1L, Long::sum);
+	}
+
+	/**
+	 * Writes the buffered counters to the DB
+	 */
+	void flush() {
+		flush(StatisticsBuffer::store);
+	}
+
+	/**
+	 * Drains the counters and passes them to the writer, merging them back if
+	 * the writer fails, so that it must write either all of them or none
+	 */
+	synchronized void flush(IStatisticsWriter writer) {
+		HashMap<SearchKey, Long> drainedSearches = drain(searches);
+		HashMap<String, Long> drainedKeywords = drain(keywords);
+		if (drainedSearches.isEmpty() && drainedKeywords.isEmpty())
+			return;
+
+		try {
+			writer.write(drainedSearches, drainedKeywords);
+			logger.debug("Flushed " + drainedSearches.size() + " search and " + drainedKeywords.size()
+					+ " keyword statistics");
+		} catch (Exception e) {
+			logger.error("Unable to store the statistics, they will be retried: " + e.getMessage());
+			drainedSearches.forEach((key, count) -> searches.merge(key, count, Long::sum));
+			drainedKeywords.forEach((key, count) -> keywords.merge(key, count, Long::sum));
+		}
+	}
+
+	private static void store(Map<SearchKey, Long> drainedSearches, Map<String, Long> drainedKeywords) {
+		PersistenceManager manageBeansJpa = new PersistenceManager();
+		EntityTransaction transaction = manageBeansJpa.jpaGetTransaction();
+		try {
+			transaction.begin();
+			if (!drainedSearches.isEmpty())
+				manageBeansJpa.upsertCountryStatistics(aggregateByCountry(manageBeansJpa, drainedSearches));
+			if (!drainedKeywords.isEmpty())
+				manageBeansJpa.upsertKeywordStatistics(drainedKeywords);
+			transaction.commit();
+		} finally {
+			if (transaction.isActive())
+				transaction.rollback();
+			manageBeansJpa.jpaClose();
+		}
+	}
+
+	private static <K> HashMap<K, Long> drain(ConcurrentHashMap<K, Long> counters) {
+		HashMap<K, Long> drained = new HashMap<K, Long>();
+		for (K key : counters.keySet()) {
+			Long count = counters.remove(key);
+			if (count != null)
+				drained.put(key, count);
+		}
+		return drained;
+	}
+
+	private static ArrayList<SearchStatistics> aggregateByCountry(PersistenceManager manageBeansJpa,
+			Map<SearchKey, Long> drained) {
+
+		HashMap<String, String> countries = new HashMap<String, String>();
+		HashMap<String, SearchStatistics> rows = new HashMap<String, SearchStatistics>();
+
+		for (Map.Entry<SearchKey, Long> e : drained.entrySet()) {
+			SearchKey key = e.getKey();
+			String country = countries.computeIfAbsent(key.ip, ip -> {
+				String c = IpCountryResolver.resolve(ip);
+				// Ranges not loaded, ask the DB
+				if (c == null)
+					c = manageBeansJpa.getCountryFromIp(ip);
+				return c.equalsIgnoreCase("") ? "Unknown" : c;
+			});
+
+			SearchStatistics row = rows.computeIfAbsent(
+					country + "|" + key.day + "|" + key.month + "|" + key.year,
+					k -> new SearchStatistics(country, 0, 0, 0, key.day, key.week, key.month, key.year));
+			int count = e.getValue().intValue();
+			switch (key.searchType) {
+			case "live":
+				row.incLive(count);
+				break;
+			case "cache":
+				row.incCache(count);
+				break;
+			case "sparql":
+				row.incSparql(count);
+				break;
+			default:
+				break;
+			}
+		}
+		return new ArrayList<SearchStatistics>(rows.values());
+	}
+
+	/**
+	 * Writes a batch of drained counters, either all of them or none
+	 */
+	@FunctionalInterface
+	interface IStatisticsWriter {
+		void write(Map<SearchKey, Long> searches, Map<String, Long> keywords) throws Exception;
+	}
+
+	static class SearchKey {
+		private final String ip;
+		private final String searchType;
+		private final int day;
+		private final int week;
+		private final int month;
+		private final int year;
+
+		SearchKey(String ip, String searchType, GregorianCalendar g) {
+			this.ip = ip;
+			this.searchType = searchType;
+			this.day = g.get(Calendar.DAY_OF_MONTH);
+			this.week = g.get(Calendar.WEEK_OF_MONTH);
+			this.month = g.get(Calendar.MONTH);
+			this.year = g.get(Calendar.YEAR);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(ip, searchType, day, month, year);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SearchKey))
+				return false;
+			SearchKey other = (SearchKey) obj;
+			return Objects.equals(ip, other.ip) && Objects.equals(searchType, other.searchType) && day == other.day
+					&& month == other.month && year == other.year;
+		}
+	}
+
+}
@@ -24,14 +24,17 @@ import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.IsoFields;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.WordUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -39,21 +42,35 @@ import org.json.JSONObject;
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.statistics.AggregationLevelEnum;
-import it.eng.idra.beans.statistics.KeywordStatistics;
 import it.eng.idra.beans.statistics.KeywordStatisticsResult;
 import it.eng.idra.beans.statistics.ODMSStatistics;
 import it.eng.idra.beans.statistics.ODMSStatisticsResult;
-import it.eng.idra.beans.statistics.SearchStatistics;
 import it.eng.idra.beans.statistics.SearchStatisticsResult;
 import it.eng.idra.utils.PropertyManager;
 
 
 public class StatisticsManager {
 
+	private static Logger logger = LogManager.getLogger(StatisticsManager.class);
 	private static boolean enableStatistics;
+	private static final StatisticsBuffer buffer = new StatisticsBuffer();
+	private static ScheduledExecutorService flushExecutor;
 	
 	static {
 		enableStatistics = Boolean.parseBoolean(PropertyManager.getProperty(IdraProperty.ENABLE_STATISTICS).trim());
+		if (enableStatistics) {
+			long flushInterval = PropertyManager.getIntProperty(IdraProperty.STATISTICS_FLUSH_INTERVAL, 30000);
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "idra-statistics-flush");
+				t.setDaemon(true);
+				return t;
+			});
+			// The IP ranges are loaded first, then reloaded on the same thread
+			long reloadInterval = PropertyManager.getIntProperty(IdraProperty.STATISTICS_GEOIP_RELOAD_INTERVAL, 86400000);
+			flushExecutor.scheduleWithFixedDelay(StatisticsManager::reloadIpRanges, 0, reloadInterval,
+					TimeUnit.MILLISECONDS);
+			flushExecutor.scheduleWithFixedDelay(buffer::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
 	}
 	
 	// method to ODMS statistics
@@ -95,61 +112,27 @@ public class StatisticsManager {
 
 	}
 
+	/**
+	 * Counts a search in memory, the country of the client is resolved and the
+	 * count stored when the statistics are flushed
+	 */
 	public static void searchStatistics(String ip, String searchType) throws SQLException {
 		if(!enableStatistics) return;
-		PersistenceManager manageBeansJpa = new PersistenceManager();
-		try {
-			String country = manageBeansJpa.getCountryFromIp(ip);
-			if (country.equalsIgnoreCase("")) {
-				country = "Unknown";
-			}
-			GregorianCalendar g = new GregorianCalendar();
-			int day = g.get(Calendar.DAY_OF_MONTH);
-			int month = g.get(Calendar.MONTH);
-			int week = g.get(Calendar.WEEK_OF_MONTH);
-			int year = g.get(Calendar.YEAR);
-
-			SearchStatistics existStat = manageBeansJpa.getCountryStatistics(country, searchType, day, month, year);
-
-			if (existStat == null) {
-				existStat = new SearchStatistics(country, 0, 0, 0, day, week, month, year);
-
-				switch (searchType) {
-				case "live":
-					existStat.setLive(1);
-					break;
-				case "cache":
-					existStat.setCache(1);
-					break;
-				case "sparql":
-					existStat.setSparql(1);
-					break;
-				default:
-					break;
-				}
-
-				manageBeansJpa.persistCountryStatistic(existStat);
-			} else {
+		buffer.recordSearch(ip, searchType);
+	}
 
-				switch (searchType) {
-				case "live":
-					existStat.incLive(1);
-					break;
-				case "cache":
-					existStat.incCache(1);
-					break;
-				case "sparql":
-					existStat.incSparql(1);
-					break;
-				default:
-					break;
-				}
-				manageBeansJpa.updateCountryStatistics(existStat);
-			}
-		} finally {
-			manageBeansJpa.jpaClose();
+	private static void reloadIpRanges() {
+		try {
+			IpCountryResolver.reloadIfChanged();
+		} catch (Exception e) {
+			logger.error("Unable to load the IP ranges: " + e.getMessage());
 		}
+	}
 
+	public static void onFinalize() {
+		if(!enableStatistics) return;
+		flushExecutor.shutdownNow();
+		buffer.flush();
 	}
 
 	private static void storeKeywordStatisticsToDB(String keyword) throws SQLException {
@@ -621,7 +604,7 @@ public class StatisticsManager {
 	}
 
 	/**
-	 * Store the keywords to Statistics DB
+	 * Store the keywords to Statistics DB, at the next flush of the statistics
 	 * 
 	 * @param value
 	 *            The string from which to extract the keywords to be added to
@@ -633,26 +616,7 @@ public class StatisticsManager {
 		Matcher matcher = Pattern.compile("\\s*([a-zA-Z0-9]+)\\s*").matcher((String) value);
 
 		while (matcher.find()) {
-			try {
-
-				PersistenceManager manageBeansJpa = new PersistenceManager();
-				try {
-					KeywordStatistics stats = manageBeansJpa.getKeywordStatistics(matcher.group(1));
-
-					if (stats == null) {
-						stats = new KeywordStatistics(matcher.group(1), 1);
-						manageBeansJpa.persistKeywordStatistics(stats);
-					} else {
-						stats.incCounter();
-						manageBeansJpa.updateKeywordStatistics(stats);
-					}
-				} finally {
-					manageBeansJpa.jpaClose();
-				}
-				
-			} catch (Exception e1) {
-				e1.printStackTrace();
-			}
+			buffer.recordKeyword(matcher.group(1));
 		}
 	}
 
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.scheduler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import it.eng.idra.beans.IdraProperty;
+import it.eng.idra.beans.odms.ODMSCatalogue;
+import it.eng.idra.scheduler.job.ODMSSynchJob;
+import it.eng.idra.utils.PropertyManager;
+
+/**
+ * Global queue of the catalogue synchronizations.
+ * 
+ * The Quartz triggers only enqueue their catalogue, the synchronizations are
+ * then run by a fixed number of workers, with at most idra.synch.maxPerHost of
+ * them against the same remote host. A catalogue is queued at most once and
+ * never runs twice at the same time. Among the runnable requests the cheapest
+ * goes first, estimated from the duration of its last synchronization or from
+ * its dataset count, while the time spent waiting lowers the cost so that large
+ * catalogues are not starved.
+ * 
+ * A catalogue whose synchronization fails is skipped by its periodic trigger
+ * for an exponentially growing delay, up to idra.synch.backoff.max, until a
+ * synchronization succeeds again. Manual synchronizations ignore the backoff.
+ */
+public class CatalogueSynchQueue {
+
+	private static Logger logger = LogManager.getLogger(CatalogueSynchQueue.class);
+
+	// Cost per dataset of a catalogue never synchronized, before any measure
+	private static final double DEFAULT_MILLIS_PER_DATASET = 10;
+
+	private static final int maxConcurrent = Math
+			.max(1, PropertyManager.getIntProperty(IdraProperty.SYNCH_MAX_CONCURRENT, 3));
+	private static final int maxPerHost = Math.max(1,
+			PropertyManager.getIntProperty(IdraProperty.SYNCH_MAX_PER_HOST, 1));
+	private static final long backoffInitial = PropertyManager.getIntProperty(IdraProperty.SYNCH_BACKOFF_INITIAL,
+			600000);
+	private static final long backoffMax = PropertyManager.getIntProperty(IdraProperty.SYNCH_BACKOFF_MAX, 86400000);
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+	private static final ExecutorService workers = Executors.newFixedThreadPool(maxConcurrent, r -> {
+		Thread t = new Thread(r, "idra-synch-" + threadCount.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	});
+
+	// Guarded by the class lock
+	private static final List<Request> queue = new ArrayList<Request>();
+	private static final Set<Integer> running = new HashSet<Integer>();
+	private static final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+	private static final Map<Integer, Long> lastDurations = new ConcurrentHashMap<Integer, Long>();
+	private static final Map<Integer, Backoff> backoffs = new ConcurrentHashMap<Integer, Backoff>();
+	private static volatile double millisPerDataset = DEFAULT_MILLIS_PER_DATASET;
+
+	private static class Request {
+		private final int nodeId;
+		private final String host;
+		private final int datasetCount;
+		private final long estimatedCost;
+		private final long queuedAt = System.currentTimeMillis();
+
+		private Request(ODMSCatalogue node) {
+			this.nodeId = node.getId();
+			this.host = hostOf(node);
+			this.datasetCount = node.getDatasetCount();
+			Long lastDuration = lastDurations.get(nodeId);
+			this.estimatedCost = lastDuration != null ? lastDuration
+					: (long) (Math.max(1, datasetCount) * millisPerDataset);
+		}
+
+		private long priority(long now) {
+			return estimatedCost - (now - queuedAt);
+		}
+	}
+
+	private static class Backoff {
+		private final int failures;
+		private final long until;
+
+		private Backoff(int failures, long until) {
+			this.failures = failures;
+			this.until = until;
+		}
+	}
+
+	private CatalogueSynchQueue() {
+	}
+
+	/**
+	 * Queues the synchronization of the catalogue, unless it is already queued
+	 * or, for periodic synchronizations, the catalogue is backing off after a
+	 * failure. A catalogue whose synchronization is running is queued again, to
+	 * run once the current one is over.
+	 * 
+	 * @param node
+	 *            the catalogue to synchronize
+	 * @param manual
+	 *            whether the synchronization was requested by a user
+	 * @return true if the catalogue was queued
+	 */
+	public static boolean submit(ODMSCatalogue node, boolean manual) {
+		int nodeId = node.getId();
+
+		Backoff backoff = backoffs.get(nodeId);
+		if (!manual && backoff != null && backoff.until > System.currentTimeMillis()) {
+			logger.info("Skipping synchronization of catalogue " + nodeId + " after " + backoff.failures
+					+ " consecutive failures, next attempt after " + new Date(backoff.until));
+			return false;
+		}
+
+		synchronized (CatalogueSynchQueue.class) {
+			for (Request r : queue) {
+				if (r.nodeId == nodeId) {
+					logger.info("Synchronization of catalogue " + nodeId + " is already queued");
+					return false;
+				}
+			}
+			queue.add(new Request(node));
+			logger.info("Synchronization of catalogue " + nodeId + " queued, " + queue.size() + " waiting and "
+					+ running.size() + " running");
+			dispatch();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the queued synchronization of the catalogue and forgets its
+	 * history, used when the catalogue is deleted or deactivated. A
+	 * synchronization already running is not interrupted.
+	 */
+	public static void cancel(int nodeId) {
+		synchronized (CatalogueSynchQueue.class) {
+			queue.removeIf(r -> r.nodeId == nodeId);
+		}
+		lastDurations.remove(nodeId);
+		backoffs.remove(nodeId);
+	}
+
+	public static synchronized boolean isRunning(int nodeId) {
+		return running.contains(nodeId);
+	}
+
+	public static synchronized boolean isQueued(int nodeId) {
+		return queue.stream().anyMatch(r -> r.nodeId == nodeId);
+	}
+
+	public static synchronized int getQueuedCount() {
+		return queue.size();
+	}
+
+	public static synchronized int getRunningCount() {
+		return running.size();
+	}
+
+	public static void onFinalize() {
+		synchronized (CatalogueSynchQueue.class) {
+			queue.clear();
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Starts the cheapest runnable requests as long as there are free workers
+	 */
+	private static void dispatch() {
+		while (running.size() < maxConcurrent) {
+			long now = System.currentTimeMillis();
+			Request next = null;
+			for (Request r : queue) {
+				if (running.contains(r.nodeId) || runningPerHost.getOrDefault(r.host, 0) >= maxPerHost)
+					continue;
+				if (next == null || r.priority(now) < next.priority(now))
+					next = r;
+			}
+			if (next == null)
+				return;
+
+			queue.remove(next);
+			running.add(next.nodeId);
+			runningPerHost.merge(next.host, 1, Integer::sum);
+
+			Request request = next;
+			try {
+				workers.execute(() -> run(request));
+			} catch (RuntimeException e) {
+				// The workers were shut down
+				running.remove(request.nodeId);
+				runningPerHost.merge(request.host, -1, Integer::sum);
+				return;
+			}
+		}
+	}
+
+	private static void run(Request request) {
+		int nodeId = request.nodeId;
+		long start = System.currentTimeMillis();
+		boolean succeeded = false;
+		try {
+			succeeded = ODMSSynchJob.synchronize(nodeId);
+		} catch (Throwable e) {
+			logger.error("Synchronization of catalogue " + nodeId + " failed: " + e.getMessage());
+		} finally {
+			long duration = System.currentTimeMillis() - start;
+			recordOutcome(request, succeeded, duration);
+
+			synchronized (CatalogueSynchQueue.class) {
+				running.remove(nodeId);
+				if (runningPerHost.merge(request.host, -1, Integer::sum) <= 0)
+					runningPerHost.remove(request.host);
+				dispatch();
+			}
+		}
+	}
+
+	private static void recordOutcome(Request request, boolean succeeded, long duration) {
+		int nodeId = request.nodeId;
+		if (succeeded) {
+			lastDurations.put(nodeId, duration);
+			// Refines the estimate of the catalogues never synchronized
+			if (request.datasetCount > 0)
+				millisPerDataset = (millisPerDataset + (double) duration / request.datasetCount) / 2;
+			if (backoffs.remove(nodeId) != null)
+				logger.info("Catalogue " + nodeId + " synchronized again, backoff reset");
+			return;
+		}
+
+		Backoff previous = backoffs.get(nodeId);
+		int failures = previous == null ? 1 : previous.failures + 1;
+		long delay = backoffInitial << Math.min(failures - 1, 30);
+		if (delay <= 0 || delay > backoffMax)
+			delay = backoffMax;
+		backoffs.put(nodeId, new Backoff(failures, System.currentTimeMillis() + delay));
+		logger.info("Synchronization of catalogue " + nodeId + " failed " + failures
+				+ " consecutive times, periodic synchronizations suspended for " + delay + " ms");
+	}
+
+	private static String hostOf(ODMSCatalogue node) {
+		try {
+			return new URL(node.getHost()).getHost().toLowerCase();
+		} catch (MalformedURLException | NullPointerException e) {
+			return String.valueOf(node.getHost());
+		}
+	}
+
+}
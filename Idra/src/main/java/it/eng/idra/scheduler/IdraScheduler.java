@@ -17,6 +17,7 @@
  ******************************************************************************/
 package it.eng.idra.scheduler;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quartz.*;
@@ -127,6 +128,7 @@ public class IdraScheduler {
 	}
 
 	public void deleteJob(String jobName) {
+		cancelQueuedSynch(jobName);
 		try {
 			if (scheduler.checkExists(jobKey(jobName, "jobs"))) {
 				scheduler.deleteJob(jobKey(jobName, "jobs"));
@@ -220,6 +222,17 @@ public class IdraScheduler {
 
 	}
 
+	/**
+	 * Runs the Catalogues Dump job now, for the passed node or, if the node ID is
+	 * blank, for the whole federation
+	 */
+	public void triggerCataloguesDumpJob(String nodeID) throws SchedulerException {
+		JobDataMap data = new JobDataMap();
+		if (StringUtils.isNotBlank(nodeID))
+			data.put(DCATAPDumpJob.NODE_ID, nodeID);
+		scheduler.triggerJob(jobKey("dump_catalogues", "jobs"), data);
+	}
+
 	protected void initSynchScheduler(boolean startNow) {
 		for (final ODMSCatalogue node : ODMSManager.getODMSCataloguesbyFederationLevel(
 				ODMSCatalogueFederationLevel.LEVEL_2, ODMSCatalogueFederationLevel.LEVEL_3)) {
@@ -310,6 +323,9 @@ public class IdraScheduler {
 	}
 
 	public boolean isJobRunning(String jobName) throws SchedulerException {
+		// The catalogue synchronizations run outside Quartz, on the queue workers
+		if (StringUtils.isNumeric(jobName) && CatalogueSynchQueue.isRunning(Integer.parseInt(jobName)))
+			return true;
 		List<JobExecutionContext> currentJobs = scheduler.getCurrentlyExecutingJobs();
 		for (JobExecutionContext jobCtx : currentJobs) {
 			String thisJobName = jobCtx.getJobDetail().getKey().getName();
@@ -320,4 +336,9 @@ public class IdraScheduler {
 		return false;
 	}
 
+	private void cancelQueuedSynch(String jobName) {
+		if (StringUtils.isNumeric(jobName))
+			CatalogueSynchQueue.cancel(Integer.parseInt(jobName));
+	}
+
 }
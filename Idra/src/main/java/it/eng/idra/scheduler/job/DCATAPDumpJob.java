@@ -17,6 +17,7 @@
  ******************************************************************************/
 package it.eng.idra.scheduler.job;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
@@ -28,9 +29,7 @@ import org.quartz.PersistJobDataAfterExecution;
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATAPFormat;
 import it.eng.idra.beans.dcat.DCATAPProfile;
-import it.eng.idra.beans.dcat.DCATAPWriteType;
-import it.eng.idra.beans.search.SearchResult;
-import it.eng.idra.cache.MetadataCacheManager;
+import it.eng.idra.dcat.dump.DCATAPDumpManager;
 import it.eng.idra.dcat.dump.DCATAPSerializer;
 import it.eng.idra.utils.PropertyManager;
 
@@ -39,6 +38,12 @@ import it.eng.idra.utils.PropertyManager;
 public class DCATAPDumpJob implements Job{
 
 	public static Logger logger = LogManager.getLogger(DCATAPDumpJob.class);
+
+	/**
+	 * Key of the trigger data holding the ID of the node to dump, the whole
+	 * federation is dumped when it is missing
+	 */
+	public static final String NODE_ID = "nodeID";
 	
 	private static final DCATAPFormat dumpFormat = DCATAPFormat
 			.fromString(PropertyManager.getProperty(IdraProperty.DUMP_FORMAT));
@@ -50,10 +55,14 @@ public class DCATAPDumpJob implements Job{
 	@Override
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		// TODO Auto-generated method stub
+		String nodeID = context.getMergedJobDataMap().getString(NODE_ID);
 		try {
-			logger.info("Executing Dump procedure");
-			SearchResult globalResult = MetadataCacheManager.searchAllDatasets();
-			DCATAPSerializer.searchResultToDCATAP(globalResult, dumpFormat, dumpProfile, DCATAPWriteType.FILE);
+			logger.info("Executing Dump procedure" + (StringUtils.isNotBlank(nodeID) ? (" of node " + nodeID) : ""));
+			DCATAPDumpManager.dumpStarted(nodeID);
+			if (StringUtils.isBlank(nodeID))
+				DCATAPSerializer.writeDCATAPDump(dumpFormat, dumpProfile);
+			else
+				DCATAPSerializer.writeDCATAPDumpByNode(nodeID, dumpFormat, dumpProfile);
 		}catch(Exception e) {
 			logger.error("Error during Dump procedure: "+e.getMessage());
 		}
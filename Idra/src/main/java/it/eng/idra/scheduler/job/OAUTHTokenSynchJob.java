@@ -17,22 +17,20 @@
  ******************************************************************************/
 package it.eng.idra.scheduler.job;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.MultivaluedHashMap;
-import javax.ws.rs.core.MultivaluedMap;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.core.Response.StatusType;
-
+import org.apache.http.HttpHeaders;
+import org.apache.http.StatusLine;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
 import org.json.JSONObject;
 import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
@@ -45,6 +43,7 @@ import it.eng.idra.beans.odms.ODMSCatalogueNotFoundException;
 import it.eng.idra.beans.odms.ODMSManagerException;
 import it.eng.idra.beans.orion.OrionCatalogueConfiguration;
 import it.eng.idra.management.ODMSManager;
+import it.eng.idra.utils.restclient.HttpClientManager;
 
 @PersistJobDataAfterExecution
 @DisallowConcurrentExecution
@@ -83,22 +82,19 @@ public class OAUTHTokenSynchJob implements Job{
 	}
 
 	private static HashMap<String,String> retrieveUpdatedToken(OrionCatalogueConfiguration conf) throws Exception {
-		Client client = ClientBuilder.newClient();
-		
-		HttpAuthenticationFeature feature = HttpAuthenticationFeature.basic(conf.getClientID(), conf.getClientSecret());
-		client.register(feature);
-		
-		WebTarget webTarget = client.target(conf.getOauth2Endpoint());
-		Invocation.Builder invocationBuilder =  webTarget.request(MediaType.APPLICATION_FORM_URLENCODED);
-		MultivaluedMap<String, String> formData = new MultivaluedHashMap<String, String>();
-	    //formData.add("grant_type", "refresh_token");
-	    //formData.add("refresh_token", conf.getRefreshToken());
-	    formData.add("grant_type", "client_credentials");
-	    
-		Response response = invocationBuilder.post(Entity.form(formData));
-		
-		StatusType status = response.getStatusInfo();
-		JSONObject res = new JSONObject(response.readEntity(String.class));
+		HttpPost tokenRequest = new HttpPost(conf.getOauth2Endpoint());
+		String credentials = conf.getClientID() + ":" + conf.getClientSecret();
+		tokenRequest.addHeader(HttpHeaders.AUTHORIZATION,
+				"Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+		tokenRequest.setEntity(new UrlEncodedFormEntity(
+				Arrays.asList(new BasicNameValuePair("grant_type", "client_credentials")), StandardCharsets.UTF_8));
+
+		StatusLine status;
+		JSONObject res;
+		try (CloseableHttpResponse response = HttpClientManager.execute(tokenRequest)) {
+			status = response.getStatusLine();
+			res = new JSONObject(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+		}
 		
 		if(status.getStatusCode() == 200){
 			HashMap<String, String> map = new HashMap<String, String>();
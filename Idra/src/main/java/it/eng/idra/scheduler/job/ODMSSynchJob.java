@@ -19,17 +19,17 @@ package it.eng.idra.scheduler.job;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityExistsException;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -45,7 +45,6 @@ import org.quartz.UnableToInterruptJobException;
 import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATAPFormat;
 import it.eng.idra.beans.dcat.DCATAPProfile;
-import it.eng.idra.beans.dcat.DCATAPWriteType;
 import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.dcat.DCATDistribution;
 import it.eng.idra.beans.exception.DatasetNotFoundException;
@@ -57,16 +56,18 @@ import it.eng.idra.beans.odms.ODMSCatalogueState;
 import it.eng.idra.beans.odms.ODMSCatalogueType;
 import it.eng.idra.beans.odms.ODMSSynchLock;
 import it.eng.idra.beans.odms.ODMSSynchronizationResult;
-import it.eng.idra.beans.search.SearchResult;
 import it.eng.idra.cache.CachePersistenceManager;
 import it.eng.idra.cache.LODCacheManager;
 import it.eng.idra.cache.MetadataCacheManager;
+import it.eng.idra.connectors.webscraper.PageFingerprints;
 import it.eng.idra.dcat.dump.DCATAPDumpManager;
 import it.eng.idra.dcat.dump.DCATAPSerializer;
 import it.eng.idra.management.ODMSManager;
 import it.eng.idra.management.StatisticsManager;
+import it.eng.idra.scheduler.CatalogueSynchQueue;
 import it.eng.idra.utils.CommonUtil;
 import it.eng.idra.utils.PropertyManager;
+import it.eng.idra.utils.restclient.HttpValidatorCache;
 
 @PersistJobDataAfterExecution
 @DisallowConcurrentExecution
@@ -84,39 +85,52 @@ public class ODMSSynchJob implements InterruptableJob {
 		logger.info("Interrupting job");
 	}
 
+	/**
+	 * Hands the catalogue to the {@link CatalogueSynchQueue}, which runs the
+	 * synchronization when a worker is free. The periodic triggers belong to the
+	 * "triggers" group, any other trigger comes from a manual synchronization.
+	 */
 	@Override
 	public void execute(JobExecutionContext context) throws JobExecutionException {
-		// TODO Auto-generated method stub
 		try {
-			logger.info("Starting synch job for catalogue: " + context.getJobDetail().getJobDataMap().get("nodeID"));
-			ODMSCatalogue node = ODMSManager
-					.getODMSCatalogue((int) context.getJobDetail().getJobDataMap().get("nodeID"));
-			if (!node.isFederating() && node.isUnlocked() && node.isActive()) {
-				node.setSynchLock(ODMSSynchLock.PERIODIC);
-				ODMSManager.updateODMSCatalogue(node, false);
-				try {
-					synchODMSNode(node, false);
-				} catch (ODMSCatalogueNotFoundException e) {
-					e.printStackTrace();
-				} catch (ODMSCatalogueForbiddenException e) {
-					logger.info(e.getMessage());
-//					node.setSynchLock(ODMSSynchLock.NONE);
-				} finally {
-					node.setSynchLock(ODMSSynchLock.NONE);
-					ODMSManager.updateODMSCatalogue(node, false);
-				}
-			}
+			int nodeId = (int) context.getJobDetail().getJobDataMap().get("nodeID");
+			boolean manual = !"triggers".equals(context.getTrigger().getKey().getGroup());
+			logger.info("Queuing " + (manual ? "manual" : "periodic") + " synch job for catalogue: " + nodeId);
+			CatalogueSynchQueue.submit(ODMSManager.getODMSCatalogue(nodeId), manual);
 		} catch (ODMSCatalogueNotFoundException e) {
 			e.printStackTrace();
-//			JobExecutionException e2 =
-//	        		new JobExecutionException(e);
-//			e2.setUnscheduleFiringTrigger(true);
 		} catch (Exception e) {
-
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Synchronizes the catalogue, unless it is federating, locked or inactive.
+	 * Called by the {@link CatalogueSynchQueue} workers.
+	 * 
+	 * @return false if the synchronization failed or left the catalogue offline
+	 */
+	public static boolean synchronize(int nodeId) throws Exception {
+		logger.info("Starting synch job for catalogue: " + nodeId);
+		ODMSCatalogue node = ODMSManager.getODMSCatalogue(nodeId);
+		if (!node.isFederating() && node.isUnlocked() && node.isActive()) {
+			node.setSynchLock(ODMSSynchLock.PERIODIC);
+			ODMSManager.updateODMSCatalogue(node, false);
+			try {
+				synchODMSNode(node, false);
+			} catch (ODMSCatalogueNotFoundException e) {
+				e.printStackTrace();
+			} catch (ODMSCatalogueForbiddenException e) {
+				logger.info(e.getMessage());
+			} finally {
+				node.setSynchLock(ODMSSynchLock.NONE);
+				ODMSManager.updateODMSCatalogue(node, false);
+			}
+			return ODMSManager.getODMSCatalogue(nodeId).isOnline();
+		}
+		return true;
+	}
+
 	static ODMSSynchronizationResult getChangedDatasets(ODMSCatalogue node, List<DCATDataset> oldDatasets,
 			String startingDate) throws Exception {
 
@@ -130,34 +144,6 @@ public class ODMSSynchJob implements InterruptableJob {
 		return nodeDatasets;
 	}
 
-	private static void synchWebODMSNode(ODMSCatalogue node)
-			throws InvocationTargetException, IOException, SolrServerException, DatasetNotFoundException {
-
-		MetadataCacheManager.deleteAllDatasetsByODMSCatalogue(node);
-		MetadataCacheManager.loadCacheFromODMSCatalogue(node, false);
-		StatisticsManager.odmsStatistics(node, node.getDatasetCount(), 0, 0, node.getRdfCount(), 0, 0);
-
-	}
-
-	private static void synchDUMPODMSNode(ODMSCatalogue node)
-			throws InvocationTargetException, IOException, SolrServerException, DatasetNotFoundException {
-
-		MetadataCacheManager.deleteAllDatasetsByODMSCatalogue(node);
-
-		if (StringUtils.isBlank(node.getDumpURL()) && StringUtils.isBlank(node.getDumpString())
-				&& StringUtils.isNotBlank(node.getDumpFilePath())) {
-
-			// Read the content of the file from the file system
-			String dumpString = new String(Files.readAllBytes(Paths.get(node.getDumpFilePath())));
-			node.setDumpString(dumpString);
-
-		}
-
-		MetadataCacheManager.loadCacheFromODMSCatalogue(node, false);
-		StatisticsManager.odmsStatistics(node, node.getDatasetCount(), 0, 0, node.getRdfCount(), 0, 0);
-
-	}
-
 	protected static boolean synchODMSNode(ODMSCatalogue node, boolean isChangedProtocol)
 			throws SQLException, IOException, SolrServerException, ClassNotFoundException, InstantiationException,
 			IllegalAccessException, IllegalArgumentException, NoSuchMethodException, SecurityException,
@@ -170,7 +156,7 @@ public class ODMSSynchJob implements InterruptableJob {
 			ODMSSynchronizationResult synchroResult = new ODMSSynchronizationResult();
 			List<DCATDataset> presentDatasets = new ArrayList<DCATDataset>();
 			int addedDatasets = 0, deletedDatasets = 0, updatedDatasets = 0, addedRDF = 0, deletedRDF = 0,
-					updatedRDF = 0;
+					updatedRDF = 0, rejectedDatasets = 0;
 
 			boolean synchCompleted = true;
 
@@ -178,6 +164,11 @@ public class ODMSSynchJob implements InterruptableJob {
 			if (node.getDatasetStart() != -1)
 				first = true;
 
+			// Only the downloads of this synchronization may confirm the stored validators
+			HttpValidatorCache.discard(node.getId());
+			PageFingerprints.discard(node.getId());
+			boolean modified = true;
+
 			// Check first the current node state
 			node.setNodeState(ODMSManager.checkODMSCatalogue(node));
 
@@ -191,29 +182,53 @@ public class ODMSSynchJob implements InterruptableJob {
 			ZonedDateTime lastUpdate = node.getLastUpdateDate();
 
 			if (node.isOnline()) {
-				if (!first) {
+				if (!first && !(modified = ODMSManager.isODMSCatalogueModified(node))) {
+
+					logger.info("The ODMS Node with name: " + node.getName() + " and ID: " + node.getId()
+							+ " did not change since the last synchronization, skipping the download");
+
+				} else if (!first) {
 
 					try {
 
 //					if (!node.getNodeType().equals(ODMSCatalogueType.DCATDUMP)) {
 
-						if (!node.getNodeType().equals(ODMSCatalogueType.CKAN))
-							presentDatasets = MetadataCacheManager.getAllDatasetsByODMSCatalogue(node.getId());
+						// Only the fields compared by the connectors are read, not the
+						// whole cached catalogue
+						boolean summaries = !node.getNodeType().equals(ODMSCatalogueType.CKAN);
+						if (summaries)
+							presentDatasets = MetadataCacheManager.getDatasetSummariesByODMSCatalogue(node.getId());
 
 						synchroResult = getChangedDatasets(node, presentDatasets, CommonUtil.formatDate(lastUpdate));
+						presentDatasets = null;
 
 						for (DCATDataset dataset : synchroResult.getDeletedDatasets()) {
+							// The distributions of a deleted dataset are needed to delete its RDF
+							if (summaries) {
+								try {
+									dataset = MetadataCacheManager.getDatasetByID(dataset.getId());
+								} catch (DatasetNotFoundException e) {
+									logger.info("Deleted dataset " + dataset.getId() + " is no longer cached");
+									continue;
+								}
+							}
 							deletedRDF += ODMSSynchJob.deleteDataset(node, dataset);
 						}
 
+						// The datasets added by this run are not searchable until the commit
+						Set<String> addedIdentifiers = new HashSet<String>();
 						for (DCATDataset dataset : synchroResult.getAddedDatasets()) {
-							addedRDF += ODMSSynchJob.addDataset(node, dataset);
+							addedRDF += ODMSSynchJob.addDataset(node, dataset, addedIdentifiers);
 						}
 
 						for (DCATDataset dataset : synchroResult.getChangedDatasets()) {
-							updatedRDF += ODMSSynchJob.updateDataset(node, dataset);
+							updatedRDF += ODMSSynchJob.updateDataset(node, dataset, addedIdentifiers);
 						}
 
+						// Make all the queued cache updates of this synchronization visible
+						MetadataCacheManager.commitIndex();
+						rejectedDatasets = MetadataCacheManager.removeRejectedDatasets(node.getId()).size();
+
 //					} else if (node.getNodeType().equals(ODMSCatalogueType.DCATDUMP)) {
 //						// Do nothing for node type DUMP
 //						synchDUMPODMSNode(node);
@@ -266,12 +281,15 @@ public class ODMSSynchJob implements InterruptableJob {
 			}
 			if (synchCompleted) {
 
+				HttpValidatorCache.confirm(node.getId());
+				PageFingerprints.confirm(node.getId());
+
 				addedDatasets = synchroResult.getAddedDatasets().size();
 				updatedDatasets = synchroResult.getChangedDatasets().size();
 				deletedDatasets = synchroResult.getDeletedDatasets().size();
 
 				// Update the dataset count of the federated Node
-				node.setDatasetCount(node.getDatasetCount() + addedDatasets - deletedDatasets);
+				node.setDatasetCount(node.getDatasetCount() + addedDatasets - deletedDatasets - rejectedDatasets);
 				node.setRdfCount(node.getRdfCount() + addedRDF - deletedRDF);
 				ODMSManager.updateODMSCatalogue(node, true);
 
@@ -291,23 +309,27 @@ public class ODMSSynchJob implements InterruptableJob {
 				// Adds dataset counters to the statistics on DB
 				StatisticsManager.odmsStatistics(node, addedDatasets, deletedDatasets, updatedDatasets, addedRDF,
 						updatedRDF, deletedRDF);
+				if (rejectedDatasets > 0)
+					ODMSManager.insertODMSMessage(node.getId(), rejectedDatasets
+							+ " datasets could not be indexed and were removed from the cache");
 				ODMSManager.insertODMSMessage(node.getId(), "Node successfully synchronized");
 
-				// Creating the dump file for the node after the synchronization
-				try {
-					SearchResult result = MetadataCacheManager.getAllDatasetsByODMSCatalogueID(node.getId());
-					DCATAPSerializer.searchResultToDCATAPByNode(Integer.toString(node.getId()), result,
-							DCATAPFormat.fromString(PropertyManager.getProperty(IdraProperty.DUMP_FORMAT)),
-							DCATAPProfile.fromString(PropertyManager.getProperty(IdraProperty.DUMP_PROFILE)),
-							DCATAPWriteType.FILE);
+				// Creating the dump file for the node after the synchronization, unless
+				// nothing could have changed
+				if (modified) {
+					try {
+						DCATAPSerializer.writeDCATAPDumpByNode(Integer.toString(node.getId()),
+								DCATAPFormat.fromString(PropertyManager.getProperty(IdraProperty.DUMP_FORMAT)),
+								DCATAPProfile.fromString(PropertyManager.getProperty(IdraProperty.DUMP_PROFILE)));
 					
-					// Write Catalogue's DCAT Dump into RDF4J
-					DCATAPDumpManager.sendDumpToRepository(node);
+						// Write Catalogue's DCAT Dump into RDF4J
+						DCATAPDumpManager.sendDumpToRepository(node);
 					
-				} catch (Exception e1) {
-					e1.printStackTrace();
-					logger.error(
-							"Error: " + e1.getMessage() + " in creation of the dump file for node " + node.getId());
+					} catch (Exception e1) {
+						e1.printStackTrace();
+						logger.error(
+								"Error: " + e1.getMessage() + " in creation of the dump file for node " + node.getId());
+					}
 				}
 				
 			}
@@ -358,44 +380,45 @@ public class ODMSSynchJob implements InterruptableJob {
 		return deletedRDF;
 	}
 
-	static int addDataset(ODMSCatalogue node, DCATDataset dataset) {
+	/*
+	 * Adds the dataset unless one with the same identifier is already cached or
+	 * was added earlier in this synchronization, whose identifiers are collected
+	 * in addedIdentifiers
+	 */
+	static int addDataset(ODMSCatalogue node, DCATDataset dataset, Set<String> addedIdentifiers) {
 		int addedRDF = 0;
 
 		logger.info("\n--- Creating dataset ---" + dataset.getId() + " " + dataset.getTitle().getValue() + "\n");
+		String identifier = dataset.getIdentifier().getValue();
 		try {
 			// MetadataCacheManager.getDataset(dataset.getId(),false);
-			MetadataCacheManager.getDatasetByIdentifier(node.getId(), dataset.getIdentifier().getValue());
+			if (!addedIdentifiers.contains(identifier))
+				MetadataCacheManager.getDatasetByIdentifier(node.getId(), identifier);
 			logger.info("Dataset is already present");
 		} catch (DatasetNotFoundException ex) {
 			// If a dataset is not found, create one
 			logger.info(ex.getMessage() + "\n - Adding new dataset -\n");
 
 			try {
+				// New datasets join the visible generation of the node
+				dataset.setGeneration(node.getGeneration());
 				MetadataCacheManager.addDataset(dataset);
+				addedIdentifiers.add(identifier);
 				List<DCATDistribution> distributionList = dataset.getDistributions();
 				// Add all RDF distributions on LOD
-				// Repository
-				if (distributionList != null && !distributionList.isEmpty())
-					for (DCATDistribution d : distributionList) {
-						if (d.isRDF() && enableRdf) {
-
-							logger.info("Adding new RDF - " + d.getAccessURL().getValue());
+				// Repository, downloading them in parallel
+				if (distributionList != null && !distributionList.isEmpty() && enableRdf) {
+					List<String> rdfLinks = distributionList.stream().filter(d -> d.isRDF())
+							.map(MetadataCacheManager::getRDFLink).collect(Collectors.toList());
+					rdfLinks.forEach(link -> logger.info("Adding new RDF - " + link));
 
-							try {
-								addedRDF += LODCacheManager.addRDF(d.getAccessURL().getValue());
-								// logger.info("Adding
-								// RDF completed
-								// successfully");
-								// addedRDF++;
-							} catch (RepositoryException | IOException e1) {
-								logger.info("There was an error while adding the RDF:   " + e1.getMessage());
-								logger.error("There was an error while adding the RDF");
-							}
-
-							// logger.info("addedRDF: "
-							// + addedRDF);
-						}
+					try {
+						addedRDF += LODCacheManager.addRDFList(rdfLinks);
+					} catch (RepositoryException | IOException e1) {
+						logger.info("There was an error while adding the RDF:   " + e1.getMessage());
+						logger.error("There was an error while adding the RDF");
 					}
+				}
 
 				if (addedRDF != 0)
 					logger.info("Adding RDF completed successfully");
@@ -410,7 +433,7 @@ public class ODMSSynchJob implements InterruptableJob {
 		return addedRDF;
 	}
 
-	static int updateDataset(ODMSCatalogue node, DCATDataset dataset) {
+	static int updateDataset(ODMSCatalogue node, DCATDataset dataset, Set<String> addedIdentifiers) {
 		int updatedRDF = 0;
 		try {
 			MetadataCacheManager.updateDataset(node.getId(), dataset);
@@ -442,7 +465,7 @@ public class ODMSSynchJob implements InterruptableJob {
 				logger.info("updatedRDF: " + updatedRDF);
 			}
 		} catch (DatasetNotFoundException e) {
-			return addDataset(node, dataset);
+			return addDataset(node, dataset, addedIdentifiers);
 		} catch (SolrServerException | IOException e) {
 			logger.error("Unable to update dataset: " + dataset.getId() + " " + e.getLocalizedMessage());
 		}
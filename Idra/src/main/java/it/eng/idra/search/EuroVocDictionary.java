@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import it.eng.idra.beans.EuroVocLanguage;
+
+/**
+ * Immutable in-memory copy of the eurovoc_terms table.
+ * 
+ * Each row is a concept with a label per language. Labels are indexed by their
+ * normalized form (case, accents and repeated whitespace ignored, as the DB
+ * collation did) to the ascending indexes of the concepts having it, so that
+ * lookups need no DB access and are safe from any number of threads.
+ */
+final class EuroVocDictionary {
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern SPACES = Pattern.compile("\\s+");
+	private static final int[] NO_CONCEPTS = new int[0];
+
+	private final String[][] labels;
+	private final Map<EuroVocLanguage, NavigableMap<String, int[]>> index;
+
+	/**
+	 * @param rows
+	 *            the labels of each concept, in the order of
+	 *            {@link EuroVocLanguage#values()}, null when missing
+	 */
+	EuroVocDictionary(List<String[]> rows) {
+		this.labels = rows.toArray(new String[0][]);
+
+		EnumMap<EuroVocLanguage, NavigableMap<String, int[]>> index = new EnumMap<EuroVocLanguage, NavigableMap<String, int[]>>(
+				EuroVocLanguage.class);
+		for (EuroVocLanguage language : EuroVocLanguage.values()) {
+			TreeMap<String, int[]> terms = new TreeMap<String, int[]>();
+			for (int concept = 0; concept < labels.length; concept++) {
+				String label = labels[concept][language.ordinal()];
+				if (label == null)
+					continue;
+				// Concepts are visited in ascending order
+				terms.merge(normalize(label), new int[] { concept }, (a, b) -> {
+					int[] merged = Arrays.copyOf(a, a.length + 1);
+					merged[a.length] = b[0];
+					return merged;
+				});
+			}
+			index.put(language, Collections.unmodifiableNavigableMap(terms));
+		}
+		this.index = Collections.unmodifiableMap(index);
+	}
+
+	int size() {
+		return labels.length;
+	}
+
+	/**
+	 * Returns the ascending indexes of the concepts whose label in the language
+	 * matches the term. A term ending with * or % matches the labels starting
+	 * with it
+	 */
+	int[] find(String term, EuroVocLanguage language) {
+		NavigableMap<String, int[]> terms = index.get(language);
+		if (term.endsWith("*") || term.endsWith("%")) {
+			String prefix = normalize(term.substring(0, term.length() - 1));
+			if (prefix.isEmpty())
+				return NO_CONCEPTS;
+			TreeSet<Integer> concepts = new TreeSet<Integer>();
+			for (int[] c : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values())
+				Arrays.stream(c).forEach(concepts::add);
+			return concepts.stream().mapToInt(Integer::intValue).toArray();
+		}
+		int[] concepts = terms.get(normalize(term));
+		return concepts != null ? concepts : NO_CONCEPTS;
+	}
+
+	/**
+	 * Returns the ascending indexes of the concepts having a label matching the
+	 * term in any of the languages
+	 */
+	int[] find(String term, Collection<EuroVocLanguage> languages) {
+		TreeSet<Integer> concepts = new TreeSet<Integer>();
+		for (EuroVocLanguage language : languages)
+			Arrays.stream(find(term, language)).forEach(concepts::add);
+		return concepts.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Returns the labels of the concept in the languages, skipping the missing
+	 * ones
+	 */
+	List<String> getLabels(int concept, Collection<EuroVocLanguage> languages) {
+		List<String> result = new ArrayList<String>();
+		for (EuroVocLanguage language : languages) {
+			String label = labels[concept][language.ordinal()];
+			if (label != null)
+				result.add(label);
+		}
+		return result;
+	}
+
+	static String normalize(String term) {
+		String normalized = MARKS.matcher(Normalizer.normalize(term, Normalizer.Form.NFD)).replaceAll("");
+		return SPACES.matcher(normalized.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+	}
+
+}
@@ -28,152 +28,119 @@ import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
-import javax.persistence.Query;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.*;
 
 import it.eng.idra.beans.EuroVocLanguage;
 import it.eng.idra.beans.exception.EuroVocTranslationNotFoundException;
 
+/**
+ * Translates search terms through the EuroVoc thesaurus.
+ * 
+ * The eurovoc_terms table is loaded at startup into an immutable
+ * {@link EuroVocDictionary}, so that translating a query needs no DB access and
+ * concurrent searches share the same dictionary.
+ */
 public class EuroVocTranslator {
 
 	private static Logger logger = LogManager.getLogger(EuroVocTranslator.class);
 	private static EntityManagerFactory emf;
-	private static EntityManager em;
-
-//	static {
-//		// logger.info("Hibernate EntityManagerFactory init");
-//		try {
-//			emf = Persistence.createEntityManagerFactory("org.hibernate.jpa");
-//
-//		} catch (Exception e) {
-//			e.printStackTrace();
-//		}
-//	}
-	
+	private static volatile EuroVocDictionary dictionary;
+
 	public static void init() {
 		try {
 			emf = Persistence.createEntityManagerFactory("org.hibernate.jpa");
+			reload();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
-	public static List<String> getEurovocExactTerms(String term, EuroVocLanguage sourceLanguage,
-			List<EuroVocLanguage> targetLanguages) {
-
-		logger.info("Get Eurovoc Exact Terms of " + term + " term");
-		List<String> result = new ArrayList<String>();
-
+	/**
+	 * Loads the EuroVoc terms from the DB, replacing the dictionary used by the
+	 * searches once loaded
+	 */
+	public static void reload() {
+		long start = System.currentTimeMillis();
+		EntityManager em = emf.createEntityManager();
 		try {
-			em = emf.createEntityManager();
-
-			String whereClause = " WHERE " + sourceLanguage.name() + " LIKE '" + term + "'";
-
-//			Avoid source language term
-//			Query q = em.createNativeQuery("SELECT " + sourceLanguage.name() + ","
-//					+ targetLanguages.stream().filter(lang -> !lang.equals(sourceLanguage)).distinct()
-//							.map(EuroVocLanguage::name).collect(Collectors.joining(","))
-//					+ " from eurovoc_terms" + whereClause);
-			
-			String query = "SELECT "
-					+ targetLanguages.stream().filter(lang -> !lang.equals(sourceLanguage)).distinct()
-					.map(EuroVocLanguage::name).collect(Collectors.joining(","))
-			+ " from eurovoc_terms" + whereClause;
-			
-			logger.info(query);
-			
-			Query q = em.createNativeQuery(query);
-			
-			if(targetLanguages.size()==1) {
-				@SuppressWarnings("unchecked")
-				List<String> resultString = q.getResultList();
-				if(resultString.size()!=0) {
-					for(int i=0; i<resultString.size();i++) {
-						String termString = resultString.get(i);
-						if (!termString.contains("under translation"))
-							result.add(termString);
-					}
-				}
-			}else {
-				@SuppressWarnings("unchecked")
-				List<Object[]> resultList = q.getResultList();
-				if (resultList.size() != 0) {
-					Object[] terms = resultList.get(0);
-					for (int i = 0; i < terms.length; i++) {
-						String termString = terms[i].toString();
-						if (!termString.contains("under translation"))
-							result.add(termString);
-					}
-				} 
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = em.createNativeQuery("SELECT " + Arrays.stream(EuroVocLanguage.values())
+					.map(EuroVocLanguage::name).collect(Collectors.joining(",")) + " from eurovoc_terms")
+					.getResultList();
+
+			List<String[]> concepts = new ArrayList<String[]>(rows.size());
+			for (Object[] row : rows) {
+				String[] labels = new String[row.length];
+				for (int i = 0; i < row.length; i++)
+					labels[i] = row[i] != null ? row[i].toString() : null;
+				concepts.add(labels);
 			}
-			
-		} catch (Exception e) {
-			e.printStackTrace();
+			dictionary = new EuroVocDictionary(concepts);
+			logger.info("Loaded " + concepts.size() + " EuroVoc concepts in " + (System.currentTimeMillis() - start)
+					+ " ms");
 		} finally {
-			jpaClose();
+			em.close();
 		}
-		return result;
 	}
 
-	public static List<String> getEurovocExactTerms(String term) {
+	/**
+	 * Returns the labels, in the target languages, of the concepts whose label in
+	 * the source language matches the term: every matching concept for a single
+	 * target language, only the first one otherwise
+	 */
+	public static List<String> getEurovocExactTerms(String term, EuroVocLanguage sourceLanguage,
+			List<EuroVocLanguage> targetLanguages) {
 
 		logger.info("Get Eurovoc Exact Terms of " + term + " term");
 		List<String> result = new ArrayList<String>();
-		String whereClause = "WHERE ";
-		Iterator<EuroVocLanguage> it = Arrays.asList(EuroVocLanguage.values()).iterator();
-		while (it.hasNext()) {
-			whereClause += it.next().name() + " LIKE '" + term + "'" + (it.hasNext() ? " OR " : "");
+		EuroVocDictionary current = dictionary;
+		if (current == null) {
+			logger.error("EuroVoc dictionary not loaded");
+			return result;
 		}
 
-		try {
-			em = emf.createEntityManager();
-			Query q = em.createNativeQuery("SELECT * from eurovoc_terms " + whereClause);
-
-			List<Object[]> resultList = q.getResultList();
+		List<EuroVocLanguage> languages = targetLanguages.stream().filter(lang -> !lang.equals(sourceLanguage))
+				.distinct().collect(Collectors.toList());
+		int[] concepts = current.find(term, sourceLanguage);
+		int limit = targetLanguages.size() == 1 ? concepts.length : Math.min(concepts.length, 1);
 
-			if (resultList.size() != 0) {
-				Object[] terms = resultList.get(0);
-
-				for (int i = 0; i < terms.length; i++) {
-					String termString = terms[i].toString();
-					if (!termString.contains("under translation"))
-						result.add(termString);
-					else
-						result.add(term);
-				}
-			} else
-				result.add(term);
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			jpaClose();
+		for (int i = 0; i < limit; i++) {
+			for (String termString : current.getLabels(concepts[i], languages)) {
+				if (!termString.contains("under translation"))
+					result.add(termString);
+			}
 		}
 		return result;
 	}
 
-	public static void jpaClose() {
-		if(em!=null) {
-			if (em.isOpen()) {
-				em.clear();
-				em.close();
+	/**
+	 * Returns the labels in every language of the first concept having a label
+	 * matching the term in any language, or the term itself if there is none
+	 */
+	public static List<String> getEurovocExactTerms(String term) {
+
+		logger.info("Get Eurovoc Exact Terms of " + term + " term");
+		List<String> result = new ArrayList<String>();
+		EuroVocDictionary current = dictionary;
+		List<EuroVocLanguage> languages = Arrays.asList(EuroVocLanguage.values());
+		int[] concepts = current != null ? current.find(term, languages) : new int[0];
+
+		if (concepts.length != 0) {
+			for (String termString : current.getLabels(concepts[0], languages)) {
+				if (!termString.contains("under translation"))
+					result.add(termString);
+				else
+					result.add(term);
 			}
-			em = null;
-		}
+		} else
+			result.add(term);
+		return result;
 	}
 
 	public static void jpaFinalize() {
-//		if(em!=null) {
-//			if (em.isOpen()) {
-//				em.clear();
-//				em.close();
-//			}
-//			em = null;
-//		}
-		jpaClose();
 		emf.close();
 		emf = null;
-		
 	}
 
 	public static HashMap<String, Object> replaceEuroVocTerms(HashMap<String, Object> searchParameters) throws EuroVocTranslationNotFoundException {
@@ -17,32 +17,50 @@
  ******************************************************************************/
 package it.eng.idra.search;
 
+import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.exception.EuroVocTranslationNotFoundException;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSCatalogueFederationLevel;
 import it.eng.idra.beans.odms.ODMSCatalogueNotFoundException;
 import it.eng.idra.beans.odms.ODMSCatalogueState;
-import it.eng.idra.beans.odms.ODMSCatalogueType;
+import it.eng.idra.beans.search.SearchParameters;
 import it.eng.idra.beans.search.SearchResult;
-import it.eng.idra.cache.CachePersistenceManager;
+import it.eng.idra.beans.search.SearchSpatialFilter;
+import it.eng.idra.beans.search.SortMode;
+import it.eng.idra.beans.search.SortOption;
+import it.eng.idra.beans.search.SpatialRelation;
 import it.eng.idra.cache.MetadataCacheManager;
 import it.eng.idra.connectors.IODMSConnector;
 import it.eng.idra.management.*;
+import it.eng.idra.utils.PropertyManager;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.TimeZone;
-
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.logging.log4j.*;
 
@@ -149,6 +167,33 @@ public class FederatedSearch {
 
 	private static Logger logger = LogManager.getLogger(FederatedSearch.class);
 
+	private static final int liveSearchTimeout = PropertyManager.getIntProperty(IdraProperty.LIVE_SEARCH_TIMEOUT,
+			10000);
+	/*
+	 * Every catalogue is asked for the first start+rows datasets of the result in
+	 * a single request, which must stay within the rows the connectors return at
+	 * once: CKAN caps them at ckan.search.rows_max, 1000 by default
+	 */
+	private static final int liveSearchMaxDepth = PropertyManager
+			.getIntProperty(IdraProperty.LIVE_SEARCH_MAX_DEPTH, 1000);
+	private static final ExecutorService liveSearchExecutor = new ThreadPoolExecutor(
+			PropertyManager.getIntProperty(IdraProperty.LIVE_SEARCH_THREADS, 16),
+			PropertyManager.getIntProperty(IdraProperty.LIVE_SEARCH_THREADS, 16), 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(1000), r -> {
+				Thread t = new Thread(r, "idra-live-search");
+				t.setDaemon(true);
+				// Connectors are loaded through the context class loader
+				t.setContextClassLoader(FederatedSearch.class.getClassLoader());
+				return t;
+			});
+
+	private static final int searchCacheMaxRows = PropertyManager
+			.getIntProperty(IdraProperty.SEARCH_CACHE_MAX_ROWS, 100);
+	private static final SearchResultCache<SearchResult> resultCache = new SearchResultCache<SearchResult>(
+			PropertyManager.getIntProperty(IdraProperty.SEARCH_CACHE_MAX_ENTRIES, 500));
+	private static final SearchResultCache<Integer> countCache = new SearchResultCache<Integer>(
+			PropertyManager.getIntProperty(IdraProperty.SEARCH_CACHE_MAX_ENTRIES, 500));
+
 	private FederatedSearch() {
 	};
 
@@ -334,7 +379,10 @@ public class FederatedSearch {
 	 * @return
 	 * @throws IOException
 	 * @throws SolrServerException
+	 * @deprecated holds every cached dataset in memory, use
+	 *             {@link MetadataCacheManager#forEachDatasetsPage(Integer, int, it.eng.idra.connectors.IDatasetPageHandler)}
 	 */
+	@Deprecated
 	public static SearchResult dumpDatasets() throws IOException, SolrServerException {
 
 		return MetadataCacheManager.searchAllDatasets();
@@ -349,10 +397,8 @@ public class FederatedSearch {
 	 * for the current node type to perform fulltext search
 	 *
 	 * @param searchParameters
-	 *            list of key,value pairs relative to fields and keywords to
-	 *            search,
-	 * @param live_search
-	 *            selects search type, live on nodes or on local cache
+	 *            fields and keywords to search, and the search type, live on
+	 *            nodes or on local cache
 	 * @throws SolrServerException
 	 * @throws IOException
 	 * @throws SQLException
@@ -360,27 +406,70 @@ public class FederatedSearch {
 	 * @throws EuroVocTranslationNotFoundException 
 	 * @returns List<DCATDataset> The list of matching DCATDataset
 	 */
-	public static SearchResult search(HashMap<String, Object> searchParameters)
+	public static SearchResult search(SearchParameters searchParameters)
+			throws IOException, SolrServerException, SQLException, ODMSCatalogueNotFoundException, EuroVocTranslationNotFoundException {
+		return search(searchParameters, true);
+	}
+
+	/**
+	 * Performs the search, optionally bypassing the search result cache so that
+	 * the result reflects even the changes not yet committed, as administrators
+	 * expect after editing a catalogue
+	 */
+	public static SearchResult search(SearchParameters searchParameters, boolean useCache)
 			throws IOException, SolrServerException, SQLException, ODMSCatalogueNotFoundException, EuroVocTranslationNotFoundException {
 
 		// EuroVoc processing
-		if (searchParameters.containsKey("euroVoc") && (boolean) searchParameters.get("euroVoc")) {
-			searchParameters = EuroVocTranslator.replaceEuroVocTerms(searchParameters);
+		if (searchParameters.isEuroVoc()) {
+			searchParameters = translateEuroVocTerms(searchParameters);
 		}
 
-		if ((boolean) searchParameters.remove("live")) {
-			HashMap<String, Object> searchParameters1 = new HashMap<>(searchParameters);
-			SearchResult result = new SearchResult(new Long(countLiveSearch(searchParameters1)),
-					liveSearch(searchParameters).getResults());
-			return result;
+		if (searchParameters.isLive()) {
+			// The count is collected by the same fan-out that retrieves the datasets
+			return liveSearch(liveSearchParameters(searchParameters));
 		} else
-			return localSearch(searchParameters);
+			return localSearch(searchParameters, useCache);
+	}
+
+	private static SearchParameters translateEuroVocTerms(SearchParameters searchParameters)
+			throws EuroVocTranslationNotFoundException {
+		SearchParameters translated = SearchParameters
+				.fromMap(EuroVocTranslator.replaceEuroVocTerms(searchParameters.toMap()));
+		translated.setSpatialFilter(searchParameters.getSpatialFilter());
+		return translated;
+	}
+
+	/**
+	 * Connectors still get the search as key-value pairs
+	 */
+	private static HashMap<String, Object> liveSearchParameters(SearchParameters searchParameters) {
+		HashMap<String, Object> parameters = searchParameters.toMap();
+		parameters.remove("live");
+		return parameters;
 	}
 
 	public static SearchResult searchByQuery(String query,String sort,int rows, int offset,List<String> nodeIDS)
 			throws IOException, SolrServerException, SQLException, ODMSCatalogueNotFoundException, EuroVocTranslationNotFoundException {
 
-		return MetadataCacheManager.searchDatasetsByQuery(query,sort,rows,offset,nodeIDS);
+		if (!resultCache.isEnabled() || rows < 0 || rows > searchCacheMaxRows)
+			return MetadataCacheManager.searchDatasetsByQuery(query,sort,rows,offset,nodeIDS);
+
+		List<Integer> nodes;
+		try {
+			nodes = nodeIDS.stream().map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+		} catch (NumberFormatException e) {
+			nodes = null;
+		}
+		String key = "query=" + query + "|sort=" + sort + "|rows=" + rows + "|start=" + offset + "|nodes="
+				+ (nodes == null ? nodeIDS : new TreeSet<Integer>(nodes));
+		String snapshot = MetadataCacheManager.getGenerationSnapshot(nodes);
+
+		SearchResult result = resultCache.get(key, snapshot);
+		if (result == null) {
+			result = MetadataCacheManager.searchDatasetsByQuery(query,sort,rows,offset,nodeIDS);
+			resultCache.put(key, snapshot, result);
+		}
+		return result;
 	}
 	
 	public static List<DCATDataset> searchDriver(HashMap<String, Object> searchParameters)
@@ -389,13 +478,13 @@ public class FederatedSearch {
 		return MetadataCacheManager.searchDriverDatasets(searchParameters);
 	}
 	
-	public static SearchResult getFormatStatistics(HashMap<String, Object> searchParameters)
+	public static SearchResult getFormatStatistics(SearchParameters searchParameters)
 			throws IOException, SolrServerException, SQLException {
 		logger.info("Get Format Statistics");
 		return MetadataCacheManager.searchForDistributionStatistics(searchParameters);
 	}
 
-	public static HashMap<String,String> getLicensesInfos(HashMap<String, Object> searchParameters)
+	public static HashMap<String,String> getLicensesInfos(SearchParameters searchParameters)
 			throws IOException, SolrServerException, SQLException {
 		logger.info("Get Licenses Infos");
 		return MetadataCacheManager.getAllLicensesInfo(searchParameters);
@@ -409,37 +498,116 @@ public class FederatedSearch {
 	// return MetadataCacheManager.regexSearch(searchParameters);
 	// }
 
-	public static List<DCATDataset> regexSearch(HashMap<String, Object> searchParameters)
-			throws IOException, SQLException {
-		logger.info("Search by Location");
-		CachePersistenceManager jpa = new CachePersistenceManager();
-
-		List<DCATDataset> result = jpa.jpaGetDatasetsByRegex(searchParameters);
-		jpa.jpaClose();
-		jpa = null;
-		return result;
+	public static SearchResult regexSearch(HashMap<String, Object> searchParameters)
+			throws IOException, SolrServerException {
+		logger.info("Search by Regular expression");
+		return MetadataCacheManager.searchDatasets(getDriverSearchParameters(searchParameters));
 	}
 
-	public static List<DCATDataset> spatialSearch(HashMap<String, Object> searchParameters)
-			throws IOException, SQLException {
+	public static SearchResult spatialSearch(HashMap<String, Object> searchParameters)
+			throws IOException, SolrServerException {
 		logger.info("Search by Location");
-		CachePersistenceManager jpa = new CachePersistenceManager();
-
-		List<DCATDataset> result = jpa.jpaGetDatasetsByLocation(searchParameters);
-		jpa.jpaClose();
-		jpa = null;
-		return result;
+		return MetadataCacheManager.searchDatasets(getDriverSearchParameters(searchParameters));
 	}
 
-	private static SearchResult localSearch(HashMap<String, Object> searchParameters)
+	private static SearchResult localSearch(SearchParameters searchParameters, boolean useCache)
 			throws IOException, SolrServerException {
 		logger.info("Searching on cache");
-		return MetadataCacheManager.searchDatasets(searchParameters);
+		if (!useCache || !resultCache.isEnabled() || !isCacheable(searchParameters))
+			return MetadataCacheManager.searchDatasets(searchParameters);
+
+		// The snapshot is taken before searching, so that a change made meanwhile
+		// invalidates the result at once
+		String key = searchParameters.getCacheKey();
+		String snapshot = MetadataCacheManager.getGenerationSnapshot(searchParameters.getNodes());
+
+		SearchResult result = resultCache.get(key, snapshot);
+		if (result != null) {
+			MetadataCacheManager.storeKeywordsStatistics(searchParameters);
+			return result;
+		}
+
+		result = MetadataCacheManager.searchDatasets(searchParameters);
+		resultCache.put(key, snapshot, result);
+		return result;
 	}
 
+	/**
+	 * Large pages are not cached, to bound the memory held by the cache
+	 */
+	private static boolean isCacheable(SearchParameters searchParameters) {
+		String rows = searchParameters.getRows();
+		if (StringUtils.isBlank(rows))
+			return true;
+		try {
+			return Integer.parseInt(rows.trim()) <= searchCacheMaxRows;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the hits, misses and size of the search result caches
+	 */
+	public static HashMap<String, Object> getSearchCacheStatistics() {
+		HashMap<String, Object> stats = new HashMap<String, Object>();
+		stats.put("maxRows", searchCacheMaxRows);
+		stats.put("results", resultCache.getStatistics());
+		stats.put("counts", countCache.getStatistics());
+		return stats;
+	}
+
+	/**
+	 * Searches the catalogues live, merging their results. Pages ending beyond
+	 * idra.search.live.maxDepth are rejected with an IllegalArgumentException
+	 */
 	private static SearchResult liveSearch(HashMap<String, Object> searchParameters)
 			throws SQLException, ODMSCatalogueNotFoundException {
 
+		List<ODMSCatalogue> catalogues = getLiveSearchCatalogues(searchParameters);
+		logger.info("Live search on " + catalogues.size() + " catalogues");
+
+		int start = Integer.parseInt((String) searchParameters.getOrDefault("start", "0"));
+		int rows = Integer.parseInt((String) searchParameters.getOrDefault("rows", "10"));
+		if (start < 0 || rows < 0 || (long) start + rows > liveSearchMaxDepth)
+			throw new IllegalArgumentException("Live search can only page through the first "
+					+ liveSearchMaxDepth + " results: start + rows must not exceed it");
+		Comparator<DCATDataset> comparator = getLiveSearchComparator(searchParameters);
+
+		/*
+		 * The requested page of the merged result can be made of the first start+rows
+		 * datasets of any catalogue, then each catalogue is asked for them
+		 */
+		HashMap<String, Object> nodeParameters = new HashMap<String, Object>(searchParameters);
+		nodeParameters.put("start", "0");
+		nodeParameters.put("rows", Integer.toString(start + rows));
+
+		List<Integer> timedOut = new ArrayList<Integer>();
+		List<Integer> failed = new ArrayList<Integer>();
+		List<LiveSearchResult> nodeResults = runLiveSearch(catalogues, nodeParameters, comparator, timedOut,
+				failed);
+
+		long count = 0;
+		for (LiveSearchResult r : nodeResults)
+			count += r.count;
+
+		List<DCATDataset> globalResult = mergeLiveResults(nodeResults, comparator, start, rows);
+		logger.info("Live search completed - Results found: " + count + " - Timed out catalogues: " + timedOut
+				+ " - Failed catalogues: " + failed);
+
+		SearchResult result = new SearchResult(count, globalResult);
+		result.setTimedOutCatalogues(timedOut);
+		result.setFailedCatalogues(failed);
+		return result;
+	}
+
+	/**
+	 * Returns the catalogues, among the passed "nodes" or all the federated ones,
+	 * that can be queried live
+	 */
+	private static List<ODMSCatalogue> getLiveSearchCatalogues(HashMap<String, Object> searchParameters)
+			throws SQLException, ODMSCatalogueNotFoundException {
+
 		// Gets federated nodes and relative connectors lists
 		ArrayList<Integer> nodesToBeSearched = (ArrayList<Integer>) searchParameters.remove("nodes");
 
@@ -447,126 +615,19 @@ public class FederatedSearch {
 		if (nodesToBeSearched == null)
 			nodesToBeSearched = ODMSManager.getODMSCataloguesID();
 
-		// Divides the total passed rows for each node to be searched
-		// Integer nodeRows = Math.round((int)
-		// Integer.parseInt(searchParameters.remove("rows").toString())/nodesToBeSearched.size());
-		// searchParameters.put("rows", nodeRows.toString());
-
-		HashMap<ODMSCatalogueType, String> ODMSConnectorsList = FederationCore.getODMSConnectorsList();
-		logger.info("Live search");
-		ClassLoader loader = Thread.currentThread().getContextClassLoader();
-		List<DCATDataset> globalResult = new ArrayList<DCATDataset>(); // Results
-		// from
-		// all
-		// nodes
-
-		List<DCATDataset> nodeDatasets;
-		IODMSConnector currentConnector;
-		int allResults = 0;
-		boolean flag = false;
-		// Iterates on federated nodes list and for each of them performs live
-		// search
+		List<ODMSCatalogue> catalogues = new ArrayList<ODMSCatalogue>();
 		for (Integer id : nodesToBeSearched) {
 			ODMSCatalogue node = null;
 			if ((node = ODMSManager.getODMSCatalogue(id)) != null
 					&& !node.getFederationLevel().equals(ODMSCatalogueFederationLevel.LEVEL_0)
 					&& !node.getFederationLevel().equals(ODMSCatalogueFederationLevel.LEVEL_2)
 					&& node.getNodeState().equals(ODMSCatalogueState.ONLINE))
-				try {
-					// logger.info("\n\nNODE: "+node.getName());
-					// The connector class is loaded, based on ODMS node type,
-					// using Java reflection
-					Class<?> cls = loader.loadClass(ODMSConnectorsList.get(node.getNodeType()));
-					currentConnector = (IODMSConnector) cls.getDeclaredConstructor(ODMSCatalogue.class).newInstance(node);
-
-					Method m = cls.getDeclaredMethod("countSearchDatasets", HashMap.class);
-					// Number of results of a single node with specific search
-					// parameters
-					int result = (int) m.invoke(currentConnector, searchParameters);
-
-					// global variable used to keep track of all results
-					allResults += result;
-
-					// Page number of this particular search
-					int page = Integer.parseInt((String) searchParameters.get("start"))
-							/ Integer.parseInt((String) searchParameters.get("rows"));
-
-					// System.out.println("------------------------------------------");
-					// System.out.println("RESULT: " + result);
-					// System.out.println("All RESULTS: " + allResults);
-					// System.out.println("START: " + Integer.parseInt((String)
-					// searchParameters.get("start")));
-					if (result != 0 && allResults >= Integer.parseInt((String) searchParameters.get("start"))) {
-
-						if (flag) {
-							// System.out.println("FLAG==TRUE");
-							page -= Math.ceil(
-									(allResults - result) / (Integer.parseInt((String) searchParameters.get("rows"))));
-
-							// System.out.println("PAGE: " + page);
-
-							page--;
-
-							// System.out.println("PAGE: " + page);
-
-							int newStart = Integer.parseInt((String) searchParameters.get("rows")) * page
-									+ Integer.parseInt((String) searchParameters.get("rows"))
-									- (allResults - result) % Integer.parseInt((String) searchParameters.get("rows"));
-
-							if (newStart < 0)
-								newStart = 0;
-							// System.out.println("NEW START: " + newStart);
-							// logger.info(newStart);
-							// Set new offset
-							searchParameters.put("start", Integer.toString(newStart));
-
-						}
-
-						m = cls.getDeclaredMethod("findDatasets", HashMap.class);
-						Object currentSearchParameters = searchParameters.clone();
-						nodeDatasets = (List<DCATDataset>) m.invoke(currentConnector, currentSearchParameters);
-
-						globalResult.addAll(nodeDatasets);
-						// System.out.println("ROWS: " +
-						// Integer.parseInt((String)
-						// searchParameters.get("rows")));
-						if (nodeDatasets.size() < Integer.parseInt((String) searchParameters.get("rows"))) {
-
-							// System.out.println("NODE DATASET SIZE: " +
-							// nodeDatasets.size());
-
-							int newRows = Integer.parseInt((String) searchParameters.get("rows")) - nodeDatasets.size();
-							// System.out.println("NEW Rows: " + newRows);
-							searchParameters.put("rows", Integer.toString(newRows));
-							searchParameters.put("start", "0");
-							flag = false;
-						} else {
-							// System.out.println("Break");
-							break;
-						}
-
-					} else {
-						// System.out.println("SET Flag = true");
-						flag = true;
-
-					}
-
-					currentConnector = null;
-					System.gc();
-					logger.info("Live search success");
-					logger.info("Results found:" + globalResult.size());
-				} catch (Exception e) {
-					logger.error("There was an error in live search");
-					e.printStackTrace();
-					return null;
-				}
-
-			// System.out.println("------------------------------------------");
+				catalogues.add(node);
 		}
+		return catalogues;
+	}
 
-		// Before returning the global result from all nodes, it performs the
-		// sort on it
-		// Sorting
+	private static Comparator<DCATDataset> getLiveSearchComparator(HashMap<String, Object> searchParameters) {
 		String[] params = new String[2];
 
 		if (searchParameters.containsKey("sort"))
@@ -576,28 +637,171 @@ public class FederatedSearch {
 			params[1] = "asc";
 		}
 
-		if (params[1].equals("desc"))
-			Collections.sort(globalResult, DatasetComparator.decending(
-					DatasetComparator.getComparator(DatasetComparator.valueOf(params[0].toUpperCase() + "_SORT"))));
-		else
-			Collections.sort(globalResult,
-					DatasetComparator.getComparator(DatasetComparator.valueOf(params[0].toUpperCase() + "_SORT")));
+		Comparator<DCATDataset> comparator = DatasetComparator
+				.getComparator(DatasetComparator.valueOf(params[0].toUpperCase() + "_SORT"));
+		return params[1].equals("desc") ? DatasetComparator.decending(comparator) : comparator;
+	}
+
+	/**
+	 * Queries all the passed catalogues at once on the live search executor and
+	 * collects the results available before the deadline. The catalogues that did
+	 * not answer in time or raised an error are added to the passed lists
+	 */
+	private static List<LiveSearchResult> runLiveSearch(List<ODMSCatalogue> catalogues,
+			HashMap<String, Object> nodeParameters, Comparator<DCATDataset> comparator, List<Integer> timedOut,
+			List<Integer> failed) {
+		return runLiveSearch(catalogues, nodeParameters,
+				(node, parameters) -> searchCatalogue(node, parameters, comparator), liveSearchTimeout, timedOut,
+				failed);
+	}
+
+	static List<LiveSearchResult> runLiveSearch(List<ODMSCatalogue> catalogues, HashMap<String, Object> nodeParameters,
+			ICatalogueSearch search, long timeout, List<Integer> timedOut, List<Integer> failed) {
+
+		long deadline = System.currentTimeMillis() + timeout;
+		LinkedHashMap<ODMSCatalogue, Future<LiveSearchResult>> futures = new LinkedHashMap<ODMSCatalogue, Future<LiveSearchResult>>(
+				catalogues.size());
+
+		for (ODMSCatalogue node : catalogues) {
+			// Every connector gets its own copy, since some of them change the parameters
+			HashMap<String, Object> parameters = new HashMap<String, Object>(nodeParameters);
+			try {
+				futures.put(node, liveSearchExecutor.submit(() -> search.search(node, parameters)));
+			} catch (RejectedExecutionException e) {
+				logger.error("Live search queue is full, catalogue " + node.getId() + " skipped");
+				timedOut.add(node.getId());
+			}
+		}
+
+		List<LiveSearchResult> results = new ArrayList<LiveSearchResult>();
+		for (Entry<ODMSCatalogue, Future<LiveSearchResult>> e : futures.entrySet()) {
+			ODMSCatalogue node = e.getKey();
+			try {
+				results.add(e.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (TimeoutException ex) {
+				e.getValue().cancel(true);
+				logger.info("Live search on catalogue " + node.getId() + " timed out");
+				timedOut.add(node.getId());
+			} catch (ExecutionException ex) {
+				logger.error("There was an error in live search on catalogue " + node.getId() + ": "
+						+ ex.getCause().getMessage());
+				failed.add(node.getId());
+			} catch (InterruptedException ex) {
+				e.getValue().cancel(true);
+				Thread.currentThread().interrupt();
+				timedOut.add(node.getId());
+			}
+		}
+
+		return results;
+	}
+
+	private static LiveSearchResult searchCatalogue(ODMSCatalogue node, HashMap<String, Object> parameters,
+			Comparator<DCATDataset> comparator) throws Exception {
+
+		IODMSConnector connector = ODMSManager.getODMSCatalogueConnector(node);
 
-		return new SearchResult(new Long(globalResult.size()), globalResult);
+		int count = connector.countSearchDatasets(new HashMap<String, Object>(parameters));
+		List<DCATDataset> datasets;
+		if (count != 0 && comparator != null) {
+			datasets = new ArrayList<DCATDataset>(connector.findDatasets(parameters));
+			// Connectors may not honour the requested sort, the merge relies on it
+			datasets.sort(comparator);
+		} else {
+			datasets = new ArrayList<DCATDataset>();
+		}
+
+		return new LiveSearchResult(count, datasets);
 	}
 
-	public static int countDataset(HashMap<String, Object> searchParameters)
+	/**
+	 * K-way merge of the sorted catalogue results, returning the requested page of
+	 * the global result
+	 */
+	static List<DCATDataset> mergeLiveResults(List<LiveSearchResult> nodeResults,
+			Comparator<DCATDataset> comparator, int start, int rows) {
+
+		PriorityQueue<PeekingIterator> heads = new PriorityQueue<PeekingIterator>(Math.max(1, nodeResults.size()),
+				(a, b) -> comparator.compare(a.peek(), b.peek()));
+		for (LiveSearchResult r : nodeResults)
+			if (!r.datasets.isEmpty())
+				heads.add(new PeekingIterator(r.datasets.iterator()));
+
+		List<DCATDataset> page = new ArrayList<DCATDataset>(rows);
+		int position = 0;
+		while (!heads.isEmpty() && page.size() < rows) {
+			PeekingIterator it = heads.poll();
+			DCATDataset d = it.next();
+			if (position++ >= start)
+				page.add(d);
+			if (it.hasNext())
+				heads.add(it);
+		}
+		return page;
+	}
+
+	/**
+	 * Search of a single catalogue of a live search
+	 */
+	interface ICatalogueSearch {
+		LiveSearchResult search(ODMSCatalogue node, HashMap<String, Object> parameters) throws Exception;
+	}
+
+	static class LiveSearchResult {
+		private final int count;
+		private final List<DCATDataset> datasets;
+
+		LiveSearchResult(int count, List<DCATDataset> datasets) {
+			this.count = count;
+			this.datasets = datasets;
+		}
+	}
+
+	private static class PeekingIterator {
+		private final Iterator<DCATDataset> it;
+		private DCATDataset head;
+
+		private PeekingIterator(Iterator<DCATDataset> it) {
+			this.it = it;
+			this.head = it.next();
+		}
+
+		private DCATDataset peek() {
+			return head;
+		}
+
+		private DCATDataset next() {
+			DCATDataset current = head;
+			head = it.hasNext() ? it.next() : null;
+			return current;
+		}
+
+		private boolean hasNext() {
+			return head != null;
+		}
+	}
+
+	public static void onFinalize() {
+		liveSearchExecutor.shutdownNow();
+	}
+
+	public static int countDataset(SearchParameters searchParameters)
+			throws IOException, SolrServerException, SQLException, ODMSCatalogueNotFoundException, EuroVocTranslationNotFoundException {
+		return countDataset(searchParameters, true);
+	}
+
+	public static int countDataset(SearchParameters searchParameters, boolean useCache)
 			throws IOException, SolrServerException, SQLException, ODMSCatalogueNotFoundException, EuroVocTranslationNotFoundException {
 
 		// EuroVoc processing
-		if (searchParameters.containsKey("euroVoc") && (boolean) searchParameters.get("euroVoc")) {
-			searchParameters = EuroVocTranslator.replaceEuroVocTerms(searchParameters);
+		if (searchParameters.isEuroVoc()) {
+			searchParameters = translateEuroVocTerms(searchParameters);
 		}
 
-		if ((boolean) searchParameters.remove("live"))
-			return countLiveSearch(searchParameters);
+		if (searchParameters.isLive())
+			return countLiveSearch(liveSearchParameters(searchParameters));
 		else
-			return countLocalSearch(searchParameters);
+			return countLocalSearch(searchParameters, useCache);
 	}
 
 	public static int countDriverSearch(HashMap<String, Object> searchParameters)
@@ -615,83 +819,94 @@ public class FederatedSearch {
 
 	public static int countRegexSearch(HashMap<String, Object> searchParameters)
 			throws IOException, SolrServerException {
-		logger.info("Searching on cache with Location");
-		CachePersistenceManager jpa = new CachePersistenceManager();
-		try {
-			return jpa.jpaGetCountDatasetsByRegex(searchParameters);
-		} finally {
-			jpa.jpaClose();
-		}
+		logger.info("Searching on cache with regex");
+		return MetadataCacheManager.getDatasetNumber(getDriverSearchParameters(searchParameters));
 	}
 
 	public static int countSpatialSearch(HashMap<String, Object> searchParameters)
 			throws IOException, SolrServerException {
 		logger.info("Searching on cache with Location");
-		CachePersistenceManager jpa = new CachePersistenceManager();
-		try {
-			return jpa.jpaGetCountDatasetsByLocation(searchParameters);
-		} finally {
-			jpa.jpaClose();
+		return MetadataCacheManager.getDatasetNumber(getDriverSearchParameters(searchParameters));
+	}
+
+	/**
+	 * Converts a search by regular expression, substrings or location, given as
+	 * the "filters" of each catalogue, into a cache search. A regular expression
+	 * replaces the title and description substrings, as it did on the DB
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if no catalogue filters are given
+	 */
+	@SuppressWarnings("unchecked")
+	private static SearchParameters getDriverSearchParameters(HashMap<String, Object> searchParameters) {
+		HashMap<String, HashMap<String, String>> filterMap = (HashMap<String, HashMap<String, String>>) searchParameters
+				.get("filters");
+		if (filterMap == null || filterMap.isEmpty())
+			throw new IllegalArgumentException("The filters must contain at least one catalogue");
+		HashMap<String, String> filters = filterMap.values().iterator().next();
+		if (filters == null)
+			filters = new HashMap<String, String>();
+
+		SearchParameters parameters = new SearchParameters();
+		parameters.setNodes(filterMap.keySet().stream().map(Integer::valueOf).collect(Collectors.toList()));
+
+		if (filters.containsKey("geographic_area"))
+			parameters.setSpatialFilter(
+					new SearchSpatialFilter(filters.get("geographic_area"), SpatialRelation.intersects));
+
+		if (filters.containsKey("regex")) {
+			parameters.setRegex(filters.get("regex"));
+		} else {
+			if (filters.containsKey("title"))
+				parameters.addSubstringFilter("title", filters.get("title"));
+			if (filters.containsKey("description"))
+				parameters.addSubstringFilter("description", filters.get("description"));
 		}
+
+		parameters.setSort(new SortOption("id", SortMode.asc));
+		if (searchParameters.containsKey("rows"))
+			parameters.setRows(searchParameters.get("rows").toString());
+		if (searchParameters.containsKey("start"))
+			parameters.setStart(searchParameters.get("start").toString());
+		return parameters;
 	}
 
-	private static int countLocalSearch(HashMap<String, Object> searchParameters)
+	private static int countLocalSearch(SearchParameters searchParameters, boolean useCache)
 			throws IOException, SolrServerException {
 		logger.info("Searching on cache");
-		return MetadataCacheManager.getDatasetNumber(searchParameters);
-	}
+		if (!useCache || !countCache.isEnabled())
+			return MetadataCacheManager.getDatasetNumber(searchParameters);
 
-	private static int countLiveSearch(HashMap<String, Object> searchParameters)
-			throws SQLException, ODMSCatalogueNotFoundException {
+		String key = searchParameters.getCacheKey();
+		String snapshot = MetadataCacheManager.getGenerationSnapshot(searchParameters.getNodes());
 
-		// Gets federated nodes and relative connectors lists
-		ArrayList<Integer> nodesToBeSearched = (ArrayList<Integer>) searchParameters.remove("nodes");
+		Integer count = countCache.get(key, snapshot);
+		if (count != null) {
+			MetadataCacheManager.storeKeywordsStatistics(searchParameters);
+			return count;
+		}
 
-		// If the "nodes" parameter is not present, get all federated nodes
-		if (nodesToBeSearched == null)
-			nodesToBeSearched = ODMSManager.getODMSCataloguesID();
+		count = MetadataCacheManager.getDatasetNumber(searchParameters);
+		countCache.put(key, snapshot, count);
+		return count;
+	}
 
-		// Divides the total passed rows for each node to be searched
-		// Integer nodeRows = Math.round((int)
-		// Integer.parseInt(searchParameters.remove("rows").toString())/nodesToBeSearched.size());
-		// searchParameters.put("rows", nodeRows.toString());
+	private static int countLiveSearch(HashMap<String, Object> searchParameters)
+			throws SQLException, ODMSCatalogueNotFoundException {
 
-		HashMap<ODMSCatalogueType, String> ODMSConnectorsList = FederationCore.getODMSConnectorsList();
-		logger.info("Live search");
-		ClassLoader loader = Thread.currentThread().getContextClassLoader();
-		int globalResult = 0; // Results from all nodes
+		List<ODMSCatalogue> catalogues = getLiveSearchCatalogues(searchParameters);
+		logger.info("Live count on " + catalogues.size() + " catalogues");
 
-		int nodeDatasets;
-		IODMSConnector currentConnector;
+		List<Integer> timedOut = new ArrayList<Integer>();
+		List<Integer> failed = new ArrayList<Integer>();
+		// A null comparator makes every catalogue return only its count
+		int globalResult = 0;
+		for (LiveSearchResult r : runLiveSearch(catalogues, searchParameters, null, timedOut, failed))
+			globalResult += r.count;
 
-		// Iterates on federated nodes list and for each of them performs live
-		// search
-		for (Integer id : nodesToBeSearched) {
-			ODMSCatalogue node = null;
-			if ((node = ODMSManager.getODMSCatalogue(id)) != null
-					&& !node.getFederationLevel().equals(ODMSCatalogueFederationLevel.LEVEL_0)
-					&& !node.getFederationLevel().equals(ODMSCatalogueFederationLevel.LEVEL_2)
-					&& node.getNodeState().equals(ODMSCatalogueState.ONLINE))
-				try {
-					// The connector class is loaded, based on ODMS node type,
-					// using Java reflection
-					Class<?> cls = loader.loadClass(ODMSConnectorsList.get(node.getNodeType()));
-					currentConnector = (IODMSConnector) cls.getDeclaredConstructor(ODMSCatalogue.class).newInstance(node);
-					Method m = cls.getDeclaredMethod("countSearchDatasets", HashMap.class);
-					nodeDatasets = (Integer) m.invoke(currentConnector, searchParameters);
-
-					globalResult += nodeDatasets;
-
-					currentConnector = null;
-					System.gc();
-					logger.info("Live search success");
-					// logger.info("Results found:" + globalResult.size());
-				} catch (Exception e) {
-					e.printStackTrace();
-					logger.error("There was an error in live search");
-					// return 0;
-				}
-		}
+		if (!timedOut.isEmpty() || !failed.isEmpty())
+			logger.info("Live count is partial - Timed out catalogues: " + timedOut + " - Failed catalogues: "
+					+ failed);
 
 		return globalResult;
 	}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.search;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of search results on the metadata cache.
+ * 
+ * Each entry is stored with the generation snapshot of the catalogues it was
+ * computed on, and it is returned only while the snapshot is unchanged, so that
+ * any add, update or delete on those catalogues invalidates it without having
+ * to enumerate the entries.
+ */
+public class SearchResultCache<V> {
+
+	private final int maxEntries;
+	private final LinkedHashMap<String, CachedResult<V>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleEntries = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxEntries
+	 *            number of results kept, 0 disables the cache
+	 */
+	public SearchResultCache(int maxEntries) {
+		this.maxEntries = Math.max(0, maxEntries);
+		this.entries = new LinkedHashMap<String, CachedResult<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult<V>> eldest) {
+				if (size() > SearchResultCache.this.maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * Returns the result cached for the key if it was computed on the passed
+	 * snapshot, null otherwise
+	 */
+	public V get(String key, String snapshot) {
+		if (snapshot == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		synchronized (entries) {
+			CachedResult<V> cached = entries.get(key);
+			if (cached != null && cached.snapshot.equals(snapshot)) {
+				hits.incrementAndGet();
+				return cached.value;
+			}
+			if (cached != null) {
+				entries.remove(key);
+				staleEntries.incrementAndGet();
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a result computed on the passed snapshot, taken before running the
+	 * search. Results computed while a catalogue had uncommitted changes, that
+	 * is without a snapshot, are not stored
+	 */
+	public void put(String key, String snapshot, V value) {
+		if (snapshot == null || value == null)
+			return;
+
+		synchronized (entries) {
+			entries.put(key, new CachedResult<V>(snapshot, value));
+		}
+	}
+
+	public HashMap<String, Object> getStatistics() {
+		HashMap<String, Object> stats = new HashMap<String, Object>();
+		synchronized (entries) {
+			stats.put("entries", entries.size());
+		}
+		stats.put("maxEntries", maxEntries);
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("staleEntries", staleEntries.get());
+		stats.put("evictions", evictions.get());
+		long lookups = hits.get() + misses.get();
+		stats.put("hitRatio", lookups == 0 ? 0 : (double) hits.get() / lookups);
+		return stats;
+	}
+
+	private static class CachedResult<V> {
+		private final String snapshot;
+		private final V value;
+
+		private CachedResult(String snapshot, V value) {
+			this.snapshot = snapshot;
+			this.value = value;
+		}
+	}
+
+}
@@ -3,9 +3,9 @@ package it.eng.idra.statistics;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import it.eng.idra.beans.dcat.DCATDataset;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSCatalogueType;
 
@@ -26,11 +26,11 @@ public class CataloguesStatistics {
 //		this.datasetUpdatedStat=datasetUpdatedStat;
 //	}
 
-	public CataloguesStatistics(List<ODMSCatalogue> catalogues,List<DCATDataset> added,List<DCATDataset> updated) {
+	public CataloguesStatistics(List<ODMSCatalogue> catalogues,StatisticsAggregations aggregations) {
 		super();
 		this.setDatasetCountStatistics(getDatasetCntStatFromCatalogues(catalogues));
 		this.setTechnologiesStat(getTechStatFromCatalogues(catalogues));
-		this.setDatasetUpdatedStat(getUpdatedAddedCatalogues(catalogues,added, updated));
+		this.setDatasetUpdatedStat(getUpdatedAddedCatalogues(catalogues,aggregations.getAdded(), aggregations.getUpdated()));
 	}
 	
 	public List<DatasetCountStatistics> getDatasetCountStatistics() {
@@ -82,16 +82,16 @@ public class CataloguesStatistics {
 		return res;
 	}
 	
-	private List<DatasetUpdatedStatistics> getUpdatedAddedCatalogues(List<ODMSCatalogue> catalogues,List<DCATDataset> added,List<DCATDataset> updated){
+	private List<DatasetUpdatedStatistics> getUpdatedAddedCatalogues(List<ODMSCatalogue> catalogues,Map<Integer, Integer> added,Map<Integer, Integer> updated){
 		
 		List<DatasetUpdatedStatistics> res = new ArrayList<DatasetUpdatedStatistics>();
 		
 		for(ODMSCatalogue c : catalogues) {
 			DatasetUpdatedStatistics d = new DatasetUpdatedStatistics();
 			d.setName(c.getName());
-			d.setAdded((int) added.stream().filter(x->Integer.parseInt(x.getNodeID())==c.getId()).count());
+			d.setAdded(added.getOrDefault(c.getId(), 0));
 			//NB: gli updated mi arrivano filtrati qui
-			d.setUpdated((int) updated.stream().filter(x->Integer.parseInt(x.getNodeID())==c.getId()).count());
+			d.setUpdated(updated.getOrDefault(c.getId(), 0));
 			res.add(d);
 		}
 		
@@ -1,9 +1,10 @@
 package it.eng.idra.statistics;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import it.eng.idra.beans.search.SearchFacet;
+import it.eng.idra.management.FederationCore;
 
 public class FacetsStatistics {
 
@@ -21,11 +22,11 @@ public class FacetsStatistics {
 //		this.licenses = licenses;
 //	}
 
-	public FacetsStatistics(List<SearchFacet> formats, List<SearchFacet> licenses, List<SearchFacet> themes) {
+	public FacetsStatistics(StatisticsAggregations aggregations) {
 		super();
-		this.setFormats(getFormatStatFromFacets(formats));
-		this.setLicenses(getLicenseStatFromFacets(licenses));
-		this.setThemesStatistics(getThemeStatFromFacets(themes));
+		this.setFormats(getFormatStatFromAggregations(aggregations.getFormats()));
+		this.setLicenses(getLicenseStatFromAggregations(aggregations.getLicenses()));
+		this.setThemesStatistics(getThemeStatFromAggregations(aggregations.getThemes()));
 	}
 	
 	public List<FormatStatistics> getFormats() {
@@ -52,24 +53,27 @@ public class FacetsStatistics {
 		this.themesStatistics = themesStatistics;
 	}
 
-	private List<FormatStatistics> getFormatStatFromFacets(List<SearchFacet> values){
-		return values.stream().map(x->{
-			return new FormatStatistics(x.getKeyword(),
-					Integer.parseInt(x.getFacet().substring(x.getFacet().lastIndexOf("(")+1, x.getFacet().lastIndexOf(")"))));
+	private List<FormatStatistics> getFormatStatFromAggregations(Map<String, Integer> values){
+		return values.entrySet().stream().map(x->{
+			return new FormatStatistics(x.getKey(), x.getValue());
 		}).collect(Collectors.toList());
 	}
 	
-	private List<LicenseStatistics> getLicenseStatFromFacets(List<SearchFacet> values){
-		return values.stream().map(x->{
-			return new LicenseStatistics(x.getKeyword(),
-					Integer.parseInt(x.getFacet().substring(x.getFacet().lastIndexOf("(")+1, x.getFacet().lastIndexOf(")"))), "" );
+	private List<LicenseStatistics> getLicenseStatFromAggregations(Map<String, Integer> values){
+		return values.entrySet().stream().map(x->{
+			return new LicenseStatistics(x.getKey(), x.getValue(), "" );
 		}).collect(Collectors.toList());
 	}
 
-	private List<ThemeStatistics> getThemeStatFromFacets(List<SearchFacet> values){
-		return values.stream().map(x->{
-			return new ThemeStatistics(x.getKeyword(),
-					Integer.parseInt(x.getFacet().substring(x.getFacet().lastIndexOf("(")+1, x.getFacet().lastIndexOf(")"))));
+	private List<ThemeStatistics> getThemeStatFromAggregations(Map<String, Integer> values){
+		return values.entrySet().stream().map(x->{
+			String theme;
+			try {
+				theme = FederationCore.getDCATThemesFromAbbr(x.getKey());
+			} catch (Exception e) {
+				theme = x.getKey();
+			}
+			return new ThemeStatistics(theme, x.getValue());
 		}).collect(Collectors.toList());
 	}
 }
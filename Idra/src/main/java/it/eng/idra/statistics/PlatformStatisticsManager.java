@@ -1,22 +1,28 @@
 package it.eng.idra.statistics;
 
-import java.time.ZonedDateTime;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrServerException;
 
+import it.eng.idra.beans.IdraProperty;
 import it.eng.idra.beans.odms.ODMSCatalogue;
 import it.eng.idra.beans.odms.ODMSSynchLock;
-import it.eng.idra.beans.search.SearchResult;
+import it.eng.idra.cache.MetadataCacheManager;
 import it.eng.idra.management.FederationCore;
-import it.eng.idra.search.FederatedSearch;
+import it.eng.idra.search.SearchResultCache;
 import it.eng.idra.utils.CommonUtil;
+import it.eng.idra.utils.PropertyManager;
 
 public class PlatformStatisticsManager {
 
+	private static final SearchResultCache<StatisticsAggregations> aggregationsCache =
+			new SearchResultCache<StatisticsAggregations>(PropertyManager.getIntProperty(IdraProperty.SEARCH_CACHE_MAX_ENTRIES, 500));
+
 	public PlatformStatisticsManager() {
 		// TODO Auto-generated constructor stub
 	}
@@ -41,59 +47,10 @@ public class PlatformStatisticsManager {
 			
 			List<Integer> cataloguesIDS = nodes.stream().map(x -> x.getId()).collect(Collectors.toList());
 				
-			//Prendo le facets con rows=0;
-			HashMap<String, Object> searchParameters = new HashMap<String, Object>();
-			searchParameters.put("live", false);
-			searchParameters.put("euroVoc",false);
-			searchParameters.put("rows", "0");
-			searchParameters.put("start", "0");
-			searchParameters.put("sort","id,asc");
-			searchParameters.put("nodes", cataloguesIDS);
+			StatisticsAggregations aggregations = getAggregations(cataloguesIDS, startDate, endDate);
 
-			SearchResult resultForFacets = FederatedSearch.search(searchParameters);
-			SearchResult distributionFormats = FederatedSearch.getFormatStatistics(searchParameters);
-			
-			/*MANAGE FACETS*/
-			FacetsStatistics facetsStats = new FacetsStatistics(
-					distributionFormats.getFacets().stream().
-					filter(x->x.getSearch_parameter().equals("format")).
-					map(x-> x.getValues()).findFirst().get(),
-					
-					resultForFacets.getFacets().stream().
-					filter(x->x.getSearch_parameter().equals("distributionLicenses")).
-					map(x-> x.getValues()).findFirst().get(),
-					
-					resultForFacets.getFacets().stream().
-					filter(x->x.getSearch_parameter().equals("datasetThemes")).
-					map(x-> x.getValues()).findFirst().get()
-					);
-			
-			searchParameters.put("live", false);
-			searchParameters.put("euroVoc",false);
-			searchParameters.put("start", "0");
-			searchParameters.put("sort","id,asc");
-//			searchParameters.put("nodes", cataloguesIDS);
-			searchParameters.put("rows", resultForFacets.getCount().toString());
-			String dateArray[]= {startDate,endDate};
-			searchParameters.put("releaseDate", dateArray);
-			SearchResult resultForRelease = FederatedSearch.search(searchParameters);
-			searchParameters.remove("releaseDate");
-			
-			searchParameters.put("live", false);
-			searchParameters.put("euroVoc",false);
-			searchParameters.put("start", "0");
-			searchParameters.put("sort","id,asc");
-//			searchParameters.put("nodes", cataloguesIDS);
-			searchParameters.put("rows", resultForFacets.getCount().toString());
-			
-			searchParameters.put("updateDate", dateArray);
-			SearchResult resultForUpdate = FederatedSearch.search(searchParameters);
-			
-			ZonedDateTime start = ZonedDateTime.parse(startDate);
-			CataloguesStatistics ctlgStat = new CataloguesStatistics(nodes, resultForRelease.getResults(), 
-					resultForUpdate.getResults().stream().filter(x-> start.isAfter(ZonedDateTime.parse(x.getReleaseDate().getValue())) )
-					.collect(Collectors.toList()));
-			
+			FacetsStatistics facetsStats = new FacetsStatistics(aggregations);
+			CataloguesStatistics ctlgStat = new CataloguesStatistics(nodes, aggregations);
 			
 			result.setCatalogues(ctlgStat);
 			result.setFacets(facetsStats);
@@ -103,5 +60,22 @@ public class PlatformStatisticsManager {
 		
 		return result;
 	}
+
+	/**
+	 * Returns the aggregations of the passed catalogues and period, computed
+	 * again only after the cache content of one of the catalogues changed
+	 */
+	private static StatisticsAggregations getAggregations(List<Integer> cataloguesIDS, String startDate,
+			String endDate) throws SolrServerException, IOException {
+		String key = new TreeSet<Integer>(cataloguesIDS) + "|" + startDate + "|" + endDate;
+		String snapshot = MetadataCacheManager.getGenerationSnapshot(cataloguesIDS);
+
+		StatisticsAggregations aggregations = aggregationsCache.get(key, snapshot);
+		if (aggregations == null) {
+			aggregations = MetadataCacheManager.getStatisticsAggregations(cataloguesIDS, startDate, endDate);
+			aggregationsCache.put(key, snapshot, aggregations);
+		}
+		return aggregations;
+	}
 	
 }
@@ -0,0 +1,62 @@
+package it.eng.idra.statistics;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Counts computed by the SOLR cache in a single aggregation request: the
+ * formats, licenses and themes of the datasets, and the datasets of each
+ * catalogue added or updated in a period
+ */
+public class StatisticsAggregations {
+
+	private LinkedHashMap<String, Integer> formats = new LinkedHashMap<String, Integer>();
+	private LinkedHashMap<String, Integer> licenses = new LinkedHashMap<String, Integer>();
+	private LinkedHashMap<String, Integer> themes = new LinkedHashMap<String, Integer>();
+	private HashMap<Integer, Integer> added = new HashMap<Integer, Integer>();
+	private HashMap<Integer, Integer> updated = new HashMap<Integer, Integer>();
+
+	public StatisticsAggregations() {
+	}
+
+	public LinkedHashMap<String, Integer> getFormats() {
+		return formats;
+	}
+
+	public void setFormats(LinkedHashMap<String, Integer> formats) {
+		this.formats = formats;
+	}
+
+	public LinkedHashMap<String, Integer> getLicenses() {
+		return licenses;
+	}
+
+	public void setLicenses(LinkedHashMap<String, Integer> licenses) {
+		this.licenses = licenses;
+	}
+
+	public LinkedHashMap<String, Integer> getThemes() {
+		return themes;
+	}
+
+	public void setThemes(LinkedHashMap<String, Integer> themes) {
+		this.themes = themes;
+	}
+
+	public HashMap<Integer, Integer> getAdded() {
+		return added;
+	}
+
+	public void setAdded(HashMap<Integer, Integer> added) {
+		this.added = added;
+	}
+
+	public HashMap<Integer, Integer> getUpdated() {
+		return updated;
+	}
+
+	public void setUpdated(HashMap<Integer, Integer> updated) {
+		this.updated = updated;
+	}
+
+}
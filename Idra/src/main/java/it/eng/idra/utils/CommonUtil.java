@@ -20,6 +20,7 @@ package it.eng.idra.utils;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.Normalizer;
@@ -140,6 +141,26 @@ public class CommonUtil {
 		return sb.toString();
 	}
 
+	/**
+	 * Computes the SHA-256 fingerprint of the passed content, as an hexadecimal
+	 * string
+	 */
+	public static String computeContentHash(String content) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte byteData[] = md.digest(content.getBytes(StandardCharsets.UTF_8));
+
+			StringBuffer sb = new StringBuffer();
+			for (int i = 0; i < byteData.length; i++)
+				sb.append(Integer.toString((byteData[i] & 0xff) + 0x100, 16).substring(1));
+
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is available on every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public static String toUtcDate(String dateString) throws IllegalArgumentException {
 
 		// SimpleDateFormat out = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
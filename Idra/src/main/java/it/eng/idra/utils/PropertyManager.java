@@ -48,6 +48,19 @@ public class PropertyManager {
 		return prop.orElse(props.getProperty(propName.toString()));
 	}
 
+	/**
+	 * Returns the numeric value of the property, or the default one if the
+	 * property is missing or not a number
+	 */
+	public static int getIntProperty(IdraProperty propName, int defaultValue) {
+		String value = getProperty(propName);
+		try {
+			return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	public static String getProperty(IDMProperty propName) {
 		Optional<String> prop = Optional.ofNullable(System.getenv(propName.toString()));
 		return prop.orElse(props.getProperty(propName.toString()));
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContextFactory;
+import org.locationtech.spatial4j.context.jts.ValidationRule;
+import org.locationtech.spatial4j.shape.Rectangle;
+import org.locationtech.spatial4j.shape.Shape;
+
+/**
+ * Converts the geometries of the datasets and of the spatial searches, given
+ * either as GeoJSON or as WKT, into the WKT shapes indexed by SOLR
+ */
+public class SpatialUtil {
+
+	private static final JtsSpatialContext context;
+
+	static {
+		JtsSpatialContextFactory factory = new JtsSpatialContextFactory();
+		factory.geo = true;
+		factory.autoIndex = true;
+		factory.validationRule = ValidationRule.repairBuffer0;
+		context = factory.newSpatialContext();
+	}
+
+	/**
+	 * Parses a GeoJSON or WKT geometry
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the geometry is empty or cannot be parsed
+	 */
+	public static Shape parseShape(String geometry) {
+		if (StringUtils.isBlank(geometry))
+			throw new IllegalArgumentException("Empty geometry");
+
+		Shape shape;
+		try {
+			shape = context.getFormats().read(geometry.trim());
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to parse geometry: " + e.getMessage(), e);
+		}
+		if (shape == null)
+			throw new IllegalArgumentException("Unsupported geometry format");
+		return shape;
+	}
+
+	public static String toWKT(Shape shape) {
+		return context.getFormats().getWktWriter().toString(shape);
+	}
+
+	/**
+	 * Returns the bounding box of the shape as a WKT envelope, the format of the
+	 * SOLR BBox fields
+	 */
+	public static String toEnvelope(Shape shape) {
+		Rectangle r = shape.getBoundingBox();
+		return "ENVELOPE(" + r.getMinX() + ", " + r.getMaxX() + ", " + r.getMaxY() + ", " + r.getMinY() + ")";
+	}
+
+}
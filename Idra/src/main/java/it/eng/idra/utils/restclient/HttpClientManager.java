@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.utils.restclient;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import it.eng.idra.beans.IdraProperty;
+import it.eng.idra.utils.PropertyManager;
+
+/**
+ * Shared HTTP layer used for the outbound requests of connectors, proxies and
+ * the LOD loader.
+ * 
+ * Requests are executed by pooled clients that keep the connections alive, so
+ * that the portals contacted during a synchronization are not handshaken again
+ * for every call. The pool caps the connections opened towards a single host,
+ * gzip and deflate responses are decoded transparently and every request gets
+ * the configured connect and read timeouts, unless it sets its own
+ * {@link RequestConfig}.
+ * 
+ * Response bodies are streamed: callers must consume the entity or close the
+ * response, otherwise the connection is not given back to the pool.
+ */
+public class HttpClientManager {
+
+	private static Logger logger = LogManager.getLogger(HttpClientManager.class);
+
+	private static CloseableHttpClient client;
+	private static CloseableHttpClient trustingClient;
+
+	private HttpClientManager() {
+	}
+
+	/**
+	 * Returns the client that verifies the certificates of the servers
+	 */
+	public static synchronized CloseableHttpClient getClient() {
+		if (client == null)
+			client = buildClient(SSLConnectionSocketFactory.getSocketFactory());
+		return client;
+	}
+
+	/**
+	 * Returns the client that accepts self-signed certificates and does not verify
+	 * the host names, for the portals and IdMs that are deployed with them
+	 */
+	public static synchronized CloseableHttpClient getTrustingClient() {
+		if (trustingClient == null)
+			trustingClient = buildClient(getTrustingSocketFactory());
+		return trustingClient;
+	}
+
+	public static CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+		return getClient().execute(request, newContext());
+	}
+
+	public static CloseableHttpResponse executeTrusting(HttpUriRequest request) throws IOException {
+		return getTrustingClient().execute(request, newContext());
+	}
+
+	public static CloseableHttpResponse execute(HttpUriRequest request, boolean trusting) throws IOException {
+		return trusting ? executeTrusting(request) : execute(request);
+	}
+
+	/**
+	 * Checks whether the endpoint answers with a successful status, with a HEAD
+	 * request or, if the server does not allow it, with a GET whose body is not
+	 * read
+	 */
+	public static boolean probe(String url, boolean trusting) throws IOException {
+		int status;
+		try (CloseableHttpResponse response = execute(new HttpHead(url), trusting)) {
+			status = response.getStatusLine().getStatusCode();
+		}
+
+		if (status == HttpStatus.SC_METHOD_NOT_ALLOWED || status == HttpStatus.SC_NOT_IMPLEMENTED) {
+			// Closing the response without reading it drops the connection
+			try (CloseableHttpResponse response = execute(new HttpGet(url), trusting)) {
+				status = response.getStatusLine().getStatusCode();
+			}
+		}
+
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * Returns a copy of the default request configuration, to be customized by
+	 * the requests that need different timeouts
+	 */
+	public static RequestConfig.Builder customRequestConfig() {
+		return RequestConfig.copy(getDefaultRequestConfig());
+	}
+
+	/**
+	 * Closes the pooled connections, called when the application is stopped
+	 */
+	public static synchronized void onFinalize() {
+		for (CloseableHttpClient c : new CloseableHttpClient[] { client, trustingClient }) {
+			if (c == null)
+				continue;
+			try {
+				c.close();
+			} catch (IOException e) {
+				logger.error("Error while closing the HTTP connection pool: " + e.getMessage());
+			}
+		}
+		client = null;
+		trustingClient = null;
+	}
+
+	private static CloseableHttpClient buildClient(SSLConnectionSocketFactory sslSocketFactory) {
+
+		int maxConnections = PropertyManager.getIntProperty(IdraProperty.HTTP_MAX_CONNECTIONS, 200);
+		int maxPerHost = PropertyManager.getIntProperty(IdraProperty.HTTP_MAX_CONNECTIONS_PER_HOST, 8);
+		long keepAlive = PropertyManager.getIntProperty(IdraProperty.HTTP_KEEP_ALIVE, 60000);
+
+		PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(
+				RegistryBuilder.<ConnectionSocketFactory>create()
+						.register("http", PlainConnectionSocketFactory.getSocketFactory())
+						.register("https", sslSocketFactory).build());
+		pool.setMaxTotal(maxConnections);
+		pool.setDefaultMaxPerRoute(maxPerHost);
+
+		// Content compression is enabled by default in the builder
+		HttpClientBuilder builder = HttpClients.custom().setConnectionManager(pool)
+				.setDefaultRequestConfig(getDefaultRequestConfig())
+				.setKeepAliveStrategy((response, context) -> {
+					long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+							context);
+					return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+				}).evictExpiredConnections().evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+
+		/*
+		 * Set an HTTP proxy if it is specified in the configuration
+		 */
+		String proxyEnabled = PropertyManager.getProperty(IdraProperty.HTTP_PROXY_ENABLED);
+		String proxyHost = PropertyManager.getProperty(IdraProperty.HTTP_PROXY_HOST);
+		if (proxyEnabled != null && Boolean.parseBoolean(proxyEnabled.trim()) && StringUtils.isNotBlank(proxyHost)) {
+
+			int port = PropertyManager.getIntProperty(IdraProperty.HTTP_PROXY_PORT, 80);
+			builder.setProxy(new HttpHost(proxyHost.trim(), port, "http"));
+
+			String proxyUser = PropertyManager.getProperty(IdraProperty.HTTP_PROXY_USER);
+			if (StringUtils.isNotBlank(proxyUser)) {
+				BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+				credentials.setCredentials(new AuthScope(proxyHost.trim(), port), new UsernamePasswordCredentials(
+						proxyUser, PropertyManager.getProperty(IdraProperty.HTTP_PROXY_PASSWORD)));
+				builder.setDefaultCredentialsProvider(credentials);
+			}
+		}
+
+		logger.info("HTTP connection pool created: " + maxConnections + " connections, " + maxPerHost
+				+ " per host");
+		return builder.build();
+	}
+
+	private static RequestConfig getDefaultRequestConfig() {
+		int connectTimeout = PropertyManager.getIntProperty(IdraProperty.HTTP_CONNECT_TIMEOUT, 30000);
+		int readTimeout = PropertyManager.getIntProperty(IdraProperty.HTTP_READ_TIMEOUT, 300000);
+
+		return RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout).setConnectionRequestTimeout(readTimeout).build();
+	}
+
+	private static SSLConnectionSocketFactory getTrustingSocketFactory() {
+		try {
+			SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, new TrustSelfSignedStrategy())
+					.build();
+			return new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
+		} catch (Exception e) {
+			logger.error("Unable to trust self-signed certificates, falling back to the default ones: "
+					+ e.getMessage());
+			return SSLConnectionSocketFactory.getSocketFactory();
+		}
+	}
+
+	/*
+	 * Cookies are kept only across the redirects of a single request, as they were
+	 * when every request had its own client
+	 */
+	private static HttpClientContext newContext() {
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(new BasicCookieStore());
+		return context;
+	}
+
+}
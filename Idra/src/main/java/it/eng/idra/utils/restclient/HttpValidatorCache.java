@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.utils.restclient;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+
+/**
+ * Conditional-fetch layer for the catalogue endpoints that are downloaded as a
+ * whole, like data.json files and DCAT dumps.
+ * 
+ * The ETag and Last-Modified validators returned by an endpoint are kept per
+ * catalogue and sent back as If-None-Match and If-Modified-Since, so that a
+ * synchronization can skip the download when the server answers 304 Not
+ * Modified. The validators of a download stay pending until the
+ * synchronization that used it completes, so that a failed synchronization is
+ * repeated in full.
+ */
+public class HttpValidatorCache {
+
+	private static final Map<Integer, Map<String, Validators>> confirmed = new ConcurrentHashMap<Integer, Map<String, Validators>>();
+	private static final Map<Integer, Map<String, Validators>> pending = new ConcurrentHashMap<Integer, Map<String, Validators>>();
+
+	private HttpValidatorCache() {
+	}
+
+	/**
+	 * Sends a conditional HEAD request to the endpoint and tells whether its
+	 * content changed since the last completed synchronization of the catalogue.
+	 * Without stored validators, or if the server does not answer the HEAD, the
+	 * content is considered changed
+	 */
+	public static boolean isModified(int catalogueId, String url, boolean trusting) throws IOException {
+		Map<String, Validators> endpoints = confirmed.get(catalogueId);
+		Validators stored = endpoints != null ? endpoints.get(url) : null;
+		if (stored == null)
+			return true;
+
+		HttpHead head = new HttpHead(url);
+		stored.addTo(head);
+		try (CloseableHttpResponse response = HttpClientManager.execute(head, trusting)) {
+			int status = response.getStatusLine().getStatusCode();
+			if (status == HttpStatus.SC_NOT_MODIFIED)
+				return false;
+			// Servers that ignore conditional HEAD requests still return the current
+			// validators
+			return status < 200 || status >= 300 || !stored.equals(Validators.of(response));
+		}
+	}
+
+	/**
+	 * Records the validators of a successful download of the endpoint, pending
+	 * until the synchronization of the catalogue completes
+	 */
+	public static void store(int catalogueId, String url, HttpResponse response) {
+		Validators validators = Validators.of(response);
+		if (validators != null)
+			pending.computeIfAbsent(catalogueId, id -> new ConcurrentHashMap<String, Validators>()).put(url,
+					validators);
+	}
+
+	/**
+	 * Keeps the validators of the downloads made by the completed synchronization
+	 */
+	public static void confirm(int catalogueId) {
+		Map<String, Validators> downloaded = pending.remove(catalogueId);
+		if (downloaded != null)
+			confirmed.computeIfAbsent(catalogueId, id -> new ConcurrentHashMap<String, Validators>())
+					.putAll(downloaded);
+	}
+
+	/**
+	 * Drops the validators of the downloads made by a failed synchronization
+	 */
+	public static void discard(int catalogueId) {
+		pending.remove(catalogueId);
+	}
+
+	public static void remove(int catalogueId) {
+		pending.remove(catalogueId);
+		confirmed.remove(catalogueId);
+	}
+
+	private static final class Validators {
+
+		private final String eTag;
+		private final String lastModified;
+
+		private Validators(String eTag, String lastModified) {
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		private static Validators of(HttpResponse response) {
+			Header eTag = response.getFirstHeader(HttpHeaders.ETAG);
+			Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+			if (eTag == null && lastModified == null)
+				return null;
+			return new Validators(eTag != null ? eTag.getValue() : null,
+					lastModified != null ? lastModified.getValue() : null);
+		}
+
+		private void addTo(HttpRequest request) {
+			if (eTag != null)
+				request.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
+			if (lastModified != null)
+				request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Validators))
+				return false;
+			Validators other = (Validators) obj;
+			return Objects.equals(eTag, other.eTag) && Objects.equals(lastModified, other.lastModified);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(eTag, lastModified);
+		}
+	}
+
+}
@@ -31,50 +31,22 @@ import it.eng.idra.utils.restclient.builders.HttpPostBuilder;
 import it.eng.idra.utils.restclient.builders.HttpPutBuilder;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.entity.BufferedHttpEntity;
 
 import com.sun.research.ws.wadl.HTTPMethods;
 
 public abstract class RestClientBaseImpl {
 	
 	protected static final Logger logger = Logger.getLogger(RestClient.class.getName());
-	protected HttpClient httpclient = null;
-	
-	protected HttpClient buildClient(){
-		
-		SSLContextBuilder sshbuilder = new SSLContextBuilder();
-		try {
-			sshbuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-			SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sshbuilder.build());
 
-			httpclient = HttpClients.custom()
-				.setDefaultRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD).build())
-				.setSSLHostnameVerifier(new NoopHostnameVerifier())
-			    .setSSLSocketFactory(sslsf)
-			    .build();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		
-		
-		return httpclient;
-	}
-	
 	protected HttpResponse invoke(HTTPMethods method, String urlString, Map<String, String> headers, MediaType type, String data) 
 			throws MalformedURLException{
 		
 		URL url = new URL(urlString);
 		
 		HttpResponse response = null;
-		httpclient = buildClient();
 		
 		try {
 			HttpRequestBase httpRequest = null;
@@ -99,7 +71,13 @@ public abstract class RestClientBaseImpl {
 					throw new Exception("Method "+method.toString()+" not supported");
 			}
 			
-			response = httpclient.execute(httpRequest);
+			try (CloseableHttpResponse pooledResponse = HttpClientManager.executeTrusting(httpRequest)) {
+				// The body is buffered, so that the connection goes back to the pool even
+				// when the caller only reads the status
+				if (pooledResponse.getEntity() != null)
+					pooledResponse.setEntity(new BufferedHttpEntity(pooledResponse.getEntity()));
+				response = pooledResponse;
+			}
 			
 		} catch (Exception ioe) {
 			logger.info(ioe.toString());
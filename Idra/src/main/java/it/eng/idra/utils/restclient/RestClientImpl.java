@@ -58,7 +58,6 @@ public class RestClientImpl extends RestClientBaseImpl implements RestClient {
 		return invoke(HTTPMethods.HEAD, urlString, headers, null, null);
 	}
 	
-	@SuppressWarnings("deprecation")
 	public String getHttpResponseBody(HttpResponse httpresponse) 
 			throws Exception {
 		
@@ -70,8 +69,6 @@ public class RestClientImpl extends RestClientBaseImpl implements RestClient {
 			result.append(line);
 		}
 		
-		httpclient.getConnectionManager().shutdown();
-		
 		return result.toString();
 	}
 	
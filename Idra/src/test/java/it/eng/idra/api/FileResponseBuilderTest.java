@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileResponseBuilderTest {
+
+	private static final long MODIFIED = 1600000000000L;
+
+	private Path file;
+	private Path gzipFile;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[100];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) i;
+		file = Files.createTempFile("idra-dump", ".rdf");
+		Files.write(file, content);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(MODIFIED));
+		gzipFile = Files.createTempFile("idra-dump", ".rdf.gz");
+		Files.write(gzipFile, new byte[] { 1, 2, 3 });
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(gzipFile);
+	}
+
+	@Test
+	public void servesTheWholeFileWithoutRange() throws IOException {
+		Response response = get(headers());
+
+		assertEquals(200, response.getStatus());
+		assertEquals("100", response.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+		assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+		assertArrayEquals(content, body(response));
+	}
+
+	@Test
+	public void servesAClosedRange() throws IOException {
+		Response response = get(headers("Range", "bytes=10-19"));
+
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 10-19/100", response.getHeaderString("Content-Range"));
+		assertEquals("10", response.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+		assertArrayEquals(Arrays.copyOfRange(content, 10, 20), body(response));
+	}
+
+	@Test
+	public void servesOpenAndSuffixRanges() throws IOException {
+		Response open = get(headers("Range", "bytes=90-"));
+		assertEquals(206, open.getStatus());
+		assertEquals("bytes 90-99/100", open.getHeaderString("Content-Range"));
+
+		Response suffix = get(headers("Range", "bytes=-5"));
+		assertEquals(206, suffix.getStatus());
+		assertEquals("bytes 95-99/100", suffix.getHeaderString("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(content, 95, 100), body(suffix));
+	}
+
+	@Test
+	public void clampsTheEndOfARange() throws IOException {
+		Response response = get(headers("Range", "bytes=95-1000"));
+
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 95-99/100", response.getHeaderString("Content-Range"));
+	}
+
+	@Test
+	public void rejectsAnUnsatisfiableRange() throws IOException {
+		Response response = get(headers("Range", "bytes=200-"));
+
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */100", response.getHeaderString("Content-Range"));
+	}
+
+	@Test
+	public void ignoresMultipleRanges() throws IOException {
+		Response response = get(headers("Range", "bytes=0-1,5-6"));
+
+		assertEquals(200, response.getStatus());
+		assertNull(response.getHeaderString("Content-Range"));
+		assertArrayEquals(content, body(response));
+	}
+
+	@Test
+	public void honoursTheRangeIfTheETagMatches() throws IOException {
+		String eTag = "\"" + get(headers()).getEntityTag().getValue() + "\"";
+
+		assertEquals(206, get(headers("Range", "bytes=0-9", "If-Range", eTag)).getStatus());
+		assertEquals(200, get(headers("Range", "bytes=0-9", "If-Range", "\"stale\"")).getStatus());
+	}
+
+	@Test
+	public void honoursTheRangeIfTheDateMatches() throws IOException {
+		DateTimeFormatter format = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+		String modified = format.format(Instant.ofEpochMilli(MODIFIED));
+		String earlier = format.format(Instant.ofEpochMilli(MODIFIED - 60000));
+
+		assertEquals(206, get(headers("Range", "bytes=0-9", "If-Range", modified)).getStatus());
+		assertEquals(200, get(headers("Range", "bytes=0-9", "If-Range", earlier)).getStatus());
+		assertEquals(200, get(headers("Range", "bytes=0-9", "If-Range", "not a date")).getStatus());
+	}
+
+	@Test
+	public void servesTheGzipVariantToTheClientsAcceptingIt() throws IOException {
+		Response gzip = FileResponseBuilder.build(request(), headers("Accept-Encoding", "deflate, gzip"), file, gzipFile)
+				.build();
+		assertEquals("gzip", gzip.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(HttpHeaders.ACCEPT_ENCODING, gzip.getHeaderString(HttpHeaders.VARY));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, body(gzip));
+
+		Response refused = FileResponseBuilder.build(request(), headers("Accept-Encoding", "gzip;q=0"), file, gzipFile)
+				.build();
+		assertNull(refused.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+		assertArrayEquals(content, body(refused));
+	}
+
+	private Response get(HttpHeaders headers) throws IOException {
+		return FileResponseBuilder.build(request(), headers, file, null).build();
+	}
+
+	private static byte[] body(Response response) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * A request without preconditions
+	 */
+	private static Request request() {
+		return (Request) Proxy.newProxyInstance(Request.class.getClassLoader(), new Class<?>[] { Request.class },
+				(proxy, method, args) -> null);
+	}
+
+	private static HttpHeaders headers(String... namesAndValues) {
+		Map<String, String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = 0; i < namesAndValues.length; i += 2)
+			values.put(namesAndValues[i], namesAndValues[i + 1]);
+
+		return (HttpHeaders) Proxy.newProxyInstance(HttpHeaders.class.getClassLoader(),
+				new Class<?>[] { HttpHeaders.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getHeaderString"))
+						return values.get((String) args[0]);
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+}
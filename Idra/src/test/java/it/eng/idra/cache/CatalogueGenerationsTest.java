@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CatalogueGenerationsTest {
+
+	private static final List<Integer> FIRST = Collections.singletonList(1);
+	private static final List<Integer> SECOND = Collections.singletonList(2);
+	private static final List<Integer> ALL = Collections.emptyList();
+
+	private final CatalogueGenerations generations = new CatalogueGenerations();
+
+	@Test
+	public void keepsTheSnapshotWhileNothingChanges() {
+		assertEquals(generations.getSnapshot(Arrays.asList(1, 2)), generations.getSnapshot(Arrays.asList(1, 2)));
+		assertEquals(generations.getSnapshot(ALL), generations.getSnapshot(ALL));
+	}
+
+	@Test
+	public void hasNoSnapshotOfACatalogueUntilItsChangesAreCommitted() {
+		String first = generations.getSnapshot(FIRST);
+		String second = generations.getSnapshot(SECOND);
+
+		generations.changed(1);
+		assertNull(generations.getSnapshot(FIRST));
+		assertNull(generations.getSnapshot(Arrays.asList(1, 2)));
+		assertNull(generations.getSnapshot(ALL));
+		assertEquals(second, generations.getSnapshot(SECOND));
+
+		generations.committed(generations.lastUpdate());
+		assertNotNull(generations.getSnapshot(FIRST));
+		assertNotEquals(first, generations.getSnapshot(FIRST));
+		assertEquals(second, generations.getSnapshot(SECOND));
+	}
+
+	@Test
+	public void staysDirtyForTheChangesAfterTheCommittedOnes() {
+		generations.changed(1);
+		long sequence = generations.lastUpdate();
+		generations.changed(1);
+
+		generations.committed(sequence);
+		assertNull(generations.getSnapshot(FIRST));
+
+		generations.committed(generations.lastUpdate());
+		assertNotNull(generations.getSnapshot(FIRST));
+	}
+
+	@Test
+	public void invalidatesEveryCatalogueOnAChangeOfUnknownCatalogue() {
+		String first = generations.getSnapshot(FIRST);
+		String all = generations.getSnapshot(ALL);
+
+		generations.changed(null);
+		assertNull(generations.getSnapshot(FIRST));
+		assertNull(generations.getSnapshot(SECOND));
+
+		generations.committed(generations.lastUpdate());
+		assertNotEquals(first, generations.getSnapshot(FIRST));
+		assertNotEquals(all, generations.getSnapshot(ALL));
+	}
+
+	@Test
+	public void changesTheSnapshotOnASwitchWithoutACommit() {
+		String first = generations.getSnapshot(FIRST);
+		String all = generations.getSnapshot(ALL);
+
+		generations.switched(1);
+		assertNotNull(generations.getSnapshot(FIRST));
+		assertNotEquals(first, generations.getSnapshot(FIRST));
+		assertNotEquals(all, generations.getSnapshot(ALL));
+	}
+
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.junit.Test;
+
+public class CatalogueVisibilityTest {
+
+	private final CatalogueVisibility visibility = new CatalogueVisibility();
+
+	@Test
+	public void showsEverythingByDefault() {
+		assertNull(filters());
+	}
+
+	@Test
+	public void returnsIncreasingGenerations() {
+		long first = visibility.newGeneration();
+		assertTrue(visibility.newGeneration() > first);
+	}
+
+	@Test
+	public void hidesStagingGenerationsUntilDiscarded() {
+		visibility.hide(5);
+		assertArrayEquals(new String[] { "*:* -(generation:5)" }, filters());
+
+		visibility.discarded(5);
+		assertNull(filters());
+	}
+
+	@Test
+	public void hidesTheOtherGenerationsOfACatalogueUntilPurged() {
+		visibility.hide(7);
+		visibility.switchTo(1, 7);
+		assertArrayEquals(new String[] { "*:* -((nodeID:1 AND -generation:7))" }, filters());
+
+		visibility.purged(1, 7);
+		assertNull(filters());
+	}
+
+	@Test
+	public void ignoresThePurgeOfAnOlderGeneration() {
+		visibility.switchTo(1, 7);
+		visibility.switchTo(1, 8);
+
+		visibility.purged(1, 7);
+		assertArrayEquals(new String[] { "*:* -((nodeID:1 AND -generation:8))" }, filters());
+	}
+
+	private String[] filters() {
+		SolrQuery query = new SolrQuery("*:*");
+		visibility.apply(query);
+		return query.getFilterQueries();
+	}
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PatternQueryBuilderTest {
+
+	@Test
+	public void matchesAnywhereUnlessAnchored() {
+		assertEquals(".*(water).*", PatternQueryBuilder.toLuceneRegex("Water"));
+		assertEquals("(water)", PatternQueryBuilder.toLuceneRegex("^Water$"));
+		assertEquals("(water).*", PatternQueryBuilder.toLuceneRegex("^water"));
+	}
+
+	@Test
+	public void translatesClassesAndEscapes() {
+		assertEquals(".*([0-9]+).*", PatternQueryBuilder.toLuceneRegex("\\d+"));
+		assertEquals(".*([0-9]).*", PatternQueryBuilder.toLuceneRegex("[[:digit:]]"));
+		assertEquals(".*([a-z0-9_]).*", PatternQueryBuilder.toLuceneRegex("[\\w]"));
+		assertEquals(".*(a\\/b).*", PatternQueryBuilder.toLuceneRegex("a/b"));
+		assertEquals(".*(a|b).*", PatternQueryBuilder.toLuceneRegex("a|b"));
+	}
+
+	@Test
+	public void skipsPatternsMatchingAnything() {
+		assertNull(PatternQueryBuilder.toLuceneRegex(".*"));
+		assertNull(PatternQueryBuilder.regexFilter("", "title"));
+	}
+
+	@Test
+	public void buildsOneClausePerField() {
+		assertEquals("title_lc:/.*(x).*/ OR description_lc:/.*(x).*/",
+				PatternQueryBuilder.regexFilter("x", "title", "description"));
+	}
+
+	@Test
+	public void searchesShortSubstringsWithAWildcard() {
+		assertEquals("title_lc:*ab*", PatternQueryBuilder.substringFilter("title", "AB"));
+		assertEquals("title_trigram:\"Water\\ Quality\"", PatternQueryBuilder.substringFilter("title", "Water Quality"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnchorsInTheMiddle() {
+		PatternQueryBuilder.toLuceneRegex("a^b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnsupportedEscapes() {
+		PatternQueryBuilder.toLuceneRegex("\\bword");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnterminatedClasses() {
+		PatternQueryBuilder.toLuceneRegex("[abc");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooLongPatterns() {
+		PatternQueryBuilder.toLuceneRegex(new String(new char[PatternQueryBuilder.MAX_PATTERN_LENGTH + 1]).replace('\0', 'a'));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooComplexPatterns() {
+		StringBuilder pattern = new StringBuilder("(a|b)*a");
+		for (int i = 0; i < 20; i++)
+			pattern.append("(a|b)");
+		PatternQueryBuilder.toLuceneRegex(pattern.toString());
+	}
+
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest.ACTION;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+public class SolrIndexingQueueTest {
+
+	private final RecordingSolrClient server = new RecordingSolrClient();
+	private final CatalogueGenerations generations = new CatalogueGenerations();
+
+	@Test
+	public void sendsTheQueueInBulkWhenTheBatchIsFull() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 3, 1000, 100, Long.MAX_VALUE, generations);
+
+		queue.add(doc("a", 1));
+		queue.add(doc("b", 1));
+		assertEquals(0, server.adds.size());
+		assertEquals(2, queue.getPendingCount());
+
+		queue.add(doc("c", 2));
+		assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), server.adds);
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(1, queue.getFlushCount());
+		assertEquals(3, queue.getFlushedDocs());
+		assertEquals(0, server.commits);
+	}
+
+	@Test
+	public void commitsWhenTooManyUpdatesAreUncommitted() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 1, 1000, 3, Long.MAX_VALUE, generations);
+
+		queue.add(doc("a", 1));
+		queue.add(doc("b", 1));
+		assertEquals(0, server.commits);
+
+		queue.deleteByIds(1, Collections.singletonList("x"));
+		assertEquals(1, server.commits);
+		assertEquals(1, queue.getCommitCount());
+
+		queue.add(doc("c", 1));
+		assertEquals(1, server.commits);
+	}
+
+	@Test
+	public void commitsWhenTheLastCommitIsTooOld() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 1, 1000, 100, 0, generations);
+
+		queue.add(doc("a", 1));
+		assertEquals(1, server.commits);
+	}
+
+	@Test
+	public void sendsThePendingAdditionsBeforeADeletion() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 10, 1000, 100, Long.MAX_VALUE, generations);
+
+		queue.add(doc("a", 1));
+		queue.deleteByQuery("nodeID:1", 1);
+		assertEquals(Arrays.asList("add", "delete"), server.operations);
+	}
+
+	@Test
+	public void marksTheCatalogueDirtyUntilCommitted() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 10, 1000, 100, Long.MAX_VALUE, generations);
+		String before = generations.getSnapshot(Collections.singletonList(1));
+
+		queue.add(doc("a", 1));
+		assertNull(generations.getSnapshot(Collections.singletonList(1)));
+		assertNotNull(generations.getSnapshot(Collections.singletonList(2)));
+
+		queue.commit();
+		String after = generations.getSnapshot(Collections.singletonList(1));
+		assertNotNull(after);
+		assertTrue(!after.equals(before));
+	}
+
+	@Test
+	public void retriesARefusedBatchOneByOne() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 3, 1000, 100, Long.MAX_VALUE, generations);
+		server.refused.add("bad");
+
+		queue.add(doc("a", 1));
+		queue.add(doc("bad", 2));
+		queue.add(doc("c", 1));
+
+		assertEquals(Arrays.asList(Arrays.asList("a", "bad", "c"), Arrays.asList("a"), Arrays.asList("bad"),
+				Arrays.asList("c")), server.adds);
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(2, queue.getFlushedDocs());
+		assertEquals(Collections.emptySet(), queue.takeRejected(1));
+		assertEquals(Collections.singleton("bad"), queue.takeRejected(2));
+		assertEquals(Collections.emptySet(), queue.takeRejected(2));
+	}
+
+	@Test
+	public void forgetsTheRefusedDocumentsThatAreDiscarded() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 1, 1000, 100, Long.MAX_VALUE, generations);
+		server.refused.add("bad");
+
+		queue.add(doc("bad", 2));
+		queue.discard(2, Collections.singletonList("bad"));
+		assertEquals(Collections.emptySet(), queue.takeRejected(2));
+	}
+
+	@Test
+	public void keepsTheQueueWhenSolrCannotBeReached() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 2, 1000, 100, Long.MAX_VALUE, generations);
+		server.down = true;
+
+		queue.add(doc("a", 1));
+		try {
+			queue.add(doc("b", 2));
+			fail("The flush should fail");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(2, queue.getPendingCount());
+
+		server.down = false;
+		queue.commit();
+		assertEquals(Arrays.asList("a", "b"), server.adds.get(server.adds.size() - 1));
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(1, server.commits);
+	}
+
+	@Test
+	public void keepsTheUnsentDocumentsWhenSolrFailsDuringTheRetry() throws Exception {
+		SolrIndexingQueue queue = new SolrIndexingQueue(server, 3, 1000, 100, Long.MAX_VALUE, generations);
+		server.refused.add("bad");
+		server.downAfterAdds = 3;
+
+		queue.add(doc("a", 1));
+		queue.add(doc("bad", 1));
+		try {
+			queue.add(doc("c", 2));
+			fail("The retry should fail");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, queue.getPendingCount());
+		assertEquals(Collections.singleton("bad"), queue.takeRejected(1));
+	}
+
+	private static SolrInputDocument doc(String id, int nodeId) {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.addField("id", id);
+		doc.addField("nodeID", Integer.toString(nodeId));
+		return doc;
+	}
+
+	/*
+	 * Records the update requests, refusing the batches that contain one of the
+	 * refused ids and failing with an IOException while down
+	 */
+	private static class RecordingSolrClient extends SolrClient {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<List<String>> adds = new ArrayList<List<String>>();
+		final List<String> operations = new ArrayList<String>();
+		final HashSet<String> refused = new HashSet<String>();
+		volatile boolean down = false;
+		int downAfterAdds = Integer.MAX_VALUE;
+		int commits = 0;
+
+		@Override
+		public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request, String collection)
+				throws SolrServerException, IOException {
+			UpdateRequest update = (UpdateRequest) request;
+			if (down || adds.size() >= downAfterAdds)
+				throw new IOException("SOLR is down");
+
+			if (update.getDocuments() != null) {
+				List<String> ids = new ArrayList<String>();
+				for (SolrInputDocument doc : update.getDocuments())
+					ids.add((String) doc.getFieldValue("id"));
+				adds.add(ids);
+				operations.add("add");
+				for (String id : ids)
+					if (refused.contains(id))
+						throw new SolrException(ErrorCode.BAD_REQUEST, "Refused document " + id);
+			}
+			if (update.getDeleteQuery() != null)
+				operations.add("delete");
+			if (update.getAction() == ACTION.COMMIT)
+				commits++;
+			return new NamedList<Object>();
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
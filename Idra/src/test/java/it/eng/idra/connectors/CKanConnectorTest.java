@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.ckan.Dataset;
+import org.ckan.Resource;
+import org.junit.Test;
+
+import it.eng.idra.beans.dcat.DCATDataset;
+import it.eng.idra.connectors.CKanConnector.DatasetsPage;
+import it.eng.idra.connectors.CKanConnector.IPageReader;
+
+public class CKanConnectorTest {
+
+	private final List<Integer> requests = new ArrayList<Integer>();
+	private final List<List<String>> pages = new ArrayList<List<String>>();
+
+	@Test
+	public void readsEveryPageWhenTheCatalogueCapsTheRows() throws Exception {
+		CKanConnector.readAllPages(0, catalogue(25, 25, 10), this::handle);
+
+		assertEquals(Arrays.asList(0, 10, 20), requests);
+		assertEquals(Arrays.asList(10, 10, 5), pageSizes());
+		assertEquals("d0", pages.get(0).get(0));
+		assertEquals("d24", pages.get(2).get(4));
+	}
+
+	@Test
+	public void resumesFromTheStartOffset() throws Exception {
+		CKanConnector.readAllPages(20, catalogue(25, 25, 10), this::handle);
+
+		assertEquals(Collections.singletonList(20), requests);
+		assertEquals(Arrays.asList("d20", "d21", "d22", "d23", "d24"), pages.get(0));
+	}
+
+	@Test
+	public void stopsOnAnEmptyPageWhenTheCountIsTooHigh() throws Exception {
+		CKanConnector.readAllPages(0, catalogue(15, 40, 10), this::handle);
+
+		assertEquals(Arrays.asList(0, 10, 15), requests);
+		assertEquals(Arrays.asList(10, 5), pageSizes());
+	}
+
+	@Test
+	public void readsOnceAnEmptyCatalogue() throws Exception {
+		CKanConnector.readAllPages(0, catalogue(0, 0, 10), this::handle);
+
+		assertEquals(Collections.singletonList(0), requests);
+		assertEquals(Collections.emptyList(), pages);
+	}
+
+	@Test
+	public void ignoresTheFieldsChangedByEveryUpdateInTheFingerprint() {
+		Dataset first = dataset("Title", "Notes", "2020-01-01T00:00:00", "rev-1", "http://host/data.csv");
+		Dataset second = dataset("Title", "Notes", "2021-06-01T10:00:00", "rev-2", "http://host/data.csv");
+
+		assertEquals(CKanConnector.computeFingerprint(first), CKanConnector.computeFingerprint(second));
+	}
+
+	@Test
+	public void changesTheFingerprintWithTheContent() {
+		String fingerprint = CKanConnector
+				.computeFingerprint(dataset("Title", "Notes", "2020-01-01T00:00:00", "rev-1", "http://host/data.csv"));
+
+		assertNotEquals(fingerprint, CKanConnector
+				.computeFingerprint(dataset("Title", "Other notes", "2020-01-01T00:00:00", "rev-1", "http://host/data.csv")));
+		assertNotEquals(fingerprint, CKanConnector
+				.computeFingerprint(dataset("Title", "Notes", "2020-01-01T00:00:00", "rev-1", "http://host/data.json")));
+	}
+
+	/*
+	 * A catalogue of size datasets that reports count as total and returns at most
+	 * maxRows datasets per request
+	 */
+	private IPageReader catalogue(int size, int count, int maxRows) {
+		return start -> {
+			requests.add(start);
+			List<DCATDataset> page = new ArrayList<DCATDataset>();
+			for (int i = start; i < Math.min(size, start + maxRows); i++) {
+				DCATDataset dataset = new DCATDataset();
+				dataset.setId("d" + i);
+				page.add(dataset);
+			}
+			return new DatasetsPage(page, count);
+		};
+	}
+
+	private void handle(List<DCATDataset> page) {
+		pages.add(page.stream().map(DCATDataset::getId).collect(Collectors.toList()));
+	}
+
+	private List<Integer> pageSizes() {
+		return pages.stream().map(List::size).collect(Collectors.toList());
+	}
+
+	private static Dataset dataset(String title, String notes, String modified, String revision, String url) {
+		Resource resource = new Resource();
+		resource.setUrl(url);
+		resource.setRevision_id(revision);
+
+		Dataset dataset = new Dataset();
+		dataset.setTitle(title);
+		dataset.setNotes(notes);
+		dataset.setMetadata_modified(modified);
+		dataset.setRevision_id(revision);
+		dataset.setResources(Collections.singletonList(resource));
+		return dataset;
+	}
+
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import it.eng.idra.beans.dcat.DCATDataset;
+import it.eng.idra.beans.dcat.DCATProperty;
+import it.eng.idra.beans.odms.ODMSSynchronizationResult;
+
+public class DCATDumpConnectorTest {
+
+	@Test
+	public void diffsTheDatasetsByIdentifier() {
+		List<DCATDataset> cached = Arrays.asList(fingerprinted("a", "Title a"), fingerprinted("b", "Title b"),
+				fingerprinted("c", "Title c"));
+		List<DCATDataset> read = Arrays.asList(fingerprinted("b", "Title b"), fingerprinted("c", "New title c"),
+				fingerprinted("d", "Title d"));
+
+		ODMSSynchronizationResult result = DCATDumpConnector.diffDatasets(cached, read);
+
+		assertEquals(Collections.singletonList("d"), identifiers(result.getAddedDatasets()));
+		assertEquals(Collections.singletonList("c"), identifiers(result.getChangedDatasets()));
+		assertEquals(Collections.singletonList("a"), identifiers(result.getDeletedDatasets()));
+	}
+
+	@Test
+	public void ignoresTheLocalFieldsInTheFingerprint() {
+		DCATDataset first = fingerprinted("a", "Title");
+		first.setId("local-1");
+		first.setNodeID("1");
+		DCATDataset second = fingerprinted("a", "Title");
+		second.setId("local-2");
+		second.setNodeID("2");
+
+		assertEquals(first.computeContentHash(), second.computeContentHash());
+		assertNotEquals(first.computeContentHash(), fingerprinted("a", "Other title").computeContentHash());
+	}
+
+	@Test
+	public void keepsTheFirstOfTheDatasetsWithTheSameIdentifier() {
+		ODMSSynchronizationResult result = DCATDumpConnector.diffDatasets(Collections.<DCATDataset>emptyList(),
+				Arrays.asList(fingerprinted("a", "First"), fingerprinted("a", "Second")));
+
+		assertEquals(1, result.getAddedDatasets().size());
+		assertEquals("First", result.getAddedDatasets().get(0).getTitle().getValue());
+	}
+
+	@Test
+	public void comparesTheModificationDateOfDatasetsCachedWithoutFingerprint() {
+		List<DCATDataset> cached = Arrays.asList(dated("old", "2020-01-01T00:00:00Z"),
+				dated("same", "2020-01-01T00:00:00Z"), dated("undated", null), dated("invalid", "yesterday"));
+		List<DCATDataset> read = Arrays.asList(dated("old", "2021-01-01T00:00:00Z"),
+				dated("same", "2020-01-01T00:00:00Z"), dated("undated", "2020-01-01T00:00:00Z"),
+				dated("invalid", "2020-01-01T00:00:00Z"));
+
+		ODMSSynchronizationResult result = DCATDumpConnector.diffDatasets(cached, read);
+
+		assertEquals(Arrays.asList("old", "undated", "invalid"), identifiers(result.getChangedDatasets()));
+	}
+
+	private static DCATDataset fingerprinted(String identifier, String title) {
+		DCATDataset dataset = new TestDataset(identifier, title, null);
+		dataset.setContentHash(dataset.computeContentHash());
+		return dataset;
+	}
+
+	private static DCATDataset dated(String identifier, String updateDate) {
+		return new TestDataset(identifier, "Title", updateDate);
+	}
+
+	private static List<String> identifiers(List<DCATDataset> datasets) {
+		return datasets.stream().map(d -> d.getIdentifier().getValue()).collect(Collectors.toList());
+	}
+
+	private static class TestDataset extends DCATDataset {
+
+		private static final long serialVersionUID = 1L;
+
+		private TestDataset(String identifier, String title, String updateDate) {
+			setIdentifier(new DCATProperty(DCTerms.identifier, RDFS.Literal, identifier));
+			setTitle(new DCATProperty(DCTerms.title, RDFS.Literal, title));
+			if (updateDate != null)
+				setUpdateDate(new DCATProperty(DCTerms.modified, RDFS.Literal, updateDate));
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.connectors.webscraper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PolitenessSchedulerTest {
+
+	private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		workers.shutdownNow();
+	}
+
+	@Test
+	public void spacesTheRequestsToTheSameHost() throws InterruptedException {
+		PolitenessScheduler scheduler = new PolitenessScheduler(100);
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++)
+			scheduler.await("http://example.org/page/" + i);
+
+		assertTrue(System.currentTimeMillis() - start >= 200);
+	}
+
+	@Test
+	public void doesNotSpaceTheRequestsToDifferentHosts() throws InterruptedException {
+		PolitenessScheduler scheduler = new PolitenessScheduler(10000);
+
+		long start = System.currentTimeMillis();
+		scheduler.await("http://example.org/");
+		scheduler.await("http://example.com/");
+		scheduler.await("https://EXAMPLE.net/");
+
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void runsTheTasksOfAHostOneAtATime() throws InterruptedException {
+		PolitenessScheduler scheduler = new PolitenessScheduler(1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(8);
+
+		for (int i = 0; i < 8; i++)
+			scheduler.execute(workers, "http://example.org/", () -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				done.countDown();
+			});
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void keepsServingTheOtherHostsWhileAHostWaits() throws InterruptedException {
+		PolitenessScheduler scheduler = new PolitenessScheduler(1);
+		CountDownLatch otherHost = new CountDownLatch(1);
+		CountDownLatch blocked = new CountDownLatch(4);
+
+		// The first host holds a worker until the other one was served
+		for (int i = 0; i < 4; i++)
+			scheduler.execute(workers, "http://slow.example.org/", () -> {
+				try {
+					otherHost.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				blocked.countDown();
+			});
+		scheduler.execute(workers, "http://fast.example.org/", otherHost::countDown);
+
+		assertTrue(otherHost.await(5, TimeUnit.SECONDS));
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runsTheTasksOfAHostConcurrentlyWithoutDelay() throws InterruptedException {
+		PolitenessScheduler scheduler = new PolitenessScheduler(0);
+		CyclicBarrier together = new CyclicBarrier(2);
+		CountDownLatch met = new CountDownLatch(2);
+
+		for (int i = 0; i < 2; i++)
+			scheduler.execute(workers, "http://example.org/", () -> {
+				try {
+					together.await(5, TimeUnit.SECONDS);
+					met.countDown();
+				} catch (Exception e) {
+					// The tasks did not run at the same time
+				}
+			});
+
+		assertTrue(met.await(10, TimeUnit.SECONDS));
+	}
+
+}
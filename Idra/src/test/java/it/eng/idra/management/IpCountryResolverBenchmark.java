@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.management;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures the IP to country lookups, address parsing included, over the ranges
+ * of {@link IpCountryResolverTest}. Timings depend on the machine, so this is
+ * not a test and the build does not run it: run its main method by hand
+ */
+public class IpCountryResolverBenchmark {
+
+	private static final int LOOKUPS = 1000000;
+
+	public static void main(String[] args) throws IOException {
+		Path file = Files.createTempFile("idra-geoip", ".csv");
+		try {
+			IpCountryResolverTest.writeRanges(file, IpCountryResolverTest.RANGES);
+			IpCountryResolver.load(file.toFile());
+
+			Random random = new Random(11);
+			String[] addresses = new String[4096];
+			for (int i = 0; i < addresses.length; i++)
+				addresses[i] = IpCountryResolverTest.toAddress(random.nextInt() & 0xFFFFFFFFL);
+
+			int resolved = 0;
+			for (int i = 0; i < LOOKUPS / 4; i++)
+				resolved += IpCountryResolver.resolve(addresses[i & 4095]).length();
+
+			long start = System.nanoTime();
+			for (int i = 0; i < LOOKUPS; i++)
+				resolved += IpCountryResolver.resolve(addresses[i & 4095]).length();
+			double perLookup = (System.nanoTime() - start) / 1000.0 / LOOKUPS;
+
+			System.out.println("IP to country lookup: " + perLookup + " us over " + IpCountryResolverTest.RANGES
+					+ " ranges (" + resolved + " characters resolved)");
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
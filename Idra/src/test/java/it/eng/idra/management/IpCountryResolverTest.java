@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.management;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Checks the resolver against a reference bisect over 60k synthetic ranges. The
+ * lookup time is measured by {@link IpCountryResolverBenchmark}
+ */
+public class IpCountryResolverTest {
+
+	static final int RANGES = 60000;
+
+	private static TreeMap<Long, String> reference;
+	private static Path file;
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		file = Files.createTempFile("idra-geoip", ".csv");
+		reference = writeRanges(file, RANGES);
+		IpCountryResolver.load(file.toFile());
+	}
+
+	/**
+	 * Writes a file of random IPv4 ranges, plus an IPv6 one, returning the IPv4
+	 * ranges by start address
+	 */
+	static TreeMap<Long, String> writeRanges(Path file, int ranges) throws IOException {
+		TreeMap<Long, String> written = new TreeMap<Long, String>();
+		Random random = new Random(42);
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("# start,country\n");
+			while (written.size() < ranges) {
+				long start = random.nextInt() & 0xFFFFFFFFL;
+				String country = "c" + random.nextInt(200);
+				if (written.putIfAbsent(start, country) == null)
+					writer.write((random.nextBoolean() ? Long.toString(start) : toAddress(start)) + "," + country + "\n");
+			}
+			writer.write("2001:db8::,\"v6\"\n");
+		}
+		return written;
+	}
+
+	@AfterClass
+	public static void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void resolvesLikeAReferenceBisect() {
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			long address = random.nextInt() & 0xFFFFFFFFL;
+			assertEquals(toAddress(address), expected(address), IpCountryResolver.resolve(toAddress(address)));
+		}
+		// The range starts themselves belong to the previous range
+		for (long start : reference.keySet())
+			assertEquals(expected(start), IpCountryResolver.resolve(toAddress(start)));
+	}
+
+	@Test
+	public void resolvesForwardedAndEmbeddedAddresses() {
+		long address = reference.ceilingKey(1L << 31) + 1;
+		String country = expected(address);
+
+		assertEquals(country, IpCountryResolver.resolve(toAddress(address) + ", 10.0.0.1"));
+		assertEquals(country, IpCountryResolver.resolve("::ffff:" + toAddress(address)));
+		assertEquals("v6", IpCountryResolver.resolve("2001:db8::1"));
+	}
+
+	@Test
+	public void resolvesInvalidAddressesToNoCountry() {
+		assertEquals("", IpCountryResolver.resolve(""));
+		assertEquals("", IpCountryResolver.resolve("unknown"));
+		assertEquals("", IpCountryResolver.resolve("999.1.1.1"));
+	}
+
+	private static String expected(long address) {
+		Map.Entry<Long, String> range = reference.lowerEntry(address);
+		return range != null ? range.getValue() : "";
+	}
+
+	static String toAddress(long address) {
+		return InetAddresses.fromInteger((int) address).getHostAddress();
+	}
+
+}
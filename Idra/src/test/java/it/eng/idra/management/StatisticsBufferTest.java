@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import it.eng.idra.management.StatisticsBuffer.SearchKey;
+
+public class StatisticsBufferTest {
+
+	private final StatisticsBuffer buffer = new StatisticsBuffer();
+
+	@Test
+	public void mergesBackTheCountersOfAFailedFlush() {
+		buffer.recordSearch("10.0.0.1", "cache");
+		buffer.recordSearch("10.0.0.1", "cache");
+		buffer.recordKeyword("water");
+
+		buffer.flush((searches, keywords) -> {
+			throw new IllegalStateException("DB unavailable");
+		});
+
+		buffer.recordSearch("10.0.0.1", "cache");
+		buffer.recordKeyword("water");
+
+		Map<SearchKey, Long> flushedSearches = new HashMap<SearchKey, Long>();
+		Map<String, Long> flushedKeywords = new HashMap<String, Long>();
+		buffer.flush((searches, keywords) -> {
+			flushedSearches.putAll(searches);
+			flushedKeywords.putAll(keywords);
+		});
+
+		assertEquals(3L, flushedSearches.values().stream().mapToLong(Long::longValue).sum());
+		assertEquals(Long.valueOf(2), flushedKeywords.get("water"));
+	}
+
+	@Test
+	public void drainsTheCountersOfASuccessfulFlush() {
+		buffer.recordSearch("10.0.0.1", "live");
+		buffer.recordKeyword("air");
+
+		AtomicInteger writes = new AtomicInteger();
+		buffer.flush((searches, keywords) -> {
+			assertEquals(1, searches.size());
+			assertEquals(1, keywords.size());
+			writes.incrementAndGet();
+		});
+		buffer.flush((searches, keywords) -> writes.incrementAndGet());
+
+		assertEquals(1, writes.get());
+	}
+
+	@Test
+	public void keepsTheCountersOfClientsAndSearchTypesApart() {
+		buffer.recordSearch("10.0.0.1", "cache");
+		buffer.recordSearch("10.0.0.2", "cache");
+		buffer.recordSearch("10.0.0.1", "live");
+
+		Map<SearchKey, Long> flushed = new HashMap<SearchKey, Long>();
+		buffer.flush((searches, keywords) -> flushed.putAll(searches));
+
+		assertEquals(3, flushed.size());
+		assertTrue(flushed.values().stream().allMatch(count -> count == 1));
+	}
+
+}
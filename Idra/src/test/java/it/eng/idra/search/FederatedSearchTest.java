@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import it.eng.idra.beans.dcat.DCATDataset;
+import it.eng.idra.beans.odms.ODMSCatalogue;
+import it.eng.idra.search.FederatedSearch.LiveSearchResult;
+
+public class FederatedSearchTest {
+
+	private static final Comparator<DCATDataset> BY_ID = Comparator.comparing(DCATDataset::getId);
+
+	@Test
+	public void mergesTheSortedCataloguesIntoTheRequestedPage() {
+		List<LiveSearchResult> results = Arrays.asList(result("a", "d", "g"), result("b", "e"),
+				result("c", "f", "h"));
+
+		assertEquals(Arrays.asList("a", "b", "c"), ids(FederatedSearch.mergeLiveResults(results, BY_ID, 0, 3)));
+		assertEquals(Arrays.asList("c", "d", "e", "f"),
+				ids(FederatedSearch.mergeLiveResults(results, BY_ID, 2, 4)));
+	}
+
+	@Test
+	public void returnsAShortPageWhenTheResultsRunOut() {
+		List<LiveSearchResult> results = Arrays.asList(result("a", "c"), result(), result("b"));
+
+		assertEquals(Arrays.asList("b", "c"), ids(FederatedSearch.mergeLiveResults(results, BY_ID, 1, 10)));
+		assertEquals(Collections.emptyList(), ids(FederatedSearch.mergeLiveResults(results, BY_ID, 5, 10)));
+	}
+
+	@Test
+	public void followsTheComparatorOrder() {
+		List<LiveSearchResult> results = Arrays.asList(result("d", "a"), result("c", "b"));
+
+		assertEquals(Arrays.asList("d", "c", "b"),
+				ids(FederatedSearch.mergeLiveResults(results, BY_ID.reversed(), 0, 3)));
+	}
+
+	@Test
+	public void keepsTheResultsAvailableAtTheDeadline() throws Exception {
+		CountDownLatch interrupted = new CountDownLatch(1);
+		List<Integer> timedOut = new ArrayList<Integer>();
+		List<Integer> failed = new ArrayList<Integer>();
+
+		long start = System.currentTimeMillis();
+		List<LiveSearchResult> results = FederatedSearch.runLiveSearch(
+				Arrays.asList(new ODMSCatalogue(1), new ODMSCatalogue(2), new ODMSCatalogue(3)),
+				new HashMap<String, Object>(), (node, parameters) -> {
+					switch (node.getId()) {
+					case 2:
+						try {
+							Thread.sleep(10000);
+						} catch (InterruptedException e) {
+							interrupted.countDown();
+						}
+						return result("late");
+					case 3:
+						throw new IllegalStateException("Catalogue error");
+					default:
+						return result("a", "b");
+					}
+				}, 300, timedOut, failed);
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(1, results.size());
+		assertEquals(Arrays.asList("a", "b"), ids(FederatedSearch.mergeLiveResults(results, BY_ID, 0, 10)));
+		assertEquals(Collections.singletonList(2), timedOut);
+		assertEquals(Collections.singletonList(3), failed);
+		assertTrue("Waited " + elapsed + " ms", elapsed < 3000);
+		assertTrue("The late catalogue search was not cancelled", interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void passesEveryCatalogueItsOwnParameters() throws Exception {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("rows", "10");
+
+		List<LiveSearchResult> results = FederatedSearch.runLiveSearch(
+				Arrays.asList(new ODMSCatalogue(1), new ODMSCatalogue(2)), parameters, (node, p) -> {
+					List<DCATDataset> datasets = new ArrayList<DCATDataset>();
+					datasets.add(dataset(node.getId() + ":" + p.get("rows")));
+					p.put("rows", "changed");
+					return new LiveSearchResult(1, datasets);
+				}, 5000, new ArrayList<Integer>(), new ArrayList<Integer>());
+
+		assertEquals(Arrays.asList("1:10", "2:10"), ids(FederatedSearch.mergeLiveResults(results, BY_ID, 0, 10)));
+		assertEquals("10", parameters.get("rows"));
+	}
+
+	private static LiveSearchResult result(String... ids) {
+		List<DCATDataset> datasets = new ArrayList<DCATDataset>();
+		for (String id : ids)
+			datasets.add(dataset(id));
+		return new LiveSearchResult(ids.length, datasets);
+	}
+
+	private static DCATDataset dataset(String id) {
+		DCATDataset dataset = new DCATDataset();
+		dataset.setId(id);
+		return dataset;
+	}
+
+	private static List<String> ids(List<DCATDataset> datasets) {
+		return datasets.stream().map(DCATDataset::getId).collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import it.eng.idra.cache.CatalogueGenerations;
+
+public class SearchResultCacheTest {
+
+	@Test
+	public void returnsTheResultComputedOnTheSameSnapshot() {
+		SearchResultCache<String> cache = new SearchResultCache<String>(10);
+		cache.put("query", "s1", "result");
+
+		assertEquals("result", cache.get("query", "s1"));
+		assertNull(cache.get("other", "s1"));
+		assertEquals(1L, cache.getStatistics().get("hits"));
+	}
+
+	@Test
+	public void dropsTheResultComputedOnAnotherSnapshot() {
+		SearchResultCache<String> cache = new SearchResultCache<String>(10);
+		cache.put("query", "s1", "result");
+
+		assertNull(cache.get("query", "s2"));
+		assertNull(cache.get("query", "s1"));
+		assertEquals(0, cache.getStatistics().get("entries"));
+		assertEquals(1L, cache.getStatistics().get("staleEntries"));
+	}
+
+	@Test
+	public void neitherStoresNorReturnsResultsWithoutSnapshot() {
+		SearchResultCache<String> cache = new SearchResultCache<String>(10);
+		cache.put("query", null, "result");
+		assertEquals(0, cache.getStatistics().get("entries"));
+
+		cache.put("query", "s1", "result");
+		assertNull(cache.get("query", null));
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedResult() {
+		SearchResultCache<String> cache = new SearchResultCache<String>(2);
+		cache.put("a", "s", "A");
+		cache.put("b", "s", "B");
+		cache.get("a", "s");
+		cache.put("c", "s", "C");
+
+		assertEquals("A", cache.get("a", "s"));
+		assertNull(cache.get("b", "s"));
+		assertEquals("C", cache.get("c", "s"));
+		assertEquals(1L, cache.getStatistics().get("evictions"));
+	}
+
+	@Test
+	public void keepsNothingWhenDisabled() {
+		SearchResultCache<String> cache = new SearchResultCache<String>(0);
+		cache.put("query", "s1", "result");
+
+		assertFalse(cache.isEnabled());
+		assertNull(cache.get("query", "s1"));
+	}
+
+	@Test
+	public void isInvalidatedByTheCommittedChangesOfItsCatalogues() {
+		CatalogueGenerations generations = new CatalogueGenerations();
+		SearchResultCache<String> cache = new SearchResultCache<String>(10);
+		cache.put("first", generations.getSnapshot(Collections.singletonList(1)), "first result");
+		cache.put("second", generations.getSnapshot(Collections.singletonList(2)), "second result");
+
+		generations.changed(1);
+		assertNull(cache.get("first", generations.getSnapshot(Collections.singletonList(1))));
+		generations.committed(generations.lastUpdate());
+
+		assertNull(cache.get("first", generations.getSnapshot(Collections.singletonList(1))));
+		assertEquals("second result", cache.get("second", generations.getSnapshot(Collections.singletonList(2))));
+	}
+
+}
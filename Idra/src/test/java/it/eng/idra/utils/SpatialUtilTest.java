@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.locationtech.spatial4j.shape.Shape;
+
+public class SpatialUtilTest {
+
+	@Test
+	public void parsesWKT() {
+		Shape shape = SpatialUtil.parseShape("POLYGON((10 40, 20 40, 20 50, 10 50, 10 40))");
+
+		assertEquals("ENVELOPE(10.0, 20.0, 50.0, 40.0)", SpatialUtil.toEnvelope(shape));
+	}
+
+	@Test
+	public void parsesGeoJSON() {
+		Shape shape = SpatialUtil.parseShape(
+				"{\"type\":\"Polygon\",\"coordinates\":[[[10,40],[20,40],[20,50],[10,50],[10,40]]]}");
+
+		assertEquals("ENVELOPE(10.0, 20.0, 50.0, 40.0)", SpatialUtil.toEnvelope(shape));
+	}
+
+	@Test
+	public void writesPointsAsWKT() {
+		assertEquals("POINT (12.5 41.9)", SpatialUtil.toWKT(SpatialUtil.parseShape("POINT(12.5 41.9)")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBlankGeometries() {
+		SpatialUtil.parseShape(" ");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnparseableGeometries() {
+		SpatialUtil.parseShape("POLYGON((10 40, 20");
+	}
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Idra - Open Data Federation Platform
+ *  Copyright (C) 2020 Engineering Ingegneria Informatica S.p.A.
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *  
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *  
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package it.eng.idra.utils.restclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpValidatorCacheTest {
+
+	private static final int CATALOGUE = -4242;
+
+	private HttpServer server;
+	private String url;
+	private volatile String currentETag = "\"v1\"";
+	private volatile boolean honoursConditionals = true;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/data.json", exchange -> {
+			requests.incrementAndGet();
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			exchange.getResponseHeaders().add("ETag", currentETag);
+			int status = honoursConditionals && currentETag.equals(ifNoneMatch) ? 304 : 200;
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data.json";
+	}
+
+	@After
+	public void tearDown() {
+		HttpValidatorCache.remove(CATALOGUE);
+		server.stop(0);
+	}
+
+	@Test
+	public void considersModifiedWithoutConfirmedValidators() throws IOException {
+		HttpValidatorCache.store(CATALOGUE, url, downloaded("\"v1\""));
+
+		assertTrue(HttpValidatorCache.isModified(CATALOGUE, url, false));
+		assertEquals(0, requests.get());
+	}
+
+	@Test
+	public void skipsTheDownloadWhenTheServerAnswersNotModified() throws IOException {
+		HttpValidatorCache.store(CATALOGUE, url, downloaded("\"v1\""));
+		HttpValidatorCache.confirm(CATALOGUE);
+
+		assertFalse(HttpValidatorCache.isModified(CATALOGUE, url, false));
+
+		currentETag = "\"v2\"";
+		assertTrue(HttpValidatorCache.isModified(CATALOGUE, url, false));
+	}
+
+	@Test
+	public void comparesTheValidatorsWhenTheServerIgnoresConditionals() throws IOException {
+		honoursConditionals = false;
+		HttpValidatorCache.store(CATALOGUE, url, downloaded("\"v1\""));
+		HttpValidatorCache.confirm(CATALOGUE);
+
+		assertFalse(HttpValidatorCache.isModified(CATALOGUE, url, false));
+
+		currentETag = "\"v2\"";
+		assertTrue(HttpValidatorCache.isModified(CATALOGUE, url, false));
+	}
+
+	@Test
+	public void dropsTheValidatorsOfAFailedSynchronization() throws IOException {
+		HttpValidatorCache.store(CATALOGUE, url, downloaded("\"v1\""));
+		HttpValidatorCache.discard(CATALOGUE);
+		HttpValidatorCache.confirm(CATALOGUE);
+
+		assertTrue(HttpValidatorCache.isModified(CATALOGUE, url, false));
+		assertEquals(0, requests.get());
+	}
+
+	private static HttpResponse downloaded(String eTag) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.addHeader("ETag", eTag);
+		return response;
+	}
+
+}